@@ -0,0 +1,57 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler and JSON results by
+ * default. Any JMH command line option may be given to override these, for
+ * example a benchmark name pattern or <code>-rff</code> to change the result
+ * file.
+ */
+public final class CASAuthBenchmarkRunner {
+
+    /**
+     * The default result file.
+     */
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    private CASAuthBenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        final Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(commandLine.getResultFormat().hasValue()
+                        ? commandLine.getResultFormat().get() : ResultFormatType.JSON)
+                .result(commandLine.getResult().hasValue()
+                        ? commandLine.getResult().get() : DEFAULT_RESULT_FILE)
+                .build();
+        new Runner(options).run();
+    }
+
+}
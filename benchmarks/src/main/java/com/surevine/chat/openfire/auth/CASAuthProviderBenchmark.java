@@ -0,0 +1,108 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks <code>CASAuthProvider.authenticate</code> end to end against
+ * the stub CAS server, with every ticket distinct so that no cache is hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CASAuthProviderBenchmark {
+
+    /**
+     * The configured validator.
+     */
+    @Param({"Cas20ProxyTicketValidator", "Cas10TicketValidator"})
+    public String validator;
+
+    /**
+     * Whether the pooled keep-alive transport is used.
+     */
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    /**
+     * Whether CAS 2.0 responses are parsed by the streaming parser.
+     */
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    /**
+     * The stub CAS response delay in milliseconds.
+     */
+    @Param({"0"})
+    public long latency;
+
+    private CASAuthStubCasServer server;
+
+    private CASAuthProvider provider;
+
+    private final AtomicLong tickets = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new CASAuthStubCasServer(0);
+        server.setLatency(latency);
+        server.start();
+
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put("casAuthProvider.casServerUrlPrefix", server.getCasServerUrlPrefix());
+        properties.put("casAuthProvider.serviceName", "http://benchmark.service/");
+        properties.put("casAuthProvider.validator", validator);
+        properties.put("casAuthProvider.http.pool.enabled", Boolean.toString(pooled));
+        properties.put("casAuthProvider.streamingParser.enabled", Boolean.toString(streaming));
+        provider = new CASAuthProvider(new CASAuthTicketValidatorFactory()
+                .createCASAuthTicketValidator(new CASAuthProviderConfig(properties)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public void authenticate() throws Exception {
+        provider.authenticate("user", "ST-" + tickets.incrementAndGet() + "-benchmark");
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building the proxy chain from configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CASAuthProviderConfigBenchmark {
+
+    /**
+     * The number of configured proxy clients.
+     */
+    @Param({"1", "10", "100"})
+    public int proxyClients;
+
+    private CASAuthProviderConfig config;
+
+    @Setup
+    public void setUp() {
+        final Map<String, String> properties = new HashMap<String, String>();
+        for (int i = 0; i < proxyClients; ++i) {
+            properties.put("casAuthProvider.proxyClient" + i, "https://proxy" + i + ".benchmark/pgtCallback");
+        }
+        config = new CASAuthProviderConfig(properties);
+    }
+
+    @Benchmark
+    public Object getProxyChain() {
+        return config.getProxyChain();
+    }
+
+}
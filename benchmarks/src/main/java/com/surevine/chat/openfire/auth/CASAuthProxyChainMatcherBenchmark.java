@@ -0,0 +1,89 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.cas.client.validation.ProxyList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks checking a two hop proxy chain against the last of many allowed
+ * chains, with the CAS client's <code>ProxyList</code> and with
+ * <code>CASAuthProxyChainMatcher</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CASAuthProxyChainMatcherBenchmark {
+
+    /**
+     * The number of allowed proxy chains.
+     */
+    @Param({"1", "10", "100", "1000"})
+    public int allowedChains;
+
+    private ProxyList proxyList;
+
+    private CASAuthProxyChainMatcher matcher;
+
+    private String[] chain;
+
+    private List<String> chainList;
+
+    @Setup
+    public void setUp() {
+        final List<String[]> chains = new ArrayList<String[]>();
+        for (int i = 0; i < allowedChains; ++i) {
+            chains.add(new String[] {"https://proxy" + i + ".benchmark/pgtCallback",
+                    "https://portal.benchmark/pgtCallback"});
+        }
+        proxyList = new ProxyList(chains);
+        matcher = new CASAuthProxyChainMatcher(chains);
+        chain = chains.get(allowedChains - 1);
+        chainList = Arrays.asList(chain);
+    }
+
+    @Benchmark
+    public boolean proxyList() {
+        return proxyList.contains(chain);
+    }
+
+    @Benchmark
+    public boolean matcher() {
+        return matcher.matches(chainList);
+    }
+
+}
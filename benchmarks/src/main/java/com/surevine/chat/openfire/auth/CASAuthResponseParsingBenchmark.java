@@ -0,0 +1,111 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.cas.client.util.XmlUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks parsing a CAS 2.0 <code>proxyValidate</code> response, comparing
+ * the string searching the CAS client does with the streaming parser, and
+ * parsing the same response in the protocol 3.0 JSON form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CASAuthResponseParsingBenchmark {
+
+    /**
+     * The number of proxies in the response.
+     */
+    @Param({"0", "1", "5"})
+    public int proxyCount;
+
+    private String response;
+
+    private byte[] responseBytes;
+
+    private byte[] jsonResponseBytes;
+
+    private CASAuthStreamingTicketValidator streamingValidator;
+
+    private CASAuthCas30JsonTicketValidator jsonValidator;
+
+    @Setup
+    public void setUp() throws Exception {
+        final List<String> proxies = new ArrayList<String>();
+        for (int i = 0; i < proxyCount; ++i) {
+            proxies.add("https://proxy" + i + ".benchmark/pgtCallback");
+        }
+        final CASAuthStubCasServer server = new CASAuthStubCasServer(0);
+        server.setProxies(proxies);
+        response = server.createCas20Response("ST-1-benchmark", true);
+        responseBytes = response.getBytes(CASAuthHttpTransport.RESPONSE_CHARSET);
+        jsonResponseBytes = server.createCas30JsonResponse("ST-1-benchmark", true).getBytes(
+                CASAuthHttpTransport.RESPONSE_CHARSET);
+
+        final List<String[]> chains = new ArrayList<String[]>();
+        chains.add(proxies.toArray(new String[proxies.size()]));
+        streamingValidator = new CASAuthStreamingTicketValidator("http://127.0.0.1/cas",
+                null, new CASAuthProxyChainMatcher(chains), 65536);
+        jsonValidator = new CASAuthCas30JsonTicketValidator("http://127.0.0.1/cas",
+                null, new CASAuthProxyChainMatcher(chains), 65536);
+    }
+
+    /**
+     * The fields the CAS client's <code>Cas20ProxyTicketValidator</code>
+     * extracts, found the same way.
+     */
+    @Benchmark
+    public void casClient(final Blackhole blackhole) {
+        blackhole.consume(XmlUtils.getTextForElement(response, "authenticationFailure"));
+        blackhole.consume(XmlUtils.getTextForElement(response, "user"));
+        blackhole.consume(XmlUtils.getTextForElements(response, "proxy"));
+    }
+
+    @Benchmark
+    public void streaming(final Blackhole blackhole) throws Exception {
+        blackhole.consume(streamingValidator.parseResponse(new ByteArrayInputStream(responseBytes)));
+    }
+
+    @Benchmark
+    public void streamingJson(final Blackhole blackhole) throws Exception {
+        blackhole.consume(jsonValidator.parseResponse(new ByteArrayInputStream(jsonResponseBytes)));
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admits authentications while fewer than a maximum are pending and gives
+ * each a deadline. Under saturation further authentications are shed at
+ * once rather than queued, and an authentication whose deadline passes
+ * before it contacts CAS is dropped, since its client will already have
+ * given up.
+ */
+public class CASAuthAdmissionControl {
+
+    /**
+     * The largest number of authentications pending at once.
+     */
+    private final int maxPending;
+
+    /**
+     * How long an authentication has to complete, in milliseconds.
+     */
+    private final long deadline;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * The number of authentications shed because too many were pending.
+     */
+    private final CASAuthStripedCounter shed = new CASAuthStripedCounter();
+
+    /**
+     * The number of authentications dropped because their deadline passed
+     * before they contacted CAS.
+     */
+    private final CASAuthStripedCounter expired = new CASAuthStripedCounter();
+
+    /**
+     * Constructs a new admission control.
+     *
+     * @param maxPending The largest number of authentications pending at
+     *                   once.
+     * @param deadline   How long an authentication has to complete, in
+     *                   milliseconds.
+     */
+    public CASAuthAdmissionControl(final int maxPending, final long deadline) {
+        if (maxPending <= 0 || deadline <= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum pending and deadline must be greater than zero");
+        }
+        this.maxPending = maxPending;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Ask to start an authentication. Every admitted authentication must be
+     * followed by a call to {@link #release()}.
+     *
+     * @return The deadline of the authentication, or <code>null</code> if it
+     * is shed.
+     */
+    public Deadline tryAdmit() {
+        while (true) {
+            final int current = pending.get();
+            if (current >= maxPending) {
+                shed.increment();
+                return null;
+            }
+            if (pending.compareAndSet(current, current + 1)) {
+                return new Deadline(deadline);
+            }
+        }
+    }
+
+    /**
+     * Finish an admitted authentication.
+     */
+    public void release() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Count an authentication dropped because its deadline passed.
+     */
+    public void expired() {
+        expired.increment();
+    }
+
+    /**
+     * Get the number of authentications pending.
+     *
+     * @return The number pending.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Get the number of authentications shed because too many were pending.
+     *
+     * @return The shed count.
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    /**
+     * Get the number of authentications dropped because their deadline
+     * passed before they contacted CAS.
+     *
+     * @return The expired count.
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Get the largest number of authentications pending at once.
+     *
+     * @return The maximum pending.
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Whether another admission control was built with the same settings,
+     * so that this one, and the authentications pending with it, can take
+     * its place when the configuration is reloaded.
+     *
+     * @param other The other admission control.
+     * @return <code>true</code> if the settings are the same.
+     */
+    boolean hasSameSettings(final CASAuthAdmissionControl other) {
+        return maxPending == other.maxPending && deadline == other.deadline;
+    }
+
+    /**
+     * The time by which an authentication must complete.
+     */
+    public static final class Deadline {
+
+        /**
+         * The value of <code>System.nanoTime()</code> at the deadline.
+         */
+        private final long expiresAt;
+
+        /**
+         * Constructs a deadline from now.
+         *
+         * @param timeout The time until the deadline, in milliseconds.
+         */
+        public Deadline(final long timeout) {
+            this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+
+        /**
+         * Whether the deadline has passed.
+         *
+         * @return <code>true</code> if the deadline has passed.
+         */
+        public boolean isExpired() {
+            return remainingNanos() <= 0;
+        }
+
+        /**
+         * Get the time left until the deadline.
+         *
+         * @return The time left in nanoseconds, which is negative once the
+         * deadline has passed.
+         */
+        public long remainingNanos() {
+            return expiresAt - System.nanoTime();
+        }
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A size-bounded store of the attributes CAS released about each user at
+ * their last login, from which <code>CASAuthUserProvider</code> and
+ * <code>CASAuthGroupProvider</code> answer Openfire's lookups without a
+ * directory round-trip.
+ * <p/>
+ * Each user keeps a display name, an email address and a list of group
+ * names, read from the configured attributes. Group names repeat across
+ * most users, so each distinct name is held once and shared by every user
+ * in the group, and the store keeps the members of each group alongside.
+ * When the store is full the least recently used user is evicted.
+ * <p/>
+ * Users are keyed by their lowercased username, as Openfire lowercases
+ * usernames, so a CAS principal such as <code>JSmith</code> is found as
+ * <code>jsmith</code>.
+ */
+public class CASAuthAttributeStore {
+
+    /**
+     * The store shared by the validator and the providers.
+     */
+    private static CASAuthAttributeStore sharedInstance;
+
+    /**
+     * The maximum number of users held by the store.
+     */
+    private final int maxUsers;
+
+    /**
+     * The attribute holding the display name, or <code>null</code>.
+     */
+    private final String nameAttribute;
+
+    /**
+     * The attribute holding the email address, or <code>null</code>.
+     */
+    private final String emailAttribute;
+
+    /**
+     * The attribute holding the group names, or <code>null</code>.
+     */
+    private final String groupsAttribute;
+
+    /**
+     * The attributes of each user in least recently used order.
+     */
+    private final LinkedHashMap<String, UserAttributes> users;
+
+    /**
+     * The members of each group, keyed by group name.
+     */
+    private final Map<String, GroupMembers> groups = new HashMap<String, GroupMembers>();
+
+    /**
+     * Constructs a new store.
+     *
+     * @param maxUsers        The maximum number of users to hold.
+     * @param nameAttribute   The attribute holding the display name, or
+     *                        <code>null</code> for none.
+     * @param emailAttribute  The attribute holding the email address, or
+     *                        <code>null</code> for none.
+     * @param groupsAttribute The attribute holding the group names, or
+     *                        <code>null</code> for none.
+     */
+    public CASAuthAttributeStore(final int maxUsers, final String nameAttribute,
+                                 final String emailAttribute, final String groupsAttribute) {
+        if (maxUsers <= 0) {
+            throw new IllegalArgumentException(
+                    "Store size must be greater than zero");
+        }
+        this.maxUsers = maxUsers;
+        this.nameAttribute = nameAttribute;
+        this.emailAttribute = emailAttribute;
+        this.groupsAttribute = groupsAttribute;
+        this.users = new LinkedHashMap<String, UserAttributes>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the store shared by the validator and the providers, creating it
+     * from the configuration on first use.
+     *
+     * @param config The configuration to use if the store is created.
+     * @return The shared store.
+     */
+    public static synchronized CASAuthAttributeStore getInstance(
+            final CASAuthProviderConfig config) {
+        if (sharedInstance == null) {
+            sharedInstance = new CASAuthAttributeStore(
+                    config.getAttributeStoreMaxUsers(),
+                    config.getAttributeStoreNameAttribute(),
+                    config.getAttributeStoreEmailAttribute(),
+                    config.getAttributeStoreGroupsAttribute());
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Store the attributes released for a user, replacing any stored
+     * before.
+     *
+     * @param username   The username, in any case.
+     * @param attributes The attributes of the CAS principal.
+     */
+    public void update(final String username, final Map<?, ?> attributes) {
+        if (username == null || attributes == null) {
+            return;
+        }
+        final String key = key(username);
+        final String name = firstValue(attributes.get(nameAttribute));
+        final String email = firstValue(attributes.get(emailAttribute));
+        final List<String> groupNames = values(attributes.get(groupsAttribute));
+
+        synchronized (this) {
+            final List<String> shared = new ArrayList<String>(groupNames.size());
+            for (String groupName : groupNames) {
+                GroupMembers members = groups.get(groupName);
+                if (members == null) {
+                    members = new GroupMembers(groupName);
+                    groups.put(groupName, members);
+                }
+                members.usernames.add(key);
+                shared.add(members.name);
+            }
+
+            final UserAttributes previous = users.put(key, new UserAttributes(
+                    name, email, Collections.unmodifiableList(shared),
+                    System.currentTimeMillis()));
+            if (previous != null) {
+                for (String groupName : previous.groups) {
+                    if (!shared.contains(groupName)) {
+                        removeMember(groupName, key);
+                    }
+                }
+            }
+
+            final Iterator<Map.Entry<String, UserAttributes>> eldest = users.entrySet().iterator();
+            while (users.size() > maxUsers) {
+                final Map.Entry<String, UserAttributes> entry = eldest.next();
+                for (String groupName : entry.getValue().groups) {
+                    removeMember(groupName, entry.getKey());
+                }
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the attributes stored for a user.
+     *
+     * @param username The Openfire username.
+     * @return The attributes, or <code>null</code> if none are stored.
+     */
+    public synchronized UserAttributes get(final String username) {
+        return username == null ? null : users.get(key(username));
+    }
+
+    /**
+     * Forget the attributes stored for a user.
+     *
+     * @param username The Openfire username.
+     */
+    public synchronized void remove(final String username) {
+        if (username == null) {
+            return;
+        }
+        final String key = key(username);
+        final UserAttributes previous = users.remove(key);
+        if (previous != null) {
+            for (String groupName : previous.groups) {
+                removeMember(groupName, key);
+            }
+        }
+    }
+
+    /**
+     * Get the usernames of every stored user.
+     *
+     * @return The usernames.
+     */
+    public synchronized List<String> getUsernames() {
+        return new ArrayList<String>(users.keySet());
+    }
+
+    /**
+     * Get the names of every group with a stored member.
+     *
+     * @return The group names.
+     */
+    public synchronized List<String> getGroupNames() {
+        return new ArrayList<String>(groups.keySet());
+    }
+
+    /**
+     * Get the stored members of a group.
+     *
+     * @param groupName The group name.
+     * @return The usernames of the members, or <code>null</code> if no
+     * member of the group is stored.
+     */
+    public synchronized List<String> getGroupMembers(final String groupName) {
+        final GroupMembers members = groups.get(groupName);
+        return members == null ? null : new ArrayList<String>(members.usernames);
+    }
+
+    /**
+     * Get the number of stored users.
+     *
+     * @return The number of users.
+     */
+    public synchronized int size() {
+        return users.size();
+    }
+
+    /**
+     * Get the maximum number of users held by the store.
+     *
+     * @return The maximum number of users.
+     */
+    public int getMaxUsers() {
+        return maxUsers;
+    }
+
+    /**
+     * Get the key a user is stored under.
+     *
+     * @param username The username, in any case.
+     * @return The lowercased username.
+     */
+    private static String key(final String username) {
+        return username.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Remove a user from a group, dropping the group once it is empty.
+     *
+     * @param groupName The group name.
+     * @param username  The username.
+     */
+    private void removeMember(final String groupName, final String username) {
+        final GroupMembers members = groups.get(groupName);
+        if (members != null) {
+            members.usernames.remove(username);
+            if (members.usernames.isEmpty()) {
+                groups.remove(groupName);
+            }
+        }
+    }
+
+    /**
+     * Get the first value of an attribute, which may be a single value or
+     * a collection of values.
+     *
+     * @param value The attribute value.
+     * @return The first value, or <code>null</code> if there is none.
+     */
+    private static String firstValue(final Object value) {
+        final List<String> values = values(value);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Get the values of an attribute, which may be a single value or a
+     * collection of values, dropping blank and repeated values.
+     *
+     * @param value The attribute value.
+     * @return The values.
+     */
+    private static List<String> values(final Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        final Collection<?> raw = value instanceof Collection
+                ? (Collection<?>) value : Collections.singletonList(value);
+        final List<String> values = new ArrayList<String>(raw.size());
+        for (Object element : raw) {
+            if (element != null) {
+                final String trimmed = element.toString().trim();
+                if (trimmed.length() > 0 && !values.contains(trimmed)) {
+                    values.add(trimmed);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The attributes stored for a user.
+     */
+    public static final class UserAttributes {
+
+        private final String name;
+
+        private final String email;
+
+        private final List<String> groups;
+
+        private final long updated;
+
+        UserAttributes(final String name, final String email,
+                       final List<String> groups, final long updated) {
+            this.name = name;
+            this.email = email;
+            this.groups = groups;
+            this.updated = updated;
+        }
+
+        /**
+         * @return The display name, or <code>null</code> if none was
+         * released.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The email address, or <code>null</code> if none was
+         * released.
+         */
+        public String getEmail() {
+            return email;
+        }
+
+        /**
+         * @return The names of the groups the user is a member of.
+         */
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        /**
+         * @return When the attributes were stored, in milliseconds since the
+         * epoch.
+         */
+        public long getUpdated() {
+            return updated;
+        }
+    }
+
+    /**
+     * The stored members of a group, holding the one instance of the group
+     * name which every member shares.
+     */
+    private static final class GroupMembers {
+
+        private final String name;
+
+        private final Set<String> usernames = new HashSet<String>();
+
+        GroupMembers(final String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jivesoftware.util.Log;
+
+/**
+ * Writes an audit trail of logins to a rolling file without slowing down
+ * authentication. Authenticating threads add events to a lock-free ring
+ * buffer and return at once; a background thread drains the buffer in
+ * batches and writes them out. When the buffer is full events are dropped
+ * and counted, and the count is written to the audit file. Successful
+ * logins may be sampled; failures are always recorded.
+ */
+public class CASAuthAuditLog {
+
+    /**
+     * The kind of event recorded.
+     */
+    public enum Type {
+        /** A user authenticated. */
+        SUCCESS,
+        /** A user failed to authenticate. */
+        FAILURE
+    }
+
+    /**
+     * The audit file.
+     */
+    private final File file;
+
+    /**
+     * The size at which the audit file is rolled over, in bytes.
+     */
+    private final long maxFileSize;
+
+    /**
+     * The number of rolled over files kept.
+     */
+    private final int maxFiles;
+
+    /**
+     * The percentage of successful logins recorded.
+     */
+    private final int successSamplePercent;
+
+    /**
+     * The most events written at once.
+     */
+    private final int batchSize;
+
+    /**
+     * How long the writer sleeps when there is nothing to write, in
+     * nanoseconds.
+     */
+    private final long flushIntervalNanos;
+
+    /**
+     * Events waiting to be written.
+     */
+    private final CASAuthRingBuffer<Event> buffer;
+
+    /**
+     * The number of successful logins seen, which spreads the sampled ones
+     * evenly.
+     */
+    private final AtomicLong successCount = new AtomicLong();
+
+    private final AtomicLong recordedCount = new AtomicLong();
+
+    private final AtomicLong sampledOutCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    /**
+     * The writer thread.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Whether the log has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The open audit file, only used by the writer thread.
+     */
+    private Writer writer;
+
+    /**
+     * The size of the open audit file, only used by the writer thread.
+     */
+    private long fileSize;
+
+    /**
+     * The number of dropped events already reported in the audit file, only
+     * used by the writer thread.
+     */
+    private long reportedDropped;
+
+    /**
+     * Constructs a new audit log and starts its writer thread.
+     *
+     * @param file                 The audit file.
+     * @param maxFileSize          The size at which the file is rolled over,
+     *                             in bytes.
+     * @param maxFiles             The number of rolled over files kept.
+     * @param bufferSize           The most events waiting to be written.
+     * @param successSamplePercent The percentage of successful logins
+     *                             recorded.
+     * @param batchSize            The most events written at once.
+     * @param flushInterval        How long the writer waits for more events
+     *                             when there are none, in milliseconds.
+     */
+    public CASAuthAuditLog(final File file, final long maxFileSize, final int maxFiles,
+                           final int bufferSize, final int successSamplePercent,
+                           final int batchSize, final long flushInterval) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.successSamplePercent = successSamplePercent;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        this.buffer = new CASAuthRingBuffer<Event>(bufferSize);
+
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeEvents();
+            }
+        }, "CASAuthProvider-audit");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Record a successful login, subject to sampling.
+     *
+     * @param username The username.
+     */
+    public void success(final String username) {
+        // Of every hundred successful logins, the given percentage is kept
+        final long seen = successSamplePercent < 100 ? successCount.getAndIncrement() : 0L;
+        if (successSamplePercent < 100
+                && seen * successSamplePercent / 100 == (seen + 1) * successSamplePercent / 100) {
+            sampledOutCount.incrementAndGet();
+            return;
+        }
+        record(new Event(Type.SUCCESS, username, null));
+    }
+
+    /**
+     * Record a failed login.
+     *
+     * @param username The username.
+     * @param reason   Why the login failed.
+     */
+    public void failure(final String username, final String reason) {
+        record(new Event(Type.FAILURE, username, reason));
+    }
+
+    private void record(final Event event) {
+        if (closed || !buffer.offer(event)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        recordedCount.incrementAndGet();
+    }
+
+    /**
+     * Stop the writer thread once every waiting event has been written, and
+     * close the audit file.
+     *
+     * @throws InterruptedException If interrupted while waiting for the
+     *                              writer.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        writerThread.join();
+    }
+
+    /**
+     * @return The audit file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of events accepted for writing.
+     */
+    public long getRecordedCount() {
+        return recordedCount.get();
+    }
+
+    /**
+     * @return The number of successful logins not recorded due to sampling.
+     */
+    public long getSampledOutCount() {
+        return sampledOutCount.get();
+    }
+
+    /**
+     * @return The number of events dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of events written to the audit file.
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * The body of the writer thread.
+     */
+    private void writeEvents() {
+        final List<Event> batch = new ArrayList<Event>(batchSize);
+        final StringBuilder line = new StringBuilder(128);
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        final Date date = new Date();
+
+        while (true) {
+            final boolean closing = closed;
+            batch.clear();
+            buffer.drainTo(batch, batchSize);
+
+            final long dropped = droppedCount.get();
+            if (!batch.isEmpty() || dropped != reportedDropped) {
+                try {
+                    openFile();
+                    for (final Event event : batch) {
+                        date.setTime(event.timestamp);
+                        line.setLength(0);
+                        line.append(dateFormat.format(date)).append(' ').append(event.type)
+                                .append(" user=").append(event.username);
+                        if (event.reason != null) {
+                            line.append(" reason=").append(event.reason);
+                        }
+                        write(line.append('\n').toString());
+                    }
+                    if (dropped != reportedDropped) {
+                        date.setTime(System.currentTimeMillis());
+                        write(dateFormat.format(date) + " DROPPED count=" + (dropped - reportedDropped) + "\n");
+                        reportedDropped = dropped;
+                    }
+                    writer.flush();
+                    writtenCount.addAndGet(batch.size());
+                } catch (final IOException ioe) {
+                    Log.warn("CASAuthProvider: Unable to write audit log " + file + ": " + ioe);
+                    closeFile();
+                }
+            }
+
+            if (batch.size() < batchSize) {
+                if (closing && buffer.size() == 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+        closeFile();
+    }
+
+    /**
+     * Write to the audit file, rolling it over first if it is full.
+     */
+    private void write(final String text) throws IOException {
+        if (fileSize + text.length() > maxFileSize && fileSize > 0) {
+            rollOver();
+        }
+        writer.write(text);
+        fileSize += text.length();
+    }
+
+    private void openFile() throws IOException {
+        if (writer == null) {
+            fileSize = file.length();
+            writer = new OutputStreamWriter(new FileOutputStream(file, true),
+                    CASAuthHttpTransport.RESPONSE_CHARSET);
+        }
+    }
+
+    private void closeFile() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (final IOException ioe) {
+                Log.warn("CASAuthProvider: Unable to close audit log " + file + ": " + ioe);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Shift each rolled over file up by one, dropping the oldest, and start
+     * a new audit file.
+     */
+    private void rollOver() throws IOException {
+        closeFile();
+        for (int i = maxFiles - 1; i >= 1; --i) {
+            final File from = new File(file.getPath() + "." + i);
+            if (from.exists()) {
+                final File to = new File(file.getPath() + "." + (i + 1));
+                to.delete();
+                from.renameTo(to);
+            }
+        }
+        final File first = new File(file.getPath() + ".1");
+        first.delete();
+        if (maxFiles > 0) {
+            file.renameTo(first);
+        } else {
+            file.delete();
+        }
+        openFile();
+    }
+
+    /**
+     * A login waiting to be written.
+     */
+    private static final class Event {
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private final Type type;
+
+        private final String username;
+
+        private final String reason;
+
+        Event(final Type type, final String username, final String reason) {
+            this.type = type;
+            this.username = username;
+            this.reason = reason;
+        }
+    }
+
+}
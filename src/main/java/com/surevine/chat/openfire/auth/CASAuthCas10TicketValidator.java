@@ -0,0 +1,102 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+
+import org.jasig.cas.client.validation.AbstractUrlBasedTicketValidator;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.TicketValidationException;
+
+/**
+ * A CAS 1.0 ticket validator which retrieves responses through a
+ * <code>CASAuthHttpTransport</code>. It behaves as the CAS client's
+ * <code>Cas10TicketValidator</code>, which cannot be extended.
+ */
+public class CASAuthCas10TicketValidator extends AbstractUrlBasedTicketValidator {
+
+    /**
+     * The transport used to contact CAS.
+     */
+    private final CASAuthHttpTransport transport;
+
+    /**
+     * Constructs a new CAS 1.0 ticket validator.
+     *
+     * @param casServerUrlPrefix The prefix of the CAS server.
+     * @param transport          The transport used to contact CAS.
+     */
+    public CASAuthCas10TicketValidator(final String casServerUrlPrefix,
+                                       final CASAuthHttpTransport transport) {
+        super(casServerUrlPrefix);
+        this.transport = transport;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUrlSuffix() {
+        return "validate";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String retrieveResponseFromServer(final URL validationUrl,
+                                                final String ticket) {
+        try {
+            return transport.getResponse(validationUrl.toExternalForm());
+        } catch (final IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Assertion parseResponseFromServer(final String response)
+            throws TicketValidationException {
+        if (!response.startsWith("yes")) {
+            throw new TicketValidationException("CAS Server could not validate ticket.");
+        }
+
+        try {
+            final BufferedReader reader = new BufferedReader(new StringReader(response));
+            reader.readLine();
+            final String name = reader.readLine();
+            return new AssertionImpl(name);
+        } catch (final IOException ioe) {
+            throw new TicketValidationException("Unable to parse response.", ioe);
+        }
+    }
+
+    /**
+     * Get the transport used to contact CAS.
+     *
+     * @return The transport.
+     */
+    public CASAuthHttpTransport getTransport() {
+        return transport;
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.cas.client.authentication.AttributePrincipalImpl;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.TicketValidationException;
+
+/**
+ * A CAS protocol 3.0 ticket validator which asks for the JSON form of the
+ * <code>p3/serviceValidate</code> or <code>p3/proxyValidate</code> response
+ * and parses it as it is read. Protocol 3.0 releases the user's attributes
+ * in the standard response.
+ * <p/>
+ * When no proxy chain is allowed tickets are validated with
+ * <code>p3/serviceValidate</code>, so CAS itself refuses proxy tickets.
+ * Otherwise <code>p3/proxyValidate</code> is used and the proxy chain is
+ * checked as <code>CASAuthStreamingTicketValidator</code> checks it. The
+ * response size is bounded in the same way.
+ */
+public class CASAuthCas30JsonTicketValidator extends CASAuthStreamingTicketValidator {
+
+    /**
+     * Constructs a new protocol 3.0 validator.
+     *
+     * @param casServerUrlPrefix The prefix of the CAS server.
+     * @param transport          The transport used to contact CAS.
+     * @param allowedProxyChains The proxy chains allowed to present tickets,
+     *                           or <code>null</code> if no proxy may.
+     * @param maxResponseSize    The largest response accepted, in bytes.
+     */
+    public CASAuthCas30JsonTicketValidator(final String casServerUrlPrefix,
+                                           final CASAuthHttpTransport transport,
+                                           final CASAuthProxyChainMatcher allowedProxyChains,
+                                           final int maxResponseSize) {
+        super(casServerUrlPrefix, transport, allowedProxyChains, maxResponseSize);
+    }
+
+    /**
+     * Build the <code>p3/serviceValidate</code> or
+     * <code>p3/proxyValidate</code> URL for a ticket.
+     *
+     * @param ticket  The CAS ticket.
+     * @param service The service URL.
+     * @return The validation URL.
+     */
+    String constructValidationUrl(final String ticket, final String service) {
+        final String casServerUrlPrefix = getCasServerUrlPrefix();
+        final CASAuthProxyChainMatcher allowedProxyChains = getAllowedProxyChains();
+        final StringBuilder url = new StringBuilder(casServerUrlPrefix);
+        if (!casServerUrlPrefix.endsWith("/")) {
+            url.append('/');
+        }
+        if (allowedProxyChains == null || allowedProxyChains.size() == 0) {
+            url.append("p3/serviceValidate");
+        } else {
+            url.append("p3/proxyValidate");
+        }
+        url.append("?ticket=").append(encode(ticket));
+        url.append("&service=").append(encode(service));
+        url.append("&format=JSON");
+        return url.toString();
+    }
+
+    /**
+     * Parse a JSON validation response.
+     *
+     * @param in The response body.
+     * @return The assertion.
+     * @throws TicketValidationException If CAS rejected the ticket, the
+     *                                   response could not be parsed, or the
+     *                                   proxy chain is not allowed.
+     */
+    Assertion parseResponse(final InputStream in) throws TicketValidationException {
+        final Response response = new Response();
+
+        try {
+            final CASAuthJsonReader reader = new CASAuthJsonReader(
+                    new InputStreamReader(in, CASAuthHttpTransport.RESPONSE_CHARSET));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("serviceResponse".equals(reader.nextName())) {
+                    parseServiceResponse(reader, response);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (final IOException ioe) {
+            throw new TicketValidationException("Unable to parse response.", ioe);
+        }
+
+        if (!response.success || response.user == null || response.user.length() == 0) {
+            throw new TicketValidationException("No principal was found in the response from the CAS server.");
+        }
+
+        checkProxyChain(response.proxies);
+
+        final AttributePrincipalImpl principal = response.attributes == null
+                ? new AttributePrincipalImpl(response.user)
+                : new AttributePrincipalImpl(response.user, response.attributes);
+        return new AssertionImpl(principal);
+    }
+
+    /**
+     * Parse the <code>serviceResponse</code> object.
+     */
+    private static void parseServiceResponse(final CASAuthJsonReader reader,
+                                             final Response response)
+            throws IOException, TicketValidationException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("authenticationSuccess".equals(name)) {
+                response.success = true;
+                parseSuccess(reader, response);
+            } else if ("authenticationFailure".equals(name)) {
+                parseFailure(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parse the <code>authenticationSuccess</code> object.
+     */
+    private static void parseSuccess(final CASAuthJsonReader reader, final Response response)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("user".equals(name)) {
+                final String user = reader.nextString();
+                response.user = user == null ? null : user.trim();
+            } else if ("proxies".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final String proxy = reader.nextString();
+                    if (proxy != null) {
+                        response.proxies.add(proxy.trim());
+                    }
+                }
+                reader.endArray();
+            } else if ("attributes".equals(name)) {
+                parseAttributes(reader, response);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parse the <code>authenticationFailure</code> object and reject the
+     * ticket.
+     */
+    private static void parseFailure(final CASAuthJsonReader reader)
+            throws IOException, TicketValidationException {
+        String code = null;
+        String description = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("code".equals(name)) {
+                code = reader.nextString();
+            } else if ("description".equals(name)) {
+                description = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        throw new TicketValidationException(description != null ? description.trim() : code);
+    }
+
+    /**
+     * Parse the <code>attributes</code> object. Each attribute is a single
+     * value or an array of values; nested objects are ignored.
+     */
+    private static void parseAttributes(final CASAuthJsonReader reader, final Response response)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            final char next = reader.peek();
+            if (next == '[') {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    addValue(reader, response, name);
+                }
+                reader.endArray();
+            } else {
+                addValue(reader, response, name);
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Add the next value of an attribute, skipping nested values.
+     */
+    private static void addValue(final CASAuthJsonReader reader, final Response response,
+                                 final String name) throws IOException {
+        final char next = reader.peek();
+        if (next == '{' || next == '[') {
+            reader.skipValue();
+            return;
+        }
+        final String value = reader.nextString();
+        if (value != null) {
+            if (response.attributes == null) {
+                response.attributes = new HashMap<String, Object>();
+            }
+            addAttribute(response.attributes, name, value.trim());
+        }
+    }
+
+    /**
+     * The parts of a response needed to build the assertion.
+     */
+    private static final class Response {
+
+        private boolean success;
+
+        private String user;
+
+        private final List<String> proxies = new ArrayList<String>(2);
+
+        private Map<String, Object> attributes;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jivesoftware.util.Log;
+
+/**
+ * A circuit breaker around calls to CAS. The outcome of the most recent calls
+ * is kept in a rolling window. When the proportion of failed or slow calls in
+ * the window reaches its threshold the breaker opens and calls are refused
+ * without contacting CAS. After a wait the breaker becomes half-open and
+ * admits a limited number of probe calls; if they succeed the breaker closes,
+ * otherwise it opens again. A call is only counted in the state it was
+ * admitted in, so a call admitted before the breaker opened cannot count as
+ * a probe.
+ */
+public class CASAuthCircuitBreaker {
+
+    /**
+     * The states of the breaker.
+     */
+    public enum State {
+        /**
+         * Calls are admitted and their outcomes recorded.
+         */
+        CLOSED,
+        /**
+         * Calls are refused.
+         */
+        OPEN,
+        /**
+         * A limited number of probe calls are admitted.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Receives notification of breaker state transitions.
+     */
+    public interface StateListener {
+
+        /**
+         * Called when the breaker changes state.
+         *
+         * @param from The previous state.
+         * @param to   The new state.
+         */
+        void stateChanged(State from, State to);
+    }
+
+    /**
+     * Permission to make a call to CAS, handed back with its outcome.
+     */
+    public static final class Permit {
+
+        /**
+         * The number of state transitions before the call was admitted.
+         */
+        private final long generation;
+
+        Permit(final long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The number of calls in the rolling window.
+     */
+    private final int windowSize;
+
+    /**
+     * The number of calls which must be recorded before the breaker can open.
+     */
+    private final int minimumCalls;
+
+    /**
+     * The percentage of failed calls at which the breaker opens.
+     */
+    private final int failureRateThreshold;
+
+    /**
+     * The duration in milliseconds above which a call is slow.
+     */
+    private final long slowCallDuration;
+
+    /**
+     * The percentage of slow calls at which the breaker opens.
+     */
+    private final int slowCallRateThreshold;
+
+    /**
+     * How long the breaker stays open before admitting probes, in
+     * milliseconds.
+     */
+    private final long openDuration;
+
+    /**
+     * The number of probe calls admitted while half-open.
+     */
+    private final int halfOpenCalls;
+
+    /**
+     * Whether each call in the window failed.
+     */
+    private final boolean[] failed;
+
+    /**
+     * Whether each call in the window was slow.
+     */
+    private final boolean[] slow;
+
+    /**
+     * The listeners notified of state transitions.
+     */
+    private final CopyOnWriteArrayList<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+
+    private State state = State.CLOSED;
+
+    /**
+     * The number of state transitions so far.
+     */
+    private long generation;
+
+    /**
+     * The index in the window of the next call to record.
+     */
+    private int next;
+
+    /**
+     * The number of calls in the window.
+     */
+    private int recorded;
+
+    private int failedCount;
+
+    private int slowCount;
+
+    /**
+     * The time at which the breaker last opened.
+     */
+    private long openedAt;
+
+    /**
+     * The number of probe calls admitted since the breaker became half-open.
+     */
+    private int probesAdmitted;
+
+    /**
+     * The number of probe calls completed since the breaker became half-open.
+     */
+    private int probesCompleted;
+
+    /**
+     * The number of probe calls which failed since the breaker became
+     * half-open.
+     */
+    private int probesFailed;
+
+    /**
+     * The number of calls refused while the breaker was open.
+     */
+    private long rejectedCount;
+
+    /**
+     * Constructs a new closed circuit breaker.
+     *
+     * @param windowSize            The number of calls in the rolling window.
+     * @param minimumCalls          The number of calls which must be recorded
+     *                              before the breaker can open.
+     * @param failureRateThreshold  The percentage of failed calls at which the
+     *                              breaker opens.
+     * @param slowCallDuration      The duration in milliseconds above which a
+     *                              call is slow.
+     * @param slowCallRateThreshold The percentage of slow calls at which the
+     *                              breaker opens.
+     * @param openDuration          How long the breaker stays open before
+     *                              admitting probes, in milliseconds.
+     * @param halfOpenCalls         The number of probe calls admitted while
+     *                              half-open.
+     */
+    public CASAuthCircuitBreaker(final int windowSize, final int minimumCalls,
+                                 final int failureRateThreshold, final long slowCallDuration,
+                                 final int slowCallRateThreshold, final long openDuration,
+                                 final int halfOpenCalls) {
+        if (windowSize <= 0 || halfOpenCalls <= 0) {
+            throw new IllegalArgumentException(
+                    "Window size and half-open calls must be greater than zero");
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = halfOpenCalls;
+        this.failed = new boolean[windowSize];
+        this.slow = new boolean[windowSize];
+    }
+
+    /**
+     * Ask to make a call to CAS. Every admitted call must be followed by a
+     * call to {@link #onCallComplete(Permit, boolean, long)}.
+     *
+     * @return The permit for the call if it may proceed, otherwise
+     * <code>null</code>.
+     */
+    public Permit tryAcquire() {
+        State from = null;
+        Permit permit;
+
+        synchronized (this) {
+            if (state == State.OPEN
+                    && currentTimeMillis() - openedAt >= openDuration) {
+                from = transitionTo(State.HALF_OPEN);
+            }
+
+            if (state == State.CLOSED) {
+                permit = new Permit(generation);
+            } else if (state == State.HALF_OPEN && probesAdmitted < halfOpenCalls) {
+                ++probesAdmitted;
+                permit = new Permit(generation);
+            } else {
+                ++rejectedCount;
+                permit = null;
+            }
+        }
+
+        if (from != null) {
+            fireStateChanged(from, State.HALF_OPEN);
+        }
+        return permit;
+    }
+
+    /**
+     * Record the outcome of an admitted call. The outcome is ignored if the
+     * breaker has changed state since the call was admitted.
+     *
+     * @param permit   The permit from {@link #tryAcquire()}.
+     * @param success  Whether CAS answered the call, whatever the answer.
+     * @param duration The duration of the call in milliseconds.
+     */
+    public void onCallComplete(final Permit permit, final boolean success,
+                               final long duration) {
+        final boolean isSlow = duration > slowCallDuration;
+        State from = null;
+        State to = null;
+
+        synchronized (this) {
+            if (permit.generation != generation) {
+                return;
+            }
+
+            if (state == State.HALF_OPEN) {
+                ++probesCompleted;
+                if (!success || isSlow) {
+                    ++probesFailed;
+                }
+                if (probesFailed > 0) {
+                    from = transitionTo(State.OPEN);
+                } else if (probesCompleted >= halfOpenCalls) {
+                    from = transitionTo(State.CLOSED);
+                }
+            } else if (state == State.CLOSED) {
+                record(!success, isSlow);
+                if (recorded >= minimumCalls
+                        && (failedCount * 100 >= failureRateThreshold * recorded
+                        || slowCount * 100 >= slowCallRateThreshold * recorded)) {
+                    from = transitionTo(State.OPEN);
+                }
+            }
+            to = state;
+        }
+
+        if (from != null) {
+            fireStateChanged(from, to);
+        }
+    }
+
+    /**
+     * Get the current state.
+     *
+     * @return The state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Get the number of calls refused while the breaker was open.
+     *
+     * @return The rejected count.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Whether another breaker was built with the same settings, so that this
+     * one, and its state, can take its place when the configuration is
+     * reloaded.
+     *
+     * @param other The other breaker.
+     * @return <code>true</code> if the settings are the same.
+     */
+    boolean hasSameSettings(final CASAuthCircuitBreaker other) {
+        return windowSize == other.windowSize
+                && minimumCalls == other.minimumCalls
+                && failureRateThreshold == other.failureRateThreshold
+                && slowCallDuration == other.slowCallDuration
+                && slowCallRateThreshold == other.slowCallRateThreshold
+                && openDuration == other.openDuration
+                && halfOpenCalls == other.halfOpenCalls;
+    }
+
+    /**
+     * Add a listener to be notified of state transitions, unless it has
+     * already been added.
+     *
+     * @param listener The listener.
+     */
+    public void addStateListener(final StateListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Remove a state transition listener.
+     *
+     * @param listener The listener.
+     */
+    public void removeStateListener(final StateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the current time. Overridden in tests.
+     *
+     * @return The current time in milliseconds.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Record a call outcome in the rolling window. Must hold the lock.
+     */
+    private void record(final boolean isFailure, final boolean isSlow) {
+        if (recorded == windowSize) {
+            if (failed[next]) {
+                --failedCount;
+            }
+            if (slow[next]) {
+                --slowCount;
+            }
+        } else {
+            ++recorded;
+        }
+
+        failed[next] = isFailure;
+        slow[next] = isSlow;
+        if (isFailure) {
+            ++failedCount;
+        }
+        if (isSlow) {
+            ++slowCount;
+        }
+        next = (next + 1) % windowSize;
+    }
+
+    /**
+     * Change state and reset the statistics for the new state. Must hold the
+     * lock.
+     *
+     * @return The previous state.
+     */
+    private State transitionTo(final State newState) {
+        final State from = state;
+        state = newState;
+        ++generation;
+
+        if (newState == State.OPEN) {
+            openedAt = currentTimeMillis();
+        } else if (newState == State.HALF_OPEN) {
+            probesAdmitted = 0;
+            probesCompleted = 0;
+            probesFailed = 0;
+        } else {
+            next = 0;
+            recorded = 0;
+            failedCount = 0;
+            slowCount = 0;
+        }
+        return from;
+    }
+
+    /**
+     * Notify the listeners of a state transition.
+     */
+    private void fireStateChanged(final State from, final State to) {
+        if (to == State.OPEN) {
+            Log.warn("CASAuthProvider: CAS circuit breaker opened, calls to CAS"
+                    + " are suspended for " + openDuration + "ms");
+        } else {
+            Log.info("CASAuthProvider: CAS circuit breaker changed from "
+                    + from + " to " + to);
+        }
+
+        for (StateListener listener : listeners) {
+            listener.stateChanged(from, to);
+        }
+    }
+
+}
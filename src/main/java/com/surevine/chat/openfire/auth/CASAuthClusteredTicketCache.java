@@ -0,0 +1,155 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.util.Log;
+import org.jivesoftware.util.cache.Cache;
+
+/**
+ * A <code>CASAuthTicketCache</code> backed by an Openfire cache, which is
+ * shared by every node when Openfire is clustered. The entries held locally
+ * act as a near cache in front of it, so repeated lookups of a ticket on one
+ * node do not go to the cluster.
+ * <p/>
+ * Keys and values in the Openfire cache are plain strings, so that they
+ * can be sized and serialised by any cache implementation without loading
+ * plugin classes. The Openfire cache bounds its size and expires its
+ * entries itself. A near cache entry outlives the shared entry it was
+ * copied from by at most the near cache time to live.
+ */
+public class CASAuthClusteredTicketCache extends CASAuthTicketCache {
+
+    /**
+     * The name of the shared cache of validated tickets.
+     */
+    public static final String VALIDATION_CACHE_NAME = "CAS Validated Tickets";
+
+    /**
+     * The name of the shared cache of rejected tickets.
+     */
+    public static final String REJECTION_CACHE_NAME = "CAS Rejected Tickets";
+
+    /**
+     * The cache shared across the cluster.
+     */
+    private final Cache<String, String> sharedCache;
+
+    /**
+     * The number of lookups missed by the near cache and answered by the
+     * shared cache.
+     */
+    private final AtomicLong sharedHits = new AtomicLong();
+
+    /**
+     * Constructs a new clustered cache.
+     *
+     * @param sharedCache    The Openfire cache shared across the cluster.
+     * @param nearMaxSize    The maximum number of entries held locally.
+     * @param nearTimeToLive The time to live of each local entry in
+     *                       milliseconds.
+     */
+    public CASAuthClusteredTicketCache(final Cache<String, String> sharedCache,
+                                       final int nearMaxSize, final long nearTimeToLive) {
+        super(nearMaxSize, nearTimeToLive);
+        if (sharedCache == null) {
+            throw new IllegalArgumentException("Shared cache not defined");
+        }
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Get the cached outcome for a ticket from the near cache, or from the
+     * shared cache if it is not held locally.
+     *
+     * @param ticket     The CAS ticket.
+     * @param serviceUrl The service URL the ticket was validated against.
+     * @param username   The username the ticket was presented for.
+     * @return The cached value if present and not expired, otherwise
+     * <code>null</code>.
+     */
+    public String get(final String ticket, final String serviceUrl,
+                      final String username) {
+        final String nearValue = super.get(ticket, serviceUrl, username);
+        if (nearValue != null) {
+            return nearValue;
+        }
+
+        final String value;
+        try {
+            value = sharedCache.get(createKey(ticket, serviceUrl, username));
+        } catch (final RuntimeException re) {
+            // The shared cache is an optimisation, so CAS is asked instead
+            Log.warn("CASAuthProvider: Unable to read the " + sharedCache.getName() + " cache: " + re);
+            return null;
+        }
+        if (value != null) {
+            sharedHits.incrementAndGet();
+            super.put(ticket, serviceUrl, username, value);
+        }
+        return value;
+    }
+
+    /**
+     * Cache the outcome for a ticket locally and across the cluster.
+     *
+     * @param ticket     The CAS ticket.
+     * @param serviceUrl The service URL the ticket was validated against.
+     * @param username   The username the ticket was presented for.
+     * @param value      The value to cache.
+     */
+    public void put(final String ticket, final String serviceUrl,
+                    final String username, final String value) {
+        super.put(ticket, serviceUrl, username, value);
+        try {
+            sharedCache.put(createKey(ticket, serviceUrl, username), value);
+        } catch (final RuntimeException re) {
+            Log.warn("CASAuthProvider: Unable to write the " + sharedCache.getName() + " cache: " + re);
+        }
+    }
+
+    /**
+     * Remove all entries from the near cache and the shared cache.
+     */
+    public void clear() {
+        super.clear();
+        sharedCache.clear();
+    }
+
+    /**
+     * Get the number of lookups missed by the near cache and answered by the
+     * shared cache. These are also counted as misses of the near cache.
+     *
+     * @return The shared cache hit count.
+     */
+    public long getSharedHitCount() {
+        return sharedHits.get();
+    }
+
+    /**
+     * Get the cache shared across the cluster.
+     *
+     * @return The Openfire cache.
+     */
+    public Cache<String, String> getSharedCache() {
+        return sharedCache;
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the number of calls to CAS in flight to the latency CAS is giving,
+ * in the manner of TCP Vegas. The latency with no queueing is estimated from
+ * the fastest recent call; the ratio of that to the latency of each call
+ * estimates how many calls are queued at CAS. While few are queued the limit
+ * grows by one, and while many are queued it shrinks by one. A call which
+ * CAS does not answer cuts the limit by a tenth.
+ * <p/>
+ * Calls over the limit wait in a bounded queue for a short time, and are
+ * refused if the queue is full or the wait runs out.
+ */
+public class CASAuthConcurrencyLimiter {
+
+    /**
+     * The proportion of the limit kept when CAS does not answer a call.
+     */
+    static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * How quickly the no-load latency estimate rises towards the latency of
+     * recent calls, as a fraction of the estimate per call. This lets the
+     * estimate recover if CAS becomes permanently slower.
+     */
+    static final int NO_LOAD_DECAY = 1000;
+
+    /**
+     * The smallest limit.
+     */
+    private final int minLimit;
+
+    /**
+     * The largest limit.
+     */
+    private final int maxLimit;
+
+    /**
+     * The number of calls which may wait for the limit.
+     */
+    private final int maxQueued;
+
+    /**
+     * How long a call waits for the limit, in nanoseconds.
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * The current limit. Fractions of a call are kept so that a backoff
+     * from a small limit is not lost.
+     */
+    private double limit;
+
+    /**
+     * The estimated latency of a call with nothing queued, in nanoseconds.
+     */
+    private long noLoadLatency;
+
+    private int inFlight;
+
+    private int queued;
+
+    /**
+     * The number of calls refused.
+     */
+    private long rejectedCount;
+
+    /**
+     * Constructs a new limiter.
+     *
+     * @param initialLimit The limit before any calls are measured.
+     * @param minLimit     The smallest limit.
+     * @param maxLimit     The largest limit.
+     * @param maxQueued    The number of calls which may wait for the limit.
+     * @param maxWait      How long a call waits for the limit, in
+     *                     milliseconds.
+     */
+    public CASAuthConcurrencyLimiter(final int initialLimit, final int minLimit,
+                                     final int maxLimit, final int maxQueued, final long maxWait) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException(
+                    "Limits must be greater than zero and the maximum no less than the minimum");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWait));
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Ask to make a call to CAS, waiting for the limit if necessary. Every
+     * admitted call must be followed by a call to
+     * {@link #onCallComplete(boolean, long)} or {@link #release()}.
+     *
+     * @return <code>true</code> if the call may proceed, otherwise
+     * <code>false</code>.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(maxWaitNanos);
+    }
+
+    /**
+     * Ask to make a call to CAS, waiting for the limit for no longer than the
+     * given time or the configured wait, whichever is shorter. Every
+     * admitted call must be followed by a call to
+     * {@link #onCallComplete(boolean, long)} or {@link #release()}.
+     *
+     * @param timeout The longest wait in nanoseconds.
+     * @return <code>true</code> if the call may proceed, otherwise
+     * <code>false</code>.
+     */
+    public synchronized boolean tryAcquire(final long timeout) {
+        if (inFlight < (int) limit && queued == 0) {
+            ++inFlight;
+            return true;
+        }
+        if (queued >= maxQueued) {
+            ++rejectedCount;
+            return false;
+        }
+
+        ++queued;
+        try {
+            final long deadline = System.nanoTime() + Math.min(maxWaitNanos, timeout);
+            while (inFlight >= (int) limit) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    ++rejectedCount;
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            ++inFlight;
+            return true;
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            ++rejectedCount;
+            return false;
+        } finally {
+            --queued;
+        }
+    }
+
+    /**
+     * Record the outcome of an admitted call and adjust the limit.
+     *
+     * @param answered Whether CAS answered the call, whatever the answer.
+     * @param latency  The duration of the call in nanoseconds.
+     */
+    public synchronized void onCallComplete(final boolean answered, final long latency) {
+        --inFlight;
+
+        if (!answered) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        } else if (latency > 0) {
+            if (noLoadLatency == 0 || latency < noLoadLatency) {
+                noLoadLatency = latency;
+            } else {
+                noLoadLatency = Math.min(latency, noLoadLatency + Math.max(1, noLoadLatency / NO_LOAD_DECAY));
+            }
+
+            final double queueing = limit * (1.0 - (double) noLoadLatency / latency);
+            final double threshold = Math.max(1.0, Math.log10(limit));
+            if (queueing <= 3 * threshold) {
+                // Only grow a limit which is being used
+                if (inFlight + 1 >= limit / 2) {
+                    limit = Math.min(maxLimit, limit + 1);
+                }
+            } else if (queueing > 6 * threshold) {
+                limit = Math.max(minLimit, limit - 1);
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Release an admitted call which did not contact CAS, without adjusting
+     * the limit.
+     */
+    public synchronized void release() {
+        --inFlight;
+        notifyAll();
+    }
+
+    /**
+     * Get the current limit.
+     *
+     * @return The number of calls which may be in flight.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get the number of calls in flight.
+     *
+     * @return The number of calls.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Get the number of calls waiting for the limit.
+     *
+     * @return The number of calls.
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Get the number of calls refused because the queue was full or the wait
+     * ran out.
+     *
+     * @return The rejected count.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Whether another limiter was built with the same settings, so that this
+     * one, and the limit it has learned, can take its place when the
+     * configuration is reloaded. The initial limit is not compared, as it
+     * has already been adapted.
+     *
+     * @param other The other limiter.
+     * @return <code>true</code> if the settings are the same.
+     */
+    boolean hasSameSettings(final CASAuthConcurrencyLimiter other) {
+        return minLimit == other.minLimit
+                && maxLimit == other.maxLimit
+                && maxQueued == other.maxQueued
+                && maxWaitNanos == other.maxWaitNanos;
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jivesoftware.util.Log;
+import org.jivesoftware.util.PropertyEventDispatcher;
+import org.jivesoftware.util.PropertyEventListener;
+
+/**
+ * Rebuilds a provider's ticket validator when a
+ * <code>casAuthProvider.*</code> property changes, so that configuration
+ * changes take effect without restarting Openfire. The new validator is
+ * built on a background thread, after a short delay so that several
+ * properties changed together cause a single rebuild, and then swapped in.
+ * Authentications never wait for a rebuild; those already under way finish
+ * with the old validator, which is shut down once they have, or after a
+ * grace period. The audit log and trace are kept across a rebuild unless
+ * their file changes, so that only one writer appends to each file, and the
+ * caches, limits and metrics are kept unless their settings change, so that
+ * their state survives. If the new configuration is invalid the old
+ * validator is kept.
+ */
+public class CASAuthConfigReloader implements PropertyEventListener {
+
+    /**
+     * The prefix of the properties which trigger a rebuild.
+     */
+    private static final String PROPERTY_PREFIX = "casAuthProvider.";
+
+    /**
+     * How long authentications under way are given to finish with a
+     * replaced validator, in milliseconds.
+     */
+    static final long DEFAULT_GRACE_PERIOD = 60000L;
+
+    /**
+     * The provider whose validator is rebuilt.
+     */
+    private final CASAuthProvider provider;
+
+    /**
+     * The configuration properties.
+     */
+    private final Map<String, String> configProperties;
+
+    /**
+     * The factory which builds validators.
+     */
+    private final CASAuthTicketValidatorFactory factory;
+
+    /**
+     * How long to wait after a change before rebuilding, in milliseconds.
+     */
+    private final long delay;
+
+    /**
+     * How long authentications under way are given to finish with a
+     * replaced validator, in milliseconds.
+     */
+    private final long gracePeriod;
+
+    /**
+     * The thread rebuilds run on.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Whether a rebuild is scheduled but has not yet started.
+     */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /**
+     * Constructs a new reloader.
+     *
+     * @param provider         The provider whose validator is rebuilt.
+     * @param configProperties The configuration properties.
+     * @param factory          The factory which builds validators.
+     * @param delay            How long to wait after a change before
+     *                         rebuilding, in milliseconds.
+     */
+    public CASAuthConfigReloader(final CASAuthProvider provider,
+                                 final Map<String, String> configProperties,
+                                 final CASAuthTicketValidatorFactory factory, final long delay) {
+        this(provider, configProperties, factory, delay, DEFAULT_GRACE_PERIOD);
+    }
+
+    /**
+     * Constructs a new reloader.
+     *
+     * @param provider         The provider whose validator is rebuilt.
+     * @param configProperties The configuration properties.
+     * @param factory          The factory which builds validators.
+     * @param delay            How long to wait after a change before
+     *                         rebuilding, in milliseconds.
+     * @param gracePeriod      How long authentications under way are given
+     *                         to finish with a replaced validator, in
+     *                         milliseconds.
+     */
+    CASAuthConfigReloader(final CASAuthProvider provider,
+                          final Map<String, String> configProperties,
+                          final CASAuthTicketValidatorFactory factory, final long delay,
+                          final long gracePeriod) {
+        this.provider = provider;
+        this.configProperties = configProperties;
+        this.factory = factory;
+        this.delay = delay;
+        this.gracePeriod = gracePeriod;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "CASAuthProvider-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start listening for property changes.
+     */
+    public void start() {
+        PropertyEventDispatcher.addListener(this);
+    }
+
+    /**
+     * Stop listening for property changes and cancel any pending rebuild.
+     */
+    public void stop() {
+        PropertyEventDispatcher.removeListener(this);
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertySet(final String property, final Map<String, Object> params) {
+        propertyChanged(property);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyDeleted(final String property, final Map<String, Object> params) {
+        propertyChanged(property);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void xmlPropertySet(final String property, final Map<String, Object> params) {
+        // The provider is only configured through Jive properties
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void xmlPropertyDeleted(final String property, final Map<String, Object> params) {
+        // The provider is only configured through Jive properties
+    }
+
+    /**
+     * Schedule a rebuild if a provider property changed and none is already
+     * pending.
+     */
+    private void propertyChanged(final String property) {
+        if (property == null || !property.startsWith(PROPERTY_PREFIX)) {
+            return;
+        }
+        if (pending.compareAndSet(false, true)) {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    reload();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Build a validator from the current configuration and swap it in.
+     */
+    void reload() {
+        // Changes made from here on schedule another rebuild
+        pending.set(false);
+
+        final CASAuthTicketValidator current = provider.ticketValidator;
+        final CASAuthTicketValidator validator;
+        try {
+            validator = factory.createCASAuthTicketValidator(
+                    new CASAuthProviderConfig(configProperties), current);
+        } catch (final RuntimeException re) {
+            Log.warn("CASAuthProvider: Invalid configuration, keeping the current CAS validator: " + re);
+            return;
+        }
+
+        // Revoked resumption tokens stay revoked under the new keys
+        if (current != null && current.getResumptionTokens() != null
+                && validator.getResumptionTokens() != null) {
+            validator.getResumptionTokens().inheritRevocations(current.getResumptionTokens());
+        }
+
+        final CASAuthTicketValidator previous = provider.swapTicketValidator(validator);
+        Log.info("CASAuthProvider: CAS configuration reloaded.");
+
+        if (previous != null) {
+            if (validator.getMetrics() == null && previous.getMetrics() != null) {
+                previous.getMetrics().unregister();
+            }
+            if (!previous.retire(gracePeriod)) {
+                Log.warn("CASAuthProvider: " + previous.getInFlightCount()
+                        + " authentications still under way with the replaced CAS validator"
+                        + " after " + gracePeriod + "ms, shutting it down.");
+            }
+            // The new validator carries on writing to the same files
+            if (previous.getAuditLog() == validator.getAuditLog()) {
+                previous.setAuditLog(null);
+            }
+            if (previous.getTraceRecorder() == validator.getTraceRecorder()) {
+                previous.setTraceRecorder(null);
+            }
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Whether a rebuild is scheduled but has not yet started.
+     *
+     * @return <code>true</code> if a rebuild is pending.
+     */
+    boolean isPending() {
+        return pending.get();
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.conn.DnsResolver;
+import org.jivesoftware.util.Log;
+
+/**
+ * A cache of the addresses of the CAS servers, used by the pooled transport
+ * to resolve hosts and refreshed in the background by
+ * <code>CASAuthHealthProbe</code>, so that logins do not wait for DNS.
+ * <p/>
+ * An entry older than the refresh interval is resolved again when it is
+ * next used. If that fails the previous addresses are kept, so a DNS outage
+ * does not take CAS down with it. A single instance is shared by every
+ * <code>CASAuthProvider</code> in the JVM.
+ */
+public class CASAuthDnsCache implements DnsResolver {
+
+    /**
+     * The cache shared by every provider in the JVM.
+     */
+    private static CASAuthDnsCache sharedInstance;
+
+    /**
+     * How long addresses are used before they are resolved again, in
+     * milliseconds.
+     */
+    private final long refreshInterval;
+
+    /**
+     * The addresses of each host, keyed by host name.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Constructs a new cache.
+     *
+     * @param refreshInterval How long addresses are used before they are
+     *                        resolved again, in milliseconds.
+     */
+    public CASAuthDnsCache(final long refreshInterval) {
+        if (refreshInterval <= 0) {
+            throw new IllegalArgumentException(
+                    "Refresh interval must be greater than zero");
+        }
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Get the cache shared by every provider in the JVM, creating it from the
+     * given configuration if it does not yet exist. Changes to the refresh
+     * interval take effect when Openfire is restarted.
+     *
+     * @param config The configuration to use if the cache is created.
+     * @return The shared cache.
+     */
+    public static synchronized CASAuthDnsCache getInstance(final CASAuthProviderConfig config) {
+        if (sharedInstance == null) {
+            sharedInstance = new CASAuthDnsCache(config.getWarmupDnsRefreshInterval());
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        final Entry entry = entries.get(host);
+        if (entry != null && currentTimeMillis() - entry.resolvedAt < refreshInterval) {
+            return entry.addresses.clone();
+        }
+        return refresh(host).clone();
+    }
+
+    /**
+     * Resolve a host now, keeping its previous addresses if it cannot be
+     * resolved.
+     *
+     * @param host The host name.
+     * @return The addresses of the host.
+     * @throws UnknownHostException If the host cannot be resolved and has
+     *                              not been resolved before.
+     */
+    public InetAddress[] refresh(final String host) throws UnknownHostException {
+        final Entry previous = entries.get(host);
+        try {
+            final InetAddress[] addresses = lookup(host);
+            entries.put(host, new Entry(addresses, currentTimeMillis()));
+            return addresses;
+        } catch (final UnknownHostException uhe) {
+            if (previous == null) {
+                throw uhe;
+            }
+            Log.warn("CASAuthProvider: Unable to resolve " + host
+                    + ", keeping its previous addresses: " + uhe.getMessage());
+            return previous.addresses;
+        }
+    }
+
+    /**
+     * Resolve again every host whose addresses will be due for refreshing
+     * within the given time, so that no login finds them out of date.
+     *
+     * @param within How far ahead to refresh, in milliseconds.
+     */
+    public void refreshDue(final long within) {
+        final long dueBy = currentTimeMillis() + within - refreshInterval;
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().resolvedAt <= dueBy) {
+                try {
+                    refresh(entry.getKey());
+                } catch (final UnknownHostException uhe) {
+                    // Only hosts resolved before are cached, so this is not
+                    // reached
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of hosts cached.
+     *
+     * @return The number of hosts.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get how long addresses are used before they are resolved again.
+     *
+     * @return The refresh interval in milliseconds.
+     */
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Resolve a host with the system resolver. Exists to be overridden in
+     * tests.
+     */
+    InetAddress[] lookup(final String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    /**
+     * Get the current time. Exists to be overridden in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * The addresses of a host and when they were resolved.
+     */
+    private static final class Entry {
+
+        private final InetAddress[] addresses;
+
+        private final long resolvedAt;
+
+        Entry(final InetAddress[] addresses, final long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
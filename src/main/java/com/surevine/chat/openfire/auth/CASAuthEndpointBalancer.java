@@ -0,0 +1,328 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.jivesoftware.util.Log;
+
+/**
+ * A <code>TicketValidator</code> which spreads validations over several CAS
+ * servers. Each validation goes to the better of two randomly chosen
+ * endpoints, judged by an exponentially weighted moving average of their
+ * response times and the number of validations they have in flight. An
+ * endpoint which fails repeatedly is ejected for a while and re-admitted
+ * when the ejection expires. A validation which cannot reach its endpoint is
+ * retried once on another.
+ */
+public class CASAuthEndpointBalancer implements TicketValidator {
+
+    /**
+     * The weight given to the latest response time in the moving average.
+     */
+    private static final double EWMA_WEIGHT = 0.3;
+
+    /**
+     * The endpoints.
+     */
+    private final List<Endpoint> endpoints;
+
+    /**
+     * The number of consecutive failures after which an endpoint is ejected.
+     */
+    private final int ejectAfterFailures;
+
+    /**
+     * How long an ejected endpoint is left out, in milliseconds.
+     */
+    private final long ejectDuration;
+
+    private final Random random = new Random();
+
+    /**
+     * Constructs a new balancer.
+     *
+     * @param endpoints          The CAS servers in configuration order.
+     * @param ejectAfterFailures The number of consecutive failures after
+     *                           which an endpoint is ejected.
+     * @param ejectDuration      How long an ejected endpoint is left out, in
+     *                           milliseconds.
+     */
+    public CASAuthEndpointBalancer(final List<Endpoint> endpoints,
+                                   final int ejectAfterFailures, final long ejectDuration) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("CAS endpoints not defined");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<Endpoint>(endpoints));
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectDuration = ejectDuration;
+    }
+
+    /**
+     * Validate the ticket with the best available CAS server, retrying once
+     * on another server if the first cannot be reached.
+     *
+     * @param ticket  The CAS ticket.
+     * @param service The service URL.
+     * @return The assertion returned by CAS.
+     * @throws TicketValidationException If CAS rejected the ticket.
+     */
+    public Assertion validate(final String ticket, final String service)
+            throws TicketValidationException {
+        final Endpoint first = choose(null);
+        try {
+            return first.validate(ticket, service, this);
+        } catch (final RuntimeException re) {
+            final Endpoint second = choose(first);
+            if (second == first) {
+                throw re;
+            }
+            Log.warn("CASAuthProvider: CAS server " + first.getCasServerUrlPrefix()
+                    + " failed, retrying with " + second.getCasServerUrlPrefix());
+            return second.validate(ticket, service, this);
+        }
+    }
+
+    /**
+     * Choose the endpoint for a validation by comparing two random healthy
+     * endpoints. If every endpoint is ejected, the one due back soonest is
+     * used rather than failing outright.
+     *
+     * @param exclude An endpoint not to choose if there is any alternative,
+     *                or <code>null</code>.
+     * @return The chosen endpoint.
+     */
+    Endpoint choose(final Endpoint exclude) {
+        final long now = currentTimeMillis();
+        final List<Endpoint> healthy = new ArrayList<Endpoint>(endpoints.size());
+        Endpoint soonest = null;
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == exclude) {
+                continue;
+            }
+            if (endpoint.isAvailable(now)) {
+                healthy.add(endpoint);
+            } else if (soonest == null || endpoint.ejectedUntil.get() < soonest.ejectedUntil.get()) {
+                soonest = endpoint;
+            }
+        }
+
+        if (healthy.isEmpty()) {
+            return soonest != null ? soonest : exclude;
+        }
+        if (healthy.size() == 1) {
+            return healthy.get(0);
+        }
+
+        final int a = random.nextInt(healthy.size());
+        int b = random.nextInt(healthy.size() - 1);
+        if (b >= a) {
+            ++b;
+        }
+        final Endpoint first = healthy.get(a);
+        final Endpoint second = healthy.get(b);
+        return first.getLoad() <= second.getLoad() ? first : second;
+    }
+
+    /**
+     * Get the endpoints.
+     *
+     * @return The endpoints in configuration order.
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Get the current time. Overridden in tests.
+     *
+     * @return The current time in milliseconds.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * A single CAS server and its health.
+     */
+    public static class Endpoint {
+
+        /**
+         * The prefix of the CAS server.
+         */
+        private final String casServerUrlPrefix;
+
+        /**
+         * The validator for the CAS server.
+         */
+        private final TicketValidator validator;
+
+        /**
+         * The moving average response time in milliseconds, stored as the
+         * bits of a double.
+         */
+        private final AtomicLong averageLatency = new AtomicLong(Double.doubleToLongBits(0.0));
+
+        /**
+         * The number of validations in flight.
+         */
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * The number of consecutive failures.
+         */
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        /**
+         * The time until which the endpoint is ejected.
+         */
+        private final AtomicLong ejectedUntil = new AtomicLong();
+
+        /**
+         * The number of times the endpoint has been ejected.
+         */
+        private final AtomicLong ejections = new AtomicLong();
+
+        /**
+         * Constructs a new endpoint.
+         *
+         * @param casServerUrlPrefix The prefix of the CAS server.
+         * @param validator          The validator for the CAS server.
+         */
+        public Endpoint(final String casServerUrlPrefix, final TicketValidator validator) {
+            this.casServerUrlPrefix = casServerUrlPrefix;
+            this.validator = validator;
+        }
+
+        /**
+         * Validate a ticket with this endpoint, recording its health.
+         */
+        Assertion validate(final String ticket, final String service,
+                           final CASAuthEndpointBalancer balancer) throws TicketValidationException {
+            final long start = balancer.currentTimeMillis();
+            inFlight.incrementAndGet();
+            try {
+                final Assertion assertion = validator.validate(ticket, service);
+                recordSuccess(balancer.currentTimeMillis() - start);
+                return assertion;
+            } catch (final TicketValidationException tve) {
+                // CAS answered, so the endpoint is healthy
+                recordSuccess(balancer.currentTimeMillis() - start);
+                throw tve;
+            } catch (final RuntimeException re) {
+                recordFailure(balancer);
+                throw re;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        /**
+         * Record a response time.
+         *
+         * @param latency The response time in milliseconds.
+         */
+        void recordSuccess(final long latency) {
+            consecutiveFailures.set(0);
+            while (true) {
+                final long bits = averageLatency.get();
+                final double average = Double.longBitsToDouble(bits);
+                final double updated = average == 0.0
+                        ? latency : average + EWMA_WEIGHT * (latency - average);
+                if (averageLatency.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Record a failure, ejecting the endpoint if it has failed too often.
+         */
+        void recordFailure(final CASAuthEndpointBalancer balancer) {
+            if (consecutiveFailures.incrementAndGet() >= balancer.ejectAfterFailures) {
+                consecutiveFailures.set(0);
+                ejectedUntil.set(balancer.currentTimeMillis() + balancer.ejectDuration);
+                ejections.incrementAndGet();
+                Log.warn("CASAuthProvider: CAS server " + casServerUrlPrefix
+                        + " ejected for " + balancer.ejectDuration + "ms");
+            }
+        }
+
+        /**
+         * Whether the endpoint may be chosen.
+         */
+        boolean isAvailable(final long now) {
+            return ejectedUntil.get() <= now;
+        }
+
+        /**
+         * The load used to compare endpoints: the average response time
+         * scaled by the validations in flight.
+         */
+        double getLoad() {
+            return (Double.longBitsToDouble(averageLatency.get()) + 1.0) * (inFlight.get() + 1);
+        }
+
+        /**
+         * Get the prefix of the CAS server.
+         *
+         * @return The CAS server URL prefix.
+         */
+        public String getCasServerUrlPrefix() {
+            return casServerUrlPrefix;
+        }
+
+        /**
+         * Get the validator for the CAS server.
+         *
+         * @return The validator.
+         */
+        public TicketValidator getValidator() {
+            return validator;
+        }
+
+        /**
+         * Get the moving average response time.
+         *
+         * @return The average response time in milliseconds.
+         */
+        public double getAverageLatency() {
+            return Double.longBitsToDouble(averageLatency.get());
+        }
+
+        /**
+         * Get the number of times the endpoint has been ejected.
+         *
+         * @return The ejection count.
+         */
+        public long getEjectionCount() {
+            return ejections.get();
+        }
+    }
+
+}
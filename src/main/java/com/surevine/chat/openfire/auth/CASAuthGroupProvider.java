@@ -0,0 +1,162 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.group.AbstractGroupProvider;
+import org.jivesoftware.openfire.group.Group;
+import org.jivesoftware.openfire.group.GroupNotFoundException;
+import org.jivesoftware.openfire.group.GroupProvider;
+import org.jivesoftware.util.JiveProperties;
+import org.xmpp.packet.JID;
+
+/**
+ * A read only <code>GroupProvider</code> serving group memberships from the
+ * attributes CAS released at each user's last login, held in the shared
+ * <code>CASAuthAttributeStore</code>.
+ * <p/>
+ * The groups of a user are answered from the store, falling back to the
+ * fallback provider, if one is configured, for a user who has not logged
+ * in since Openfire started. The store only knows the members who have
+ * logged in, so whole groups and group listings come from the fallback
+ * provider when there is one, and from the store otherwise.
+ */
+public class CASAuthGroupProvider extends AbstractGroupProvider {
+
+    /**
+     * The store of released attributes.
+     */
+    private final CASAuthAttributeStore store;
+
+    /**
+     * The provider consulted for complete groups and for users not in the
+     * store, or <code>null</code>.
+     */
+    private final GroupProvider fallback;
+
+    /**
+     * Constructs a new provider using the shared attribute store and the
+     * fallback provider configured in the {@link JiveProperties} singleton.
+     */
+    public CASAuthGroupProvider() {
+        final CASAuthProviderConfig config = new CASAuthProviderConfig(JiveProperties.getInstance());
+        this.store = CASAuthAttributeStore.getInstance(config);
+        this.fallback = CASAuthUserProvider.createFallback(
+                config.getAttributeStoreFallbackGroupProvider(), GroupProvider.class);
+    }
+
+    /**
+     * Constructs a new provider.
+     *
+     * @param store    The store of released attributes.
+     * @param fallback The provider consulted for complete groups and for
+     *                 users not in the store, or <code>null</code> for none.
+     */
+    public CASAuthGroupProvider(final CASAuthAttributeStore store, final GroupProvider fallback) {
+        if (store == null) {
+            throw new IllegalArgumentException("Attribute store not defined");
+        }
+        this.store = store;
+        this.fallback = fallback;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Group getGroup(final String name) throws GroupNotFoundException {
+        if (fallback != null) {
+            return fallback.getGroup(name);
+        }
+        final List<String> usernames = store.getGroupMembers(name);
+        if (usernames == null) {
+            throw new GroupNotFoundException("No CAS attributes for group " + name);
+        }
+        final List<JID> members = new ArrayList<JID>(usernames.size());
+        for (String username : usernames) {
+            members.add(createJID(username));
+        }
+        return new Group(name, "", members, Collections.<JID>emptyList());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getGroupCount() {
+        return fallback != null ? fallback.getGroupCount() : store.getGroupNames().size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<String> getGroupNames() {
+        return fallback != null ? fallback.getGroupNames() : store.getGroupNames();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<String> getGroupNames(final int startIndex, final int numResults) {
+        if (fallback != null) {
+            return fallback.getGroupNames(startIndex, numResults);
+        }
+        final List<String> names = store.getGroupNames();
+        final int from = Math.min(startIndex, names.size());
+        final int to = (int) Math.min((long) from + numResults, names.size());
+        return names.subList(from, to);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<String> getGroupNames(final JID user) {
+        final CASAuthAttributeStore.UserAttributes attributes = store.get(user.getNode());
+        if (attributes != null) {
+            return attributes.getGroups();
+        }
+        if (fallback != null) {
+            return fallback.getGroupNames(user);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get the fallback provider.
+     *
+     * @return The fallback provider, or <code>null</code> if there is none.
+     */
+    public GroupProvider getFallback() {
+        return fallback;
+    }
+
+    /**
+     * Create the JID of a local user.
+     *
+     * @param username The username.
+     * @return The bare JID.
+     */
+    JID createJID(final String username) {
+        return XMPPServer.getInstance().createJID(username, null);
+    }
+}
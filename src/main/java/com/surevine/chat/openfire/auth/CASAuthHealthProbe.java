@@ -0,0 +1,459 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.jivesoftware.util.Log;
+
+/**
+ * Warms up the path to CAS in the background when a validator is built, and
+ * then keeps it warm and reports whether each CAS server can be reached.
+ * <p/>
+ * The warm up resolves the address of each CAS server, then validates a
+ * probe ticket over several connections to each server at once. CAS rejects
+ * the probe ticket, but answering it sets up TCP and TLS, loads the CAS
+ * client and parser classes, and leaves the connections in the pool for
+ * the first logins. The same probe is repeated at a fixed interval, which
+ * keeps the connections and the cached addresses fresh. A server is
+ * reachable if it answered any probe, whatever the answer.
+ * <p/>
+ * Each probe is a failed validation in the CAS server's own logs.
+ */
+public class CASAuthHealthProbe {
+
+    /**
+     * The ticket validated by each probe. CAS does not issue tickets with
+     * this prefix, so it is always rejected.
+     */
+    public static final String PROBE_TICKET = "ST-CASAuthProvider-probe";
+
+    /**
+     * How long to wait for the probes when there is no probe interval, in
+     * milliseconds.
+     */
+    private static final long DEFAULT_PROBE_TIMEOUT = 30000L;
+
+    /**
+     * The CAS servers probed.
+     */
+    private final List<Target> targets;
+
+    /**
+     * The service the probe ticket is validated for.
+     */
+    private final String serviceUrl;
+
+    /**
+     * Resolves the CAS hosts, or <code>null</code> to use the system
+     * resolver.
+     */
+    private final CASAuthDnsCache dnsCache;
+
+    /**
+     * The number of connections to each CAS server kept warm.
+     */
+    private final int connections;
+
+    /**
+     * The interval between probes in milliseconds, or 0 to warm up once.
+     */
+    private final long interval;
+
+    /**
+     * Runs the warm up and the periodic probes.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Runs the probes of every connection at once. Its threads exit when idle.
+     */
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Whether the warm up has finished.
+     */
+    private volatile boolean warmedUp;
+
+    /**
+     * Constructs a new probe.
+     *
+     * @param targets     The CAS servers to probe.
+     * @param serviceUrl  The service the probe ticket is validated for.
+     * @param dnsCache    Resolves the CAS hosts, or <code>null</code> to use
+     *                    the system resolver.
+     * @param connections The number of connections to each CAS server kept
+     *                    warm.
+     * @param interval    The interval between probes in milliseconds, or 0
+     *                    to warm up once only.
+     */
+    public CASAuthHealthProbe(final List<Target> targets, final String serviceUrl,
+                              final CASAuthDnsCache dnsCache, final int connections,
+                              final long interval) {
+        if (targets == null || targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one CAS server is required");
+        }
+        if (connections <= 0) {
+            throw new IllegalArgumentException(
+                    "Number of connections must be greater than zero");
+        }
+        if (interval < 0) {
+            throw new IllegalArgumentException("Probe interval must not be negative");
+        }
+        this.targets = Collections.unmodifiableList(new ArrayList<Target>(targets));
+        this.serviceUrl = serviceUrl;
+        this.dnsCache = dnsCache;
+        this.connections = connections;
+        this.interval = interval;
+
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "CASAuthProvider-probe-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        final int threads = connections * this.targets.size();
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        workers = new ThreadPoolExecutor(threads, threads, 10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start the warm up in the background, followed by the periodic probes.
+     */
+    public void start() {
+        scheduler.execute(new Runnable() {
+            public void run() {
+                warmUp();
+            }
+        });
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    probe();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop probing. A probe under way is abandoned.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Resolve every CAS server and open the warm connections.
+     */
+    void warmUp() {
+        final long start = System.currentTimeMillis();
+        for (final Target target : targets) {
+            final String host = target.getHost();
+            if (host == null) {
+                continue;
+            }
+            try {
+                if (dnsCache != null) {
+                    dnsCache.refresh(host);
+                } else {
+                    InetAddress.getAllByName(host);
+                }
+            } catch (final UnknownHostException uhe) {
+                Log.warn("CASAuthProvider: Unable to resolve CAS server " + host + ": " + uhe.getMessage());
+            }
+        }
+
+        probeAll();
+        warmedUp = true;
+
+        int reachable = 0;
+        for (final Target target : targets) {
+            if (target.isReachable()) {
+                ++reachable;
+            }
+        }
+        Log.info("CASAuthProvider: Warmed up " + reachable + " of " + targets.size()
+                + " CAS servers in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Refresh the cached addresses which are due and probe every connection.
+     */
+    void probe() {
+        if (dnsCache != null) {
+            dnsCache.refreshDue(interval);
+        }
+        probeAll();
+    }
+
+    /**
+     * Probe every connection to every CAS server at once, and record which
+     * servers answered.
+     */
+    private void probeAll() {
+        final List<List<Future<Throwable>>> results = new ArrayList<List<Future<Throwable>>>(targets.size());
+        try {
+            for (final Target target : targets) {
+                final List<Future<Throwable>> futures = new ArrayList<Future<Throwable>>(connections);
+                for (int i = 0; i < connections; ++i) {
+                    futures.add(workers.submit(new Callable<Throwable>() {
+                        public Throwable call() {
+                            return probe(target);
+                        }
+                    }));
+                }
+                results.add(futures);
+            }
+        } catch (final RejectedExecutionException ree) {
+            // Shut down while probing
+            return;
+        }
+
+        final long deadline = System.currentTimeMillis()
+                + (interval > 0 ? interval : DEFAULT_PROBE_TIMEOUT);
+        for (int t = 0; t < targets.size(); ++t) {
+            boolean answered = false;
+            Throwable failure = null;
+            for (final Future<Throwable> future : results.get(t)) {
+                try {
+                    final Throwable result = future.get(
+                            Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (result == null) {
+                        answered = true;
+                    } else {
+                        failure = result;
+                    }
+                } catch (final TimeoutException te) {
+                    future.cancel(true);
+                    failure = te;
+                } catch (final ExecutionException ee) {
+                    failure = ee.getCause();
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            targets.get(t).record(answered, failure);
+        }
+    }
+
+    /**
+     * Validate the probe ticket once.
+     *
+     * @param target The CAS server.
+     * @return <code>null</code> if CAS answered, otherwise why it did not.
+     */
+    private Throwable probe(final Target target) {
+        try {
+            target.getValidator().validate(PROBE_TICKET, serviceUrl);
+            return null;
+        } catch (final TicketValidationException tve) {
+            // CAS answered, which is all the probe asks
+            return null;
+        } catch (final RuntimeException re) {
+            return re;
+        }
+    }
+
+    /**
+     * Whether the warm up has finished.
+     *
+     * @return <code>true</code> if the warm up has finished.
+     */
+    public boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * Whether any CAS server answered its last probe.
+     *
+     * @return <code>true</code> if a CAS server is reachable.
+     */
+    public boolean isReachable() {
+        for (final Target target : targets) {
+            if (target.isReachable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the CAS servers probed.
+     *
+     * @return The probed servers.
+     */
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    /**
+     * A CAS server and the outcome of its probes.
+     */
+    public static class Target {
+
+        /**
+         * The prefix of the CAS server.
+         */
+        private final String casServerUrlPrefix;
+
+        /**
+         * The validator for the CAS server.
+         */
+        private final TicketValidator validator;
+
+        /**
+         * Whether the server answered its last probe. Servers are assumed
+         * reachable until probed.
+         */
+        private volatile boolean reachable = true;
+
+        /**
+         * When the server was last probed, in milliseconds since the epoch.
+         */
+        private volatile long lastProbeTime;
+
+        /**
+         * The number of probes in a row the server has not answered.
+         */
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        /**
+         * Constructs a new target.
+         *
+         * @param casServerUrlPrefix The prefix of the CAS server.
+         * @param validator          The validator for the CAS server.
+         */
+        public Target(final String casServerUrlPrefix, final TicketValidator validator) {
+            this.casServerUrlPrefix = casServerUrlPrefix;
+            this.validator = validator;
+        }
+
+        /**
+         * Record the outcome of a round of probes, logging any change.
+         *
+         * @param answered Whether the server answered any probe.
+         * @param failure  Why a probe was not answered, or <code>null</code>.
+         */
+        void record(final boolean answered, final Throwable failure) {
+            lastProbeTime = System.currentTimeMillis();
+            final boolean wasReachable = reachable;
+            reachable = answered;
+            if (answered) {
+                consecutiveFailures.set(0);
+                if (!wasReachable) {
+                    Log.info("CASAuthProvider: CAS server " + casServerUrlPrefix + " is reachable again.");
+                }
+            } else {
+                consecutiveFailures.incrementAndGet();
+                if (wasReachable) {
+                    Log.warn("CASAuthProvider: CAS server " + casServerUrlPrefix + " is unreachable: " + failure);
+                }
+            }
+        }
+
+        /**
+         * Get the host of the CAS server.
+         *
+         * @return The host, or <code>null</code> if the prefix is not a URL.
+         */
+        String getHost() {
+            try {
+                return new URL(casServerUrlPrefix).getHost();
+            } catch (final MalformedURLException mue) {
+                return null;
+            }
+        }
+
+        /**
+         * Get the prefix of the CAS server.
+         *
+         * @return The CAS server URL prefix.
+         */
+        public String getCasServerUrlPrefix() {
+            return casServerUrlPrefix;
+        }
+
+        /**
+         * Get the validator for the CAS server.
+         *
+         * @return The validator.
+         */
+        public TicketValidator getValidator() {
+            return validator;
+        }
+
+        /**
+         * Whether the server answered its last probe.
+         *
+         * @return <code>true</code> if the server is reachable or has not
+         * been probed yet.
+         */
+        public boolean isReachable() {
+            return reachable;
+        }
+
+        /**
+         * Get when the server was last probed.
+         *
+         * @return The time in milliseconds since the epoch, or 0 if it has
+         * not been probed.
+         */
+        public long getLastProbeTime() {
+            return lastProbeTime;
+        }
+
+        /**
+         * Get the number of rounds of probes in a row the server has not
+         * answered.
+         *
+         * @return The number of failures.
+         */
+        public int getConsecutiveFailures() {
+            return consecutiveFailures.get();
+        }
+    }
+}
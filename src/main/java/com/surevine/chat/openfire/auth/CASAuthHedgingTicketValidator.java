@@ -0,0 +1,404 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+
+/**
+ * A <code>TicketValidator</code> which hedges slow validations. If the CAS
+ * server chosen by the <code>CASAuthEndpointBalancer</code> has not answered
+ * within a tracked percentile of recent response times, the validation is
+ * also sent to another CAS server and the first successful answer is used.
+ * <p/>
+ * CAS tickets are single-use, so once one server has consumed a ticket the
+ * other will reject it. A rejection is therefore only reported once every
+ * attempt has answered. The number of hedges is capped at a fixed
+ * proportion of validations so that hedging cannot multiply the load on a
+ * struggling CAS cluster.
+ * <p/>
+ * A validation may also give up after a multiple of the same percentile,
+ * clamped to the HTTP read timeout, so that the time allowed to CAS follows
+ * its observed latency rather than a fixed value. Attempts still reading
+ * from CAS when it gives up are cancelled.
+ */
+public class CASAuthHedgingTicketValidator implements TicketValidator {
+
+    /**
+     * Units of hedge budget making up one hedge.
+     */
+    private static final long HEDGE_COST = 100L;
+
+    /**
+     * The maximum number of hedges which may be saved up.
+     */
+    private static final long MAX_SAVED_HEDGES = 10L;
+
+    /**
+     * The balancer which chooses CAS servers.
+     */
+    private final CASAuthEndpointBalancer balancer;
+
+    /**
+     * The executor on which attempts run.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The tracker of recent response times.
+     */
+    private final CASAuthLatencyTracker latencyTracker;
+
+    /**
+     * The minimum hedge delay in milliseconds.
+     */
+    private final long minDelay;
+
+    /**
+     * The maximum hedge delay in milliseconds.
+     */
+    private final long maxDelay;
+
+    /**
+     * The hedge budget added by each validation, as a percentage of a hedge.
+     */
+    private final int maxHedgePercent;
+
+    /**
+     * The multiple of the hedge delay after which a validation gives up, or
+     * 0 to wait for every attempt to answer.
+     */
+    private final int timeoutMultiple;
+
+    /**
+     * The longest a validation waits, in milliseconds.
+     */
+    private final long maxTimeout;
+
+    /**
+     * The hedge budget available, in hundredths of a hedge.
+     */
+    private final AtomicLong budget = new AtomicLong();
+
+    /**
+     * The number of hedges sent.
+     */
+    private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * The number of validations answered first by a hedge.
+     */
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * The number of validations which gave up waiting for CAS.
+     */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Constructs a new hedging validator.
+     *
+     * @param balancer        The balancer which chooses CAS servers.
+     * @param executor        The executor on which attempts run.
+     * @param latencyTracker  The tracker of recent response times, whose
+     *                        percentile is the hedge delay.
+     * @param minDelay        The minimum hedge delay in milliseconds.
+     * @param maxDelay        The maximum hedge delay in milliseconds.
+     * @param maxHedgePercent The maximum percentage of validations which may
+     *                        be hedged.
+     */
+    public CASAuthHedgingTicketValidator(final CASAuthEndpointBalancer balancer,
+                                         final ExecutorService executor, final CASAuthLatencyTracker latencyTracker,
+                                         final long minDelay, final long maxDelay, final int maxHedgePercent) {
+        this(balancer, executor, latencyTracker, minDelay, maxDelay, maxHedgePercent, 0, 0L);
+    }
+
+    /**
+     * Constructs a new hedging validator which gives up after a multiple of
+     * the hedge delay.
+     *
+     * @param balancer        The balancer which chooses CAS servers.
+     * @param executor        The executor on which attempts run.
+     * @param latencyTracker  The tracker of recent response times, whose
+     *                        percentile is the hedge delay.
+     * @param minDelay        The minimum hedge delay in milliseconds.
+     * @param maxDelay        The maximum hedge delay in milliseconds.
+     * @param maxHedgePercent The maximum percentage of validations which may
+     *                        be hedged.
+     * @param timeoutMultiple The multiple of the hedge delay after which a
+     *                        validation gives up, or 0 to wait for every
+     *                        attempt to answer.
+     * @param maxTimeout      The longest a validation waits, in
+     *                        milliseconds.
+     */
+    public CASAuthHedgingTicketValidator(final CASAuthEndpointBalancer balancer,
+                                         final ExecutorService executor, final CASAuthLatencyTracker latencyTracker,
+                                         final long minDelay, final long maxDelay, final int maxHedgePercent,
+                                         final int timeoutMultiple, final long maxTimeout) {
+        this.balancer = balancer;
+        this.executor = executor;
+        this.latencyTracker = latencyTracker;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.maxHedgePercent = maxHedgePercent;
+        this.timeoutMultiple = timeoutMultiple;
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * Validate the ticket, hedging with a second CAS server if the first is
+     * slow to answer.
+     *
+     * @param ticket  The CAS ticket.
+     * @param service The service URL.
+     * @return The assertion returned by CAS.
+     * @throws TicketValidationException If CAS rejected the ticket.
+     */
+    public Assertion validate(final String ticket, final String service)
+            throws TicketValidationException {
+        depositBudget();
+
+        final CompletionService<Assertion> completion =
+                new ExecutorCompletionService<Assertion>(executor);
+        final List<Future<Assertion>> attempts = new ArrayList<Future<Assertion>>(2);
+        final CASAuthEndpointBalancer.Endpoint primary = balancer.choose(null);
+
+        try {
+            attempts.add(completion.submit(attempt(primary, ticket, service)));
+        } catch (final RejectedExecutionException ree) {
+            // No capacity to run attempts in parallel, so validate directly
+            return timed(primary, ticket, service);
+        }
+
+        Future<Assertion> hedge = null;
+        try {
+            final long delay = latencyTracker.getPercentile(minDelay, maxDelay);
+            final long timeout = getTimeout(delay);
+            final long giveUpAt = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0L;
+            Future<Assertion> done = completion.poll(delay, TimeUnit.MILLISECONDS);
+
+            if (done == null) {
+                final CASAuthEndpointBalancer.Endpoint secondary = balancer.choose(primary);
+                if (secondary != primary && withdrawBudget()) {
+                    try {
+                        hedge = completion.submit(attempt(secondary, ticket, service));
+                        attempts.add(hedge);
+                        hedges.incrementAndGet();
+                    } catch (final RejectedExecutionException ree) {
+                        refundBudget();
+                    }
+                }
+                done = next(completion, giveUpAt, timeout);
+            }
+
+            // Use the first successful answer, otherwise report the first
+            // rejection, otherwise the first failure
+            TicketValidationException rejection = null;
+            RuntimeException failure = null;
+            int remaining = attempts.size();
+            while (true) {
+                --remaining;
+                try {
+                    final Assertion assertion = done.get();
+                    if (done == hedge) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    return assertion;
+                } catch (final ExecutionException ee) {
+                    if (ee.getCause() instanceof TicketValidationException) {
+                        rejection = rejection != null ? rejection : (TicketValidationException) ee.getCause();
+                    } else if (failure == null) {
+                        failure = ee.getCause() instanceof RuntimeException
+                                ? (RuntimeException) ee.getCause() : new RuntimeException(ee.getCause());
+                    }
+                }
+                if (remaining == 0) {
+                    break;
+                }
+                done = next(completion, giveUpAt, timeout);
+            }
+
+            if (rejection != null) {
+                throw rejection;
+            }
+            throw failure;
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } finally {
+            for (Future<Assertion> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Get the number of hedges sent.
+     *
+     * @return The hedge count.
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * Stop the hedging threads once the attempts under way have finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Get the number of validations which gave up waiting for CAS.
+     *
+     * @return The timeout count.
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * Get the time a validation with the given hedge delay waits for CAS.
+     *
+     * @param delay The hedge delay in milliseconds.
+     * @return The timeout in milliseconds, or 0 to wait for every attempt.
+     */
+    long getTimeout(final long delay) {
+        if (timeoutMultiple <= 0) {
+            return 0L;
+        }
+        final long timeout = delay * timeoutMultiple;
+        return maxTimeout > 0 ? Math.min(timeout, maxTimeout) : timeout;
+    }
+
+    /**
+     * Get the number of validations answered first by a hedge.
+     *
+     * @return The hedge win count.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Get the tracker of recent response times.
+     *
+     * @return The latency tracker.
+     */
+    public CASAuthLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * Wait for the next attempt to answer, giving up at the given time if
+     * there is a timeout.
+     */
+    private Future<Assertion> next(final CompletionService<Assertion> completion,
+                                   final long giveUpAt, final long timeout) throws InterruptedException {
+        if (timeout <= 0) {
+            return completion.take();
+        }
+        final Future<Assertion> done = completion.poll(giveUpAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (done == null) {
+            timeouts.incrementAndGet();
+            throw new RuntimeException("CAS did not answer within " + timeout + "ms");
+        }
+        return done;
+    }
+
+    /**
+     * Create an attempt to validate the ticket with one CAS server.
+     */
+    private Callable<Assertion> attempt(final CASAuthEndpointBalancer.Endpoint endpoint,
+                                        final String ticket, final String service) {
+        return new Callable<Assertion>() {
+            public Assertion call() throws TicketValidationException {
+                return timed(endpoint, ticket, service);
+            }
+        };
+    }
+
+    /**
+     * Validate the ticket with one CAS server, recording its response time.
+     */
+    private Assertion timed(final CASAuthEndpointBalancer.Endpoint endpoint,
+                            final String ticket, final String service) throws TicketValidationException {
+        final long start = System.currentTimeMillis();
+        final Assertion assertion;
+        try {
+            assertion = endpoint.validate(ticket, service, balancer);
+        } catch (final TicketValidationException tve) {
+            latencyTracker.record(System.currentTimeMillis() - start);
+            throw tve;
+        }
+        // Only answers are recorded; a failure says nothing about latency
+        latencyTracker.record(System.currentTimeMillis() - start);
+        return assertion;
+    }
+
+    /**
+     * Add this validation's share of hedge budget.
+     */
+    private void depositBudget() {
+        final long max = MAX_SAVED_HEDGES * HEDGE_COST;
+        while (true) {
+            final long current = budget.get();
+            final long updated = Math.min(max, current + maxHedgePercent);
+            if (current == updated || budget.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take the budget for one hedge if it is available.
+     */
+    private boolean withdrawBudget() {
+        while (true) {
+            final long current = budget.get();
+            if (current < HEDGE_COST) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - HEDGE_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return the budget for a hedge which could not be sent.
+     */
+    private void refundBudget() {
+        budget.addAndGet(HEDGE_COST);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Retrieves responses from the CAS server for the ticket validators created
+ * by <code>CASAuthTicketValidatorFactory</code>.
+ */
+public abstract class CASAuthHttpTransport {
+
+    /**
+     * The character set of CAS responses.
+     */
+    static final String RESPONSE_CHARSET = "UTF-8";
+
+    /**
+     * Size of the buffer used to read responses.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Issue a GET request and open the body of the response. The caller must
+     * close the returned stream, which releases any underlying connection.
+     *
+     * @param url The URL to retrieve.
+     * @return The response body.
+     * @throws IOException If the server could not be contacted or did not
+     *                     return a successful response.
+     */
+    public abstract InputStream openStream(URL url) throws IOException;
+
+    /**
+     * Issue a GET request and read the whole body of the response.
+     *
+     * @param url The URL to retrieve.
+     * @return The response body.
+     * @throws IOException If the server could not be contacted or did not
+     *                     return a successful response.
+     */
+    public String getResponse(final String url) throws IOException {
+        final InputStream in = openStream(new URL(url));
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString(RESPONSE_CHARSET);
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,362 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal pull parser for JSON, which reads a document as it arrives
+ * without building a tree, so a caller can pick out the members it needs
+ * and skip the rest. Numbers and literals are returned as their text.
+ * <p/>
+ * Instances are not thread safe.
+ */
+class CASAuthJsonReader {
+
+    /**
+     * The deepest nesting of objects and arrays accepted.
+     */
+    static final int MAX_DEPTH = 32;
+
+    /**
+     * The source of the document.
+     */
+    private final Reader in;
+
+    /**
+     * Characters read from the source and not yet consumed.
+     */
+    private final char[] buffer = new char[1024];
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * The current nesting of objects and arrays.
+     */
+    private int depth;
+
+    /**
+     * Whether a comma is needed before the next member or element.
+     */
+    private boolean afterValue;
+
+    /**
+     * Reused to build strings.
+     */
+    private final StringBuilder text = new StringBuilder(64);
+
+    /**
+     * Constructs a new reader.
+     *
+     * @param in The source of the document.
+     */
+    CASAuthJsonReader(final Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Get the first character of the next value without consuming it.
+     *
+     * @return <code>{</code>, <code>[</code>, <code>"</code>, or the first
+     * character of a number or literal.
+     * @throws IOException If the document ends.
+     */
+    char peek() throws IOException {
+        return nextNonWhitespace(false);
+    }
+
+    /**
+     * Consume the start of an object.
+     */
+    void beginObject() throws IOException {
+        expect('{');
+        enter();
+    }
+
+    /**
+     * Consume the end of an object.
+     */
+    void endObject() throws IOException {
+        expect('}');
+        leave();
+    }
+
+    /**
+     * Consume the start of an array.
+     */
+    void beginArray() throws IOException {
+        expect('[');
+        enter();
+    }
+
+    /**
+     * Consume the end of an array.
+     */
+    void endArray() throws IOException {
+        expect(']');
+        leave();
+    }
+
+    /**
+     * Whether the current object or array has another member or element,
+     * consuming the comma before it.
+     *
+     * @return <code>true</code> if there is another member or element.
+     * @throws IOException If the document is malformed.
+     */
+    boolean hasNext() throws IOException {
+        final char c = nextNonWhitespace(false);
+        if (c == '}' || c == ']') {
+            return false;
+        }
+        if (afterValue) {
+            if (c != ',') {
+                throw syntaxError("Expected ',' but found '" + c + "'");
+            }
+            position++;
+            afterValue = false;
+        }
+        return true;
+    }
+
+    /**
+     * Consume the name of an object member and the colon after it.
+     *
+     * @return The name.
+     * @throws IOException If the document is malformed.
+     */
+    String nextName() throws IOException {
+        if (nextNonWhitespace(true) != '"') {
+            throw syntaxError("Expected a member name");
+        }
+        final String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consume a string, number or literal.
+     *
+     * @return The string, the text of the number or literal, or
+     * <code>null</code> for the <code>null</code> literal.
+     * @throws IOException If the next value is an object or array, or the
+     *                     document is malformed.
+     */
+    String nextString() throws IOException {
+        final char c = nextNonWhitespace(true);
+        final String value;
+        if (c == '"') {
+            value = readString();
+        } else if (c == '{' || c == '[') {
+            throw syntaxError("Expected a string but found '" + c + "'");
+        } else {
+            value = readLiteral(c);
+        }
+        afterValue = true;
+        return "null".equals(value) && c != '"' ? null : value;
+    }
+
+    /**
+     * Consume the next value, whatever it is.
+     *
+     * @throws IOException If the document is malformed.
+     */
+    void skipValue() throws IOException {
+        final char c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            endArray();
+        } else {
+            nextString();
+        }
+    }
+
+    private void enter() throws IOException {
+        if (++depth > MAX_DEPTH) {
+            throw syntaxError("Document nested too deeply");
+        }
+        afterValue = false;
+    }
+
+    private void leave() {
+        depth--;
+        afterValue = true;
+    }
+
+    /**
+     * Consume an expected character.
+     */
+    private void expect(final char expected) throws IOException {
+        final char c = nextNonWhitespace(true);
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but found '" + c + "'");
+        }
+    }
+
+    /**
+     * Read the rest of a string whose opening quote has been consumed.
+     */
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            final char c = read();
+            if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                final char escaped = read();
+                switch (escaped) {
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            final int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw syntaxError("Invalid unicode escape");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        text.append((char) code);
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append(escaped);
+                        break;
+                    default:
+                        throw syntaxError("Invalid escape '\\" + escaped + "'");
+                }
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            } else {
+                text.append(c);
+            }
+        }
+    }
+
+    /**
+     * Read the rest of a number or literal whose first character has been
+     * consumed.
+     */
+    private String readLiteral(final char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (position < limit || fill()) {
+            final char c = buffer[position];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == '"'
+                    || c == '{' || c == '[' || isWhitespace(c)) {
+                break;
+            }
+            text.append(c);
+            position++;
+        }
+        final String literal = text.toString();
+        if (!"true".equals(literal) && !"false".equals(literal) && !"null".equals(literal)
+                && !isNumber(literal)) {
+            throw syntaxError("Unexpected value '" + literal + "'");
+        }
+        return literal;
+    }
+
+    /**
+     * Find the next character which is not whitespace.
+     *
+     * @param consume Whether to consume it.
+     */
+    private char nextNonWhitespace(final boolean consume) throws IOException {
+        while (position < limit || fill()) {
+            final char c = buffer[position];
+            if (!isWhitespace(c)) {
+                if (consume) {
+                    position++;
+                }
+                return c;
+            }
+            position++;
+        }
+        throw syntaxError("Unexpected end of document");
+    }
+
+    private char read() throws IOException {
+        if (position == limit && !fill()) {
+            throw syntaxError("Unexpected end of document");
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Refill the buffer.
+     *
+     * @return <code>false</code> if the document has ended.
+     */
+    private boolean fill() throws IOException {
+        final int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean isNumber(final String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            final char c = literal.charAt(i);
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.' && c != 'e' && c != 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IOException syntaxError(final String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size latency histogram with log-linear buckets, in the manner of
+ * HdrHistogram. Values below 128 have a bucket each; above that every power
+ * of two is split into 64 buckets, so each recorded value is within about
+ * 1.5% of the value reported for it. Recording is a single atomic increment
+ * and never allocates.
+ */
+public class CASAuthLatencyHistogram {
+
+    /**
+     * The number of values with a bucket of their own.
+     */
+    private static final int SUB_BUCKET_COUNT = 128;
+
+    /**
+     * The number of buckets each power of two above the linear range is split
+     * into.
+     */
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /**
+     * The number of powers of two above the linear range, covering values up
+     * to 2^38 (over 76 hours in microseconds).
+     */
+    private static final int MAGNITUDES = 31;
+
+    /**
+     * The total number of buckets.
+     */
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + MAGNITUDES * SUB_BUCKET_HALF_COUNT;
+
+    /**
+     * The largest value which can be recorded; larger values are clamped.
+     */
+    static final long MAX_VALUE = highestEquivalentValue(BUCKET_COUNT - 1);
+
+    /**
+     * The count in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Record a value.
+     *
+     * @param value The value, which is clamped to the range the histogram
+     *              covers.
+     */
+    public void record(final long value) {
+        counts.incrementAndGet(bucketIndex(value));
+    }
+
+    /**
+     * Copy the current bucket counts. Concurrent recording may or may not be
+     * included.
+     *
+     * @return The bucket counts.
+     */
+    public long[] getCounts() {
+        final long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return The total count.
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Get the value at a percentile of everything recorded.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The highest value equivalent to the value at the percentile, or
+     * 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        return getValueAtPercentile(getCounts(), percentile);
+    }
+
+    /**
+     * Clear the histogram. Values recorded while clearing may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Get the value at a percentile of a set of bucket counts, such as the
+     * difference between two calls to {@link #getCounts()}.
+     *
+     * @param counts     The bucket counts.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The highest value equivalent to the value at the percentile, or
+     * 0 if the counts are empty.
+     */
+    public static long getValueAtPercentile(final long[] counts, final double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final double clamped = Math.min(100.0, Math.max(0.0, percentile));
+        final long target = Math.max(1, (long) Math.ceil(clamped / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= target) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Get the bucket a value is counted in.
+     *
+     * @param value The value.
+     * @return The bucket index.
+     */
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value >= MAX_VALUE) {
+            return BUCKET_COUNT - 1;
+        }
+        // Shift the value down until it lies in [64, 128)
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+                + (int) (value >> shift) - SUB_BUCKET_HALF_COUNT;
+    }
+
+    /**
+     * Get the largest value counted in a bucket.
+     *
+     * @param index The bucket index.
+     * @return The largest value in the bucket.
+     */
+    static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
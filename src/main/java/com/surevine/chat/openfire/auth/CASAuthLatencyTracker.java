@@ -0,0 +1,138 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the response times of recent CAS validations and derives a
+ * percentile from them, so that timeouts follow the observed latency of the
+ * CAS servers rather than a fixed value.
+ */
+public class CASAuthLatencyTracker {
+
+    /**
+     * The number of samples recorded between percentile recalculations.
+     */
+    private static final int RECALCULATE_EVERY = 16;
+
+    /**
+     * The most recent samples.
+     */
+    private final long[] samples;
+
+    /**
+     * The percentile to track.
+     */
+    private final int percentile;
+
+    /**
+     * The index of the next sample to record.
+     */
+    private int next;
+
+    /**
+     * The number of samples recorded, up to the size of the window.
+     */
+    private int count;
+
+    /**
+     * The number of samples recorded since the percentile was calculated.
+     */
+    private int sinceRecalculation;
+
+    /**
+     * The most recently calculated percentile, or -1 if there are not yet
+     * enough samples.
+     */
+    private volatile long currentPercentile = -1L;
+
+    /**
+     * Constructs a new tracker.
+     *
+     * @param windowSize The number of recent samples to consider.
+     * @param percentile The percentile to track, between 1 and 100.
+     */
+    public CASAuthLatencyTracker(final int windowSize, final int percentile) {
+        if (windowSize < RECALCULATE_EVERY) {
+            throw new IllegalArgumentException("Window size must be at least " + RECALCULATE_EVERY);
+        }
+        if (percentile < 1 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 1 and 100");
+        }
+        this.samples = new long[windowSize];
+        this.percentile = percentile;
+    }
+
+    /**
+     * Record the response time of a validation.
+     *
+     * @param latency The response time in milliseconds.
+     */
+    public void record(final long latency) {
+        long[] snapshot = null;
+
+        synchronized (samples) {
+            samples[next] = latency;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                ++count;
+            }
+            if (++sinceRecalculation >= RECALCULATE_EVERY) {
+                sinceRecalculation = 0;
+                snapshot = new long[count];
+                System.arraycopy(samples, 0, snapshot, 0, count);
+            }
+        }
+
+        // Sort outside the lock so recording threads are not held up
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            final int index = (int) Math.ceil(percentile / 100.0 * snapshot.length) - 1;
+            currentPercentile = snapshot[Math.max(0, index)];
+        }
+    }
+
+    /**
+     * Get the tracked percentile of recent response times.
+     *
+     * @return The percentile in milliseconds, or -1 if not enough samples
+     * have been recorded.
+     */
+    public long getPercentile() {
+        return currentPercentile;
+    }
+
+    /**
+     * Get the tracked percentile clamped to a range, falling back to the
+     * maximum until enough samples have been recorded.
+     *
+     * @param min The minimum value in milliseconds.
+     * @param max The maximum value in milliseconds.
+     * @return The clamped percentile in milliseconds.
+     */
+    public long getPercentile(final long min, final long max) {
+        final long value = currentPercentile;
+        if (value < 0) {
+            return max;
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A <code>CASAuthHttpTransport</code> which keeps a bounded pool of
+ * keep-alive connections to the CAS server, so that validations do not pay
+ * for a TCP and TLS handshake each time. A single instance is shared by every
+ * <code>CASAuthProvider</code> in the JVM.
+ */
+public class CASAuthPooledHttpTransport extends CASAuthHttpTransport {
+
+    /**
+     * The transport shared by every provider in the JVM.
+     */
+    private static CASAuthPooledHttpTransport sharedInstance;
+
+    /**
+     * The pooling HTTP client.
+     */
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * Constructs a new transport with its own connection pool.
+     *
+     * @param maxConnections         The maximum number of pooled connections.
+     * @param maxConnectionsPerRoute The maximum number of pooled connections
+     *                               to each CAS host.
+     * @param connectTimeout         The connect timeout in milliseconds.
+     * @param readTimeout            The read timeout in milliseconds.
+     * @param idleTimeout            How long an idle connection is kept in the
+     *                               pool, in milliseconds.
+     * @param gzip                   Whether to request compressed responses.
+     */
+    public CASAuthPooledHttpTransport(final int maxConnections,
+                                      final int maxConnectionsPerRoute, final int connectTimeout,
+                                      final int readTimeout, final long idleTimeout, final boolean gzip) {
+        this(maxConnections, maxConnectionsPerRoute, connectTimeout, readTimeout, idleTimeout,
+                gzip, null);
+    }
+
+    /**
+     * Constructs a new transport with its own connection pool and DNS
+     * resolver.
+     *
+     * @param maxConnections         The maximum number of pooled connections.
+     * @param maxConnectionsPerRoute The maximum number of pooled connections
+     *                               to each CAS host.
+     * @param connectTimeout         The connect timeout in milliseconds.
+     * @param readTimeout            The read timeout in milliseconds.
+     * @param idleTimeout            How long an idle connection is kept in the
+     *                               pool, in milliseconds.
+     * @param gzip                   Whether to request compressed responses.
+     * @param dnsResolver            Resolves the CAS hosts, or
+     *                               <code>null</code> to use the system
+     *                               resolver.
+     */
+    public CASAuthPooledHttpTransport(final int maxConnections,
+                                      final int maxConnectionsPerRoute, final int connectTimeout,
+                                      final int readTimeout, final long idleTimeout, final boolean gzip,
+                                      final DnsResolver dnsResolver) {
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+        final HttpClientBuilder builder = HttpClientBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .disableAuthCaching()
+                .disableRedirectHandling();
+        if (!gzip) {
+            builder.disableContentCompression();
+        }
+        if (dnsResolver != null) {
+            // HttpClient 4.5 only takes a resolver through the connection
+            // manager, which then owns the pool limits
+            final Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder
+                    .<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                    .build();
+            final PoolingHttpClientConnectionManager connectionManager =
+                    new PoolingHttpClientConnectionManager(socketFactories, dnsResolver);
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            builder.setConnectionManager(connectionManager);
+        }
+        httpClient = builder.build();
+    }
+
+    /**
+     * Get the transport shared by every provider in the JVM, creating it
+     * from the given configuration if it does not yet exist. Changes to the
+     * pool configuration take effect when Openfire is restarted.
+     *
+     * @param config The configuration to use if the transport is created.
+     * @return The shared transport.
+     */
+    public static synchronized CASAuthPooledHttpTransport getInstance(
+            final CASAuthProviderConfig config) {
+        if (sharedInstance == null) {
+            sharedInstance = new CASAuthPooledHttpTransport(
+                    config.getHttpMaxConnections(),
+                    config.getHttpMaxConnectionsPerRoute(),
+                    config.getHttpConnectTimeout(),
+                    config.getHttpReadTimeout(),
+                    config.getHttpIdleTimeout(),
+                    config.isHttpGzipEnabled(),
+                    config.isWarmupEnabled() ? CASAuthDnsCache.getInstance(config) : null);
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream openStream(final URL url) throws IOException {
+        final HttpGet request = new HttpGet(url.toExternalForm());
+        final CloseableHttpResponse response = httpClient.execute(request);
+        final int status = response.getStatusLine().getStatusCode();
+        final HttpEntity entity = response.getEntity();
+
+        if (status != HttpStatus.SC_OK || entity == null) {
+            try {
+                EntityUtils.consume(entity);
+            } finally {
+                response.close();
+            }
+            throw new IOException("CAS server returned HTTP status " + status);
+        }
+
+        return new ResponseStream(entity.getContent(), request, response);
+    }
+
+    /**
+     * Close the connection pool.
+     *
+     * @throws IOException If the pool could not be closed.
+     */
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * The content of a response. Closing it once the whole response has been
+     * read returns the connection to the pool. Closing it before then, such
+     * as when a response is too large, aborts the request rather than
+     * reading and discarding the rest, which a large or slow response would
+     * make take as long as reading it.
+     */
+    private static final class ResponseStream extends FilterInputStream {
+
+        private final HttpGet request;
+
+        private final CloseableHttpResponse response;
+
+        /**
+         * Whether the end of the response has been read.
+         */
+        private boolean complete;
+
+        ResponseStream(final InputStream in, final HttpGet request,
+                       final CloseableHttpResponse response) {
+            super(in);
+            this.request = request;
+            this.response = response;
+        }
+
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b < 0) {
+                complete = true;
+            }
+            return b;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n < 0) {
+                complete = true;
+            }
+            return n;
+        }
+
+        public void close() throws IOException {
+            if (complete) {
+                super.close();
+                return;
+            }
+            request.abort();
+            response.close();
+        }
+    }
+
+}
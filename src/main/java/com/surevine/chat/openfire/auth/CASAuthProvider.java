@@ -18,12 +18,19 @@
 
 package com.surevine.chat.openfire.auth;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.jivesoftware.openfire.auth.AuthProvider;
 import org.jivesoftware.openfire.auth.ConnectionException;
 import org.jivesoftware.openfire.auth.InternalUnauthenticatedException;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
 import org.jivesoftware.openfire.user.UserNotFoundException;
 import org.jivesoftware.util.JiveProperties;
+import org.jivesoftware.util.Log;
 
 /**
  * Provides an authentication extension that connects Openfire to CAS.
@@ -31,9 +38,23 @@ import org.jivesoftware.util.JiveProperties;
 public class CASAuthProvider implements AuthProvider {
 
     /**
-     * The Ticket Validator for CAS authentication.
+     * The Ticket Validator for CAS authentication. It is replaced when the
+     * configuration changes, so each authentication reads it once and
+     * finishes with the validator it started with.
+     */
+    volatile CASAuthTicketValidator ticketValidator;
+
+    /**
+     * Rebuilds the ticket validator when the configuration changes, or
+     * <code>null</code> if the configuration is only read at startup.
+     */
+    private CASAuthConfigReloader reloader;
+
+    /**
+     * Receives the resumption tokens issued, carried over to each new ticket
+     * validator, or <code>null</code> if none has been set.
      */
-    CASAuthTicketValidator ticketValidator;
+    private CASAuthResumptionTokenListener resumptionTokenListener;
 
     /**
      * Constructs a <code>CASAuthProvider</code> using configuration from the
@@ -44,6 +65,12 @@ public class CASAuthProvider implements AuthProvider {
         CASAuthProviderConfig config = new CASAuthProviderConfig(jiveProperties);
         CASAuthTicketValidatorFactory factory = new CASAuthTicketValidatorFactory();
         ticketValidator = factory.createCASAuthTicketValidator(config);
+
+        if (config.isReloadEnabled()) {
+            reloader = new CASAuthConfigReloader(this, jiveProperties, factory,
+                    config.getReloadDelay());
+            reloader.start();
+        }
     }
 
     /**
@@ -97,13 +124,200 @@ public class CASAuthProvider implements AuthProvider {
     public void authenticate(final String username, final String password)
             throws UnauthorizedException, ConnectionException,
             InternalUnauthenticatedException {
-        if (ticketValidator == null) {
+        // Openfire does not pass the client's address, so no address rate
+        // limit applies
+        authenticateFrom(username, password, null);
+    }
+
+    /**
+     * Authenticates a user as {@link #authenticate(String, String)} does,
+     * also limiting the rate of authentications from the client's address.
+     * Openfire does not pass the address to an AuthProvider, so this is for
+     * components which know it, such as a custom SASL mechanism.
+     *
+     * @param username      The username or full JID.
+     * @param password      The CAS ticket or resumption token.
+     * @param remoteAddress The address of the client, or <code>null</code>
+     *                      if it is not known.
+     * @throws UnauthorizedException            If the ticket is not valid.
+     * @throws ConnectionException              If CAS could not be
+     *                                          contacted, or the user or
+     *                                          address is over its rate limit.
+     * @throws InternalUnauthenticatedException Not thrown.
+     */
+    public void authenticateFrom(final String username, final String password,
+                                 final String remoteAddress)
+            throws UnauthorizedException, ConnectionException,
+            InternalUnauthenticatedException {
+        final CASAuthTicketValidator validator = enterTicketValidator();
+        if (validator == null) {
             throw new ConnectionException();
         }
 
+        try {
+            final CASAuthTraceRecorder traceRecorder = validator.getTraceRecorder();
+            if (traceRecorder == null) {
+                authenticateTicket(validator, username, password, remoteAddress);
+                return;
+            }
+
+            final long start = System.nanoTime();
+            String outcome = CASAuthTraceRecorder.FAILED;
+            try {
+                authenticateTicket(validator, username, password, remoteAddress);
+                outcome = CASAuthTraceRecorder.ACCEPTED;
+            } catch (final UnauthorizedException ue) {
+                outcome = CASAuthTraceRecorder.REJECTED;
+                throw ue;
+            } finally {
+                traceRecorder.record(username, password, outcome, System.nanoTime() - start);
+            }
+        } finally {
+            validator.exit();
+        }
+    }
+
+    /**
+     * Start an authentication with the current ticket validator. A validator
+     * replaced between being read and being entered is retired, so it is
+     * left and the new one read.
+     *
+     * @return The validator entered, or <code>null</code> if there is none.
+     */
+    private CASAuthTicketValidator enterTicketValidator() {
+        while (true) {
+            final CASAuthTicketValidator validator = ticketValidator;
+            if (validator == null) {
+                return null;
+            }
+            validator.enter();
+            if (!validator.isRetired()) {
+                return validator;
+            }
+            validator.exit();
+        }
+    }
+
+    /**
+     * Validates the ticket on the calling thread, or on the validator's
+     * executor if it has one. Resumption tokens are always verified on the
+     * calling thread.
+     *
+     * @param validator     The ticket validator.
+     * @param username      The username.
+     * @param ticket        The CAS ticket.
+     * @param remoteAddress The address of the client, or <code>null</code>.
+     * @throws UnauthorizedException If the ticket is not valid.
+     * @throws ConnectionException   If CAS could not be contacted, or the
+     *                               user or address is over its rate limit.
+     */
+    private void authenticateTicket(final CASAuthTicketValidator validator,
+                                    final String username, final String ticket,
+                                    final String remoteAddress)
+            throws UnauthorizedException, ConnectionException {
+        // A resumption token is checked locally, without contacting CAS
+        if (CASAuthResumptionTokens.isToken(ticket)) {
+            validator.authenticateResumptionToken(username, ticket);
+            return;
+        }
+
+        // A ticket answered from the caches costs CAS nothing, so it is
+        // neither rate limited nor queued
+        if (validator.authenticateFromCache(username, ticket)) {
+            return;
+        }
+
+        // A client retrying in a loop is refused before CAS is contacted
+        final CASAuthRateLimiter userRateLimiter = validator.getUserRateLimiter();
+        if (userRateLimiter != null && !userRateLimiter.tryAcquire(username)) {
+            Log.warn("CASAuthProvider: Too many authentications for user '" + username
+                    + "', refusing login.");
+            throw new ConnectionException("Too many CAS authentications for user");
+        }
+        final CASAuthRateLimiter addressRateLimiter = validator.getAddressRateLimiter();
+        if (addressRateLimiter != null && !addressRateLimiter.tryAcquire(remoteAddress)) {
+            Log.warn("CASAuthProvider: Too many authentications from " + remoteAddress
+                    + ", refusing login for user '" + username + "'.");
+            throw new ConnectionException("Too many CAS authentications from address");
+        }
+
+        // Under saturation, fail at once rather than queue behind slow
+        // calls to CAS
+        final CASAuthAdmissionControl admissionControl = validator.getAdmissionControl();
+        CASAuthAdmissionControl.Deadline deadline = null;
+        if (admissionControl != null) {
+            deadline = admissionControl.tryAdmit();
+            if (deadline == null) {
+                Log.warn("CASAuthProvider: Too many authentications pending, refusing login for user '"
+                        + username + "'.");
+                throw new ConnectionException("Too many CAS authentications pending");
+            }
+        }
+
         // Connect to CAS and validate the ticket.
         // The password field contains the CAS ticket.
-        ticketValidator.authenticateCASTicket(username, password);
+        if (validator.getExecutor() == null) {
+            try {
+                validator.validateAndCache(username, ticket, deadline);
+            } finally {
+                if (admissionControl != null) {
+                    admissionControl.release();
+                }
+            }
+        } else {
+            // An asynchronous validation releases its admission slot when it
+            // finishes, not when this thread stops waiting for it
+            final Future<Void> validation;
+            try {
+                validation = validator.validateAndCacheAsync(username, ticket, deadline);
+            } catch (final RejectedExecutionException ree) {
+                if (admissionControl != null) {
+                    admissionControl.release();
+                }
+                throw new ConnectionException("CAS validation queue is full");
+            }
+            awaitAuthentication(validator, validation, deadline);
+        }
+    }
+
+    /**
+     * Waits for a validation on the validator's executor no longer than the
+     * validation timeout or the deadline, so that a slow CAS server cannot
+     * hold the calling thread indefinitely.
+     *
+     * @param validator  The ticket validator.
+     * @param validation The validation under way.
+     * @param deadline   The deadline of the authentication, or
+     *                   <code>null</code> if it has none.
+     * @throws UnauthorizedException If the ticket is not valid.
+     * @throws ConnectionException   If the validation did not complete in
+     *                               time.
+     */
+    private void awaitAuthentication(final CASAuthTicketValidator validator,
+                                     final Future<Void> validation,
+                                     final CASAuthAdmissionControl.Deadline deadline)
+            throws UnauthorizedException, ConnectionException {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(validator.getValidationTimeout());
+        if (deadline != null) {
+            timeout = Math.min(timeout, deadline.remainingNanos());
+        }
+        try {
+            validation.get(timeout, TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException te) {
+            validation.cancel(true);
+            throw new ConnectionException("CAS validation timed out");
+        } catch (final InterruptedException ie) {
+            validation.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(ie);
+        } catch (final ExecutionException ee) {
+            if (ee.getCause() instanceof UnauthorizedException) {
+                throw (UnauthorizedException) ee.getCause();
+            } else if (ee.getCause() instanceof ConnectionException) {
+                throw (ConnectionException) ee.getCause();
+            }
+            throw new ConnectionException(ee.getCause());
+        }
     }
 
     /**
@@ -178,4 +392,77 @@ public class CASAuthProvider implements AuthProvider {
         return false;
     }
 
+    /**
+     * Set the listener which receives a resumption token each time CAS
+     * validates a user's ticket. A token lets the user log in again by
+     * presenting it as their password, without contacting CAS. It is bound
+     * to the user and the configured service and expires after
+     * <code>casAuthProvider.resumption.timeToLive</code>. AuthProvider cannot
+     * return data to the client, so the listener hands the token over. The
+     * listener is kept when the configuration is reloaded.
+     *
+     * @param listener The listener, or <code>null</code> to issue no tokens.
+     */
+    public synchronized void setResumptionTokenListener(final CASAuthResumptionTokenListener listener) {
+        resumptionTokenListener = listener;
+        final CASAuthTicketValidator validator = ticketValidator;
+        if (validator != null) {
+            validator.setResumptionTokenListener(listener);
+        }
+    }
+
+    /**
+     * Revoke a resumption token before it expires.
+     *
+     * @param token The token.
+     */
+    public void revokeResumptionToken(final String token) {
+        final CASAuthTicketValidator validator = ticketValidator;
+        if (validator != null && validator.getResumptionTokens() != null) {
+            validator.getResumptionTokens().revoke(token);
+        }
+    }
+
+    /**
+     * Revoke every resumption token issued to a user so far, for example
+     * when their account is disabled.
+     *
+     * @param username The user.
+     */
+    public void revokeResumptionTokens(final String username) {
+        final CASAuthTicketValidator validator = ticketValidator;
+        if (validator != null && validator.getResumptionTokens() != null) {
+            validator.getResumptionTokens().revokeUser(username);
+        }
+    }
+
+    /**
+     * Replace the ticket validator. Authentications already under way finish
+     * with the validator they started with, and should be waited for with
+     * {@link CASAuthTicketValidator#retire(long)}.
+     *
+     * @param validator The new ticket validator.
+     * @return The validator replaced.
+     */
+    synchronized CASAuthTicketValidator swapTicketValidator(
+            final CASAuthTicketValidator validator) {
+        final CASAuthTicketValidator previous = ticketValidator;
+        if (resumptionTokenListener != null) {
+            validator.setResumptionTokenListener(resumptionTokenListener);
+        }
+        ticketValidator = validator;
+        return previous;
+    }
+
+    /**
+     * Get the reloader which rebuilds the ticket validator when the
+     * configuration changes.
+     *
+     * @return The reloader, or <code>null</code> if the configuration is
+     * only read at startup.
+     */
+    CASAuthConfigReloader getReloader() {
+        return reloader;
+    }
+
 }
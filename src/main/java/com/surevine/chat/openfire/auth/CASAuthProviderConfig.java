@@ -18,10 +18,14 @@
 
 package com.surevine.chat.openfire.auth;
 
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.jivesoftware.util.Log;
+
 /**
  * Provides access to the configuration required for creating
  * <code>CASAuthProvider</code> instances.
@@ -33,6 +37,139 @@ public class CASAuthProviderConfig {
      */
     private static final String CAS_SERVER_URL_PREFIX = "casAuthProvider.casServerUrlPrefix";
 
+    /**
+     * Key corresponding to the endpoint ejection failure count.
+     */
+    private static final String ENDPOINT_EJECT_AFTER_FAILURES = "casAuthProvider.endpoint.ejectAfterFailures";
+
+    /**
+     * Key corresponding to the endpoint ejection duration.
+     */
+    private static final String ENDPOINT_EJECT_DURATION = "casAuthProvider.endpoint.ejectDuration";
+
+    /**
+     * Key corresponding to enabling hedged validation.
+     */
+    private static final String HEDGE_ENABLED = "casAuthProvider.hedge.enabled";
+
+    /**
+     * Key corresponding to the response time percentile after which a
+     * validation is hedged.
+     */
+    private static final String HEDGE_PERCENTILE = "casAuthProvider.hedge.percentile";
+
+    /**
+     * Key corresponding to the number of response times tracked.
+     */
+    private static final String HEDGE_WINDOW_SIZE = "casAuthProvider.hedge.windowSize";
+
+    /**
+     * Key corresponding to the minimum hedge delay.
+     */
+    private static final String HEDGE_MIN_DELAY = "casAuthProvider.hedge.minDelay";
+
+    /**
+     * Key corresponding to the maximum hedge delay.
+     */
+    private static final String HEDGE_MAX_DELAY = "casAuthProvider.hedge.maxDelay";
+
+    /**
+     * Key corresponding to the maximum percentage of hedged validations.
+     */
+    private static final String HEDGE_MAX_PERCENT = "casAuthProvider.hedge.maxPercent";
+
+    /**
+     * Key corresponding to the number of threads running hedged validations.
+     */
+    private static final String HEDGE_THREADS = "casAuthProvider.hedge.threads";
+
+    /**
+     * Key corresponding to the multiple of the hedge delay after which a
+     * hedged validation gives up.
+     */
+    private static final String HEDGE_TIMEOUT_MULTIPLE = "casAuthProvider.hedge.timeoutMultiple";
+
+    /**
+     * Key corresponding to enabling validation metrics.
+     */
+    private static final String METRICS_ENABLED = "casAuthProvider.metrics.enabled";
+
+    /**
+     * Key corresponding to the validation trace file.
+     */
+    private static final String TRACE_FILE = "casAuthProvider.trace.file";
+
+    /**
+     * Key corresponding to the audit log file.
+     */
+    private static final String AUDIT_FILE = "casAuthProvider.audit.file";
+
+    /**
+     * Key corresponding to the audit log roll over size.
+     */
+    private static final String AUDIT_MAX_FILE_SIZE = "casAuthProvider.audit.maxFileSize";
+
+    /**
+     * Key corresponding to the number of rolled over audit logs kept.
+     */
+    private static final String AUDIT_MAX_FILES = "casAuthProvider.audit.maxFiles";
+
+    /**
+     * Key corresponding to the audit event buffer size.
+     */
+    private static final String AUDIT_BUFFER_SIZE = "casAuthProvider.audit.bufferSize";
+
+    /**
+     * Key corresponding to the percentage of successful logins audited.
+     */
+    private static final String AUDIT_SUCCESS_SAMPLE_PERCENT = "casAuthProvider.audit.successSamplePercent";
+
+    /**
+     * Key corresponding to the audit write batch size.
+     */
+    private static final String AUDIT_BATCH_SIZE = "casAuthProvider.audit.batchSize";
+
+    /**
+     * Key corresponding to the audit flush interval.
+     */
+    private static final String AUDIT_FLUSH_INTERVAL = "casAuthProvider.audit.flushInterval";
+
+    /**
+     * Key corresponding to enabling configuration reloading.
+     */
+    private static final String RELOAD_ENABLED = "casAuthProvider.reload.enabled";
+
+    /**
+     * Key corresponding to the configuration reload delay.
+     */
+    private static final String RELOAD_DELAY = "casAuthProvider.reload.delay";
+
+    /**
+     * Key corresponding to enabling resumption tokens.
+     */
+    private static final String RESUMPTION_ENABLED = "casAuthProvider.resumption.enabled";
+
+    /**
+     * Key prefix corresponding to the resumption token keys.
+     */
+    private static final String RESUMPTION_KEY = "casAuthProvider.resumption.key";
+
+    /**
+     * Key corresponding to the resumption token time to live.
+     */
+    private static final String RESUMPTION_TTL = "casAuthProvider.resumption.timeToLive";
+
+    /**
+     * Key corresponding to enabling the streaming response parser.
+     */
+    private static final String STREAMING_PARSER_ENABLED = "casAuthProvider.streamingParser.enabled";
+
+    /**
+     * Key corresponding to the largest CAS response accepted by the streaming
+     * parser.
+     */
+    private static final String STREAMING_PARSER_MAX_RESPONSE_SIZE = "casAuthProvider.streamingParser.maxResponseSize";
+
     /**
      * Key corresponding to the service name.
      */
@@ -48,83 +185,1993 @@ public class CASAuthProviderConfig {
      */
     private static final String VALIDATOR = "casAuthProvider.validator";
 
+    /**
+     * Key corresponding to enabling the validation cache.
+     */
+    private static final String CACHE_ENABLED = "casAuthProvider.cache.enabled";
 
     /**
-     * Map of configuration properties.
+     * Key corresponding to the maximum size of the validation cache.
      */
-    private Map<String, String> configProperties;
+    private static final String CACHE_MAX_SIZE = "casAuthProvider.cache.maxSize";
 
     /**
-     * Constructs instances of <code>CASAuthProviderConfig</code> with the map
-     * of configuration properties used to configure the instance.
-     *
-     * @param configProperties The configuration properties for the instance.
+     * Key corresponding to the time to live of validation cache entries.
      */
-    CASAuthProviderConfig(final Map<String, String> configProperties) {
-        if (configProperties == null) {
-            throw new IllegalArgumentException(
-                    "Configuration properties not defined");
-        }
-        this.configProperties = configProperties;
-    }
+    private static final String CACHE_TTL = "casAuthProvider.cache.ttl";
 
     /**
-     * Get the prefix of the CAS server which should be of the form
-     * <code>protocol://server:port</code>. <br />
-     * This corresponds to the configuration value
-     * <code>casAuthProvider.casServerUrlPrefix</code>.
-     *
-     * @return The prefix of the CAS server if defined, otherwise
-     * <code>null</code>.
+     * Key corresponding to sharing the caches across the Openfire cluster.
      */
-    public String getCASServerUrlPrefix() {
-        return configProperties.get(CAS_SERVER_URL_PREFIX);
-    }
+    private static final String CACHE_CLUSTERED = "casAuthProvider.cache.clustered";
 
     /**
-     * Get the service name which defines the service to validate the ticket
-     * against with CAS. <br />
-     * This corresponds to the configuration value
-     * <code>casAuthProvider.serviceName</code>.
-     *
-     * @return The service name to validate the ticket against if defined,
-     * otherwise <code>null</code>.
+     * Key corresponding to the maximum size of each shared cache in bytes.
      */
-    public String getServiceName() {
-        return configProperties.get(SERVICE_NAME);
-    }
+    private static final String CACHE_SHARED_MAX_SIZE = "casAuthProvider.cache.sharedMaxSize";
 
     /**
-     * Get the proxy chain which defines the CAS proxy route. <br />
-     * This corresponds to the configuration value
-     * <code>casAuthProvider.proxyClient[n]</code> where <code>n</code> is the
-     * index of the client starting from 0.
-     *
-     * @return A <code>List</code> of string arrays defining the proxy chain if
-     * defined, otherwise an empty <code>List</code>.
+     * Key corresponding to the maximum size of each near cache.
      */
-    public List<String[]> getProxyChain() {
-        List<String[]> proxyChain = new ArrayList<String[]>();
-        int i = 0;
-        String proxyClient = null;
+    private static final String CACHE_NEAR_MAX_SIZE = "casAuthProvider.cache.nearMaxSize";
 
-        // Go through all configuration properties and build up the proxy list
-        while ((proxyClient = configProperties.get(PROXY_CLIENT + i)) != null) {
-            String[] proxyEntry = new String[1];
-            proxyEntry[0] = proxyClient;
-            proxyChain.add(proxyEntry);
-            ++i;
-        }
+    /**
+     * Key corresponding to the time to live of near cache entries.
+     */
+    private static final String CACHE_NEAR_TTL = "casAuthProvider.cache.nearTtl";
 
-        return proxyChain;
-    }
+    /**
+     * Key corresponding to enabling the rejection cache.
+     */
+    private static final String REJECTION_CACHE_ENABLED = "casAuthProvider.rejectionCache.enabled";
 
     /**
-     * Get the Validator which use to validate the CAS ticket. <br />
-     * There are only two option: Cas10TicketValidator and Cas20ProxyTicketValidator.
-     * @return validator's class name
+     * Key corresponding to the maximum size of the rejection cache.
      */
-    public String getValidator() {
-        return configProperties.get(VALIDATOR);
+    private static final String REJECTION_CACHE_MAX_SIZE = "casAuthProvider.rejectionCache.maxSize";
+
+    /**
+     * Key corresponding to the time to live of rejection cache entries.
+     */
+    private static final String REJECTION_CACHE_TTL = "casAuthProvider.rejectionCache.ttl";
+
+    /**
+     * Key corresponding to enabling asynchronous validation.
+     */
+    private static final String ASYNC_ENABLED = "casAuthProvider.async.enabled";
+
+    /**
+     * Key corresponding to the number of asynchronous validation threads.
+     */
+    private static final String ASYNC_THREADS = "casAuthProvider.async.threads";
+
+    /**
+     * Key corresponding to the size of the asynchronous validation queue.
+     */
+    private static final String ASYNC_QUEUE_SIZE = "casAuthProvider.async.queueSize";
+
+    /**
+     * Key corresponding to the asynchronous validation timeout.
+     */
+    private static final String ASYNC_TIMEOUT = "casAuthProvider.async.timeout";
+
+    /**
+     * Key corresponding to enabling validation on virtual threads.
+     */
+    private static final String VIRTUAL_THREADS_ENABLED = "casAuthProvider.virtualThreads.enabled";
+
+    /**
+     * Key corresponding to the maximum number of validations running on
+     * virtual threads at once.
+     */
+    private static final String VIRTUAL_THREADS_MAX_CONCURRENT = "casAuthProvider.virtualThreads.maxConcurrent";
+
+    /**
+     * Key corresponding to enabling coalescing of concurrent validations.
+     */
+    private static final String COALESCE_ENABLED = "casAuthProvider.coalesce.enabled";
+
+    /**
+     * Key corresponding to enabling the circuit breaker.
+     */
+    private static final String CIRCUIT_BREAKER_ENABLED = "casAuthProvider.circuitBreaker.enabled";
+
+    /**
+     * Key corresponding to the number of calls in the circuit breaker window.
+     */
+    private static final String CIRCUIT_BREAKER_WINDOW_SIZE = "casAuthProvider.circuitBreaker.windowSize";
+
+    /**
+     * Key corresponding to the number of calls needed before the circuit
+     * breaker can open.
+     */
+    private static final String CIRCUIT_BREAKER_MINIMUM_CALLS = "casAuthProvider.circuitBreaker.minimumCalls";
+
+    /**
+     * Key corresponding to the failure rate at which the circuit breaker
+     * opens.
+     */
+    private static final String CIRCUIT_BREAKER_FAILURE_RATE = "casAuthProvider.circuitBreaker.failureRateThreshold";
+
+    /**
+     * Key corresponding to the duration above which a call is slow.
+     */
+    private static final String CIRCUIT_BREAKER_SLOW_CALL_DURATION = "casAuthProvider.circuitBreaker.slowCallDuration";
+
+    /**
+     * Key corresponding to the slow call rate at which the circuit breaker
+     * opens.
+     */
+    private static final String CIRCUIT_BREAKER_SLOW_CALL_RATE = "casAuthProvider.circuitBreaker.slowCallRateThreshold";
+
+    /**
+     * Key corresponding to how long the circuit breaker stays open.
+     */
+    private static final String CIRCUIT_BREAKER_OPEN_DURATION = "casAuthProvider.circuitBreaker.openDuration";
+
+    /**
+     * Key corresponding to the number of probe calls while half-open.
+     */
+    private static final String CIRCUIT_BREAKER_HALF_OPEN_CALLS = "casAuthProvider.circuitBreaker.halfOpenCalls";
+
+    /**
+     * Key corresponding to enabling the adaptive concurrency limit.
+     */
+    private static final String LIMITER_ENABLED = "casAuthProvider.limiter.enabled";
+
+    /**
+     * Key corresponding to the concurrency limit before any calls are
+     * measured.
+     */
+    private static final String LIMITER_INITIAL_LIMIT = "casAuthProvider.limiter.initialLimit";
+
+    /**
+     * Key corresponding to the smallest concurrency limit.
+     */
+    private static final String LIMITER_MIN_LIMIT = "casAuthProvider.limiter.minLimit";
+
+    /**
+     * Key corresponding to the largest concurrency limit.
+     */
+    private static final String LIMITER_MAX_LIMIT = "casAuthProvider.limiter.maxLimit";
+
+    /**
+     * Key corresponding to the number of calls which may wait for the
+     * concurrency limit.
+     */
+    private static final String LIMITER_QUEUE_SIZE = "casAuthProvider.limiter.queueSize";
+
+    /**
+     * Key corresponding to how long a call waits for the concurrency limit.
+     */
+    private static final String LIMITER_MAX_WAIT = "casAuthProvider.limiter.maxWait";
+
+    /**
+     * Key corresponding to enabling admission control.
+     */
+    private static final String ADMISSION_ENABLED = "casAuthProvider.admission.enabled";
+
+    /**
+     * Key corresponding to the largest number of authentications pending.
+     */
+    private static final String ADMISSION_MAX_PENDING = "casAuthProvider.admission.maxPending";
+
+    /**
+     * Key corresponding to the authentication deadline.
+     */
+    private static final String ADMISSION_DEADLINE = "casAuthProvider.admission.deadline";
+
+    /**
+     * Key corresponding to enabling rate limits.
+     */
+    private static final String RATE_LIMIT_ENABLED = "casAuthProvider.rateLimit.enabled";
+
+    /**
+     * Key corresponding to the most authentications a user may make at once.
+     */
+    private static final String RATE_LIMIT_USER_BURST = "casAuthProvider.rateLimit.userBurst";
+
+    /**
+     * Key corresponding to the sustained authentications per minute of a
+     * user.
+     */
+    private static final String RATE_LIMIT_USER_PER_MINUTE = "casAuthProvider.rateLimit.userPerMinute";
+
+    /**
+     * Key corresponding to the most authentications an address may make at
+     * once.
+     */
+    private static final String RATE_LIMIT_ADDRESS_BURST = "casAuthProvider.rateLimit.addressBurst";
+
+    /**
+     * Key corresponding to the sustained authentications per minute from an
+     * address.
+     */
+    private static final String RATE_LIMIT_ADDRESS_PER_MINUTE = "casAuthProvider.rateLimit.addressPerMinute";
+
+    /**
+     * Key corresponding to the most users or addresses tracked at once.
+     */
+    private static final String RATE_LIMIT_MAX_KEYS = "casAuthProvider.rateLimit.maxKeys";
+
+    /**
+     * Key corresponding to enabling the replay detector.
+     */
+    private static final String REPLAY_ENABLED = "casAuthProvider.replay.enabled";
+
+    /**
+     * Key corresponding to the expected tickets validated in a replay window.
+     */
+    private static final String REPLAY_EXPECTED_TICKETS = "casAuthProvider.replay.expectedTickets";
+
+    /**
+     * Key corresponding to the false positive rate of the replay detector.
+     */
+    private static final String REPLAY_FALSE_POSITIVE_RATE = "casAuthProvider.replay.falsePositiveRate";
+
+    /**
+     * Key corresponding to the length of a replay window.
+     */
+    private static final String REPLAY_WINDOW = "casAuthProvider.replay.window";
+
+    /**
+     * Key corresponding to the number of replay windows remembered.
+     */
+    private static final String REPLAY_GENERATIONS = "casAuthProvider.replay.generations";
+
+    /**
+     * Key corresponding to allocating the replay detector off the heap.
+     */
+    private static final String REPLAY_OFF_HEAP = "casAuthProvider.replay.offHeap";
+
+    /**
+     * Key corresponding to enabling the store of released attributes.
+     */
+    private static final String ATTRIBUTES_ENABLED = "casAuthProvider.attributes.enabled";
+
+    /**
+     * Key corresponding to the maximum number of users in the attribute
+     * store.
+     */
+    private static final String ATTRIBUTES_MAX_USERS = "casAuthProvider.attributes.maxUsers";
+
+    /**
+     * Key corresponding to the attribute holding the display name.
+     */
+    private static final String ATTRIBUTES_NAME = "casAuthProvider.attributes.name";
+
+    /**
+     * Key corresponding to the attribute holding the email address.
+     */
+    private static final String ATTRIBUTES_EMAIL = "casAuthProvider.attributes.email";
+
+    /**
+     * Key corresponding to the attribute holding the group names.
+     */
+    private static final String ATTRIBUTES_GROUPS = "casAuthProvider.attributes.groups";
+
+    /**
+     * Key corresponding to the user provider consulted for users not in the
+     * attribute store.
+     */
+    private static final String ATTRIBUTES_FALLBACK_USER_PROVIDER = "casAuthProvider.attributes.fallbackUserProvider";
+
+    /**
+     * Key corresponding to the group provider consulted for groups not in
+     * the attribute store.
+     */
+    private static final String ATTRIBUTES_FALLBACK_GROUP_PROVIDER = "casAuthProvider.attributes.fallbackGroupProvider";
+
+    /**
+     * Key corresponding to enabling the warm up and health probe.
+     */
+    private static final String WARMUP_ENABLED = "casAuthProvider.warmup.enabled";
+
+    /**
+     * Key corresponding to the number of warm connections to each CAS
+     * server.
+     */
+    private static final String WARMUP_CONNECTIONS = "casAuthProvider.warmup.connections";
+
+    /**
+     * Key corresponding to the interval between health probes.
+     */
+    private static final String WARMUP_PROBE_INTERVAL = "casAuthProvider.warmup.probeInterval";
+
+    /**
+     * Key corresponding to how long resolved CAS addresses are used.
+     */
+    private static final String WARMUP_DNS_REFRESH_INTERVAL = "casAuthProvider.warmup.dnsRefreshInterval";
+
+    /**
+     * Key corresponding to enabling the pooled HTTP transport.
+     */
+    private static final String HTTP_POOL_ENABLED = "casAuthProvider.http.pool.enabled";
+
+    /**
+     * Key corresponding to the maximum number of pooled connections.
+     */
+    private static final String HTTP_MAX_CONNECTIONS = "casAuthProvider.http.maxConnections";
+
+    /**
+     * Key corresponding to the maximum number of pooled connections per host.
+     */
+    private static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "casAuthProvider.http.maxConnectionsPerRoute";
+
+    /**
+     * Key corresponding to the HTTP connect timeout.
+     */
+    private static final String HTTP_CONNECT_TIMEOUT = "casAuthProvider.http.connectTimeout";
+
+    /**
+     * Key corresponding to the HTTP read timeout.
+     */
+    private static final String HTTP_READ_TIMEOUT = "casAuthProvider.http.readTimeout";
+
+    /**
+     * Key corresponding to the idle time after which pooled connections are
+     * closed.
+     */
+    private static final String HTTP_IDLE_TIMEOUT = "casAuthProvider.http.idleTimeout";
+
+    /**
+     * Key corresponding to requesting compressed responses.
+     */
+    private static final String HTTP_GZIP = "casAuthProvider.http.gzip";
+
+    /**
+     * Default number of consecutive failures after which an endpoint is
+     * ejected.
+     */
+    private static final int DEFAULT_ENDPOINT_EJECT_AFTER_FAILURES = 3;
+
+    /**
+     * Default time in milliseconds an endpoint is ejected for.
+     */
+    private static final long DEFAULT_ENDPOINT_EJECT_DURATION = 30000L;
+
+    /**
+     * Default response time percentile after which a validation is hedged.
+     */
+    private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+
+    /**
+     * Default number of response times tracked.
+     */
+    private static final int DEFAULT_HEDGE_WINDOW_SIZE = 256;
+
+    /**
+     * Default minimum hedge delay in milliseconds.
+     */
+    private static final long DEFAULT_HEDGE_MIN_DELAY = 50L;
+
+    /**
+     * Default maximum hedge delay in milliseconds.
+     */
+    private static final long DEFAULT_HEDGE_MAX_DELAY = 2000L;
+
+    /**
+     * Default maximum percentage of hedged validations.
+     */
+    private static final int DEFAULT_HEDGE_MAX_PERCENT = 10;
+
+    /**
+     * Default number of threads running hedged validations.
+     */
+    private static final int DEFAULT_HEDGE_THREADS = 32;
+
+    /**
+     * Default multiple of the hedge delay after which a hedged validation
+     * gives up, where 0 waits for the HTTP read timeout.
+     */
+    private static final int DEFAULT_HEDGE_TIMEOUT_MULTIPLE = 0;
+
+    /**
+     * Default audit log roll over size in bytes.
+     */
+    private static final long DEFAULT_AUDIT_MAX_FILE_SIZE = 10485760L;
+
+    /**
+     * Default number of rolled over audit logs kept.
+     */
+    private static final int DEFAULT_AUDIT_MAX_FILES = 5;
+
+    /**
+     * Default audit event buffer size.
+     */
+    private static final int DEFAULT_AUDIT_BUFFER_SIZE = 8192;
+
+    /**
+     * Default percentage of successful logins audited.
+     */
+    private static final int DEFAULT_AUDIT_SUCCESS_SAMPLE_PERCENT = 100;
+
+    /**
+     * Default audit write batch size.
+     */
+    private static final int DEFAULT_AUDIT_BATCH_SIZE = 256;
+
+    /**
+     * Default audit flush interval in milliseconds.
+     */
+    private static final long DEFAULT_AUDIT_FLUSH_INTERVAL = 1000L;
+
+    /**
+     * Default configuration reload delay in milliseconds.
+     */
+    private static final long DEFAULT_RELOAD_DELAY = 1000L;
+
+    /**
+     * Default resumption token time to live in milliseconds.
+     */
+    private static final long DEFAULT_RESUMPTION_TTL = 900000L;
+
+    /**
+     * Default largest CAS response accepted by the streaming parser, in bytes.
+     */
+    private static final int DEFAULT_STREAMING_PARSER_MAX_RESPONSE_SIZE = 65536;
+
+    /**
+     * Default maximum size of the validation cache.
+     */
+    private static final int DEFAULT_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * Default time to live of validation cache entries in milliseconds.
+     */
+    private static final long DEFAULT_CACHE_TTL = 30000L;
+
+    /**
+     * Default maximum size of each shared cache in bytes.
+     */
+    private static final int DEFAULT_CACHE_SHARED_MAX_SIZE = 1048576;
+
+    /**
+     * Default maximum size of each near cache.
+     */
+    private static final int DEFAULT_CACHE_NEAR_MAX_SIZE = 1000;
+
+    /**
+     * Default time to live of near cache entries in milliseconds.
+     */
+    private static final long DEFAULT_CACHE_NEAR_TTL = 5000L;
+
+    /**
+     * Default maximum size of the rejection cache.
+     */
+    private static final int DEFAULT_REJECTION_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * Default time to live of rejection cache entries in milliseconds.
+     */
+    private static final long DEFAULT_REJECTION_CACHE_TTL = 10000L;
+
+    /**
+     * Default number of asynchronous validation threads.
+     */
+    private static final int DEFAULT_ASYNC_THREADS = 16;
+
+    /**
+     * Default size of the asynchronous validation queue.
+     */
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 100;
+
+    /**
+     * Default asynchronous validation timeout in milliseconds.
+     */
+    private static final long DEFAULT_ASYNC_TIMEOUT = 10000L;
+
+    /**
+     * Default maximum number of validations running on virtual threads.
+     */
+    private static final int DEFAULT_VIRTUAL_THREADS_MAX_CONCURRENT = 10000;
+
+    /**
+     * Default number of calls in the circuit breaker window.
+     */
+    private static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 100;
+
+    /**
+     * Default number of calls needed before the circuit breaker can open.
+     */
+    private static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 20;
+
+    /**
+     * Default failure rate percentage at which the circuit breaker opens.
+     */
+    private static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+
+    /**
+     * Default duration in milliseconds above which a call is slow.
+     */
+    private static final long DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION = 5000L;
+
+    /**
+     * Default slow call rate percentage at which the circuit breaker opens.
+     */
+    private static final int DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE = 80;
+
+    /**
+     * Default time in milliseconds the circuit breaker stays open.
+     */
+    private static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30000L;
+
+    /**
+     * Default number of probe calls while half-open.
+     */
+    private static final int DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS = 3;
+
+    /**
+     * Default concurrency limit before any calls are measured.
+     */
+    private static final int DEFAULT_LIMITER_INITIAL_LIMIT = 20;
+
+    /**
+     * Default smallest concurrency limit.
+     */
+    private static final int DEFAULT_LIMITER_MIN_LIMIT = 2;
+
+    /**
+     * Default largest concurrency limit.
+     */
+    private static final int DEFAULT_LIMITER_MAX_LIMIT = 200;
+
+    /**
+     * Default number of calls which may wait for the concurrency limit.
+     */
+    private static final int DEFAULT_LIMITER_QUEUE_SIZE = 100;
+
+    /**
+     * Default wait for the concurrency limit in milliseconds.
+     */
+    private static final long DEFAULT_LIMITER_MAX_WAIT = 200L;
+
+    /**
+     * Default largest number of authentications pending.
+     */
+    private static final int DEFAULT_ADMISSION_MAX_PENDING = 500;
+
+    /**
+     * Default authentication deadline in milliseconds.
+     */
+    private static final long DEFAULT_ADMISSION_DEADLINE = 10000L;
+
+    /**
+     * Default most authentications a user may make at once.
+     */
+    private static final int DEFAULT_RATE_LIMIT_USER_BURST = 10;
+
+    /**
+     * Default sustained authentications per minute of a user.
+     */
+    private static final int DEFAULT_RATE_LIMIT_USER_PER_MINUTE = 30;
+
+    /**
+     * Default most authentications an address may make at once.
+     */
+    private static final int DEFAULT_RATE_LIMIT_ADDRESS_BURST = 100;
+
+    /**
+     * Default sustained authentications per minute from an address.
+     */
+    private static final int DEFAULT_RATE_LIMIT_ADDRESS_PER_MINUTE = 600;
+
+    /**
+     * Default most users or addresses tracked at once.
+     */
+    private static final int DEFAULT_RATE_LIMIT_MAX_KEYS = 100000;
+
+    /**
+     * Default expected tickets validated in a replay window.
+     */
+    private static final int DEFAULT_REPLAY_EXPECTED_TICKETS = 100000;
+
+    /**
+     * Default false positive rate of the replay detector.
+     */
+    private static final double DEFAULT_REPLAY_FALSE_POSITIVE_RATE = 0.000001;
+
+    /**
+     * Default length of a replay window, in milliseconds.
+     */
+    private static final long DEFAULT_REPLAY_WINDOW = 600000L;
+
+    /**
+     * Default number of replay windows remembered.
+     */
+    private static final int DEFAULT_REPLAY_GENERATIONS = 3;
+
+    /**
+     * Default maximum number of users in the attribute store.
+     */
+    private static final int DEFAULT_ATTRIBUTES_MAX_USERS = 10000;
+
+    /**
+     * Default attribute holding the display name.
+     */
+    private static final String DEFAULT_ATTRIBUTES_NAME = "displayName";
+
+    /**
+     * Default attribute holding the email address.
+     */
+    private static final String DEFAULT_ATTRIBUTES_EMAIL = "mail";
+
+    /**
+     * Default attribute holding the group names.
+     */
+    private static final String DEFAULT_ATTRIBUTES_GROUPS = "memberOf";
+
+    /**
+     * Default number of warm connections to each CAS server.
+     */
+    private static final int DEFAULT_WARMUP_CONNECTIONS = 4;
+
+    /**
+     * Default interval between health probes in milliseconds.
+     */
+    private static final long DEFAULT_WARMUP_PROBE_INTERVAL = 30000L;
+
+    /**
+     * Default time resolved CAS addresses are used, in milliseconds.
+     */
+    private static final long DEFAULT_WARMUP_DNS_REFRESH_INTERVAL = 60000L;
+
+    /**
+     * Default maximum number of pooled connections.
+     */
+    private static final int DEFAULT_HTTP_MAX_CONNECTIONS = 100;
+
+    /**
+     * Default maximum number of pooled connections per host.
+     */
+    private static final int DEFAULT_HTTP_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    /**
+     * Default HTTP connect timeout in milliseconds.
+     */
+    private static final int DEFAULT_HTTP_CONNECT_TIMEOUT = 5000;
+
+    /**
+     * Default HTTP read timeout in milliseconds.
+     */
+    private static final int DEFAULT_HTTP_READ_TIMEOUT = 10000;
+
+    /**
+     * Default idle time after which pooled connections are closed, in
+     * milliseconds.
+     */
+    private static final long DEFAULT_HTTP_IDLE_TIMEOUT = 60000L;
+
+    /**
+     * Map of configuration properties.
+     */
+    private Map<String, String> configProperties;
+
+    /**
+     * Constructs instances of <code>CASAuthProviderConfig</code> with the map
+     * of configuration properties used to configure the instance.
+     *
+     * @param configProperties The configuration properties for the instance.
+     */
+    CASAuthProviderConfig(final Map<String, String> configProperties) {
+        if (configProperties == null) {
+            throw new IllegalArgumentException(
+                    "Configuration properties not defined");
+        }
+        this.configProperties = configProperties;
+    }
+
+    /**
+     * Get the prefix of the CAS server which should be of the form
+     * <code>protocol://server:port</code>. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.casServerUrlPrefix</code>.
+     *
+     * @return The prefix of the CAS server if defined, otherwise
+     * <code>null</code>.
+     */
+    public String getCASServerUrlPrefix() {
+        return configProperties.get(CAS_SERVER_URL_PREFIX);
+    }
+
+    /**
+     * Get the prefixes of every CAS server. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.casServerUrlPrefix[n]</code> where <code>n</code>
+     * is the index of the server starting from 0. If no indexed servers are
+     * defined, <code>casAuthProvider.casServerUrlPrefix</code> is used.
+     *
+     * @return A <code>List</code> of CAS server prefixes if defined, otherwise
+     * an empty <code>List</code>.
+     */
+    public List<String> getCASServerUrlPrefixes() {
+        List<String> prefixes = new ArrayList<String>();
+        int i = 0;
+        String prefix = null;
+
+        while ((prefix = configProperties.get(CAS_SERVER_URL_PREFIX + i)) != null) {
+            prefixes.add(prefix);
+            ++i;
+        }
+
+        if (prefixes.isEmpty() && getCASServerUrlPrefix() != null) {
+            prefixes.add(getCASServerUrlPrefix());
+        }
+
+        return prefixes;
+    }
+
+    /**
+     * Get the number of consecutive failures after which a CAS server is
+     * left out of the rotation. Only used when several servers are
+     * configured. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.endpoint.ejectAfterFailures</code>.
+     *
+     * @return The number of failures, defaulting to 3.
+     */
+    public int getEndpointEjectAfterFailures() {
+        return getIntProperty(ENDPOINT_EJECT_AFTER_FAILURES, DEFAULT_ENDPOINT_EJECT_AFTER_FAILURES);
+    }
+
+    /**
+     * Get how long a failing CAS server is left out of the rotation. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.endpoint.ejectDuration</code>.
+     *
+     * @return The duration in milliseconds, defaulting to 30000.
+     */
+    public long getEndpointEjectDuration() {
+        return getLongProperty(ENDPOINT_EJECT_DURATION, DEFAULT_ENDPOINT_EJECT_DURATION);
+    }
+
+    /**
+     * Whether a slow validation should also be sent to a second CAS server.
+     * Only used when several servers are configured. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.enabled</code>.
+     *
+     * @return <code>true</code> if hedging is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isHedgeEnabled() {
+        return getBooleanProperty(HEDGE_ENABLED, false);
+    }
+
+    /**
+     * Get the percentile of recent response times after which a validation
+     * is hedged. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.percentile</code>.
+     *
+     * @return The percentile, defaulting to 95.
+     */
+    public int getHedgePercentile() {
+        return getIntProperty(HEDGE_PERCENTILE, DEFAULT_HEDGE_PERCENTILE);
+    }
+
+    /**
+     * Get the number of recent response times the hedge delay is derived
+     * from. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.windowSize</code>.
+     *
+     * @return The number of response times, defaulting to 256.
+     */
+    public int getHedgeWindowSize() {
+        return getIntProperty(HEDGE_WINDOW_SIZE, DEFAULT_HEDGE_WINDOW_SIZE);
+    }
+
+    /**
+     * Get the minimum hedge delay. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.minDelay</code>.
+     *
+     * @return The delay in milliseconds, defaulting to 50.
+     */
+    public long getHedgeMinDelay() {
+        return getLongProperty(HEDGE_MIN_DELAY, DEFAULT_HEDGE_MIN_DELAY);
+    }
+
+    /**
+     * Get the maximum hedge delay, also used until enough response times
+     * have been seen. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.maxDelay</code>.
+     *
+     * @return The delay in milliseconds, defaulting to 2000.
+     */
+    public long getHedgeMaxDelay() {
+        return getLongProperty(HEDGE_MAX_DELAY, DEFAULT_HEDGE_MAX_DELAY);
+    }
+
+    /**
+     * Get the maximum percentage of validations which may be hedged. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.maxPercent</code>.
+     *
+     * @return The percentage, defaulting to 10.
+     */
+    public int getHedgeMaxPercent() {
+        return getIntProperty(HEDGE_MAX_PERCENT, DEFAULT_HEDGE_MAX_PERCENT);
+    }
+
+    /**
+     * Get the number of threads running hedged validations. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.threads</code>.
+     *
+     * @return The number of threads, defaulting to 32.
+     */
+    public int getHedgeThreads() {
+        return getIntProperty(HEDGE_THREADS, DEFAULT_HEDGE_THREADS);
+    }
+
+    /**
+     * Get the multiple of the hedge delay, which follows recent response
+     * times, after which a hedged validation gives up. The timeout never
+     * exceeds the HTTP read timeout. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.hedge.timeoutMultiple</code>.
+     *
+     * @return The multiple, or 0 to wait for the HTTP read timeout,
+     * defaulting to 0.
+     */
+    public int getHedgeTimeoutMultiple() {
+        return getIntProperty(HEDGE_TIMEOUT_MULTIPLE, DEFAULT_HEDGE_TIMEOUT_MULTIPLE);
+    }
+
+    /**
+     * Whether the outcome and latency of each validation should be recorded
+     * and published as an MBean and as Openfire statistics. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.metrics.enabled</code>.
+     *
+     * @return <code>true</code> if metrics are enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isMetricsEnabled() {
+        return getBooleanProperty(METRICS_ENABLED, false);
+    }
+
+    /**
+     * Get the file an anonymised trace of validations is appended to, for
+     * replay by <code>CASAuthLoadGenerator</code>. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.trace.file</code>.
+     *
+     * @return The trace file if defined, otherwise <code>null</code> and no
+     * trace is recorded.
+     */
+    public String getTraceFile() {
+        return configProperties.get(TRACE_FILE);
+    }
+
+    /**
+     * Get the file logins are audited to. When set, logins are written to
+     * this file by a background thread instead of to the Openfire log. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.file</code>.
+     *
+     * @return The audit file if defined, otherwise <code>null</code>.
+     */
+    public String getAuditFile() {
+        return configProperties.get(AUDIT_FILE);
+    }
+
+    /**
+     * Get the size at which the audit file is rolled over. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.maxFileSize</code>.
+     *
+     * @return The size in bytes, defaulting to 10485760.
+     */
+    public long getAuditMaxFileSize() {
+        return getLongProperty(AUDIT_MAX_FILE_SIZE, DEFAULT_AUDIT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Get the number of rolled over audit files kept. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.maxFiles</code>.
+     *
+     * @return The number of files, defaulting to 5.
+     */
+    public int getAuditMaxFiles() {
+        return getIntProperty(AUDIT_MAX_FILES, DEFAULT_AUDIT_MAX_FILES);
+    }
+
+    /**
+     * Get the most audit events waiting to be written before further events
+     * are dropped. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.bufferSize</code>.
+     *
+     * @return The buffer size, defaulting to 8192.
+     */
+    public int getAuditBufferSize() {
+        return getIntProperty(AUDIT_BUFFER_SIZE, DEFAULT_AUDIT_BUFFER_SIZE);
+    }
+
+    /**
+     * Get the percentage of successful logins audited. Failed logins are
+     * always audited. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.successSamplePercent</code>.
+     *
+     * @return The percentage, defaulting to 100.
+     */
+    public int getAuditSuccessSamplePercent() {
+        return getIntProperty(AUDIT_SUCCESS_SAMPLE_PERCENT, DEFAULT_AUDIT_SUCCESS_SAMPLE_PERCENT);
+    }
+
+    /**
+     * Get the most audit events written at once. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.batchSize</code>.
+     *
+     * @return The batch size, defaulting to 256.
+     */
+    public int getAuditBatchSize() {
+        return getIntProperty(AUDIT_BATCH_SIZE, DEFAULT_AUDIT_BATCH_SIZE);
+    }
+
+    /**
+     * Get how long the audit writer waits for more events when there are
+     * none. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.audit.flushInterval</code>.
+     *
+     * @return The interval in milliseconds, defaulting to 1000.
+     */
+    public long getAuditFlushInterval() {
+        return getLongProperty(AUDIT_FLUSH_INTERVAL, DEFAULT_AUDIT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Whether the ticket validator should be rebuilt when a
+     * <code>casAuthProvider.*</code> property changes, rather than only when
+     * Openfire starts. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.reload.enabled</code>.
+     *
+     * @return <code>true</code> if configuration changes are applied while
+     * running, otherwise <code>false</code> (the default).
+     */
+    public boolean isReloadEnabled() {
+        return getBooleanProperty(RELOAD_ENABLED, false);
+    }
+
+    /**
+     * Get how long to wait after a property changes before rebuilding the
+     * ticket validator, so that several changes cause a single rebuild. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.reload.delay</code>.
+     *
+     * @return The delay in milliseconds, defaulting to 1000.
+     */
+    public long getReloadDelay() {
+        return getLongProperty(RELOAD_DELAY, DEFAULT_RELOAD_DELAY);
+    }
+
+    /**
+     * Whether clients may log in again with a resumption token instead of a
+     * CAS ticket. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.resumption.enabled</code>.
+     *
+     * @return <code>true</code> if resumption tokens are enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isResumptionEnabled() {
+        return getBooleanProperty(RESUMPTION_ENABLED, false);
+    }
+
+    /**
+     * Get the keys which sign resumption tokens. <br />
+     * This corresponds to the configuration values
+     * <code>casAuthProvider.resumption.key[n]</code> where <code>n</code> is
+     * the index of the key starting from 0. Each value is the key id and the
+     * secret separated by <code>:</code>. The first key signs new tokens and
+     * every key verifies them. Values without an id or secret are ignored.
+     *
+     * @return The secrets by key id, in order.
+     */
+    public Map<String, byte[]> getResumptionKeys() {
+        Map<String, byte[]> keys = new LinkedHashMap<String, byte[]>();
+        int i = 0;
+        String key = null;
+
+        while ((key = configProperties.get(RESUMPTION_KEY + i)) != null) {
+            int separator = key.indexOf(':');
+            if (separator > 0 && separator < key.length() - 1) {
+                try {
+                    keys.put(key.substring(0, separator).trim(),
+                            key.substring(separator + 1).getBytes("UTF-8"));
+                } catch (UnsupportedEncodingException uee) {
+                    throw new IllegalStateException(uee);
+                }
+            } else {
+                Log.warn("CASAuthProvider: Invalid value for " + RESUMPTION_KEY + i
+                        + ", expected <id>:<secret>");
+            }
+            ++i;
+        }
+
+        return keys;
+    }
+
+    /**
+     * Get how long a resumption token is valid for. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.resumption.timeToLive</code>.
+     *
+     * @return The time to live in milliseconds, defaulting to 900000.
+     */
+    public long getResumptionTimeToLive() {
+        return getLongProperty(RESUMPTION_TTL, DEFAULT_RESUMPTION_TTL);
+    }
+
+    /**
+     * Whether CAS 2.0 responses should be parsed as they are read, rather than
+     * by the CAS client. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.streamingParser.enabled</code>.
+     *
+     * @return <code>true</code> if the streaming parser is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isStreamingParserEnabled() {
+        return getBooleanProperty(STREAMING_PARSER_ENABLED, false);
+    }
+
+    /**
+     * Get the largest CAS response accepted by the streaming parser. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.streamingParser.maxResponseSize</code>.
+     *
+     * @return The maximum response size in bytes, defaulting to 65536.
+     */
+    public int getStreamingParserMaxResponseSize() {
+        return getIntProperty(STREAMING_PARSER_MAX_RESPONSE_SIZE,
+                DEFAULT_STREAMING_PARSER_MAX_RESPONSE_SIZE);
+    }
+
+    /**
+     * Get the service name which defines the service to validate the ticket
+     * against with CAS. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.serviceName</code>.
+     *
+     * @return The service name to validate the ticket against if defined,
+     * otherwise <code>null</code>.
+     */
+    public String getServiceName() {
+        return configProperties.get(SERVICE_NAME);
+    }
+
+    /**
+     * Get the proxy chain which defines the CAS proxy route. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.proxyClient[n]</code> where <code>n</code> is the
+     * index of the client starting from 0.
+     *
+     * @return A <code>List</code> of string arrays defining the proxy chain if
+     * defined, otherwise an empty <code>List</code>.
+     */
+    public List<String[]> getProxyChain() {
+        List<String[]> proxyChain = new ArrayList<String[]>();
+        int i = 0;
+        String proxyClient = null;
+
+        // Go through all configuration properties and build up the proxy list
+        while ((proxyClient = configProperties.get(PROXY_CLIENT + i)) != null) {
+            String[] proxyEntry = new String[1];
+            proxyEntry[0] = proxyClient;
+            proxyChain.add(proxyEntry);
+            ++i;
+        }
+
+        return proxyChain;
+    }
+
+    /**
+     * Get the allowed proxy chains compiled for matching. <br />
+     * Each <code>casAuthProvider.proxyClient[n]</code> value is a chain of
+     * whitespace separated hops, most recent proxy first. A hop is a URL, a
+     * URL prefix ending in <code>*</code>, or a regular expression following
+     * <code>regex:</code>.
+     *
+     * @return The compiled proxy chains, which match nothing if none are
+     * defined.
+     * @throws java.util.regex.PatternSyntaxException If a regular expression
+     *                                                is not valid.
+     */
+    public CASAuthProxyChainMatcher getProxyChainMatcher() {
+        List<String[]> proxyChains = new ArrayList<String[]>();
+        int i = 0;
+        String proxyClient = null;
+
+        while ((proxyClient = configProperties.get(PROXY_CLIENT + i)) != null) {
+            String trimmed = proxyClient.trim();
+            if (trimmed.length() > 0) {
+                proxyChains.add(trimmed.split("\\s+"));
+            }
+            ++i;
+        }
+
+        return new CASAuthProxyChainMatcher(proxyChains);
+    }
+
+    /**
+     * Get the Validator which use to validate the CAS ticket. <br />
+     * The options are Cas10TicketValidator, Cas20ProxyTicketValidator and
+     * Cas30JsonTicketValidator.
+     * @return validator's class name
+     */
+    public String getValidator() {
+        return configProperties.get(VALIDATOR);
+    }
+
+    /**
+     * Whether successful ticket validations should be cached, so that a ticket
+     * replayed within the cache time to live is not sent to CAS again. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.enabled</code>.
+     *
+     * @return <code>true</code> if the validation cache is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isCacheEnabled() {
+        return getBooleanProperty(CACHE_ENABLED, false);
+    }
+
+    /**
+     * Get the maximum number of entries held by the validation cache. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.maxSize</code>.
+     *
+     * @return The maximum cache size, defaulting to 10000.
+     */
+    public int getCacheMaxSize() {
+        return getIntProperty(CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE);
+    }
+
+    /**
+     * Get the time to live of validation cache entries. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.ttl</code>.
+     *
+     * @return The time to live in milliseconds, defaulting to 30000.
+     */
+    public long getCacheTimeToLive() {
+        return getLongProperty(CACHE_TTL, DEFAULT_CACHE_TTL);
+    }
+
+    /**
+     * Whether the validation and rejection caches are shared across the
+     * Openfire cluster through Openfire's cache factory. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.clustered</code>.
+     *
+     * @return <code>true</code> if the caches are shared, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isCacheClustered() {
+        return getBooleanProperty(CACHE_CLUSTERED, false);
+    }
+
+    /**
+     * Get the maximum size of each shared cache. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.sharedMaxSize</code>.
+     *
+     * @return The maximum size in bytes, defaulting to 1048576.
+     */
+    public int getCacheSharedMaxSize() {
+        return getIntProperty(CACHE_SHARED_MAX_SIZE, DEFAULT_CACHE_SHARED_MAX_SIZE);
+    }
+
+    /**
+     * Get the maximum number of entries each near cache holds in front of
+     * its shared cache. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.nearMaxSize</code>.
+     *
+     * @return The maximum number of entries, defaulting to 1000.
+     */
+    public int getCacheNearMaxSize() {
+        return getIntProperty(CACHE_NEAR_MAX_SIZE, DEFAULT_CACHE_NEAR_MAX_SIZE);
+    }
+
+    /**
+     * Get the time to live of near cache entries. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.cache.nearTtl</code>.
+     *
+     * @return The time to live in milliseconds, defaulting to 5000.
+     */
+    public long getCacheNearTimeToLive() {
+        return getLongProperty(CACHE_NEAR_TTL, DEFAULT_CACHE_NEAR_TTL);
+    }
+
+    /**
+     * Whether rejected tickets should be cached, so that a client retrying a
+     * dead ticket is refused without contacting CAS again. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rejectionCache.enabled</code>.
+     *
+     * @return <code>true</code> if the rejection cache is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isRejectionCacheEnabled() {
+        return getBooleanProperty(REJECTION_CACHE_ENABLED, false);
+    }
+
+    /**
+     * Get the maximum number of entries held by the rejection cache. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rejectionCache.maxSize</code>.
+     *
+     * @return The maximum cache size, defaulting to 10000.
+     */
+    public int getRejectionCacheMaxSize() {
+        return getIntProperty(REJECTION_CACHE_MAX_SIZE, DEFAULT_REJECTION_CACHE_MAX_SIZE);
+    }
+
+    /**
+     * Get the time to live of rejection cache entries. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rejectionCache.ttl</code>.
+     *
+     * @return The time to live in milliseconds, defaulting to 10000.
+     */
+    public long getRejectionCacheTimeToLive() {
+        return getLongProperty(REJECTION_CACHE_TTL, DEFAULT_REJECTION_CACHE_TTL);
+    }
+
+    /**
+     * Whether tickets should be validated on a dedicated bounded executor
+     * rather than the Openfire thread handling the login. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.async.enabled</code>.
+     *
+     * @return <code>true</code> if asynchronous validation is enabled,
+     * otherwise <code>false</code> (the default).
+     */
+    public boolean isAsyncEnabled() {
+        return getBooleanProperty(ASYNC_ENABLED, false);
+    }
+
+    /**
+     * Get the number of threads used for asynchronous validation. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.async.threads</code>.
+     *
+     * @return The number of threads, defaulting to 16.
+     */
+    public int getAsyncThreads() {
+        return getIntProperty(ASYNC_THREADS, DEFAULT_ASYNC_THREADS);
+    }
+
+    /**
+     * Get the number of validations which may wait for a thread before
+     * further validations are refused. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.async.queueSize</code>.
+     *
+     * @return The queue size, defaulting to 100.
+     */
+    public int getAsyncQueueSize() {
+        return getIntProperty(ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE);
+    }
+
+    /**
+     * Get how long a login waits for an asynchronous validation before it
+     * fails. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.async.timeout</code>.
+     *
+     * @return The timeout in milliseconds, defaulting to 10000.
+     */
+    public long getAsyncTimeout() {
+        return getLongProperty(ASYNC_TIMEOUT, DEFAULT_ASYNC_TIMEOUT);
+    }
+
+    /**
+     * Whether CAS ticket validation runs on virtual threads, where the Java
+     * runtime has them. The validation timeout is
+     * <code>casAuthProvider.async.timeout</code>. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.virtualThreads.enabled</code>.
+     *
+     * @return <code>true</code> if virtual threads are enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isVirtualThreadsEnabled() {
+        return getBooleanProperty(VIRTUAL_THREADS_ENABLED, false);
+    }
+
+    /**
+     * Get the maximum number of validations running on virtual threads at
+     * once. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.virtualThreads.maxConcurrent</code>.
+     *
+     * @return The maximum number of validations, defaulting to 10000.
+     */
+    public int getVirtualThreadsMaxConcurrent() {
+        return getIntProperty(VIRTUAL_THREADS_MAX_CONCURRENT, DEFAULT_VIRTUAL_THREADS_MAX_CONCURRENT);
+    }
+
+    /**
+     * Whether concurrent validations of the same ticket for the same service
+     * and user should share a single call to CAS. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.coalesce.enabled</code>.
+     *
+     * @return <code>true</code> if validations are coalesced, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isCoalesceEnabled() {
+        return getBooleanProperty(COALESCE_ENABLED, false);
+    }
+
+    /**
+     * Whether calls to CAS should be protected by a circuit breaker, so that
+     * logins fail fast while CAS is down. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.enabled</code>.
+     *
+     * @return <code>true</code> if the circuit breaker is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isCircuitBreakerEnabled() {
+        return getBooleanProperty(CIRCUIT_BREAKER_ENABLED, false);
+    }
+
+    /**
+     * Get the number of recent calls the circuit breaker considers. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.windowSize</code>.
+     *
+     * @return The window size, defaulting to 100.
+     */
+    public int getCircuitBreakerWindowSize() {
+        return getIntProperty(CIRCUIT_BREAKER_WINDOW_SIZE, DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE);
+    }
+
+    /**
+     * Get the number of calls which must be made before the circuit breaker
+     * can open. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.minimumCalls</code>.
+     *
+     * @return The minimum number of calls, defaulting to 20.
+     */
+    public int getCircuitBreakerMinimumCalls() {
+        return getIntProperty(CIRCUIT_BREAKER_MINIMUM_CALLS, DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS);
+    }
+
+    /**
+     * Get the percentage of failed calls at which the circuit breaker opens.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.failureRateThreshold</code>.
+     *
+     * @return The failure rate threshold, defaulting to 50.
+     */
+    public int getCircuitBreakerFailureRateThreshold() {
+        return getIntProperty(CIRCUIT_BREAKER_FAILURE_RATE, DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE);
+    }
+
+    /**
+     * Get the duration above which a call to CAS is slow. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.slowCallDuration</code>.
+     *
+     * @return The duration in milliseconds, defaulting to 5000.
+     */
+    public long getCircuitBreakerSlowCallDuration() {
+        return getLongProperty(CIRCUIT_BREAKER_SLOW_CALL_DURATION, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION);
+    }
+
+    /**
+     * Get the percentage of slow calls at which the circuit breaker opens.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.slowCallRateThreshold</code>.
+     *
+     * @return The slow call rate threshold, defaulting to 80.
+     */
+    public int getCircuitBreakerSlowCallRateThreshold() {
+        return getIntProperty(CIRCUIT_BREAKER_SLOW_CALL_RATE, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE);
+    }
+
+    /**
+     * Get how long the circuit breaker stays open before admitting probe
+     * calls. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.openDuration</code>.
+     *
+     * @return The duration in milliseconds, defaulting to 30000.
+     */
+    public long getCircuitBreakerOpenDuration() {
+        return getLongProperty(CIRCUIT_BREAKER_OPEN_DURATION, DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+    }
+
+    /**
+     * Get the number of probe calls admitted while the circuit breaker is
+     * half-open. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.circuitBreaker.halfOpenCalls</code>.
+     *
+     * @return The number of probe calls, defaulting to 3.
+     */
+    public int getCircuitBreakerHalfOpenCalls() {
+        return getIntProperty(CIRCUIT_BREAKER_HALF_OPEN_CALLS, DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * Whether the number of calls to CAS in flight adapts to CAS latency.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.limiter.enabled</code>.
+     *
+     * @return <code>true</code> if the limit is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isLimiterEnabled() {
+        return getBooleanProperty(LIMITER_ENABLED, false);
+    }
+
+    /**
+     * Get the concurrency limit before any calls are measured. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.limiter.initialLimit</code>.
+     *
+     * @return The initial limit, defaulting to 20.
+     */
+    public int getLimiterInitialLimit() {
+        return getIntProperty(LIMITER_INITIAL_LIMIT, DEFAULT_LIMITER_INITIAL_LIMIT);
+    }
+
+    /**
+     * Get the smallest concurrency limit. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.limiter.minLimit</code>.
+     *
+     * @return The smallest limit, defaulting to 2.
+     */
+    public int getLimiterMinLimit() {
+        return getIntProperty(LIMITER_MIN_LIMIT, DEFAULT_LIMITER_MIN_LIMIT);
+    }
+
+    /**
+     * Get the largest concurrency limit. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.limiter.maxLimit</code>.
+     *
+     * @return The largest limit, defaulting to 200.
+     */
+    public int getLimiterMaxLimit() {
+        return getIntProperty(LIMITER_MAX_LIMIT, DEFAULT_LIMITER_MAX_LIMIT);
+    }
+
+    /**
+     * Get the number of calls which may wait for the concurrency limit.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.limiter.queueSize</code>.
+     *
+     * @return The queue size, defaulting to 100.
+     */
+    public int getLimiterQueueSize() {
+        return getIntProperty(LIMITER_QUEUE_SIZE, DEFAULT_LIMITER_QUEUE_SIZE);
+    }
+
+    /**
+     * Get how long a call waits for the concurrency limit before it is
+     * refused. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.limiter.maxWait</code>.
+     *
+     * @return The wait in milliseconds, defaulting to 200.
+     */
+    public long getLimiterMaxWait() {
+        return getLongProperty(LIMITER_MAX_WAIT, DEFAULT_LIMITER_MAX_WAIT);
+    }
+
+    /**
+     * Whether authentications are shed under saturation and dropped once
+     * their deadline passes. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.admission.enabled</code>.
+     *
+     * @return <code>true</code> if admission control is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isAdmissionEnabled() {
+        return getBooleanProperty(ADMISSION_ENABLED, false);
+    }
+
+    /**
+     * Get the largest number of authentications pending at once, beyond
+     * which further authentications are refused. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.admission.maxPending</code>.
+     *
+     * @return The maximum pending, defaulting to 500.
+     */
+    public int getAdmissionMaxPending() {
+        return getIntProperty(ADMISSION_MAX_PENDING, DEFAULT_ADMISSION_MAX_PENDING);
+    }
+
+    /**
+     * Get how long an authentication has to complete before it is dropped.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.admission.deadline</code>.
+     *
+     * @return The deadline in milliseconds, defaulting to 10000.
+     */
+    public long getAdmissionDeadline() {
+        return getLongProperty(ADMISSION_DEADLINE, DEFAULT_ADMISSION_DEADLINE);
+    }
+
+    /**
+     * Whether the rate of authentications of each user and from each
+     * address is limited before CAS is contacted. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rateLimit.enabled</code>.
+     *
+     * @return <code>true</code> if rate limits are enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isRateLimitEnabled() {
+        return getBooleanProperty(RATE_LIMIT_ENABLED, false);
+    }
+
+    /**
+     * Get the most authentications a user may make at once. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rateLimit.userBurst</code>.
+     *
+     * @return The burst, defaulting to 10.
+     */
+    public int getRateLimitUserBurst() {
+        return getIntProperty(RATE_LIMIT_USER_BURST, DEFAULT_RATE_LIMIT_USER_BURST);
+    }
+
+    /**
+     * Get the sustained number of authentications a user may make each
+     * minute. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rateLimit.userPerMinute</code>.
+     *
+     * @return The rate, or 0 to not limit users, defaulting to 30.
+     */
+    public int getRateLimitUserPerMinute() {
+        return getIntProperty(RATE_LIMIT_USER_PER_MINUTE, DEFAULT_RATE_LIMIT_USER_PER_MINUTE);
+    }
+
+    /**
+     * Get the most authentications an address may make at once. Addresses
+     * are only known to authentications made through
+     * {@link CASAuthProvider#authenticateFrom(String, String, String)}. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rateLimit.addressBurst</code>.
+     *
+     * @return The burst, defaulting to 100.
+     */
+    public int getRateLimitAddressBurst() {
+        return getIntProperty(RATE_LIMIT_ADDRESS_BURST, DEFAULT_RATE_LIMIT_ADDRESS_BURST);
+    }
+
+    /**
+     * Get the sustained number of authentications an address may make each
+     * minute. Addresses are only known to authentications made through
+     * {@link CASAuthProvider#authenticateFrom(String, String, String)}. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rateLimit.addressPerMinute</code>.
+     *
+     * @return The rate, or 0 to not limit addresses, defaulting to 600.
+     */
+    public int getRateLimitAddressPerMinute() {
+        return getIntProperty(RATE_LIMIT_ADDRESS_PER_MINUTE, DEFAULT_RATE_LIMIT_ADDRESS_PER_MINUTE);
+    }
+
+    /**
+     * Get the most users, and separately the most addresses, whose rate is
+     * tracked at once. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.rateLimit.maxKeys</code>.
+     *
+     * @return The maximum number of keys, defaulting to 100000.
+     */
+    public int getRateLimitMaxKeys() {
+        return getIntProperty(RATE_LIMIT_MAX_KEYS, DEFAULT_RATE_LIMIT_MAX_KEYS);
+    }
+
+    /**
+     * Whether tickets which have already been validated are rejected without
+     * contacting CAS. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.replay.enabled</code>.
+     *
+     * @return <code>true</code> if the replay detector is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isReplayEnabled() {
+        return getBooleanProperty(REPLAY_ENABLED, false);
+    }
+
+    /**
+     * Get the expected number of tickets validated in a replay window, which
+     * with the false positive rate sizes the detector. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.replay.expectedTickets</code>.
+     *
+     * @return The expected number of tickets, defaulting to 100000.
+     */
+    public int getReplayExpectedTickets() {
+        return getIntProperty(REPLAY_EXPECTED_TICKETS, DEFAULT_REPLAY_EXPECTED_TICKETS);
+    }
+
+    /**
+     * Get the chance that an unused ticket is taken for a replay. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.replay.falsePositiveRate</code>.
+     *
+     * @return The false positive rate, defaulting to 0.000001.
+     */
+    public double getReplayFalsePositiveRate() {
+        return getDoubleProperty(REPLAY_FALSE_POSITIVE_RATE, DEFAULT_REPLAY_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Get the length of a replay window. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.replay.window</code>.
+     *
+     * @return The window in milliseconds, defaulting to 600000.
+     */
+    public long getReplayWindow() {
+        return getLongProperty(REPLAY_WINDOW, DEFAULT_REPLAY_WINDOW);
+    }
+
+    /**
+     * Get the number of replay windows, each with its own filter. A ticket is
+     * remembered for between one less than this many windows and this many.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.replay.generations</code>.
+     *
+     * @return The number of windows, defaulting to 3.
+     */
+    public int getReplayGenerations() {
+        return getIntProperty(REPLAY_GENERATIONS, DEFAULT_REPLAY_GENERATIONS);
+    }
+
+    /**
+     * Whether the replay detector is allocated outside the heap. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.replay.offHeap</code>.
+     *
+     * @return <code>true</code> if the detector is off the heap, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isReplayOffHeap() {
+        return getBooleanProperty(REPLAY_OFF_HEAP, false);
+    }
+
+    /**
+     * Whether the attributes CAS releases at login are kept for
+     * <code>CASAuthUserProvider</code> and <code>CASAuthGroupProvider</code>.
+     * <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.enabled</code>.
+     *
+     * @return <code>true</code> if the attribute store is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isAttributeStoreEnabled() {
+        return getBooleanProperty(ATTRIBUTES_ENABLED, false);
+    }
+
+    /**
+     * Get the maximum number of users whose attributes are kept. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.maxUsers</code>.
+     *
+     * @return The maximum number of users, defaulting to 10000.
+     */
+    public int getAttributeStoreMaxUsers() {
+        return getIntProperty(ATTRIBUTES_MAX_USERS, DEFAULT_ATTRIBUTES_MAX_USERS);
+    }
+
+    /**
+     * Get the CAS attribute holding a user's display name. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.name</code>.
+     *
+     * @return The attribute name, defaulting to <code>displayName</code>.
+     */
+    public String getAttributeStoreNameAttribute() {
+        return getStringProperty(ATTRIBUTES_NAME, DEFAULT_ATTRIBUTES_NAME);
+    }
+
+    /**
+     * Get the CAS attribute holding a user's email address. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.email</code>.
+     *
+     * @return The attribute name, defaulting to <code>mail</code>.
+     */
+    public String getAttributeStoreEmailAttribute() {
+        return getStringProperty(ATTRIBUTES_EMAIL, DEFAULT_ATTRIBUTES_EMAIL);
+    }
+
+    /**
+     * Get the CAS attribute holding the names of a user's groups. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.groups</code>.
+     *
+     * @return The attribute name, defaulting to <code>memberOf</code>.
+     */
+    public String getAttributeStoreGroupsAttribute() {
+        return getStringProperty(ATTRIBUTES_GROUPS, DEFAULT_ATTRIBUTES_GROUPS);
+    }
+
+    /**
+     * Get the class name of the user provider consulted for users not in
+     * the attribute store, such as
+     * <code>org.jivesoftware.openfire.ldap.LdapUserProvider</code>. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.fallbackUserProvider</code>.
+     *
+     * @return The class name if defined, otherwise <code>null</code>.
+     */
+    public String getAttributeStoreFallbackUserProvider() {
+        return configProperties.get(ATTRIBUTES_FALLBACK_USER_PROVIDER);
+    }
+
+    /**
+     * Get the class name of the group provider consulted for complete groups
+     * and for users not in the attribute store, such as
+     * <code>org.jivesoftware.openfire.ldap.LdapGroupProvider</code>. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.attributes.fallbackGroupProvider</code>.
+     *
+     * @return The class name if defined, otherwise <code>null</code>.
+     */
+    public String getAttributeStoreFallbackGroupProvider() {
+        return configProperties.get(ATTRIBUTES_FALLBACK_GROUP_PROVIDER);
+    }
+
+    /**
+     * Whether the path to CAS is warmed up in the background when the
+     * provider starts, and then probed to keep it warm. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.warmup.enabled</code>.
+     *
+     * @return <code>true</code> if warm up is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isWarmupEnabled() {
+        return getBooleanProperty(WARMUP_ENABLED, false);
+    }
+
+    /**
+     * Get the number of connections to each CAS server opened by the warm
+     * up and kept open by the health probe. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.warmup.connections</code>.
+     *
+     * @return The number of connections, defaulting to 4.
+     */
+    public int getWarmupConnections() {
+        return getIntProperty(WARMUP_CONNECTIONS, DEFAULT_WARMUP_CONNECTIONS);
+    }
+
+    /**
+     * Get the interval between health probes of each CAS server. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.warmup.probeInterval</code>.
+     *
+     * @return The interval in milliseconds, or 0 to warm up only, defaulting
+     * to 30000.
+     */
+    public long getWarmupProbeInterval() {
+        return getLongProperty(WARMUP_PROBE_INTERVAL, DEFAULT_WARMUP_PROBE_INTERVAL);
+    }
+
+    /**
+     * Get how long the resolved addresses of the CAS servers are used before
+     * they are resolved again. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.warmup.dnsRefreshInterval</code>.
+     *
+     * @return The interval in milliseconds, defaulting to 60000.
+     */
+    public long getWarmupDnsRefreshInterval() {
+        return getLongProperty(WARMUP_DNS_REFRESH_INTERVAL, DEFAULT_WARMUP_DNS_REFRESH_INTERVAL);
+    }
+
+    /**
+     * Whether CAS should be contacted through a shared pool of keep-alive
+     * connections rather than a new connection per validation. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.pool.enabled</code>.
+     *
+     * @return <code>true</code> if connection pooling is enabled, otherwise
+     * <code>false</code> (the default).
+     */
+    public boolean isHttpPoolEnabled() {
+        return getBooleanProperty(HTTP_POOL_ENABLED, false);
+    }
+
+    /**
+     * Get the maximum number of pooled connections. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.maxConnections</code>.
+     *
+     * @return The maximum number of connections, defaulting to 100.
+     */
+    public int getHttpMaxConnections() {
+        return getIntProperty(HTTP_MAX_CONNECTIONS, DEFAULT_HTTP_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Get the maximum number of pooled connections to each CAS host. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.maxConnectionsPerRoute</code>.
+     *
+     * @return The maximum number of connections per host, defaulting to 20.
+     */
+    public int getHttpMaxConnectionsPerRoute() {
+        return getIntProperty(HTTP_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_HTTP_MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+     * Get the timeout for connecting to CAS. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.connectTimeout</code>.
+     *
+     * @return The timeout in milliseconds, defaulting to 5000.
+     */
+    public int getHttpConnectTimeout() {
+        return getIntProperty(HTTP_CONNECT_TIMEOUT, DEFAULT_HTTP_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Get the timeout for reading a response from CAS. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.readTimeout</code>.
+     *
+     * @return The timeout in milliseconds, defaulting to 10000.
+     */
+    public int getHttpReadTimeout() {
+        return getIntProperty(HTTP_READ_TIMEOUT, DEFAULT_HTTP_READ_TIMEOUT);
+    }
+
+    /**
+     * Get how long an idle pooled connection is kept. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.idleTimeout</code>.
+     *
+     * @return The idle timeout in milliseconds, defaulting to 60000.
+     */
+    public long getHttpIdleTimeout() {
+        return getLongProperty(HTTP_IDLE_TIMEOUT, DEFAULT_HTTP_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Whether compressed responses should be requested from CAS. <br />
+     * This corresponds to the configuration value
+     * <code>casAuthProvider.http.gzip</code>.
+     *
+     * @return <code>true</code> (the default) if compression is requested,
+     * otherwise <code>false</code>.
+     */
+    public boolean isHttpGzipEnabled() {
+        return getBooleanProperty(HTTP_GZIP, true);
+    }
+
+    /**
+     * Get a boolean configuration value.
+     *
+     * @param key          The configuration key.
+     * @param defaultValue The value to use if the key is not defined.
+     * @return The configured value, otherwise <code>defaultValue</code>.
+     */
+    private boolean getBooleanProperty(final String key, final boolean defaultValue) {
+        final String value = configProperties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.valueOf(value.trim()).booleanValue();
+    }
+
+    /**
+     * Get a string configuration value.
+     *
+     * @param key          The configuration key.
+     * @param defaultValue The value to use if the key is not defined or is
+     *                     blank.
+     * @return The configured value, otherwise <code>defaultValue</code>.
+     */
+    private String getStringProperty(final String key, final String defaultValue) {
+        final String value = configProperties.get(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Get an integer configuration value.
+     *
+     * @param key          The configuration key.
+     * @param defaultValue The value to use if the key is not defined or is
+     *                     not a valid integer.
+     * @return The configured value, otherwise <code>defaultValue</code>.
+     */
+    private int getIntProperty(final String key, final int defaultValue) {
+        final String value = configProperties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException nfe) {
+            Log.warn("CASAuthProvider: Invalid value '" + value + "' for "
+                    + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a long configuration value.
+     *
+     * @param key          The configuration key.
+     * @param defaultValue The value to use if the key is not defined or is
+     *                     not a valid long.
+     * @return The configured value, otherwise <code>defaultValue</code>.
+     */
+    private long getLongProperty(final String key, final long defaultValue) {
+        final String value = configProperties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException nfe) {
+            Log.warn("CASAuthProvider: Invalid value '" + value + "' for "
+                    + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a decimal configuration value.
+     *
+     * @param key          The configuration key.
+     * @param defaultValue The value to use if the key is not defined or is not
+     *                     a number.
+     * @return The configured value, otherwise <code>defaultValue</code>.
+     */
+    private double getDoubleProperty(final String key, final double defaultValue) {
+        final String value = configProperties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (final NumberFormatException nfe) {
+            Log.warn("CASAuthProvider: Invalid value '" + value + "' for "
+                    + key + ", using " + defaultValue);
+            return defaultValue;
+        }
     }
 }
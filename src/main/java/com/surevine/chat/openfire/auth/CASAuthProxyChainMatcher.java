@@ -0,0 +1,274 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The allowed proxy chains, compiled into a trie with one level per hop so
+ * that checking a chain costs time proportional to its length rather than to
+ * the number of allowed chains. Each hop of an allowed chain is one of:
+ * <ul>
+ * <li>a URL, which must match exactly;</li>
+ * <li>a URL ending in <code>*</code>, which matches any URL starting with
+ * the part before the <code>*</code>. If that part ends within the host, the
+ * URL's host must end there too, so <code>https://app*</code> matches
+ * <code>https://app/</code> and <code>https://app:8443/</code> but not
+ * <code>https://app.evil.example/</code>;</li>
+ * <li><code>regex:</code> followed by a regular expression, which must match
+ * the whole URL. Regular expressions at the same hop are tried in turn, so
+ * they should be kept for the few chains which need them.</li>
+ * </ul>
+ * Hops are listed in the order CAS reports them, most recent proxy first. A
+ * chain is allowed if it has the same number of hops as an allowed chain and
+ * every hop matches.
+ */
+public class CASAuthProxyChainMatcher {
+
+    /**
+     * The prefix of a regular expression hop.
+     */
+    public static final String REGEX_PREFIX = "regex:";
+
+    /**
+     * The suffix of a prefix hop.
+     */
+    public static final String WILDCARD_SUFFIX = "*";
+
+    /**
+     * The root of the trie, before the first hop.
+     */
+    private final Node root = new Node();
+
+    /**
+     * The number of allowed chains.
+     */
+    private final int size;
+
+    /**
+     * Compiles the allowed proxy chains.
+     *
+     * @param chains The allowed chains, each an array of hop patterns.
+     * @throws java.util.regex.PatternSyntaxException If a regular expression
+     *                                                is not valid.
+     */
+    public CASAuthProxyChainMatcher(final List<String[]> chains) {
+        for (final String[] chain : chains) {
+            Node node = root;
+            for (final String hop : chain) {
+                node = node.child(hop);
+            }
+            node.terminal = true;
+        }
+        this.size = chains.size();
+    }
+
+    /**
+     * Whether a proxy chain is allowed.
+     *
+     * @param proxies The proxies reported by CAS, most recent first.
+     * @return <code>true</code> if the chain matches an allowed chain.
+     */
+    public boolean matches(final List<String> proxies) {
+        return matches(root, proxies, 0);
+    }
+
+    /**
+     * Get the number of allowed chains.
+     *
+     * @return The number of chains.
+     */
+    public int size() {
+        return size;
+    }
+
+    private static boolean matches(final Node node, final List<String> proxies, final int hop) {
+        if (hop == proxies.size()) {
+            return node.terminal;
+        }
+        final String proxy = proxies.get(hop);
+
+        if (node.exact != null) {
+            final Node next = node.exact.get(proxy);
+            if (next != null && matches(next, proxies, hop + 1)) {
+                return true;
+            }
+        }
+
+        // Walk the prefix trie along the URL, trying every prefix passed
+        PrefixNode prefix = node.prefixes;
+        for (int i = 0; prefix != null; ++i) {
+            if (prefix.target != null && (!prefix.inHost || isEndOfHost(proxy, i))
+                    && matches(prefix.target, proxies, hop + 1)) {
+                return true;
+            }
+            if (i == proxy.length() || prefix.children == null) {
+                break;
+            }
+            prefix = prefix.children.get(Character.valueOf(proxy.charAt(i)));
+        }
+
+        if (node.regexes != null) {
+            for (final RegexEdge edge : node.regexes) {
+                if (edge.pattern.matcher(proxy).matches() && matches(edge.target, proxies, hop + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a URL's host ends at an index, followed by nothing, the path,
+     * the query, the fragment or a port.
+     */
+    private static boolean isEndOfHost(final String url, final int index) {
+        if (index == url.length() || "/?#".indexOf(url.charAt(index)) >= 0) {
+            return true;
+        }
+        if (url.charAt(index) != ':') {
+            return false;
+        }
+        // Anything but a port, such as user information, leaves the host
+        // still to come
+        for (int i = index + 1; i < url.length() && "/?#".indexOf(url.charAt(i)) < 0; ++i) {
+            if (!Character.isDigit(url.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a URL prefix ends within the host, so that the host of a URL
+     * matching it must end where it does.
+     */
+    private static boolean endsInHost(final String prefix) {
+        final int authority = prefix.indexOf("://");
+        return authority >= 0 && prefix.indexOf('/', authority + 3) < 0;
+    }
+
+    /**
+     * A point in the trie after some number of hops.
+     */
+    private static final class Node {
+
+        /** The next hop by exact URL. */
+        private Map<String, Node> exact;
+
+        /** The next hop by URL prefix. */
+        private PrefixNode prefixes;
+
+        /** The next hop by regular expression. */
+        private List<RegexEdge> regexes;
+
+        /** Whether an allowed chain ends here. */
+        private boolean terminal;
+
+        Node child(final String hop) {
+            if (hop.startsWith(REGEX_PREFIX)) {
+                final String regex = hop.substring(REGEX_PREFIX.length());
+                if (regexes == null) {
+                    regexes = new ArrayList<RegexEdge>(1);
+                }
+                for (final RegexEdge edge : regexes) {
+                    if (edge.pattern.pattern().equals(regex)) {
+                        return edge.target;
+                    }
+                }
+                final RegexEdge edge = new RegexEdge(Pattern.compile(regex));
+                regexes.add(edge);
+                return edge.target;
+            }
+
+            if (hop.endsWith(WILDCARD_SUFFIX)) {
+                if (prefixes == null) {
+                    prefixes = new PrefixNode();
+                }
+                final String start = hop.substring(0, hop.length() - WILDCARD_SUFFIX.length());
+                PrefixNode prefix = prefixes;
+                for (int i = 0; i < start.length(); ++i) {
+                    prefix = prefix.child(start.charAt(i));
+                }
+                prefix.inHost = endsInHost(start);
+                if (prefix.target == null) {
+                    prefix.target = new Node();
+                }
+                return prefix.target;
+            }
+
+            if (exact == null) {
+                exact = new HashMap<String, Node>();
+            }
+            Node next = exact.get(hop);
+            if (next == null) {
+                next = new Node();
+                exact.put(hop, next);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * A point in the character trie of URL prefixes at one hop.
+     */
+    private static final class PrefixNode {
+
+        /** The next character of the prefix. */
+        private Map<Character, PrefixNode> children;
+
+        /** The next hop, if a prefix ends here. */
+        private Node target;
+
+        /** Whether the prefix ending here ends within the host. */
+        private boolean inHost;
+
+        PrefixNode child(final char c) {
+            if (children == null) {
+                children = new HashMap<Character, PrefixNode>();
+            }
+            final Character key = Character.valueOf(c);
+            PrefixNode next = children.get(key);
+            if (next == null) {
+                next = new PrefixNode();
+                children.put(key, next);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * A hop matched by a regular expression.
+     */
+    private static final class RegexEdge {
+
+        private final Pattern pattern;
+
+        private final Node target = new Node();
+
+        RegexEdge(final Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+}
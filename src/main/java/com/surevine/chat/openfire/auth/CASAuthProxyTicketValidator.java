@@ -0,0 +1,136 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jasig.cas.client.util.XmlUtils;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.jasig.cas.client.validation.InvalidProxyChainTicketValidationException;
+import org.jasig.cas.client.validation.TicketValidationException;
+
+/**
+ * A <code>Cas20ProxyTicketValidator</code> which retrieves responses through
+ * a <code>CASAuthHttpTransport</code> and checks proxy chains against a
+ * <code>CASAuthProxyChainMatcher</code>. Response parsing is that of the CAS
+ * client. Without a transport, responses are retrieved by the CAS client, and
+ * without a matcher, proxy chains are checked by the CAS client.
+ */
+public class CASAuthProxyTicketValidator extends Cas20ProxyTicketValidator {
+
+    /**
+     * The transport used to contact CAS.
+     */
+    private final CASAuthHttpTransport transport;
+
+    /**
+     * The allowed proxy chains, or <code>null</code> to use those set on the
+     * CAS client.
+     */
+    private volatile CASAuthProxyChainMatcher proxyChainMatcher;
+
+    /**
+     * Constructs a new proxy ticket validator.
+     *
+     * @param casServerUrlPrefix The prefix of the CAS server.
+     * @param transport          The transport used to contact CAS, or
+     *                           <code>null</code> to use the CAS client's own
+     *                           connection handling.
+     */
+    public CASAuthProxyTicketValidator(final String casServerUrlPrefix,
+                                       final CASAuthHttpTransport transport) {
+        super(casServerUrlPrefix);
+        this.transport = transport;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Assertion validate(final String ticket, final String service)
+            throws TicketValidationException {
+        if (transport == null) {
+            return super.validate(ticket, service);
+        }
+        final String response;
+        try {
+            response = transport.getResponse(constructValidationUrl(ticket, service));
+        } catch (final IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        return parseResponseFromServer(response);
+    }
+
+    /**
+     * Checks the proxy chain in the response against the matcher, if one is
+     * set.
+     *
+     * @param response  The response from CAS.
+     * @param assertion The assertion built from the response.
+     * @throws TicketValidationException If the proxy chain is not allowed.
+     */
+    protected void customParseResponse(final String response, final Assertion assertion)
+            throws TicketValidationException {
+        final CASAuthProxyChainMatcher matcher = proxyChainMatcher;
+        if (matcher == null) {
+            super.customParseResponse(response, assertion);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        final List<String> proxies = XmlUtils.getTextForElements(response, "proxy");
+
+        // A ticket presented without a proxy is always allowed
+        if (proxies.isEmpty() || matcher.matches(proxies)) {
+            return;
+        }
+        throw new InvalidProxyChainTicketValidationException("Invalid proxy chain: " + proxies);
+    }
+
+    /**
+     * Get the transport used to contact CAS.
+     *
+     * @return The transport.
+     */
+    public CASAuthHttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Get the allowed proxy chains.
+     *
+     * @return The matcher, or <code>null</code> if the chains set on the CAS
+     * client are used.
+     */
+    public CASAuthProxyChainMatcher getProxyChainMatcher() {
+        return proxyChainMatcher;
+    }
+
+    /**
+     * Set the allowed proxy chains, replacing those set on the CAS client.
+     *
+     * @param proxyChainMatcher The matcher, or <code>null</code> to use the
+     *                          chains set on the CAS client.
+     */
+    public void setProxyChainMatcher(final CASAuthProxyChainMatcher proxyChainMatcher) {
+        this.proxyChainMatcher = proxyChainMatcher;
+    }
+
+}
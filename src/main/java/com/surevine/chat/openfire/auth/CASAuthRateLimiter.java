@@ -0,0 +1,265 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of authentications for each key, such as a username or a
+ * remote address, with a token bucket per key.
+ * <p/>
+ * Each bucket holds up to <code>burst</code> tokens and refills at a fixed
+ * rate, and each authentication takes a token. A bucket is kept as the
+ * single time at which it will next be full, so taking a token is one
+ * compare-and-set on an <code>AtomicLong</code> without a lock. A bucket
+ * that has refilled is the same as a new one, so it is dropped by the
+ * periodic sweep. When the map is full the oldest key is evicted to make
+ * room for a new one, and each eviction is counted, so that a flood of new
+ * keys cannot lock out users who have no bucket yet. An evicted key starts
+ * again with a full bucket, so a flood large enough to keep the map full
+ * weakens the limit rather than refusing everyone.
+ */
+public class CASAuthRateLimiter {
+
+    /**
+     * How often refilled buckets are dropped, in nanoseconds.
+     */
+    static final long SWEEP_INTERVAL = 60L * 1000000000L;
+
+    /**
+     * The time between tokens, in nanoseconds.
+     */
+    private final long tokenInterval;
+
+    /**
+     * How far ahead of now a bucket may be before it is empty, in
+     * nanoseconds.
+     */
+    private final long burstTolerance;
+
+    /**
+     * The most keys held at once.
+     */
+    private final int maxKeys;
+
+    /**
+     * The time each bucket will next be full, keyed by key.
+     */
+    private final ConcurrentHashMap<String, AtomicLong> buckets;
+
+    /**
+     * The keys in the order their buckets were created, oldest first. It may
+     * hold keys which have since been dropped, which the sweep removes.
+     */
+    private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * When refilled buckets were last dropped.
+     */
+    private final AtomicLong lastSweep;
+
+    /**
+     * Whether a thread is dropping refilled buckets.
+     */
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * The number of authentications refused.
+     */
+    private final CASAuthStripedCounter rejected = new CASAuthStripedCounter();
+
+    /**
+     * The number of keys evicted because the map was full.
+     */
+    private final CASAuthStripedCounter evicted = new CASAuthStripedCounter();
+
+    /**
+     * Constructs a new limiter.
+     *
+     * @param burst     The most authentications a key may make at once.
+     * @param perMinute The sustained number of authentications a key may
+     *                  make each minute.
+     * @param maxKeys   The most keys held at once.
+     */
+    public CASAuthRateLimiter(final int burst, final int perMinute, final int maxKeys) {
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst must be greater than zero");
+        }
+        if (perMinute <= 0) {
+            throw new IllegalArgumentException("Rate must be greater than zero");
+        }
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Number of keys must be greater than zero");
+        }
+        this.tokenInterval = 60L * 1000000000L / perMinute;
+        this.burstTolerance = tokenInterval * burst;
+        this.maxKeys = maxKeys;
+        this.buckets = new ConcurrentHashMap<String, AtomicLong>(Math.min(maxKeys, 1024));
+        this.lastSweep = new AtomicLong(nanoTime());
+    }
+
+    /**
+     * Take a token for a key.
+     *
+     * @param key The key, or <code>null</code> if the caller is not known.
+     * @return <code>true</code> if the authentication may go ahead, or
+     * <code>false</code> if the key is over its limit.
+     */
+    public boolean tryAcquire(final String key) {
+        if (key == null) {
+            return true;
+        }
+        final long now = nanoTime();
+        sweepIfDue(now);
+
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            evictOldest();
+            final AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+                order.offer(key);
+            }
+        }
+
+        while (true) {
+            final long full = bucket.get();
+            final long next = Math.max(full, now) + tokenInterval;
+            if (next - now > burstTolerance) {
+                rejected.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Evict the oldest keys until there is room for another.
+     */
+    private void evictOldest() {
+        while (buckets.size() >= maxKeys) {
+            final String oldest = order.poll();
+            if (oldest == null) {
+                return;
+            }
+            if (buckets.remove(oldest) != null) {
+                evicted.increment();
+            }
+        }
+    }
+
+    /**
+     * Drop the refilled buckets if the sweep interval has passed.
+     */
+    private void sweepIfDue(final long now) {
+        final long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL && lastSweep.compareAndSet(last, now)) {
+            sweep(now);
+        }
+    }
+
+    /**
+     * Drop every bucket which has refilled. A token taken from a bucket as
+     * it is dropped is forgotten, which at worst allows one more
+     * authentication.
+     */
+    private void sweep(final long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final Iterator<Map.Entry<String, AtomicLong>> entries = buckets.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<String, AtomicLong> entry = entries.next();
+                if (entry.getValue().get() <= now) {
+                    buckets.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            order.retainAll(buckets.keySet());
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Get the number of keys held.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return buckets.size();
+    }
+
+    /**
+     * Get the number of authentications refused.
+     *
+     * @return The number refused.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the number of keys evicted to make room for new keys.
+     *
+     * @return The number evicted.
+     */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    /**
+     * Get the most keys held at once.
+     *
+     * @return The maximum number of keys.
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * Whether another limiter was built with the same settings, so that this
+     * one, and its buckets, can take its place when the configuration is
+     * reloaded.
+     *
+     * @param other The other limiter.
+     * @return <code>true</code> if the settings are the same.
+     */
+    boolean hasSameSettings(final CASAuthRateLimiter other) {
+        return tokenInterval == other.tokenInterval
+                && burstTolerance == other.burstTolerance
+                && maxKeys == other.maxKeys;
+    }
+
+    /**
+     * Get the current time. Exists to be overridden in tests.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+}
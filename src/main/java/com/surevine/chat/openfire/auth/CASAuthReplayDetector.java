@@ -0,0 +1,326 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Remembers the CAS tickets which have been validated, so that a replay of
+ * one can be rejected without asking CAS, which would only reject it again.
+ * <p/>
+ * Tickets are held in a ring of Bloom filters, each covering one window of
+ * time. Tickets are added to the newest filter and looked for in all of
+ * them, and at the end of each window the oldest filter is cleared and
+ * becomes the newest, so a ticket is remembered for between
+ * <code>generations - 1</code> and <code>generations</code> windows. The
+ * memory used is fixed by the expected number of tickets in a window and
+ * the false positive rate, and may be allocated outside the heap. Neither
+ * adding nor looking for a ticket allocates.
+ * <p/>
+ * A false positive rejects a ticket which has not been used, so the rate
+ * should be small. Bits are set without a lock, and two threads setting
+ * bits in the same word at once may lose one, which at worst lets a replay
+ * through to CAS. A single instance is shared by every
+ * <code>CASAuthProvider</code> in the JVM.
+ */
+public class CASAuthReplayDetector {
+
+    /**
+     * The detector shared by every provider in the JVM.
+     */
+    private static CASAuthReplayDetector sharedInstance;
+
+    /**
+     * The number of bits in each filter.
+     */
+    private final long bitCount;
+
+    /**
+     * The number of bits set for each ticket.
+     */
+    private final int hashCount;
+
+    /**
+     * How long each filter is the newest, in milliseconds.
+     */
+    private final long window;
+
+    /**
+     * The filters, oldest following newest.
+     */
+    private final LongBuffer[] filters;
+
+    /**
+     * Whether the filters are allocated outside the heap.
+     */
+    private final boolean offHeap;
+
+    /**
+     * The index of the newest filter.
+     */
+    private volatile int current;
+
+    /**
+     * When the newest filter became the newest.
+     */
+    private volatile long windowStart;
+
+    /**
+     * The number of replays rejected.
+     */
+    private final CASAuthStripedCounter replays = new CASAuthStripedCounter();
+
+    /**
+     * Constructs a new detector.
+     *
+     * @param expectedTickets   The expected number of tickets validated in a
+     *                          window.
+     * @param falsePositiveRate The chance that a ticket which has not been
+     *                          used is taken for a replay, when a window
+     *                          holds the expected number of tickets.
+     * @param window            How long each filter is the newest, in
+     *                          milliseconds.
+     * @param generations       The number of filters, at least two.
+     * @param offHeap           Whether to allocate the filters outside the
+     *                          heap.
+     */
+    public CASAuthReplayDetector(final int expectedTickets, final double falsePositiveRate,
+                                 final long window, final int generations, final boolean offHeap) {
+        if (expectedTickets <= 0) {
+            throw new IllegalArgumentException("Expected tickets must be greater than zero");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between zero and one");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be greater than zero");
+        }
+        if (generations < 2) {
+            throw new IllegalArgumentException("There must be at least two generations");
+        }
+
+        // The optimal size and number of hashes for the false positive rate
+        final double bits = Math.ceil(-expectedTickets * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2)));
+        final long words = ((long) bits + 63) / 64;
+        if (words > Integer.MAX_VALUE / 8) {
+            throw new IllegalArgumentException("Filter of " + (long) bits + " bits is too large");
+        }
+        this.bitCount = words * 64;
+        this.hashCount = Math.max(1, (int) Math.round(bits / expectedTickets * Math.log(2)));
+        this.window = window;
+        this.offHeap = offHeap;
+
+        this.filters = new LongBuffer[generations];
+        for (int i = 0; i < generations; i++) {
+            filters[i] = offHeap
+                    ? ByteBuffer.allocateDirect((int) words * 8).asLongBuffer()
+                    : LongBuffer.allocate((int) words);
+        }
+        this.windowStart = currentTimeMillis();
+    }
+
+    /**
+     * Get the detector shared by every provider in the JVM, creating it from
+     * the given configuration if it does not yet exist. Changes to the
+     * configuration take effect when Openfire is restarted.
+     *
+     * @param config The configuration to use if the detector is created.
+     * @return The shared detector.
+     */
+    public static synchronized CASAuthReplayDetector getInstance(final CASAuthProviderConfig config) {
+        if (sharedInstance == null) {
+            sharedInstance = new CASAuthReplayDetector(config.getReplayExpectedTickets(),
+                    config.getReplayFalsePositiveRate(), config.getReplayWindow(),
+                    config.getReplayGenerations(), config.isReplayOffHeap());
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Remember that a ticket has been validated.
+     *
+     * @param ticket The CAS ticket.
+     */
+    public void record(final String ticket) {
+        rotateIfDue();
+        final long hash = hash(ticket);
+        final long h1 = mix(hash);
+        final long h2 = mix(hash + 0x9E3779B97F4A7C15L) | 1L;
+        final LongBuffer filter = filters[current];
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            final long value = filter.get(word);
+            if ((value & mask) == 0) {
+                filter.put(word, value | mask);
+            }
+        }
+    }
+
+    /**
+     * Whether a ticket has probably been validated before. A replay is
+     * counted.
+     *
+     * @param ticket The CAS ticket.
+     * @return <code>true</code> if the ticket has probably been validated,
+     * or <code>false</code> if it certainly has not been within the
+     * remembered windows.
+     */
+    public boolean isReplay(final String ticket) {
+        rotateIfDue();
+        final long hash = hash(ticket);
+        final long h1 = mix(hash);
+        final long h2 = mix(hash + 0x9E3779B97F4A7C15L) | 1L;
+        for (int f = 0; f < filters.length; f++) {
+            if (contains(filters[f], h1, h2)) {
+                replays.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether every bit of a ticket is set in a filter.
+     */
+    private boolean contains(final LongBuffer filter, final long h1, final long h2) {
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((filter.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clear the oldest filter and make it the newest for each window which
+     * has ended.
+     */
+    private void rotateIfDue() {
+        if (currentTimeMillis() - windowStart < window) {
+            return;
+        }
+        synchronized (this) {
+            final long now = currentTimeMillis();
+            final long ended = (now - windowStart) / window;
+            if (ended <= 0) {
+                return;
+            }
+            final long steps = Math.min(ended, filters.length);
+            for (int i = 0; i < steps; i++) {
+                // Cleared before it becomes the newest, while only read
+                final int next = (current + 1) % filters.length;
+                clear(filters[next]);
+                current = next;
+            }
+            windowStart += ended * window;
+        }
+    }
+
+    /**
+     * Clear every bit in a filter.
+     */
+    private static void clear(final LongBuffer filter) {
+        for (int i = 0, words = filter.capacity(); i < words; i++) {
+            filter.put(i, 0L);
+        }
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of a ticket's characters.
+     */
+    private static long hash(final String ticket) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0, length = ticket.length(); i < length; i++) {
+            hash ^= ticket.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * The MurmurHash3 finaliser, spreading every bit of a hash across the
+     * result.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Get the number of replays rejected.
+     *
+     * @return The number of replays.
+     */
+    public long getReplayCount() {
+        return replays.sum();
+    }
+
+    /**
+     * Get the number of bits in each filter.
+     *
+     * @return The number of bits.
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Get the number of bits set for each ticket.
+     *
+     * @return The number of hashes.
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Get the memory used by the filters.
+     *
+     * @return The size of the filters, in bytes.
+     */
+    public long getSizeInBytes() {
+        return bitCount / 8 * filters.length;
+    }
+
+    /**
+     * Whether the filters are allocated outside the heap.
+     *
+     * @return <code>true</code> if the filters are off the heap.
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Get the current time. Exists to be overridden in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
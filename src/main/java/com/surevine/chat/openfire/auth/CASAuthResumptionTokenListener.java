@@ -0,0 +1,39 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+/**
+ * Receives the resumption tokens issued to users who log in with a CAS
+ * ticket. <code>AuthProvider</code> cannot return data to the client, so a
+ * component which can, such as a plugin, registers a listener with
+ * <code>CASAuthProvider.setResumptionTokenListener</code> and hands each
+ * token over.
+ */
+public interface CASAuthResumptionTokenListener {
+
+    /**
+     * Called once CAS has validated a user's ticket and a token has been
+     * issued to them. Called on the authenticating thread, so it should not
+     * block.
+     *
+     * @param username The user CAS authenticated.
+     * @param token    The resumption token.
+     */
+    void tokenIssued(String username, String token);
+}
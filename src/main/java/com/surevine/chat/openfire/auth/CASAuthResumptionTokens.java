@@ -0,0 +1,418 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jivesoftware.util.Log;
+import org.jivesoftware.util.cache.Cache;
+
+/**
+ * Issues and verifies short lived resumption tokens, which let a client that
+ * has logged in with a CAS ticket log in again without going back to CAS.
+ * <p/>
+ * A token has the form
+ * <code>CASRT1:&lt;key id&gt;:&lt;issued&gt;:&lt;nonce&gt;:&lt;mac&gt;</code>
+ * where the MAC is an HMAC-SHA256 over the other fields, the username and
+ * the service, so a token is only accepted for the user and service it was
+ * issued to. Tokens are signed with the first key and verified with any key,
+ * so keys can be rotated by adding a new first key and removing the old one
+ * once its tokens have expired.
+ * <p/>
+ * Single tokens can be revoked by nonce, and every token issued to a user
+ * can be revoked at once. Revocations are kept only until the tokens they
+ * cover would have expired anyway. They are held on this node, or in an
+ * Openfire cache shared by every node when Openfire is clustered, so that a
+ * token revoked on one node is rejected on all of them. As with
+ * <code>CASAuthClusteredTicketCache</code>, the shared cache holds plain
+ * strings and expires its entries itself.
+ */
+public class CASAuthResumptionTokens {
+
+    /**
+     * The prefix of every token, which distinguishes it from a CAS ticket.
+     */
+    public static final String PREFIX = "CASRT1:";
+
+    /**
+     * The name of the shared cache of revocations.
+     */
+    public static final String REVOCATION_CACHE_NAME = "CAS Revoked Resumption Tokens";
+
+    /**
+     * How far in the future a token may claim to have been issued, to allow
+     * for clock differences between cluster nodes, in milliseconds.
+     */
+    static final long MAX_CLOCK_SKEW = 30000L;
+
+    /**
+     * The MAC algorithm.
+     */
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * The number of random bytes in a nonce.
+     */
+    private static final int NONCE_LENGTH = 12;
+
+    /**
+     * The prefix of the revocation of a single token, followed by its nonce.
+     */
+    private static final String REVOKED_TOKEN = "token:";
+
+    /**
+     * The prefix of the revocation of a user's tokens, followed by the
+     * username.
+     */
+    private static final String REVOKED_USER = "user:";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * A MAC for each thread, initialised with whichever key is needed.
+     */
+    private static final ThreadLocal<Mac> MACS = new ThreadLocal<Mac>() {
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(ALGORITHM);
+            } catch (final GeneralSecurityException gse) {
+                throw new IllegalStateException(ALGORITHM + " is not available", gse);
+            }
+        }
+    };
+
+    /**
+     * The keys by id, in order. The first key signs new tokens.
+     */
+    private final Map<String, SecretKeySpec> keys;
+
+    /**
+     * The id of the key which signs new tokens.
+     */
+    private final String signingKeyId;
+
+    /**
+     * How long a token is valid for, in milliseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * The revocations. A revoked nonce maps to the time its token expires,
+     * and a revoked user to the time of the revocation; tokens issued to the
+     * user before then are rejected.
+     */
+    private final Map<String, String> revocations;
+
+    /**
+     * Whether the revocations are held in a cache shared across the
+     * cluster, which expires them itself.
+     */
+    private final boolean sharedRevocations;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Constructs a new token issuer.
+     *
+     * @param keys       The secret keys by id. The first key signs new tokens.
+     * @param timeToLive How long a token is valid for, in milliseconds.
+     */
+    public CASAuthResumptionTokens(final Map<String, byte[]> keys, final long timeToLive) {
+        this(keys, timeToLive, new ConcurrentHashMap<String, String>(), false);
+    }
+
+    /**
+     * Constructs a new token issuer whose revocations are shared across the
+     * cluster. The cache's entries should live for at least the time to
+     * live plus {@link #MAX_CLOCK_SKEW}.
+     *
+     * @param keys        The secret keys by id. The first key signs new
+     *                    tokens.
+     * @param timeToLive  How long a token is valid for, in milliseconds.
+     * @param sharedCache The Openfire cache shared across the cluster.
+     */
+    public CASAuthResumptionTokens(final Map<String, byte[]> keys, final long timeToLive,
+                                   final Cache<String, String> sharedCache) {
+        this(keys, timeToLive, sharedCache, true);
+    }
+
+    private CASAuthResumptionTokens(final Map<String, byte[]> keys, final long timeToLive,
+                                    final Map<String, String> revocations,
+                                    final boolean sharedRevocations) {
+        if (revocations == null) {
+            throw new IllegalArgumentException("Shared cache not defined");
+        }
+        this.revocations = revocations;
+        this.sharedRevocations = sharedRevocations;
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one key is required");
+        }
+        this.keys = new LinkedHashMap<String, SecretKeySpec>();
+        for (final Map.Entry<String, byte[]> key : keys.entrySet()) {
+            if (key.getKey().length() == 0 || key.getKey().indexOf(':') >= 0) {
+                throw new IllegalArgumentException("Invalid key id: '" + key.getKey() + "'");
+            }
+            this.keys.put(key.getKey(), new SecretKeySpec(key.getValue(), ALGORITHM));
+        }
+        this.signingKeyId = this.keys.keySet().iterator().next();
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Whether a password is a resumption token rather than a CAS ticket.
+     *
+     * @param password The password.
+     * @return <code>true</code> if the password has the token prefix.
+     */
+    public static boolean isToken(final String password) {
+        return password != null && password.startsWith(PREFIX);
+    }
+
+    /**
+     * Issue a token.
+     *
+     * @param username The user the token is issued to.
+     * @param service  The service the token is issued for.
+     * @return The token.
+     */
+    public String issue(final String username, final String service) {
+        final byte[] nonceBytes = new byte[NONCE_LENGTH];
+        random.nextBytes(nonceBytes);
+        final String nonce = toHex(nonceBytes);
+        final String issued = Long.toString(System.currentTimeMillis());
+
+        return PREFIX + signingKeyId + ':' + issued + ':' + nonce + ':'
+                + toHex(mac(keys.get(signingKeyId), signingKeyId, issued, nonce, username, service));
+    }
+
+    /**
+     * Verify a token.
+     *
+     * @param username The user logging in.
+     * @param service  The service being logged in to.
+     * @param token    The token presented.
+     * @return <code>null</code> if the token is valid, otherwise the reason
+     * it was rejected.
+     */
+    public String verify(final String username, final String service, final String token) {
+        final String[] fields = split(token);
+        if (fields == null) {
+            return "Resumption token is malformed.";
+        }
+        final String keyId = fields[0];
+        final String issued = fields[1];
+        final String nonce = fields[2];
+
+        final SecretKeySpec key = keys.get(keyId);
+        if (key == null) {
+            return "Resumption token key '" + keyId + "' is not known.";
+        }
+
+        final byte[] expected = mac(key, keyId, issued, nonce, username, service);
+        final byte[] actual = fromHex(fields[3]);
+        if (actual == null || !MessageDigest.isEqual(expected, actual)) {
+            return "Resumption token is not valid for user '" + username + "'.";
+        }
+
+        final long issuedAt;
+        try {
+            issuedAt = Long.parseLong(issued);
+        } catch (final NumberFormatException nfe) {
+            return "Resumption token is malformed.";
+        }
+        final long now = System.currentTimeMillis();
+        if (now >= issuedAt + timeToLive) {
+            return "Resumption token has expired.";
+        }
+        if (issuedAt > now + MAX_CLOCK_SKEW) {
+            return "Resumption token was issued in the future.";
+        }
+
+        final String revokedAt;
+        try {
+            if (revocations.containsKey(REVOKED_TOKEN + nonce)) {
+                return "Resumption token has been revoked.";
+            }
+            revokedAt = revocations.get(REVOKED_USER + normalise(username));
+        } catch (final RuntimeException re) {
+            // A token which might have been revoked is not accepted
+            Log.warn("CASAuthProvider: Unable to read resumption token revocations: " + re);
+            return "Resumption token revocations could not be checked.";
+        }
+        if (revokedAt != null && issuedAt <= Long.parseLong(revokedAt)) {
+            return "Resumption tokens for user '" + username + "' have been revoked.";
+        }
+        return null;
+    }
+
+    /**
+     * Revoke a single token. Tokens which are malformed are ignored.
+     *
+     * @param token The token.
+     */
+    public void revoke(final String token) {
+        final String[] fields = split(token);
+        if (fields == null) {
+            return;
+        }
+        final long expires;
+        try {
+            expires = Long.parseLong(fields[1]) + timeToLive;
+        } catch (final NumberFormatException nfe) {
+            return;
+        }
+        revocations.put(REVOKED_TOKEN + fields[2], Long.toString(expires));
+        purge();
+    }
+
+    /**
+     * Revoke every token issued to a user until now.
+     *
+     * @param username The user.
+     */
+    public void revokeUser(final String username) {
+        revocations.put(REVOKED_USER + normalise(username), Long.toString(System.currentTimeMillis()));
+        purge();
+    }
+
+    /**
+     * Carry over the revocations of the tokens an earlier issuer accepted,
+     * for when the configuration is reloaded. Revocations in the same shared
+     * cache are already carried over.
+     *
+     * @param previous The earlier issuer.
+     */
+    public void inheritRevocations(final CASAuthResumptionTokens previous) {
+        if (previous.revocations != revocations) {
+            revocations.putAll(previous.revocations);
+            purge();
+        }
+    }
+
+    /**
+     * Get the number of revocations held.
+     *
+     * @return The number of revoked tokens and users.
+     */
+    public int getRevocationCount() {
+        return revocations.size();
+    }
+
+    /**
+     * Get how long a token is valid for.
+     *
+     * @return The time to live in milliseconds.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Forget revocations of tokens which would have expired anyway. A shared
+     * cache expires its own entries.
+     */
+    private void purge() {
+        if (sharedRevocations) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Map.Entry<String, String>> it = revocations.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, String> revocation = it.next();
+            final long time = Long.parseLong(revocation.getValue());
+            final long expires = revocation.getKey().startsWith(REVOKED_TOKEN)
+                    ? time : time + timeToLive + MAX_CLOCK_SKEW;
+            if (expires <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Split a token into key id, issued time, nonce and MAC.
+     *
+     * @return The fields, or <code>null</code> if the token is malformed.
+     */
+    private static String[] split(final String token) {
+        if (!isToken(token)) {
+            return null;
+        }
+        final String[] fields = token.substring(PREFIX.length()).split(":", -1);
+        return fields.length == 4 ? fields : null;
+    }
+
+    private static byte[] mac(final SecretKeySpec key, final String keyId, final String issued,
+                              final String nonce, final String username, final String service) {
+        final Mac mac = MACS.get();
+        try {
+            mac.init(key);
+        } catch (final GeneralSecurityException gse) {
+            throw new IllegalStateException("Invalid resumption token key", gse);
+        }
+        try {
+            // Fields are separated by a character which cannot appear in a
+            // username or URL, so no two inputs share a MAC
+            return mac.doFinal((keyId + '\n' + issued + '\n' + nonce + '\n'
+                    + normalise(username) + '\n' + (service == null ? "" : service))
+                    .getBytes("UTF-8"));
+        } catch (final UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static String normalise(final String username) {
+        return username == null ? "" : username.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] fromHex(final String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            final int high = Character.digit(hex.charAt(2 * i), 16);
+            final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+}
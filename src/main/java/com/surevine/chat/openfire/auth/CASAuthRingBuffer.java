@@ -0,0 +1,142 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer.
+ * Producers claim a slot with a compare-and-set and never wait: when the
+ * buffer is full {@link #offer(Object)} fails immediately. The consumer
+ * drains elements in batches.
+ *
+ * @param <E> The type of element held.
+ */
+public class CASAuthRingBuffer<E> {
+
+    /**
+     * The slots, a power of two in number.
+     */
+    private final AtomicReferenceArray<E> slots;
+
+    /**
+     * The mask mapping a sequence number to a slot.
+     */
+    private final int mask;
+
+    /**
+     * The sequence number of the next slot a producer will claim.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The sequence number of the next slot the consumer will read.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Constructs a new ring buffer.
+     *
+     * @param capacity The minimum number of elements held, rounded up to a
+     *                 power of two.
+     */
+    public CASAuthRingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<E>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add an element without waiting.
+     *
+     * @param element The element, which must not be <code>null</code>.
+     * @return <code>true</code> if the element was added, or
+     * <code>false</code> if the buffer was full.
+     */
+    public boolean offer(final E element) {
+        if (element == null) {
+            throw new IllegalArgumentException("Ring buffer elements cannot be null");
+        }
+        while (true) {
+            final long sequence = tail.get();
+            if (sequence - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.set((int) sequence & mask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Move up to a number of elements into a collection, in the order they
+     * were added. Must only be called by the single consumer.
+     *
+     * @param target      The collection to add to.
+     * @param maxElements The most elements to move.
+     * @return The number of elements moved.
+     */
+    public int drainTo(final Collection<? super E> target, final int maxElements) {
+        long sequence = head.get();
+        int count = 0;
+        while (count < maxElements) {
+            final int slot = (int) sequence & mask;
+            final E element = slots.get(slot);
+            if (element == null) {
+                // Empty, or claimed by a producer which has not yet stored
+                break;
+            }
+            slots.set(slot, null);
+            target.add(element);
+            ++sequence;
+            ++count;
+        }
+        head.set(sequence);
+        return count;
+    }
+
+    /**
+     * Get the number of elements waiting. The value is approximate while
+     * elements are being added or drained.
+     *
+     * @return The number of elements waiting.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Get the number of elements the buffer holds.
+     *
+     * @return The capacity.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jasig.cas.client.authentication.AttributePrincipalImpl;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.InvalidProxyChainTicketValidationException;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+
+/**
+ * A CAS 2.0 proxy ticket validator which parses the
+ * <code>proxyValidate</code> response as it is read, rather than reading it
+ * into a <code>String</code> and searching it. Only the user, the released
+ * attributes and the proxy chain are extracted, and responses larger than a
+ * fixed limit are refused. Proxy chains are checked as
+ * <code>Cas20ProxyTicketValidator</code> checks them.
+ */
+public class CASAuthStreamingTicketValidator implements TicketValidator {
+
+    /**
+     * The shared StAX factory, which is thread safe once configured.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * The prefix of the CAS server.
+     */
+    private final String casServerUrlPrefix;
+
+    /**
+     * The transport used to contact CAS.
+     */
+    private final CASAuthHttpTransport transport;
+
+    /**
+     * The proxy chains allowed to present tickets.
+     */
+    private final CASAuthProxyChainMatcher allowedProxyChains;
+
+    /**
+     * The largest response accepted, in bytes.
+     */
+    private final int maxResponseSize;
+
+    /**
+     * Constructs a new streaming validator.
+     *
+     * @param casServerUrlPrefix The prefix of the CAS server.
+     * @param transport          The transport used to contact CAS.
+     * @param allowedProxyChains The proxy chains allowed to present tickets.
+     * @param maxResponseSize    The largest response accepted, in bytes.
+     */
+    public CASAuthStreamingTicketValidator(final String casServerUrlPrefix,
+                                           final CASAuthHttpTransport transport,
+                                           final CASAuthProxyChainMatcher allowedProxyChains,
+                                           final int maxResponseSize) {
+        if (casServerUrlPrefix == null) {
+            throw new IllegalArgumentException("casServerUrlPrefix cannot be null.");
+        }
+        this.casServerUrlPrefix = casServerUrlPrefix;
+        this.transport = transport;
+        this.allowedProxyChains = allowedProxyChains;
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Assertion validate(final String ticket, final String service)
+            throws TicketValidationException {
+        final InputStream in;
+        try {
+            in = transport.openStream(new URL(constructValidationUrl(ticket, service)));
+        } catch (final IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+
+        try {
+            return parseResponse(new BoundedInputStream(in, maxResponseSize));
+        } finally {
+            try {
+                in.close();
+            } catch (final IOException ioe) {
+                // The response has been read, so there is nothing to do
+            }
+        }
+    }
+
+    /**
+     * Build the <code>proxyValidate</code> URL for a ticket.
+     *
+     * @param ticket  The CAS ticket.
+     * @param service The service URL.
+     * @return The validation URL.
+     */
+    String constructValidationUrl(final String ticket, final String service) {
+        final StringBuilder url = new StringBuilder(casServerUrlPrefix);
+        if (!casServerUrlPrefix.endsWith("/")) {
+            url.append('/');
+        }
+        url.append("proxyValidate?ticket=").append(encode(ticket));
+        url.append("&service=").append(encode(service));
+        return url.toString();
+    }
+
+    /**
+     * Parse a <code>proxyValidate</code> response.
+     *
+     * @param in The response body.
+     * @return The assertion.
+     * @throws TicketValidationException If CAS rejected the ticket, the
+     *                                   response could not be parsed, or the
+     *                                   proxy chain is not allowed.
+     */
+    Assertion parseResponse(final InputStream in) throws TicketValidationException {
+        String user = null;
+        boolean success = false;
+        boolean inAttributes = false;
+        final List<String> proxies = new ArrayList<String>(2);
+        Map<String, Object> attributes = null;
+
+        try {
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        final String name = reader.getLocalName();
+                        if (inAttributes) {
+                            if (attributes == null) {
+                                attributes = new HashMap<String, Object>();
+                            }
+                            addAttribute(attributes, name, reader.getElementText().trim());
+                        } else if ("authenticationFailure".equals(name)) {
+                            throw new TicketValidationException(reader.getElementText().trim());
+                        } else if ("authenticationSuccess".equals(name)) {
+                            success = true;
+                        } else if ("user".equals(name)) {
+                            user = reader.getElementText().trim();
+                        } else if ("proxy".equals(name)) {
+                            proxies.add(reader.getElementText().trim());
+                        } else if ("attributes".equals(name)) {
+                            inAttributes = true;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT
+                            && "attributes".equals(reader.getLocalName())) {
+                        inAttributes = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException xse) {
+            throw new TicketValidationException("Unable to parse response.", xse);
+        }
+
+        if (!success || user == null || user.length() == 0) {
+            throw new TicketValidationException("No principal was found in the response from the CAS server.");
+        }
+
+        checkProxyChain(proxies);
+
+        final AttributePrincipalImpl principal = attributes == null
+                ? new AttributePrincipalImpl(user)
+                : new AttributePrincipalImpl(user, attributes);
+        return new AssertionImpl(principal);
+    }
+
+    /**
+     * Check that the proxy chain is allowed. An empty chain means the ticket
+     * was presented directly by the service.
+     */
+    void checkProxyChain(final List<String> proxies)
+            throws InvalidProxyChainTicketValidationException {
+        if (proxies.isEmpty()) {
+            return;
+        }
+        if (allowedProxyChains != null && allowedProxyChains.matches(proxies)) {
+            return;
+        }
+        throw new InvalidProxyChainTicketValidationException("Invalid proxy chain: " + proxies);
+    }
+
+    /**
+     * Add an attribute value, collecting repeated attributes into a list.
+     */
+    @SuppressWarnings("unchecked")
+    static void addAttribute(final Map<String, Object> attributes,
+                                     final String name, final String value) {
+        final Object existing = attributes.get(name);
+        if (existing == null) {
+            attributes.put(name, value);
+        } else if (existing instanceof List) {
+            ((List<Object>) existing).add(value);
+        } else {
+            final List<Object> values = new ArrayList<Object>(2);
+            values.add(existing);
+            values.add(value);
+            attributes.put(name, values);
+        }
+    }
+
+    /**
+     * URL encode a parameter value.
+     */
+    static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, CASAuthHttpTransport.RESPONSE_CHARSET);
+        } catch (final UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    /**
+     * Create a StAX factory which does not resolve DTDs or external entities.
+     */
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
+
+    /**
+     * Get the prefix of the CAS server.
+     *
+     * @return The CAS server URL prefix.
+     */
+    public String getCasServerUrlPrefix() {
+        return casServerUrlPrefix;
+    }
+
+    /**
+     * Get the proxy chains allowed to present tickets.
+     *
+     * @return The allowed proxy chains, or <code>null</code> if no proxy may
+     * present tickets.
+     */
+    public CASAuthProxyChainMatcher getAllowedProxyChains() {
+        return allowedProxyChains;
+    }
+
+    /**
+     * An input stream which fails once more than a fixed number of bytes
+     * have been read.
+     */
+    static final class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        BoundedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                consume(1);
+            }
+            return b;
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                consume(read);
+            }
+            return read;
+        }
+
+        private void consume(final int count) throws IOException {
+            remaining -= count;
+            if (remaining < 0) {
+                throw new IOException("CAS response exceeds the maximum size");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread across several cache-line padded cells, so that threads
+ * incrementing it concurrently rarely contend on the same memory. Reading the
+ * counter sums the cells, so reads are slower than writes.
+ */
+public class CASAuthStripedCounter {
+
+    /**
+     * The spacing between cells, in longs, so each cell has its own cache
+     * line.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The cells.
+     */
+    private final AtomicLongArray cells;
+
+    /**
+     * The mask selecting a cell from a thread id.
+     */
+    private final int mask;
+
+    /**
+     * Constructs a new counter with a cell for each pair of processors.
+     */
+    public CASAuthStripedCounter() {
+        int stripes = 1;
+        final int target = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (stripes < target) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * Increment the counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Add to the counter.
+     *
+     * @param delta The amount to add.
+     */
+    public void add(final long delta) {
+        cells.addAndGet(((int) Thread.currentThread().getId() & mask) * PADDING, delta);
+    }
+
+    /**
+     * Get the current total.
+     *
+     * @return The sum of every cell.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i <= mask; ++i) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter to zero. Increments made while resetting may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i <= mask; ++i) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+}
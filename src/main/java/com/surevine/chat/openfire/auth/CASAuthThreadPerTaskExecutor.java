@@ -0,0 +1,164 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor which runs each task on a new thread, intended for virtual
+ * threads, which are cheap to create and hold little memory while blocked
+ * on CAS. The number of tasks running at once is bounded, and further tasks
+ * are rejected with a <code>RejectedExecutionException</code>, as they are
+ * by <code>CASAuthValidationExecutor</code>.
+ */
+public class CASAuthThreadPerTaskExecutor extends AbstractExecutorService {
+
+    /**
+     * Creates the thread for each task.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * The permits of the tasks which may run at once.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The threads running tasks.
+     */
+    private final ConcurrentHashMap<Thread, Boolean> threads = new ConcurrentHashMap<Thread, Boolean>();
+
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a new executor.
+     *
+     * @param threadFactory Creates the thread for each task.
+     * @param maxConcurrent The maximum number of tasks running at once.
+     */
+    public CASAuthThreadPerTaskExecutor(final ThreadFactory threadFactory, final int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("Maximum concurrent tasks must be greater than zero");
+        }
+        this.threadFactory = threadFactory;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Run a task on a new thread.
+     *
+     * @param task The task.
+     * @throws RejectedExecutionException If the executor is shut down or the
+     *                                    maximum number of tasks are running.
+     */
+    public void execute(final Runnable task) {
+        if (shutdown || !permits.tryAcquire()) {
+            throw new RejectedExecutionException("CAS validation limit reached");
+        }
+
+        final Thread thread;
+        try {
+            thread = threadFactory.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        threads.remove(Thread.currentThread());
+                        permits.release();
+                        synchronized (threads) {
+                            threads.notifyAll();
+                        }
+                    }
+                }
+            });
+            threads.put(thread, Boolean.TRUE);
+            thread.start();
+        } catch (final RuntimeException re) {
+            permits.release();
+            throw new RejectedExecutionException(re);
+        }
+    }
+
+    /**
+     * Get the number of tasks running.
+     *
+     * @return The number of tasks.
+     */
+    public int getActiveCount() {
+        return threads.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        for (final Thread thread : threads.keySet()) {
+            thread.interrupt();
+        }
+        return new ArrayList<Runnable>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isTerminated() {
+        return shutdown && threads.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (threads) {
+            while (!isTerminated()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(threads, remaining);
+            }
+        }
+        return true;
+    }
+
+}
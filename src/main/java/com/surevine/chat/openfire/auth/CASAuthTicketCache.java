@@ -0,0 +1,275 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of CAS ticket validation outcomes for
+ * <code>CASAuthTicketValidator</code>. Entries are keyed by ticket, service
+ * URL and username and expire after a fixed time to live. When the cache is
+ * full the least recently used entry is evicted.
+ */
+public class CASAuthTicketCache {
+
+    /**
+     * Separator used when building cache keys. It cannot appear in a CAS
+     * ticket, a URL or an XMPP username.
+     */
+    private static final char KEY_SEPARATOR = '\n';
+
+    /**
+     * The maximum number of entries held by the cache.
+     */
+    private final int maxSize;
+
+    /**
+     * The time to live of each entry in milliseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * The cached entries in least recently used order.
+     */
+    private final LinkedHashMap<String, CachedValue> entries;
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups not answered from the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of entries evicted to keep the cache within its size bound.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs a new cache.
+     *
+     * @param maxSize    The maximum number of entries to hold.
+     * @param timeToLive The time to live of each entry in milliseconds.
+     */
+    public CASAuthTicketCache(final int maxSize, final long timeToLive) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Cache size must be greater than zero");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException(
+                    "Cache time to live must be greater than zero");
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, CachedValue> eldest) {
+                if (size() > CASAuthTicketCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the cached outcome for a ticket.
+     *
+     * @param ticket     The CAS ticket.
+     * @param serviceUrl The service URL the ticket was validated against.
+     * @param username   The username the ticket was presented for.
+     * @return The cached value if present and not expired, otherwise
+     * <code>null</code>.
+     */
+    public String get(final String ticket, final String serviceUrl,
+                      final String username) {
+        final String key = createKey(ticket, serviceUrl, username);
+        final long now = currentTimeMillis();
+        String value = null;
+
+        synchronized (entries) {
+            final CachedValue entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    value = entry.value;
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Cache the outcome for a ticket.
+     *
+     * @param ticket     The CAS ticket.
+     * @param serviceUrl The service URL the ticket was validated against.
+     * @param username   The username the ticket was presented for.
+     * @param value      The value to cache.
+     */
+    public void put(final String ticket, final String serviceUrl,
+                    final String username, final String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cache value not defined");
+        }
+        final CachedValue entry = new CachedValue(value,
+                currentTimeMillis() + timeToLive);
+
+        synchronized (entries) {
+            entries.put(createKey(ticket, serviceUrl, username), entry);
+        }
+    }
+
+    /**
+     * Remove all expired entries from the cache.
+     */
+    public void purgeExpired() {
+        final long now = currentTimeMillis();
+
+        synchronized (entries) {
+            final Iterator<CachedValue> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expires <= now) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of entries currently held, including any which have
+     * expired but not yet been removed.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the maximum number of entries.
+     *
+     * @return The maximum number of entries.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the time to live of each entry.
+     *
+     * @return The time to live in milliseconds.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Get the number of lookups answered from the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups not answered from the cache.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries evicted to keep the cache within its size
+     * bound.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the current time. Overridden in tests.
+     *
+     * @return The current time in milliseconds.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Build the cache key for a ticket.
+     */
+    static String createKey(final String ticket,
+                                    final String serviceUrl, final String username) {
+        final StringBuilder key = new StringBuilder();
+        key.append(ticket).append(KEY_SEPARATOR);
+        key.append(serviceUrl).append(KEY_SEPARATOR);
+        key.append(username);
+        return key.toString();
+    }
+
+    /**
+     * A cached value and its expiry time.
+     */
+    private static final class CachedValue {
+
+        private final String value;
+
+        private final long expires;
+
+        CachedValue(final String value, final long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+}
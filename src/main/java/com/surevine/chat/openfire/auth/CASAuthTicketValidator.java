@@ -18,11 +18,22 @@
 
 package com.surevine.chat.openfire.auth;
 
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.jasig.cas.client.authentication.AttributePrincipal;
 import org.jasig.cas.client.validation.Assertion;
 import org.jasig.cas.client.validation.Cas10TicketValidator;
 import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
 import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.jivesoftware.openfire.auth.ConnectionException;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
 import org.jivesoftware.util.Log;
 
@@ -41,6 +52,11 @@ public class CASAuthTicketValidator {
      */
     private final Cas20ProxyTicketValidator proxyValidator;
 
+    /**
+     * The validator used to contact CAS.
+     */
+    private final TicketValidator validator;
+
     /**
      * The service name.
      */
@@ -51,6 +67,125 @@ public class CASAuthTicketValidator {
      */
     private final boolean isUseProxyValidator;
 
+    /**
+     * The cache of successful validations, or <code>null</code> if caching
+     * is disabled.
+     */
+    private CASAuthTicketCache validationCache;
+
+    /**
+     * The cache of rejected tickets, or <code>null</code> if rejections are
+     * not cached.
+     */
+    private CASAuthTicketCache rejectionCache;
+
+    /**
+     * Remembers the tickets which have been validated, or <code>null</code>
+     * if replays are left to CAS.
+     */
+    private CASAuthReplayDetector replayDetector;
+
+    /**
+     * The number of authentications under way with this validator.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Whether this validator has been replaced, after which no
+     * authentication may start with it.
+     */
+    private volatile boolean retired;
+
+    /**
+     * The executor used for asynchronous validation, or <code>null</code> if
+     * validation runs on the calling thread.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Coalesces concurrent validations of the same ticket, or
+     * <code>null</code> if every validation contacts CAS.
+     */
+    private CASAuthValidationCoalescer coalescer;
+
+    /**
+     * The circuit breaker around calls to CAS, or <code>null</code> if CAS
+     * is always called.
+     */
+    private CASAuthCircuitBreaker circuitBreaker;
+
+    /**
+     * Limits the calls to CAS in flight, or <code>null</code> if they are
+     * not limited.
+     */
+    private CASAuthConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Sheds authentications under saturation and gives each a deadline, or
+     * <code>null</code> if every authentication is admitted.
+     */
+    private CASAuthAdmissionControl admissionControl;
+
+    /**
+     * Limits the rate of authentications of each user, or <code>null</code>
+     * if they are not limited.
+     */
+    private CASAuthRateLimiter userRateLimiter;
+
+    /**
+     * Limits the rate of authentications from each remote address, or
+     * <code>null</code> if they are not limited.
+     */
+    private CASAuthRateLimiter addressRateLimiter;
+
+    /**
+     * Records the outcome and latency of calls to CAS, or <code>null</code>
+     * if they are not recorded.
+     */
+    private CASAuthValidationMetrics metrics;
+
+    /**
+     * Records an anonymised trace of validations, or <code>null</code> if no
+     * trace is recorded.
+     */
+    private CASAuthTraceRecorder traceRecorder;
+
+    /**
+     * The audit trail of logins, or <code>null</code> if logins are written
+     * to the Openfire log.
+     */
+    private CASAuthAuditLog auditLog;
+
+    /**
+     * Issues and verifies resumption tokens, or <code>null</code> if they
+     * are not accepted.
+     */
+    private CASAuthResumptionTokens resumptionTokens;
+
+    /**
+     * Receives the resumption tokens issued after successful validations, or
+     * <code>null</code> if none are issued.
+     */
+    private volatile CASAuthResumptionTokenListener resumptionTokenListener;
+
+    /**
+     * Keeps the attributes released for each user, or <code>null</code> if
+     * they are discarded.
+     */
+    private CASAuthAttributeStore attributeStore;
+
+    /**
+     * Keeps the path to CAS warm and reports reachability, or
+     * <code>null</code> if CAS is not probed.
+     */
+    private CASAuthHealthProbe healthProbe;
+
+    /**
+     * How long, in milliseconds, a caller waits for an asynchronous
+     * validation to complete.
+     */
+    private long validationTimeout;
+
     /**
      * Construct a new ticket validator with a configuration provider and proxy
      * validator.
@@ -60,6 +195,7 @@ public class CASAuthTicketValidator {
      */
     public CASAuthTicketValidator(final Cas20ProxyTicketValidator proxyValidator, final String serviceUrl) {
         this.proxyValidator = proxyValidator;
+        this.validator = proxyValidator;
         this.serviceUrl = serviceUrl;
         this.ticketValidator = null;
         this.isUseProxyValidator = true;
@@ -74,11 +210,28 @@ public class CASAuthTicketValidator {
      */
     public CASAuthTicketValidator(final Cas10TicketValidator ticketValidator, final String serviceUrl) {
         this.ticketValidator = ticketValidator;
+        this.validator = ticketValidator;
         this.serviceUrl = serviceUrl;
         this.proxyValidator = null;
         this.isUseProxyValidator = false;
     }
 
+    /**
+     * Construct a new ticket validator with any CAS ticket validator.
+     *
+     * @param validator  The CAS validator to use.
+     * @param serviceUrl The service Url to validate.
+     */
+    public CASAuthTicketValidator(final TicketValidator validator, final String serviceUrl) {
+        this.validator = validator;
+        this.serviceUrl = serviceUrl;
+        this.ticketValidator = validator instanceof Cas10TicketValidator
+                ? (Cas10TicketValidator) validator : null;
+        this.proxyValidator = validator instanceof Cas20ProxyTicketValidator
+                ? (Cas20ProxyTicketValidator) validator : null;
+        this.isUseProxyValidator = this.proxyValidator != null;
+    }
+
     /**
      * Authenticates the CAS proxy ticket. If the username and ticket are valid
      * the method returns, otherwise an <code>UnauthorizedException</code> is
@@ -87,12 +240,53 @@ public class CASAuthTicketValidator {
      * @param username The username.
      * @param ticket   The CAS ticket.
      * @throws org.jivesoftware.openfire.auth.UnauthorizedException If the username and password do not match any existing user.
+     * @throws org.jivesoftware.openfire.auth.ConnectionException   If CAS could not be contacted.
      */
     public void authenticateCASTicket(final String username,
-                                      final String ticket) throws UnauthorizedException {
-        Assertion assertion = null;
-        AttributePrincipal principal = null;
+                                      final String ticket) throws UnauthorizedException, ConnectionException {
+        authenticateCASTicket(username, ticket, null);
+    }
+
+    /**
+     * Authenticates the CAS proxy ticket, giving up without contacting CAS if
+     * the deadline passes first. If the username and ticket are valid the
+     * method returns, otherwise an <code>UnauthorizedException</code> is
+     * thrown.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @param deadline The deadline of the authentication, or
+     *                 <code>null</code> if it has none.
+     * @throws org.jivesoftware.openfire.auth.UnauthorizedException If the username and password do not match any existing user.
+     * @throws org.jivesoftware.openfire.auth.ConnectionException   If CAS could not be contacted or the deadline
+     *                                                              passed.
+     */
+    public void authenticateCASTicket(final String username, final String ticket,
+                                      final CASAuthAdmissionControl.Deadline deadline)
+            throws UnauthorizedException, ConnectionException {
+        if (authenticateFromCache(username, ticket)) {
+            return;
+        }
+        validateAndCache(username, ticket, deadline);
+    }
 
+    /**
+     * Validates the CAS proxy ticket with CAS without first looking in the
+     * caches, and remembers the outcome. This is for callers which have
+     * already called {@link #authenticateFromCache(String, String)}, so that
+     * a miss is looked up and counted once.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @param deadline The deadline of the authentication, or
+     *                 <code>null</code> if it has none.
+     * @throws org.jivesoftware.openfire.auth.UnauthorizedException If the username and password do not match any existing user.
+     * @throws org.jivesoftware.openfire.auth.ConnectionException   If CAS could not be contacted or the deadline
+     *                                                              passed.
+     */
+    public void validateAndCache(final String username, final String ticket,
+                                 final CASAuthAdmissionControl.Deadline deadline)
+            throws UnauthorizedException, ConnectionException {
         if (Log.isDebugEnabled()) {
             Log
                     .debug("CASAuthProvider: Contact CAS and validate proxy ticket '"
@@ -102,53 +296,471 @@ public class CASAuthTicketValidator {
                             + "' and service '" + serviceUrl + "'...");
         }
 
-        // Connect to CAS and validate the proxy ticket
+        // The client has given up on an authentication past its deadline
+        if (deadline != null && deadline.isExpired()) {
+            rejectExpired(username);
+        }
+
+        // Connect to CAS and validate the proxy ticket, sharing the outcome
+        // of any validation of the same ticket for the same user which is
+        // already in flight
+        final String principalName;
+        if (coalescer != null) {
+            principalName = coalescer.validate(ticket, serviceUrl, username, deadline, new Callable<String>() {
+                public String call() throws UnauthorizedException, ConnectionException {
+                    return validateTicket(username, ticket, deadline);
+                }
+            });
+        } else {
+            principalName = validateTicket(username, ticket, deadline);
+        }
+
+//        if (!username.equalsIgnoreCase(principalName)) {
+//            final String message = "CAS ticket is not valid for user:'"
+//                    + username + "'.";
+//            Log.info("CASAuthProvider: " + message);
+//            throw new UnauthorizedException(message);
+//        }
+
+        if (validationCache != null) {
+            validationCache.put(ticket, serviceUrl, username, principalName);
+        }
+        // Only tickets CAS accepted are remembered, so that rejected
+        // guesses cannot fill the filters
+        if (replayDetector != null) {
+            replayDetector.record(ticket);
+        }
+
+        // The user is now authenticated.
+        if (Log.isDebugEnabled()) {
+            Log.debug("CASAuthProvider: The user '" + username
+                    + "' is now authenticated.");
+        }
+        if (auditLog != null) {
+            auditLog.success(username);
+        } else {
+            Log.info("CASAuthProvider: The user '" + username
+                    + "' is now authenticated.");
+        }
+        issueResumptionToken(username, principalName);
+    }
+
+    /**
+     * Authenticates a resumption token without contacting CAS. If the token
+     * was issued to the user for this service and is still valid the method
+     * returns, otherwise an <code>UnauthorizedException</code> is thrown.
+     *
+     * @param username The username.
+     * @param token    The resumption token.
+     * @throws org.jivesoftware.openfire.auth.UnauthorizedException If the token is not valid.
+     */
+    public void authenticateResumptionToken(final String username,
+                                            final String token) throws UnauthorizedException {
+        if (resumptionTokens == null) {
+            final String message = "Resumption tokens are not accepted.";
+            logFailure(username, message);
+            throw new UnauthorizedException(message);
+        }
+
+        final String rejection = resumptionTokens.verify(username, serviceUrl, token);
+        if (rejection != null) {
+            logFailure(username, rejection);
+            throw new UnauthorizedException(rejection);
+        }
+
+        if (Log.isDebugEnabled()) {
+            Log.debug("CASAuthProvider: The user '" + username
+                    + "' is authenticated by resumption token.");
+        }
+        if (auditLog != null) {
+            auditLog.success(username);
+        } else {
+            Log.info("CASAuthProvider: The user '" + username
+                    + "' is now authenticated.");
+        }
+    }
+
+    /**
+     * Issue a resumption token to the principal CAS has just authenticated,
+     * and hand it to the listener. No token is issued if the principal is
+     * not the user who presented the ticket.
+     *
+     * @param username      The username the ticket was presented for.
+     * @param principalName The principal CAS returned for the ticket.
+     */
+    private void issueResumptionToken(final String username, final String principalName) {
+        final CASAuthResumptionTokenListener listener = resumptionTokenListener;
+        if (resumptionTokens == null || listener == null || principalName == null) {
+            return;
+        }
+        if (!principalName.equalsIgnoreCase(username)) {
+            if (Log.isDebugEnabled()) {
+                Log.debug("CASAuthProvider: No resumption token issued to user '" + username
+                        + "' for a ticket of '" + principalName + "'.");
+            }
+            return;
+        }
+        final String token = resumptionTokens.issue(principalName, serviceUrl);
         try {
-            if (!this.isUseProxyValidator) {
-                assertion = ticketValidator != null ? ticketValidator.validate(ticket, serviceUrl) : null;
-            } else {
-                assertion = proxyValidator != null ? proxyValidator.validate(ticket, serviceUrl) : null;
+            listener.tokenIssued(principalName, token);
+        } catch (final RuntimeException re) {
+            Log.warn("CASAuthProvider: Resumption token listener failed for user '"
+                    + principalName + "': " + re);
+        }
+    }
+
+    /**
+     * Contact CAS to validate a ticket.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @param deadline The deadline of the authentication, or
+     *                 <code>null</code> if it has none.
+     * @return The name of the principal the ticket was issued to.
+     * @throws UnauthorizedException If the ticket is not valid.
+     * @throws ConnectionException   If CAS could not be contacted or the
+     *                               deadline passed.
+     */
+    private String validateTicket(final String username, final String ticket,
+                                  final CASAuthAdmissionControl.Deadline deadline)
+            throws UnauthorizedException, ConnectionException {
+        Assertion assertion = null;
+        AttributePrincipal principal = null;
+
+        if (concurrencyLimiter != null && !(deadline == null
+                ? concurrencyLimiter.tryAcquire() : concurrencyLimiter.tryAcquire(deadline.remainingNanos()))) {
+            if (deadline != null && deadline.isExpired()) {
+                rejectExpired(username);
+            }
+            Log.warn("CASAuthProvider: Too many CAS validations in flight, refusing login for user '"
+                    + username + "'.");
+            throw new ConnectionException("CAS concurrency limit reached");
+        }
+
+        if (deadline != null && deadline.isExpired()) {
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.release();
+            }
+            rejectExpired(username);
+        }
+
+        final CASAuthCircuitBreaker.Permit permit = circuitBreaker != null
+                ? circuitBreaker.tryAcquire() : null;
+        if (circuitBreaker != null && permit == null) {
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.release();
             }
+            throw new ConnectionException("CAS circuit breaker is open");
+        }
+
+        // Connect to CAS and validate the proxy ticket
+        final long start = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        boolean answered = false;
+        try {
+            assertion = validator != null ? validator.validate(ticket, serviceUrl) : null;
+            answered = true;
         } catch (final TicketValidationException tve) {
-            Log.info("CASAuthProvider: TicketValidationException:" + tve);
+            answered = true;
+            record(CASAuthValidationMetrics.Outcome.TICKET_VALIDATION_EXCEPTION, startNanos);
+            logFailure(username, "TicketValidationException:" + tve);
+            rememberRejection(username, ticket, "TicketValidationException:" + tve.getMessage());
             throw new UnauthorizedException(tve);
+        } catch (final RuntimeException re) {
+            record(CASAuthValidationMetrics.Outcome.CONNECTION_FAILURE, startNanos);
+            Log.warn("CASAuthProvider: Unable to contact CAS: " + re);
+            if (auditLog != null) {
+                auditLog.failure(username, "Unable to contact CAS");
+            }
+            throw new ConnectionException(re);
+        } finally {
+            if (circuitBreaker != null) {
+                circuitBreaker.onCallComplete(permit, answered, System.currentTimeMillis() - start);
+            }
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.onCallComplete(answered, System.nanoTime() - startNanos);
+            }
         }
 
         // Ensure that the user returned by CAS matches the user provided
         if (assertion == null) {
+            record(CASAuthValidationMetrics.Outcome.NULL_ASSERTION, startNanos);
             final String message = "CAS ticket returned null assertion.";
-            Log.info("CASAuthProvider: " + message);
+            logFailure(username, message);
+            rememberRejection(username, ticket, message);
             throw new UnauthorizedException(message);
         }
 
         principal = assertion.getPrincipal();
         if (principal == null) {
+            record(CASAuthValidationMetrics.Outcome.NULL_PRINCIPAL, startNanos);
             final String message = "CAS ticket returned null principal.";
-            Log.info("CASAuthProvider: " + message);
+            logFailure(username, message);
+            rememberRejection(username, ticket, message);
             throw new UnauthorizedException(message);
         }
 
         final String principalName = principal.getName();
         if (principalName == null) {
+            record(CASAuthValidationMetrics.Outcome.NULL_USER, startNanos);
             final String message = "CAS ticket returned null user.";
-            Log.info("CASAuthProvider: " + message);
+            logFailure(username, message);
+            rememberRejection(username, ticket, message);
             throw new UnauthorizedException(message);
         }
 
-//        if (!username.equalsIgnoreCase(principalName)) {
-//            final String message = "CAS ticket is not valid for user:'"
-//                    + username + "'.";
-//            Log.info("CASAuthProvider: " + message);
-//            throw new UnauthorizedException(message);
-//        }
+        // Attributes are kept under the name CAS vouched for, and only when
+        // it is the user logging in, so that a ticket for one user cannot
+        // overwrite the attributes of another
+        if (attributeStore != null) {
+            if (principalName.equalsIgnoreCase(username)) {
+                attributeStore.update(principalName, principal.getAttributes());
+            } else if (Log.isDebugEnabled()) {
+                Log.debug("CASAuthProvider: Attributes of '" + principalName
+                        + "' not stored for user '" + username + "'.");
+            }
+        }
 
-        // The user is now authenticated.
+        record(CASAuthValidationMetrics.Outcome.SUCCESS, startNanos);
+        return principalName;
+    }
+
+    /**
+     * Answers an authentication without contacting CAS if the ticket was
+     * recently validated or rejected for this user and service, or has
+     * already been used. Returns <code>false</code> if CAS must be asked.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @return <code>true</code> if the ticket is valid from the validation
+     * cache, or <code>false</code> if it must be validated by CAS.
+     * @throws org.jivesoftware.openfire.auth.UnauthorizedException If the ticket was rejected or has been used.
+     */
+    public boolean authenticateFromCache(final String username, final String ticket)
+            throws UnauthorizedException {
+        // A ticket replayed within the cache time to live has already been
+        // validated for this user and service
+        final String cachedPrincipal = validationCache != null
+                ? validationCache.get(ticket, serviceUrl, username) : null;
+        if (cachedPrincipal != null) {
+            if (Log.isDebugEnabled()) {
+                Log.debug("CASAuthProvider: The user '" + username
+                        + "' is authenticated from the validation cache.");
+            }
+            if (auditLog != null) {
+                auditLog.success(username);
+            }
+            issueResumptionToken(username, cachedPrincipal);
+            return true;
+        }
+
+        // A ticket which CAS has recently rejected will be rejected again, so
+        // there is no need to ask
+        final String rejection = rejectionCache != null
+                ? rejectionCache.get(ticket, serviceUrl, username) : null;
+        if (rejection != null) {
+            if (Log.isDebugEnabled()) {
+                Log.debug("CASAuthProvider: The ticket for user '" + username
+                        + "' was rejected from the rejection cache: " + rejection);
+            }
+            if (auditLog != null) {
+                auditLog.failure(username, rejection);
+            }
+            throw new UnauthorizedException(rejection);
+        }
+
+        // A ticket which has already been validated will be rejected by CAS,
+        // as tickets may only be used once
+        if (replayDetector != null && replayDetector.isReplay(ticket)) {
+            final String message = "CAS ticket for user '" + username
+                    + "' has already been used.";
+            logFailure(username, message);
+            throw new UnauthorizedException(message);
+        }
+
+        return false;
+    }
+
+    /**
+     * Authenticates the CAS proxy ticket on the validation executor. The
+     * returned <code>Future</code> completes normally if the username and
+     * ticket are valid, otherwise it fails with an
+     * <code>UnauthorizedException</code> or <code>ConnectionException</code>. If no executor is set the ticket is
+     * validated on the calling thread and the returned <code>Future</code> is
+     * already complete.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @return A <code>Future</code> representing the pending validation.
+     * @throws java.util.concurrent.RejectedExecutionException If the executor cannot accept any more validations.
+     */
+    public Future<Void> authenticateCASTicketAsync(final String username,
+                                                   final String ticket) {
+        return authenticateCASTicketAsync(username, ticket, null);
+    }
+
+    /**
+     * Authenticates the CAS proxy ticket on the validation executor, giving
+     * up without contacting CAS if the deadline passes before the validation
+     * starts. If there is a deadline, the admission slot it was given with is
+     * released when the validation finishes, or when it is cancelled before
+     * it starts, rather than when the caller stops waiting. A validation
+     * blocked reading from CAS does not notice being cancelled, so it still
+     * counts as pending. If the executor refuses the validation the caller
+     * keeps the slot.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @param deadline The deadline of the authentication, or
+     *                 <code>null</code> if it has none.
+     * @return A <code>Future</code> representing the pending validation.
+     * @throws java.util.concurrent.RejectedExecutionException If the executor cannot accept any more validations.
+     * @see #authenticateCASTicketAsync(String, String)
+     */
+    public Future<Void> authenticateCASTicketAsync(final String username, final String ticket,
+                                                   final CASAuthAdmissionControl.Deadline deadline) {
+        return submit(username, ticket, deadline, true);
+    }
+
+    /**
+     * Validates the CAS proxy ticket with CAS on the validation executor, as
+     * {@link #authenticateCASTicketAsync(String, String, CASAuthAdmissionControl.Deadline)}
+     * does, without first looking in the caches.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @param deadline The deadline of the authentication, or
+     *                 <code>null</code> if it has none.
+     * @return A <code>Future</code> representing the pending validation.
+     * @throws java.util.concurrent.RejectedExecutionException If the executor cannot accept any more validations.
+     * @see #validateAndCache(String, String, CASAuthAdmissionControl.Deadline)
+     */
+    public Future<Void> validateAndCacheAsync(final String username, final String ticket,
+                                              final CASAuthAdmissionControl.Deadline deadline) {
+        return submit(username, ticket, deadline, false);
+    }
+
+    /**
+     * Submit a validation to the validation executor, or run it on the
+     * calling thread if there is none.
+     */
+    private Future<Void> submit(final String username, final String ticket,
+                                final CASAuthAdmissionControl.Deadline deadline,
+                                final boolean checkCache) {
+        // Whichever of the validation and its cancellation comes first
+        // releases the admission slot
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final Callable<Void> validation = new Callable<Void>() {
+            public Void call() throws UnauthorizedException, ConnectionException {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    if (checkCache) {
+                        authenticateCASTicket(username, ticket, deadline);
+                    } else {
+                        validateAndCache(username, ticket, deadline);
+                    }
+                    return null;
+                } finally {
+                    if (deadline != null) {
+                        releaseAdmission();
+                    }
+                }
+            }
+        };
+        final FutureTask<Void> task = new FutureTask<Void>(validation) {
+            protected void done() {
+                if (isCancelled() && claimed.compareAndSet(false, true) && deadline != null) {
+                    releaseAdmission();
+                }
+            }
+        };
+
+        if (executor == null) {
+            task.run();
+            return task;
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Release the admission slot of an asynchronous validation.
+     */
+    private void releaseAdmission() {
+        if (admissionControl != null) {
+            admissionControl.release();
+        }
+    }
+
+    /**
+     * Drop an authentication whose deadline has passed before it contacted
+     * CAS.
+     *
+     * @param username The username.
+     * @throws ConnectionException Always.
+     */
+    private void rejectExpired(final String username) throws ConnectionException {
+        if (admissionControl != null) {
+            admissionControl.expired();
+        }
         if (Log.isDebugEnabled()) {
-            Log.debug("CASAuthProvider: The user '" + username
-                    + "' is now authenticated.");
+            Log.debug("CASAuthProvider: The deadline for user '" + username
+                    + "' passed before CAS was contacted.");
+        }
+        throw new ConnectionException("Authentication deadline passed before CAS was contacted");
+    }
+
+    /**
+     * Write a failed login to the audit log, or to the Openfire log if there
+     * is no audit log.
+     *
+     * @param username The username.
+     * @param message  Why the login failed.
+     */
+    private void logFailure(final String username, final String message) {
+        if (auditLog != null) {
+            auditLog.failure(username, message);
+        } else {
+            Log.info("CASAuthProvider: " + message);
+        }
+    }
+
+    /**
+     * Record the outcome of a call to CAS, if metrics are enabled.
+     *
+     * @param outcome    The outcome.
+     * @param startNanos The value of <code>System.nanoTime()</code> when the
+     *                   call started.
+     */
+    private void record(final CASAuthValidationMetrics.Outcome outcome, final long startNanos) {
+        if (metrics != null) {
+            metrics.record(outcome, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Remember that CAS rejected a ticket, if rejections are cached.
+     *
+     * @param username The username.
+     * @param ticket   The CAS ticket.
+     * @param reason   The reason the ticket was rejected.
+     */
+    private void rememberRejection(final String username, final String ticket,
+                                   final String reason) {
+        if (rejectionCache != null) {
+            rejectionCache.put(ticket, serviceUrl, username, reason);
         }
-        Log.info("CASAuthProvider: The user '" + username
-                + "' is now authenticated.");
+    }
+
+    /**
+     * Get the validator used to contact CAS.
+     *
+     * @return The validator.
+     */
+    public TicketValidator getValidator() {
+        return validator;
     }
 
     public Cas10TicketValidator getTicketValidator() {
@@ -178,4 +790,456 @@ public class CASAuthTicketValidator {
         return isUseProxyValidator;
     }
 
+    /**
+     * Get the cache of successful validations.
+     *
+     * @return The validation cache, or <code>null</code> if caching is
+     * disabled.
+     */
+    public CASAuthTicketCache getValidationCache() {
+        return validationCache;
+    }
+
+    /**
+     * Set the cache of successful validations.
+     *
+     * @param validationCache The validation cache, or <code>null</code> to
+     *                        disable caching.
+     */
+    public void setValidationCache(final CASAuthTicketCache validationCache) {
+        this.validationCache = validationCache;
+    }
+
+    /**
+     * Get the cache of rejected tickets. Its hit count is the number of CAS
+     * calls suppressed by the cache.
+     *
+     * @return The rejection cache, or <code>null</code> if rejections are not
+     * cached.
+     */
+    public CASAuthTicketCache getRejectionCache() {
+        return rejectionCache;
+    }
+
+    /**
+     * Set the cache of rejected tickets. This should be a separate instance
+     * from the validation cache so that a flood of bad tickets cannot evict
+     * good entries.
+     *
+     * @param rejectionCache The rejection cache, or <code>null</code> to stop
+     *                       caching rejections.
+     */
+    public void setRejectionCache(final CASAuthTicketCache rejectionCache) {
+        this.rejectionCache = rejectionCache;
+    }
+
+    /**
+     * Get the detector of replayed tickets.
+     *
+     * @return The replay detector, or <code>null</code> if replays are left
+     * to CAS.
+     */
+    public CASAuthReplayDetector getReplayDetector() {
+        return replayDetector;
+    }
+
+    /**
+     * Set the detector of replayed tickets.
+     *
+     * @param replayDetector The replay detector, or <code>null</code> to
+     *                       leave replays to CAS.
+     */
+    public void setReplayDetector(final CASAuthReplayDetector replayDetector) {
+        this.replayDetector = replayDetector;
+    }
+
+    /**
+     * Get the coalescer of concurrent validations of the same ticket.
+     *
+     * @return The coalescer, or <code>null</code> if every validation
+     * contacts CAS.
+     */
+    public CASAuthValidationCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Set the coalescer of concurrent validations of the same ticket.
+     *
+     * @param coalescer The coalescer, or <code>null</code> to have every
+     *                  validation contact CAS.
+     */
+    public void setCoalescer(final CASAuthValidationCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Get the circuit breaker around calls to CAS.
+     *
+     * @return The circuit breaker, or <code>null</code> if CAS is always
+     * called.
+     */
+    public CASAuthCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Set the circuit breaker around calls to CAS.
+     *
+     * @param circuitBreaker The circuit breaker, or <code>null</code> to
+     *                       always call CAS.
+     */
+    public void setCircuitBreaker(final CASAuthCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Get the limiter of calls to CAS in flight.
+     *
+     * @return The limiter, or <code>null</code> if calls are not limited.
+     */
+    public CASAuthConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Set the limiter of calls to CAS in flight.
+     *
+     * @param concurrencyLimiter The limiter, or <code>null</code> to not
+     *                           limit calls.
+     */
+    public void setConcurrencyLimiter(final CASAuthConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Get the admission control of authentications.
+     *
+     * @return The admission control, or <code>null</code> if every
+     * authentication is admitted.
+     */
+    public CASAuthAdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Set the admission control of authentications.
+     *
+     * @param admissionControl The admission control, or <code>null</code> to
+     *                         admit every authentication.
+     */
+    public void setAdmissionControl(final CASAuthAdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    /**
+     * Get the rate limit of authentications of each user.
+     *
+     * @return The rate limiter, or <code>null</code> if users are not
+     * limited.
+     */
+    public CASAuthRateLimiter getUserRateLimiter() {
+        return userRateLimiter;
+    }
+
+    /**
+     * Set the rate limit of authentications of each user.
+     *
+     * @param userRateLimiter The rate limiter, or <code>null</code> to not
+     *                        limit users.
+     */
+    public void setUserRateLimiter(final CASAuthRateLimiter userRateLimiter) {
+        this.userRateLimiter = userRateLimiter;
+    }
+
+    /**
+     * Get the rate limit of authentications from each remote address.
+     *
+     * @return The rate limiter, or <code>null</code> if addresses are not
+     * limited.
+     */
+    public CASAuthRateLimiter getAddressRateLimiter() {
+        return addressRateLimiter;
+    }
+
+    /**
+     * Set the rate limit of authentications from each remote address.
+     *
+     * @param addressRateLimiter The rate limiter, or <code>null</code> to not
+     *                           limit addresses.
+     */
+    public void setAddressRateLimiter(final CASAuthRateLimiter addressRateLimiter) {
+        this.addressRateLimiter = addressRateLimiter;
+    }
+
+    /**
+     * Get the metrics recording calls to CAS.
+     *
+     * @return The metrics, or <code>null</code> if calls are not recorded.
+     */
+    public CASAuthValidationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the metrics recording calls to CAS.
+     *
+     * @param metrics The metrics, or <code>null</code> to not record calls.
+     */
+    public void setMetrics(final CASAuthValidationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the recorder of the validation trace.
+     *
+     * @return The recorder, or <code>null</code> if no trace is recorded.
+     */
+    public CASAuthTraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Set the recorder of the validation trace.
+     *
+     * @param traceRecorder The recorder, or <code>null</code> to record no
+     *                      trace.
+     */
+    public void setTraceRecorder(final CASAuthTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * Get the audit trail of logins.
+     *
+     * @return The audit log, or <code>null</code> if logins are written to
+     * the Openfire log.
+     */
+    public CASAuthAuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * Set the audit trail of logins.
+     *
+     * @param auditLog The audit log, or <code>null</code> to write logins to
+     *                 the Openfire log.
+     */
+    public void setAuditLog(final CASAuthAuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Get the issuer of resumption tokens.
+     *
+     * @return The issuer, or <code>null</code> if resumption tokens are not
+     * accepted.
+     */
+    public CASAuthResumptionTokens getResumptionTokens() {
+        return resumptionTokens;
+    }
+
+    /**
+     * Set the issuer of resumption tokens.
+     *
+     * @param resumptionTokens The issuer, or <code>null</code> to accept only
+     *                         CAS tickets.
+     */
+    public void setResumptionTokens(final CASAuthResumptionTokens resumptionTokens) {
+        this.resumptionTokens = resumptionTokens;
+    }
+
+    /**
+     * Get the listener which receives the resumption tokens issued.
+     *
+     * @return The listener, or <code>null</code> if no tokens are issued.
+     */
+    public CASAuthResumptionTokenListener getResumptionTokenListener() {
+        return resumptionTokenListener;
+    }
+
+    /**
+     * Set the listener which receives a resumption token each time CAS
+     * validates a user's ticket.
+     *
+     * @param resumptionTokenListener The listener, or <code>null</code> to
+     *                                issue no tokens.
+     */
+    public void setResumptionTokenListener(final CASAuthResumptionTokenListener resumptionTokenListener) {
+        this.resumptionTokenListener = resumptionTokenListener;
+    }
+
+    /**
+     * Get the store of attributes released for each user.
+     *
+     * @return The store, or <code>null</code> if attributes are discarded.
+     */
+    public CASAuthAttributeStore getAttributeStore() {
+        return attributeStore;
+    }
+
+    /**
+     * Set the store of attributes released for each user.
+     *
+     * @param attributeStore The store, or <code>null</code> to discard
+     *                       attributes.
+     */
+    public void setAttributeStore(final CASAuthAttributeStore attributeStore) {
+        this.attributeStore = attributeStore;
+    }
+
+    /**
+     * Get the probe of the CAS servers.
+     *
+     * @return The health probe, or <code>null</code> if CAS is not probed.
+     */
+    public CASAuthHealthProbe getHealthProbe() {
+        return healthProbe;
+    }
+
+    /**
+     * Set the probe of the CAS servers, which is stopped when this
+     * validator is shut down.
+     *
+     * @param healthProbe The health probe, or <code>null</code> to not probe
+     *                    CAS.
+     */
+    public void setHealthProbe(final CASAuthHealthProbe healthProbe) {
+        this.healthProbe = healthProbe;
+    }
+
+    /**
+     * Get the executor used for asynchronous validation.
+     *
+     * @return The executor, or <code>null</code> if validation runs on the
+     * calling thread.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the executor used for asynchronous validation.
+     *
+     * @param executor The executor, or <code>null</code> to validate on the
+     *                 calling thread.
+     */
+    public void setExecutor(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Get how long a caller waits for an asynchronous validation.
+     *
+     * @return The timeout in milliseconds.
+     */
+    public long getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    /**
+     * Set how long a caller waits for an asynchronous validation.
+     *
+     * @param validationTimeout The timeout in milliseconds.
+     */
+    public void setValidationTimeout(final long validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * Start an authentication with this validator. Each call must be
+     * followed by a call to {@link #exit()}, and the validator must not be
+     * used if {@link #isRetired()} is then <code>true</code>.
+     */
+    public void enter() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Finish an authentication started with {@link #enter()}.
+     */
+    public void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Whether this validator has been replaced.
+     *
+     * @return <code>true</code> if no authentication may start with this
+     * validator.
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Get the number of authentications under way with this validator.
+     *
+     * @return The number of authentications.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Stop new authentications starting with this validator, and wait for
+     * those under way, and any validations they left on the executor, to
+     * finish.
+     *
+     * @param timeout The longest time to wait, in milliseconds.
+     * @return <code>true</code> if everything finished in time, otherwise
+     * <code>false</code>.
+     */
+    public boolean retire(final long timeout) {
+        retired = true;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            while (inFlight.get() > 0) {
+                if (deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+                Thread.sleep(10L);
+            }
+            if (executor != null) {
+                executor.shutdown();
+                return executor.awaitTermination(Math.max(0L, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Release the threads and files this validator holds once it is no
+     * longer used. Validations already under way are allowed to finish.
+     */
+    public void shutdown() {
+        if (healthProbe != null) {
+            healthProbe.shutdown();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (validator instanceof CASAuthHedgingTicketValidator) {
+            ((CASAuthHedgingTicketValidator) validator).shutdown();
+        }
+        if (auditLog != null) {
+            try {
+                auditLog.close();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (traceRecorder != null) {
+            try {
+                traceRecorder.close();
+            } catch (final IOException ioe) {
+                Log.warn("CASAuthProvider: Unable to close validation trace: " + ioe);
+            }
+        }
+    }
+
 }
@@ -18,9 +18,18 @@
 
 package com.surevine.chat.openfire.auth;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
 import org.jasig.cas.client.validation.Cas10TicketValidator;
-import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
-import org.jasig.cas.client.validation.ProxyList;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.jivesoftware.util.Log;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
 
 /**
  * Responsible for constructing instances of <code>CASAuthTicketValidator</code>
@@ -36,21 +45,357 @@ public class CASAuthTicketValidatorFactory {
      */
     public CASAuthTicketValidator createCASAuthTicketValidator(
             final CASAuthProviderConfig config) {
+        return createCASAuthTicketValidator(config, null);
+    }
+
+    /**
+     * Create a new instance of <code>CASAuthTicketValidator</code> to replace
+     * another. The audit log and trace of the validator replaced are reused
+     * if their files are unchanged, so that each file has one writer. Its
+     * local ticket caches, coalescer, circuit breaker, rate limiters,
+     * admission control, concurrency limiter and metrics are reused if their
+     * settings are unchanged, so that their state survives the reload.
+     *
+     * @param config   The configuration to use when constructing the
+     *                 instance.
+     * @param previous The validator being replaced, or <code>null</code>.
+     * @return A new instance of <code>CASAuthTicketValidator</code>.
+     */
+    public CASAuthTicketValidator createCASAuthTicketValidator(
+            final CASAuthProviderConfig config, final CASAuthTicketValidator previous) {
         if (config == null) {
             throw new IllegalArgumentException("CAS configuration not defined");
         }
 
         String validatorName = config.getValidator();
+        CASAuthTicketValidator validator;
+
+        CASAuthHttpTransport transport = null;
+
+        if (config.isHttpPoolEnabled()) {
+            transport = CASAuthPooledHttpTransport.getInstance(config);
+        }
+
+        // Compile the allowed proxy chains once for every CAS server
+        CASAuthProxyChainMatcher proxyChainMatcher = null;
+
+        if (validatorName.equalsIgnoreCase("Cas20ProxyTicketValidator")
+                || validatorName.equalsIgnoreCase("Cas30JsonTicketValidator")) {
+            proxyChainMatcher = config.getProxyChainMatcher();
+        }
+
+        List<String> casServerUrlPrefixes = config.getCASServerUrlPrefixes();
+
+        // The validator for each CAS server, probed on its own
+        List<CASAuthHealthProbe.Target> probeTargets = new ArrayList<CASAuthHealthProbe.Target>();
+
+        if (casServerUrlPrefixes.size() > 1) {
+            // Spread validations across every CAS server
+            List<CASAuthEndpointBalancer.Endpoint> endpoints = new ArrayList<CASAuthEndpointBalancer.Endpoint>();
+            for (String casServerUrlPrefix : casServerUrlPrefixes) {
+                TicketValidator endpointValidator = createTicketValidator(validatorName,
+                        casServerUrlPrefix, config, transport, proxyChainMatcher);
+                endpoints.add(new CASAuthEndpointBalancer.Endpoint(casServerUrlPrefix, endpointValidator));
+                probeTargets.add(new CASAuthHealthProbe.Target(casServerUrlPrefix, endpointValidator));
+            }
+            CASAuthEndpointBalancer balancer = new CASAuthEndpointBalancer(endpoints,
+                    config.getEndpointEjectAfterFailures(), config.getEndpointEjectDuration());
+            if (config.isHedgeEnabled()) {
+                CASAuthHedgingTicketValidator hedgingValidator = new CASAuthHedgingTicketValidator(balancer,
+                        new CASAuthValidationExecutor(config.getHedgeThreads(), config.getHedgeThreads()),
+                        new CASAuthLatencyTracker(config.getHedgeWindowSize(), config.getHedgePercentile()),
+                        config.getHedgeMinDelay(), config.getHedgeMaxDelay(), config.getHedgeMaxPercent(),
+                        config.getHedgeTimeoutMultiple(), config.getHttpReadTimeout());
+                validator = new CASAuthTicketValidator(hedgingValidator, config.getServiceName());
+            } else {
+                validator = new CASAuthTicketValidator(balancer, config.getServiceName());
+            }
+        } else {
+            String casServerUrlPrefix = casServerUrlPrefixes.isEmpty() ? null : casServerUrlPrefixes.get(0);
+            TicketValidator serverValidator = createTicketValidator(validatorName,
+                    casServerUrlPrefix, config, transport, proxyChainMatcher);
+            validator = new CASAuthTicketValidator(serverValidator, config.getServiceName());
+            probeTargets.add(new CASAuthHealthProbe.Target(casServerUrlPrefix, serverValidator));
+        }
+
+        if (config.isCacheEnabled()) {
+            validator.setValidationCache(createTicketCache(
+                    CASAuthClusteredTicketCache.VALIDATION_CACHE_NAME, config,
+                    config.getCacheMaxSize(), config.getCacheTimeToLive(),
+                    previous != null ? previous.getValidationCache() : null));
+        }
+
+        if (config.isRejectionCacheEnabled()) {
+            validator.setRejectionCache(createTicketCache(
+                    CASAuthClusteredTicketCache.REJECTION_CACHE_NAME, config,
+                    config.getRejectionCacheMaxSize(),
+                    config.getRejectionCacheTimeToLive(),
+                    previous != null ? previous.getRejectionCache() : null));
+        }
+
+        if (config.isReplayEnabled()) {
+            validator.setReplayDetector(CASAuthReplayDetector.getInstance(config));
+        }
+
+        // Validations in flight with the replaced validator are shared
+        if (config.isCoalesceEnabled()) {
+            validator.setCoalescer(previous != null && previous.getCoalescer() != null
+                    ? previous.getCoalescer() : new CASAuthValidationCoalescer());
+        }
+
+        // Components whose settings are unchanged are carried over with
+        // their state, so that a reload neither resets a limit nor, while
+        // both validators are in use, doubles it
+        if (config.isCircuitBreakerEnabled()) {
+            CASAuthCircuitBreaker circuitBreaker = new CASAuthCircuitBreaker(
+                    config.getCircuitBreakerWindowSize(),
+                    config.getCircuitBreakerMinimumCalls(),
+                    config.getCircuitBreakerFailureRateThreshold(),
+                    config.getCircuitBreakerSlowCallDuration(),
+                    config.getCircuitBreakerSlowCallRateThreshold(),
+                    config.getCircuitBreakerOpenDuration(),
+                    config.getCircuitBreakerHalfOpenCalls());
+            if (previous != null && previous.getCircuitBreaker() != null
+                    && previous.getCircuitBreaker().hasSameSettings(circuitBreaker)) {
+                circuitBreaker = previous.getCircuitBreaker();
+            }
+            validator.setCircuitBreaker(circuitBreaker);
+        }
+
+        if (config.isRateLimitEnabled()) {
+            if (config.getRateLimitUserPerMinute() > 0) {
+                CASAuthRateLimiter userRateLimiter = new CASAuthRateLimiter(
+                        config.getRateLimitUserBurst(), config.getRateLimitUserPerMinute(),
+                        config.getRateLimitMaxKeys());
+                if (previous != null && previous.getUserRateLimiter() != null
+                        && previous.getUserRateLimiter().hasSameSettings(userRateLimiter)) {
+                    userRateLimiter = previous.getUserRateLimiter();
+                }
+                validator.setUserRateLimiter(userRateLimiter);
+            }
+            if (config.getRateLimitAddressPerMinute() > 0) {
+                CASAuthRateLimiter addressRateLimiter = new CASAuthRateLimiter(
+                        config.getRateLimitAddressBurst(), config.getRateLimitAddressPerMinute(),
+                        config.getRateLimitMaxKeys());
+                if (previous != null && previous.getAddressRateLimiter() != null
+                        && previous.getAddressRateLimiter().hasSameSettings(addressRateLimiter)) {
+                    addressRateLimiter = previous.getAddressRateLimiter();
+                }
+                validator.setAddressRateLimiter(addressRateLimiter);
+            }
+        }
+
+        if (config.isAdmissionEnabled()) {
+            CASAuthAdmissionControl admissionControl = new CASAuthAdmissionControl(
+                    config.getAdmissionMaxPending(), config.getAdmissionDeadline());
+            if (previous != null && previous.getAdmissionControl() != null
+                    && previous.getAdmissionControl().hasSameSettings(admissionControl)) {
+                admissionControl = previous.getAdmissionControl();
+            }
+            validator.setAdmissionControl(admissionControl);
+        }
+
+        if (config.isLimiterEnabled()) {
+            CASAuthConcurrencyLimiter concurrencyLimiter = new CASAuthConcurrencyLimiter(
+                    config.getLimiterInitialLimit(), config.getLimiterMinLimit(),
+                    config.getLimiterMaxLimit(), config.getLimiterQueueSize(),
+                    config.getLimiterMaxWait());
+            if (previous != null && previous.getConcurrencyLimiter() != null
+                    && previous.getConcurrencyLimiter().hasSameSettings(concurrencyLimiter)) {
+                concurrencyLimiter = previous.getConcurrencyLimiter();
+            }
+            validator.setConcurrencyLimiter(concurrencyLimiter);
+        }
+
+        if (config.isMetricsEnabled()) {
+            if (previous != null && previous.getMetrics() != null) {
+                validator.setMetrics(previous.getMetrics());
+            } else {
+                CASAuthValidationMetrics metrics = new CASAuthValidationMetrics();
+                metrics.register();
+                validator.setMetrics(metrics);
+            }
+        }
 
+        // Circuit breaker transitions are counted in the metrics; a breaker
+        // carried over stops reporting to metrics which were not
+        if (validator.getCircuitBreaker() != null) {
+            if (previous != null && previous.getMetrics() != null
+                    && previous.getMetrics() != validator.getMetrics()) {
+                validator.getCircuitBreaker().removeStateListener(previous.getMetrics());
+            }
+            if (validator.getMetrics() != null) {
+                validator.getMetrics().watch(validator.getCircuitBreaker());
+            }
+        }
+
+        if (config.getTraceFile() != null) {
+            final File traceFile = new File(config.getTraceFile());
+            if (previous != null && previous.getTraceRecorder() != null
+                    && traceFile.equals(previous.getTraceRecorder().getFile())) {
+                validator.setTraceRecorder(previous.getTraceRecorder());
+            } else {
+                try {
+                    validator.setTraceRecorder(new CASAuthTraceRecorder(traceFile));
+                } catch (IOException ioe) {
+                    Log.warn("CASAuthProvider: Unable to open validation trace " + config.getTraceFile() + ": " + ioe);
+                }
+            }
+        }
+
+        if (config.getAuditFile() != null) {
+            final File auditFile = new File(config.getAuditFile());
+            if (previous != null && previous.getAuditLog() != null
+                    && auditFile.equals(previous.getAuditLog().getFile())) {
+                validator.setAuditLog(previous.getAuditLog());
+            } else {
+                validator.setAuditLog(new CASAuthAuditLog(auditFile,
+                        config.getAuditMaxFileSize(), config.getAuditMaxFiles(),
+                        config.getAuditBufferSize(), config.getAuditSuccessSamplePercent(),
+                        config.getAuditBatchSize(), config.getAuditFlushInterval()));
+            }
+        }
+
+        if (config.isResumptionEnabled()) {
+            Map<String, byte[]> keys = config.getResumptionKeys();
+            if (keys.isEmpty()) {
+                Log.warn("CASAuthProvider: Resumption tokens are enabled but no keys are defined.");
+            } else {
+                validator.setResumptionTokens(createResumptionTokens(keys, config));
+            }
+        }
+
+        if (config.isAttributeStoreEnabled()) {
+            validator.setAttributeStore(CASAuthAttributeStore.getInstance(config));
+        }
+
+        if (config.isVirtualThreadsEnabled()) {
+            ThreadFactory threadFactory = CASAuthVirtualThreads.newThreadFactory(
+                    "CASAuthProvider-validation-");
+            if (threadFactory != null) {
+                validator.setExecutor(new CASAuthThreadPerTaskExecutor(threadFactory,
+                        config.getVirtualThreadsMaxConcurrent()));
+                validator.setValidationTimeout(config.getAsyncTimeout());
+            } else {
+                Log.info("CASAuthProvider: Virtual threads are not available on this Java runtime.");
+            }
+        }
+
+        // Without virtual threads, fall back to a pool of platform threads
+        if (validator.getExecutor() == null && config.isAsyncEnabled()) {
+            validator.setExecutor(new CASAuthValidationExecutor(
+                    config.getAsyncThreads(), config.getAsyncQueueSize()));
+            validator.setValidationTimeout(config.getAsyncTimeout());
+        }
+
+        // Warm up in the background so the first logins find CAS ready
+        if (config.isWarmupEnabled()) {
+            CASAuthHealthProbe healthProbe = new CASAuthHealthProbe(probeTargets,
+                    config.getServiceName(), CASAuthDnsCache.getInstance(config),
+                    config.getWarmupConnections(), config.getWarmupProbeInterval());
+            validator.setHealthProbe(healthProbe);
+            healthProbe.start();
+        }
+
+        return validator;
+    }
+
+    /**
+     * Create a ticket cache, shared across the cluster if configured.
+     *
+     * @param name       The name of the shared cache.
+     * @param config     The configuration.
+     * @param maxSize    The maximum number of entries of a local cache.
+     * @param timeToLive The time to live of each entry in milliseconds.
+     * @param previous   The cache of the validator being replaced, or
+     *                   <code>null</code>.
+     * @return The cache.
+     */
+    private CASAuthTicketCache createTicketCache(final String name,
+                                                 final CASAuthProviderConfig config, final int maxSize,
+                                                 final long timeToLive, final CASAuthTicketCache previous) {
+        if (!config.isCacheClustered()) {
+            // A local cache with unchanged settings keeps its tickets
+            if (previous != null && !(previous instanceof CASAuthClusteredTicketCache)
+                    && previous.getMaxSize() == maxSize && previous.getTimeToLive() == timeToLive) {
+                return previous;
+            }
+            return new CASAuthTicketCache(maxSize, timeToLive);
+        }
+
+        // Openfire returns the existing cache of this name, so entries
+        // survive a configuration reload
+        Cache<String, String> sharedCache = CacheFactory.createCache(name);
+        sharedCache.setMaxCacheSize(config.getCacheSharedMaxSize());
+        sharedCache.setMaxLifetime(timeToLive);
+        return new CASAuthClusteredTicketCache(sharedCache,
+                config.getCacheNearMaxSize(),
+                Math.min(config.getCacheNearTimeToLive(), timeToLive));
+    }
+
+    /**
+     * Create the resumption token issuer, with its revocations shared across
+     * the cluster if the caches are.
+     *
+     * @param keys   The secret keys by id.
+     * @param config The configuration.
+     * @return The token issuer.
+     */
+    private CASAuthResumptionTokens createResumptionTokens(final Map<String, byte[]> keys,
+                                                           final CASAuthProviderConfig config) {
+        if (!config.isCacheClustered()) {
+            return new CASAuthResumptionTokens(keys, config.getResumptionTimeToLive());
+        }
+
+        // Openfire returns the existing cache of this name, so revocations
+        // survive a configuration reload
+        Cache<String, String> sharedCache = CacheFactory.createCache(
+                CASAuthResumptionTokens.REVOCATION_CACHE_NAME);
+        sharedCache.setMaxCacheSize(config.getCacheSharedMaxSize());
+        sharedCache.setMaxLifetime(config.getResumptionTimeToLive()
+                + CASAuthResumptionTokens.MAX_CLOCK_SKEW);
+        return new CASAuthResumptionTokens(keys, config.getResumptionTimeToLive(), sharedCache);
+    }
+
+    /**
+     * Create the CAS client validator for a single CAS server.
+     *
+     * @param validatorName      The configured validator name.
+     * @param casServerUrlPrefix The prefix of the CAS server.
+     * @param config             The configuration.
+     * @param transport          The transport used to contact CAS, or
+     *                           <code>null</code> to use the CAS client's own
+     *                           connection handling.
+     * @param proxyChainMatcher  The allowed proxy chains.
+     * @return The validator.
+     */
+    private TicketValidator createTicketValidator(final String validatorName,
+                                                  final String casServerUrlPrefix, final CASAuthProviderConfig config,
+                                                  final CASAuthHttpTransport transport,
+                                                  final CASAuthProxyChainMatcher proxyChainMatcher) {
         if (validatorName.equalsIgnoreCase("Cas20ProxyTicketValidator")) {
-            Cas20ProxyTicketValidator proxyValidator = new Cas20ProxyTicketValidator(config.getCASServerUrlPrefix());
+            if (config.isStreamingParserEnabled()) {
+                return new CASAuthStreamingTicketValidator(casServerUrlPrefix,
+                        transport != null ? transport : new CASAuthUrlConnectionTransport(
+                                config.getHttpConnectTimeout(), config.getHttpReadTimeout()),
+                        proxyChainMatcher, config.getStreamingParserMaxResponseSize());
+            }
 
-            proxyValidator.setAllowedProxyChains(new ProxyList(config.getProxyChain()));
+            CASAuthProxyTicketValidator proxyValidator = new CASAuthProxyTicketValidator(
+                    casServerUrlPrefix, transport);
+            proxyValidator.setProxyChainMatcher(proxyChainMatcher);
 
-            return new CASAuthTicketValidator(proxyValidator, config.getServiceName());
+            return proxyValidator;
+        } else if (validatorName.equalsIgnoreCase("Cas30JsonTicketValidator")) {
+            return new CASAuthCas30JsonTicketValidator(casServerUrlPrefix,
+                    transport != null ? transport : new CASAuthUrlConnectionTransport(
+                            config.getHttpConnectTimeout(), config.getHttpReadTimeout()),
+                    proxyChainMatcher, config.getStreamingParserMaxResponseSize());
         } else if (validatorName.equalsIgnoreCase("Cas10TicketValidator")) {
-            Cas10TicketValidator ticketValidator = new Cas10TicketValidator(config.getCASServerUrlPrefix());
-            return new CASAuthTicketValidator(ticketValidator, config.getServiceName());
+            if (transport != null) {
+                return new CASAuthCas10TicketValidator(casServerUrlPrefix, transport);
+            }
+            return new Cas10TicketValidator(casServerUrlPrefix);
         }
         throw new IllegalArgumentException("CAS Validator is not defined");
     }
@@ -0,0 +1,422 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jivesoftware.util.Log;
+
+/**
+ * Records an anonymised trace of ticket validations, which
+ * <code>CASAuthLoadGenerator</code> can replay against a stub CAS server.
+ * Tickets and usernames are replaced by salted hashes, with a new salt for
+ * each recording, so a trace shows when a ticket or user recurs but not what
+ * it was. Each line holds the offset from the start of the recording in
+ * milliseconds, the ticket and user hashes, the outcome and the latency in
+ * microseconds.
+ * <p/>
+ * Like <code>CASAuthAuditLog</code>, authenticating threads only add
+ * validations to a lock-free ring buffer; hashing and writing are done by a
+ * background thread.
+ */
+public class CASAuthTraceRecorder {
+
+    /**
+     * The first line of every trace.
+     */
+    static final String HEADER = "# CASAuthProvider trace v1";
+
+    /**
+     * The outcome of an accepted ticket.
+     */
+    public static final String ACCEPTED = "accepted";
+
+    /**
+     * The outcome of a rejected ticket.
+     */
+    public static final String REJECTED = "rejected";
+
+    /**
+     * The outcome of a validation which could not be completed.
+     */
+    public static final String FAILED = "failed";
+
+    /**
+     * The number of hex digits kept from each hash.
+     */
+    private static final int HASH_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The most validations waiting to be written.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The most validations written at once.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * How long the writer sleeps when there is nothing to write, in
+     * nanoseconds.
+     */
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    /**
+     * The trace file, or <code>null</code> if writing to a stream.
+     */
+    private final File file;
+
+    /**
+     * The trace stream, only used by the writer thread once constructed.
+     */
+    private final Writer writer;
+
+    /**
+     * The salt mixed into every hash.
+     */
+    private final byte[] salt = new byte[16];
+
+    /**
+     * When recording started, from <code>System.currentTimeMillis()</code>.
+     */
+    private final long startTime;
+
+    /**
+     * Validations waiting to be written.
+     */
+    private final CASAuthRingBuffer<Validation> buffer = new CASAuthRingBuffer<Validation>(BUFFER_SIZE);
+
+    /**
+     * The number of validations not recorded because the buffer was full or
+     * recording had stopped.
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * The writer thread.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Whether the recorder has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Whether a write has failed, after which recording stops.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Constructs a recorder appending to a file.
+     *
+     * @param file The trace file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public CASAuthTraceRecorder(final File file) throws IOException {
+        this(file, new OutputStreamWriter(new FileOutputStream(file, true), CASAuthHttpTransport.RESPONSE_CHARSET));
+    }
+
+    /**
+     * Constructs a recorder writing to a stream, and starts its writer
+     * thread.
+     *
+     * @param writer The stream to write the trace to.
+     * @throws IOException If the header cannot be written.
+     */
+    CASAuthTraceRecorder(final Writer writer) throws IOException {
+        this(null, writer);
+    }
+
+    /**
+     * Constructs a recorder writing to a stream, and starts its writer
+     * thread.
+     *
+     * @param file   The trace file, or <code>null</code> if there is none.
+     * @param writer The stream to write the trace to.
+     * @throws IOException If the header cannot be written.
+     */
+    private CASAuthTraceRecorder(final File file, final Writer writer) throws IOException {
+        this.file = file;
+        this.writer = new BufferedWriter(writer);
+        this.startTime = System.currentTimeMillis();
+        new SecureRandom().nextBytes(salt);
+        this.writer.write(HEADER);
+        this.writer.write('\n');
+        this.writer.flush();
+
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeValidations();
+            }
+        }, "CASAuthProvider-trace");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Record a validation. The validation is handed to the writer thread
+     * without waiting, and dropped and counted if too many are waiting, so
+     * the trace never slows down or affects authentication.
+     *
+     * @param username     The username.
+     * @param ticket       The CAS ticket.
+     * @param outcome      One of {@link #ACCEPTED}, {@link #REJECTED} or
+     *                     {@link #FAILED}.
+     * @param elapsedNanos The time taken, in nanoseconds.
+     */
+    public void record(final String username, final String ticket, final String outcome,
+                       final long elapsedNanos) {
+        if (closed || failed
+                || !buffer.offer(new Validation(username, ticket, outcome, elapsedNanos))) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop the writer thread once every waiting validation has been
+     * written, and close the trace file.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+    }
+
+    /**
+     * @return The trace file, or <code>null</code> if writing to a stream.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of validations not recorded because too many were
+     * waiting or recording had stopped.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * The body of the writer thread.
+     */
+    private void writeValidations() {
+        final List<Validation> batch = new ArrayList<Validation>(BATCH_SIZE);
+        final StringBuilder line = new StringBuilder(96);
+
+        while (true) {
+            final boolean closing = closed;
+            batch.clear();
+            buffer.drainTo(batch, BATCH_SIZE);
+
+            if (!batch.isEmpty() && !failed) {
+                try {
+                    for (final Validation validation : batch) {
+                        line.setLength(0);
+                        line.append(validation.timestamp - startTime).append(' ')
+                                .append(anonymise(validation.ticket)).append(' ')
+                                .append(anonymise(validation.username)).append(' ')
+                                .append(validation.outcome).append(' ')
+                                .append(validation.elapsedNanos / 1000L).append('\n');
+                        writer.write(line.toString());
+                    }
+                    writer.flush();
+                } catch (final IOException ioe) {
+                    failed = true;
+                    Log.warn("CASAuthProvider: Unable to write validation trace, recording stopped: " + ioe);
+                }
+            }
+
+            if (batch.size() < BATCH_SIZE) {
+                if (closing && buffer.size() == 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Replace a value by a salted hash.
+     */
+    String anonymise(final String value) {
+        if (value == null) {
+            return "-";
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            final byte[] hash = digest.digest(value.getBytes(CASAuthHttpTransport.RESPONSE_CHARSET));
+            final char[] hex = new char[HASH_LENGTH];
+            for (int i = 0; i < HASH_LENGTH / 2; ++i) {
+                hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[hash[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (final NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        } catch (final UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Read a trace.
+     *
+     * @param reader The trace.
+     * @return The recorded validations, in the order they were recorded.
+     * @throws IOException If the trace cannot be read or is not a trace.
+     */
+    public static List<Entry> read(final Reader reader) throws IOException {
+        final BufferedReader in = new BufferedReader(reader);
+        final List<Entry> entries = new ArrayList<Entry>();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            ++lineNumber;
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split(" ");
+            if (fields.length != 5) {
+                throw new IOException("Malformed trace at line " + lineNumber);
+            }
+            try {
+                entries.add(new Entry(Long.parseLong(fields[0]), fields[1], fields[2],
+                        fields[3], Long.parseLong(fields[4])));
+            } catch (final NumberFormatException nfe) {
+                throw new IOException("Malformed trace at line " + lineNumber);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * A validation waiting to be written.
+     */
+    private static final class Validation {
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private final String username;
+
+        private final String ticket;
+
+        private final String outcome;
+
+        private final long elapsedNanos;
+
+        Validation(final String username, final String ticket, final String outcome,
+                   final long elapsedNanos) {
+            this.username = username;
+            this.ticket = ticket;
+            this.outcome = outcome;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    /**
+     * A recorded validation.
+     */
+    public static final class Entry {
+
+        private final long offset;
+
+        private final String ticketId;
+
+        private final String userId;
+
+        private final String outcome;
+
+        private final long latency;
+
+        Entry(final long offset, final String ticketId, final String userId,
+              final String outcome, final long latency) {
+            this.offset = offset;
+            this.ticketId = ticketId;
+            this.userId = userId;
+            this.outcome = outcome;
+            this.latency = latency;
+        }
+
+        /**
+         * @return The offset from the start of the recording, in
+         * milliseconds.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return The anonymised ticket.
+         */
+        public String getTicketId() {
+            return ticketId;
+        }
+
+        /**
+         * @return The anonymised username.
+         */
+        public String getUserId() {
+            return userId;
+        }
+
+        /**
+         * @return The outcome.
+         */
+        public String getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return The recorded latency, in microseconds.
+         */
+        public long getLatency() {
+            return latency;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A <code>CASAuthHttpTransport</code> using the JDK's
+ * <code>HttpURLConnection</code>, which reuses connections through the JVM's
+ * own keep-alive cache.
+ */
+public class CASAuthUrlConnectionTransport extends CASAuthHttpTransport {
+
+    /**
+     * The connect timeout in milliseconds.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The read timeout in milliseconds.
+     */
+    private final int readTimeout;
+
+    /**
+     * Constructs a new transport.
+     *
+     * @param connectTimeout The connect timeout in milliseconds.
+     * @param readTimeout    The read timeout in milliseconds.
+     */
+    public CASAuthUrlConnectionTransport(final int connectTimeout, final int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream openStream(final URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setInstanceFollowRedirects(false);
+
+        final int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            final InputStream error = connection.getErrorStream();
+            if (error != null) {
+                error.close();
+            }
+            throw new IOException("CAS server returned HTTP status " + status);
+        }
+        return connection.getInputStream();
+    }
+
+}
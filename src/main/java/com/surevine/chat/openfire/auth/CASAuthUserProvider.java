@@ -0,0 +1,306 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.jivesoftware.openfire.user.User;
+import org.jivesoftware.openfire.user.UserAlreadyExistsException;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.openfire.user.UserProvider;
+import org.jivesoftware.util.JiveProperties;
+import org.jivesoftware.util.Log;
+
+/**
+ * A <code>UserProvider</code> serving users from the attributes CAS
+ * released at their last login, held in the shared
+ * <code>CASAuthAttributeStore</code>.
+ * <p/>
+ * A user who has not logged in since Openfire started is looked up in the
+ * fallback provider, if one is configured, which also answers listings,
+ * searches and changes. Without a fallback the provider is read only and
+ * knows only the users in the store.
+ */
+public class CASAuthUserProvider implements UserProvider {
+
+    /**
+     * The store of released attributes.
+     */
+    private final CASAuthAttributeStore store;
+
+    /**
+     * The provider consulted for users not in the store, or
+     * <code>null</code>.
+     */
+    private final UserProvider fallback;
+
+    /**
+     * Constructs a new provider using the shared attribute store and the
+     * fallback provider configured in the {@link JiveProperties} singleton.
+     */
+    public CASAuthUserProvider() {
+        final CASAuthProviderConfig config = new CASAuthProviderConfig(JiveProperties.getInstance());
+        this.store = CASAuthAttributeStore.getInstance(config);
+        this.fallback = createFallback(config.getAttributeStoreFallbackUserProvider(),
+                UserProvider.class);
+    }
+
+    /**
+     * Constructs a new provider.
+     *
+     * @param store    The store of released attributes.
+     * @param fallback The provider consulted for users not in the store, or
+     *                 <code>null</code> for none.
+     */
+    public CASAuthUserProvider(final CASAuthAttributeStore store, final UserProvider fallback) {
+        if (store == null) {
+            throw new IllegalArgumentException("Attribute store not defined");
+        }
+        this.store = store;
+        this.fallback = fallback;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public User loadUser(final String username) throws UserNotFoundException {
+        final CASAuthAttributeStore.UserAttributes attributes = store.get(username);
+        if (attributes != null) {
+            return toUser(username, attributes);
+        }
+        if (fallback != null) {
+            return fallback.loadUser(username);
+        }
+        throw new UserNotFoundException("No CAS attributes for " + username);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public User createUser(final String username, final String password, final String name,
+                           final String email) throws UserAlreadyExistsException {
+        return writableFallback().createUser(username, password, name, email);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void deleteUser(final String username) {
+        writableFallback().deleteUser(username);
+        store.remove(username);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getUserCount() {
+        return fallback != null ? fallback.getUserCount() : store.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<User> getUsers() {
+        if (fallback != null) {
+            return fallback.getUsers();
+        }
+        return toUsers(store.getUsernames(), 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<String> getUsernames() {
+        return fallback != null ? fallback.getUsernames() : store.getUsernames();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<User> getUsers(final int startIndex, final int numResults) {
+        if (fallback != null) {
+            return fallback.getUsers(startIndex, numResults);
+        }
+        return toUsers(store.getUsernames(), startIndex, numResults);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setName(final String username, final String name) throws UserNotFoundException {
+        writableFallback().setName(username, name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setEmail(final String username, final String email) throws UserNotFoundException {
+        writableFallback().setEmail(username, email);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setCreationDate(final String username, final Date creationDate)
+            throws UserNotFoundException {
+        writableFallback().setCreationDate(username, creationDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setModificationDate(final String username, final Date modificationDate)
+            throws UserNotFoundException {
+        writableFallback().setModificationDate(username, modificationDate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<String> getSearchFields() throws UnsupportedOperationException {
+        if (fallback == null) {
+            throw new UnsupportedOperationException("Search is not supported without a fallback provider");
+        }
+        return fallback.getSearchFields();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<User> findUsers(final Set<String> fields, final String query)
+            throws UnsupportedOperationException {
+        if (fallback == null) {
+            throw new UnsupportedOperationException("Search is not supported without a fallback provider");
+        }
+        return fallback.findUsers(fields, query);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<User> findUsers(final Set<String> fields, final String query,
+                                      final int startIndex, final int numResults) throws UnsupportedOperationException {
+        if (fallback == null) {
+            throw new UnsupportedOperationException("Search is not supported without a fallback provider");
+        }
+        return fallback.findUsers(fields, query, startIndex, numResults);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isReadOnly() {
+        return fallback == null || fallback.isReadOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isNameRequired() {
+        return fallback != null && fallback.isNameRequired();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmailRequired() {
+        return fallback != null && fallback.isEmailRequired();
+    }
+
+    /**
+     * Get the fallback provider.
+     *
+     * @return The fallback provider, or <code>null</code> if there is none.
+     */
+    public UserProvider getFallback() {
+        return fallback;
+    }
+
+    /**
+     * Get the fallback provider for a change, which the store cannot make.
+     *
+     * @return The fallback provider.
+     * @throws UnsupportedOperationException If there is no fallback provider.
+     */
+    private UserProvider writableFallback() {
+        if (fallback == null) {
+            throw new UnsupportedOperationException("Users are read only without a fallback provider");
+        }
+        return fallback;
+    }
+
+    /**
+     * Build a user from the attributes held in the store.
+     *
+     * @param username   The username.
+     * @param attributes The stored attributes.
+     * @return The user.
+     */
+    private static User toUser(final String username,
+                               final CASAuthAttributeStore.UserAttributes attributes) {
+        final Date updated = new Date(attributes.getUpdated());
+        return new User(username, attributes.getName(), attributes.getEmail(), updated, updated);
+    }
+
+    /**
+     * Build a page of users from the store.
+     *
+     * @param usernames  The usernames in the store.
+     * @param startIndex The index of the first user.
+     * @param numResults The largest number of users.
+     * @return The users still held in the store.
+     */
+    private List<User> toUsers(final List<String> usernames, final int startIndex,
+                               final int numResults) {
+        final List<User> users = new ArrayList<User>();
+        for (int i = startIndex; i < usernames.size() && users.size() < numResults; i++) {
+            final String username = usernames.get(i);
+            final CASAuthAttributeStore.UserAttributes attributes = store.get(username);
+            if (attributes != null) {
+                users.add(toUser(username, attributes));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Instantiate a configured fallback provider.
+     *
+     * @param className The class name, or <code>null</code> for none.
+     * @param type      The provider type.
+     * @return The provider, or <code>null</code> if none is configured or it
+     * cannot be created.
+     */
+    static <T> T createFallback(final String className, final Class<T> type) {
+        if (className == null || className.trim().length() == 0) {
+            return null;
+        }
+        try {
+            return type.cast(Class.forName(className.trim()).newInstance());
+        } catch (Exception e) {
+            Log.error("CASAuthProvider: Unable to create fallback provider " + className, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.openfire.auth.ConnectionException;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+
+/**
+ * Coalesces concurrent validations of the same ticket for the same service
+ * and user into a single call to CAS. CAS tickets are single-use, so without
+ * this every concurrent validation after the first would be rejected. The
+ * first caller performs the validation and every caller for the same user
+ * which arrives while it is in flight shares its outcome. A caller claiming
+ * the ticket for another user validates it separately, so CAS rejects it as
+ * already used.
+ */
+public class CASAuthValidationCoalescer {
+
+    /**
+     * Separator used when building keys.
+     */
+    private static final char KEY_SEPARATOR = '\n';
+
+    /**
+     * The validations currently in flight.
+     */
+    private final ConcurrentMap<String, FutureTask<String>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<String>>();
+
+    /**
+     * The number of validations which shared an in-flight validation.
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Validate a ticket, sharing the outcome of any validation of the same
+     * ticket, service and user which is already in flight.
+     *
+     * @param ticket     The CAS ticket.
+     * @param serviceUrl The service URL the ticket is validated against.
+     * @param username   The user the ticket is presented for.
+     * @param deadline   The deadline of the authentication, which bounds the
+     *                   wait for a validation already in flight, or
+     *                   <code>null</code> if it has none.
+     * @param validation The validation to perform if none is in flight,
+     *                   returning the principal name.
+     * @return The principal name.
+     * @throws UnauthorizedException If the ticket is not valid.
+     * @throws ConnectionException   If CAS could not be contacted, or the
+     *                               deadline passed or the caller was
+     *                               interrupted while waiting.
+     */
+    public String validate(final String ticket, final String serviceUrl,
+                           final String username,
+                           final CASAuthAdmissionControl.Deadline deadline,
+                           final Callable<String> validation)
+            throws UnauthorizedException, ConnectionException {
+        final String key = ticket + KEY_SEPARATOR + serviceUrl + KEY_SEPARATOR + username;
+        final FutureTask<String> task = new FutureTask<String>(validation);
+        final FutureTask<String> existing = inFlight.putIfAbsent(key, task);
+
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing, deadline);
+        }
+
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return await(task, null);
+    }
+
+    /**
+     * Get the number of validations currently in flight.
+     *
+     * @return The number of validations in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Get the number of validations which shared an in-flight validation
+     * rather than contacting CAS.
+     *
+     * @return The coalesced count.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Wait for a validation to complete, giving up if the deadline passes or
+     * the caller is interrupted. Giving up leaves the validation running for
+     * the callers still waiting on it.
+     */
+    private static String await(final FutureTask<String> task,
+                                final CASAuthAdmissionControl.Deadline deadline)
+            throws UnauthorizedException, ConnectionException {
+        try {
+            if (deadline == null) {
+                return task.get();
+            }
+            return task.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException te) {
+            throw new ConnectionException("CAS validation timed out");
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(ie);
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof UnauthorizedException) {
+                throw (UnauthorizedException) cause;
+            } else if (cause instanceof ConnectionException) {
+                throw (ConnectionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded executor which runs CAS ticket validations away from the
+ * Openfire connection handling threads. When all threads are busy and the
+ * queue is full, further validations are rejected with a
+ * <code>RejectedExecutionException</code> instead of queueing without limit.
+ */
+public class CASAuthValidationExecutor extends ThreadPoolExecutor {
+
+    /**
+     * How long an idle thread is kept before it is released, in seconds.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * Constructs a new executor.
+     *
+     * @param threads   The maximum number of concurrent validations.
+     * @param queueSize The maximum number of validations waiting for a
+     *                  thread.
+     */
+    public CASAuthValidationExecutor(final int threads, final int queueSize) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ValidationThreadFactory());
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates named daemon threads so that validations in progress never
+     * prevent Openfire from shutting down.
+     */
+    private static final class ValidationThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable,
+                    "CASAuthProvider-validation-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
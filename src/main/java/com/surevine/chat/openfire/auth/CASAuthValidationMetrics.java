@@ -0,0 +1,420 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.util.Log;
+
+/**
+ * Counts the outcome of each CAS ticket validation and records its latency.
+ * Recording touches only striped counters and a histogram bucket, so it adds
+ * no lock to the validation path. The metrics can be published as an MBean
+ * and as Openfire statistics. They can also follow the state of a circuit
+ * breaker.
+ */
+public class CASAuthValidationMetrics implements CASAuthValidationMetricsMBean,
+                                                 CASAuthCircuitBreaker.StateListener {
+
+    /**
+     * The name the metrics are registered under in JMX.
+     */
+    public static final String OBJECT_NAME = "com.surevine.chat.openfire.auth:type=CASAuthProvider,name=validation";
+
+    /**
+     * The prefix of the Openfire statistic keys.
+     */
+    public static final String STATISTIC_KEY_PREFIX = "casauth_";
+
+    /**
+     * The outcome of a validation.
+     */
+    public enum Outcome {
+        /** CAS accepted the ticket. */
+        SUCCESS("success", "CAS validations accepted"),
+        /** CAS rejected the ticket. */
+        TICKET_VALIDATION_EXCEPTION("rejected", "CAS validations rejected"),
+        /** CAS returned no assertion. */
+        NULL_ASSERTION("null_assertion", "CAS validations without an assertion"),
+        /** CAS returned no principal. */
+        NULL_PRINCIPAL("null_principal", "CAS validations without a principal"),
+        /** CAS returned no user. */
+        NULL_USER("null_user", "CAS validations without a user"),
+        /** CAS could not be reached. */
+        CONNECTION_FAILURE("connection_failure", "CAS validations failing to reach CAS");
+
+        private final String key;
+
+        private final String description;
+
+        Outcome(final String key, final String description) {
+            this.key = key;
+            this.description = description;
+        }
+    }
+
+    /**
+     * The percentiles published as Openfire statistics.
+     */
+    private static final double[] STATISTIC_PERCENTILES = {50.0, 99.0};
+
+    /**
+     * A counter for each outcome.
+     */
+    private final CASAuthStripedCounter[] counters;
+
+    /**
+     * Validation latencies in microseconds.
+     */
+    private final CASAuthLatencyHistogram latencies = new CASAuthLatencyHistogram();
+
+    /**
+     * The state of the circuit breaker followed, or <code>null</code> if
+     * there is none.
+     */
+    private volatile CASAuthCircuitBreaker.State circuitBreakerState;
+
+    /**
+     * The number of times the circuit breaker followed has opened.
+     */
+    private final AtomicLong circuitBreakerOpenCount = new AtomicLong();
+
+    /**
+     * Constructs a new set of metrics.
+     */
+    public CASAuthValidationMetrics() {
+        counters = new CASAuthStripedCounter[Outcome.values().length];
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i] = new CASAuthStripedCounter();
+        }
+    }
+
+    /**
+     * Record a validation.
+     *
+     * @param outcome      The outcome.
+     * @param elapsedNanos The time taken by CAS, in nanoseconds.
+     */
+    public void record(final Outcome outcome, final long elapsedNanos) {
+        counters[outcome.ordinal()].increment();
+        latencies.record(elapsedNanos / 1000L);
+    }
+
+    /**
+     * Get the number of validations with an outcome.
+     *
+     * @param outcome The outcome.
+     * @return The count.
+     */
+    public long getCount(final Outcome outcome) {
+        return counters[outcome.ordinal()].sum();
+    }
+
+    /**
+     * Follow the state of a circuit breaker.
+     *
+     * @param circuitBreaker The circuit breaker.
+     */
+    public void watch(final CASAuthCircuitBreaker circuitBreaker) {
+        circuitBreakerState = circuitBreaker.getState();
+        circuitBreaker.addStateListener(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stateChanged(final CASAuthCircuitBreaker.State from,
+                             final CASAuthCircuitBreaker.State to) {
+        circuitBreakerState = to;
+        if (to == CASAuthCircuitBreaker.State.OPEN) {
+            circuitBreakerOpenCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the latency histogram, in microseconds.
+     *
+     * @return The histogram.
+     */
+    public CASAuthLatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSuccessCount() {
+        return getCount(Outcome.SUCCESS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTicketValidationExceptionCount() {
+        return getCount(Outcome.TICKET_VALIDATION_EXCEPTION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNullAssertionCount() {
+        return getCount(Outcome.NULL_ASSERTION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNullPrincipalCount() {
+        return getCount(Outcome.NULL_PRINCIPAL);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getNullUserCount() {
+        return getCount(Outcome.NULL_USER);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConnectionFailureCount() {
+        return getCount(Outcome.CONNECTION_FAILURE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getValidationCount() {
+        long total = 0;
+        for (final CASAuthStripedCounter counter : counters) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCircuitBreakerState() {
+        final CASAuthCircuitBreaker.State state = circuitBreakerState;
+        return state != null ? state.name() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCircuitBreakerOpenCount() {
+        return circuitBreakerOpenCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLatency50thPercentile() {
+        return toMillis(latencies.getValueAtPercentile(50.0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLatency90thPercentile() {
+        return toMillis(latencies.getValueAtPercentile(90.0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLatency99thPercentile() {
+        return toMillis(latencies.getValueAtPercentile(99.0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLatency999thPercentile() {
+        return toMillis(latencies.getValueAtPercentile(99.9));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        for (final CASAuthStripedCounter counter : counters) {
+            counter.reset();
+        }
+        latencies.reset();
+        circuitBreakerOpenCount.set(0L);
+    }
+
+    /**
+     * Publish the metrics as an MBean and as Openfire statistics, replacing
+     * any metrics previously published. Failures are logged rather than
+     * thrown, as metrics are not needed to authenticate.
+     */
+    public void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (final JMException jme) {
+            Log.warn("CASAuthProvider: Unable to register validation MBean: " + jme);
+        }
+
+        try {
+            final StatisticsManager statisticsManager = StatisticsManager.getInstance();
+            for (final Outcome outcome : Outcome.values()) {
+                statisticsManager.addStatistic(STATISTIC_KEY_PREFIX + outcome.key,
+                        new OutcomeStatistic(outcome));
+            }
+            for (final double percentile : STATISTIC_PERCENTILES) {
+                statisticsManager.addStatistic(STATISTIC_KEY_PREFIX + "latency_p" + (int) percentile,
+                        new LatencyStatistic(percentile));
+            }
+        } catch (final RuntimeException re) {
+            Log.warn("CASAuthProvider: Unable to register validation statistics: " + re);
+        }
+    }
+
+    /**
+     * Withdraw the MBean and Openfire statistics published by
+     * {@link #register()}.
+     */
+    public void unregister() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException jme) {
+            Log.warn("CASAuthProvider: Unable to unregister validation MBean: " + jme);
+        }
+
+        final StatisticsManager statisticsManager = StatisticsManager.getInstance();
+        for (final Outcome outcome : Outcome.values()) {
+            statisticsManager.removeStatistic(STATISTIC_KEY_PREFIX + outcome.key);
+        }
+        for (final double percentile : STATISTIC_PERCENTILES) {
+            statisticsManager.removeStatistic(STATISTIC_KEY_PREFIX + "latency_p" + (int) percentile);
+        }
+    }
+
+    private static double toMillis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    /**
+     * Publishes the number of validations with an outcome since the last
+     * sample.
+     */
+    final class OutcomeStatistic implements Statistic {
+
+        private final Outcome outcome;
+
+        private long last;
+
+        OutcomeStatistic(final Outcome outcome) {
+            this.outcome = outcome;
+        }
+
+        public String getName() {
+            return "CAS " + outcome.key.replace('_', ' ');
+        }
+
+        public Type getStatType() {
+            return Type.rate;
+        }
+
+        public String getDescription() {
+            return outcome.description;
+        }
+
+        public String getUnits() {
+            return "Validations";
+        }
+
+        public synchronized double sample() {
+            final long current = getCount(outcome);
+            final long delta = Math.max(0, current - last);
+            last = current;
+            return delta;
+        }
+
+        public boolean isPartialSample() {
+            return false;
+        }
+    }
+
+    /**
+     * Publishes a latency percentile of the validations since the last
+     * sample, in milliseconds.
+     */
+    final class LatencyStatistic implements Statistic {
+
+        private final double percentile;
+
+        private long[] last = new long[CASAuthLatencyHistogram.BUCKET_COUNT];
+
+        LatencyStatistic(final double percentile) {
+            this.percentile = percentile;
+        }
+
+        public String getName() {
+            return "CAS validation latency p" + (int) percentile;
+        }
+
+        public Type getStatType() {
+            return Type.count;
+        }
+
+        public String getDescription() {
+            return (int) percentile + "th percentile CAS validation latency";
+        }
+
+        public String getUnits() {
+            return "Milliseconds";
+        }
+
+        public synchronized double sample() {
+            final long[] current = latencies.getCounts();
+            final long[] interval = new long[current.length];
+            for (int i = 0; i < current.length; ++i) {
+                interval[i] = Math.max(0, current[i] - last[i]);
+            }
+            last = current;
+            return toMillis(CASAuthLatencyHistogram.getValueAtPercentile(interval, percentile));
+        }
+
+        public boolean isPartialSample() {
+            return false;
+        }
+    }
+
+}
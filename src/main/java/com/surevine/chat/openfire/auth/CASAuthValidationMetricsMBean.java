@@ -0,0 +1,100 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+/**
+ * The JMX management interface of <code>CASAuthValidationMetrics</code>.
+ * Latencies are in milliseconds and cover every validation sent to CAS since
+ * the metrics were created or last reset.
+ */
+public interface CASAuthValidationMetricsMBean {
+
+    /**
+     * @return The number of tickets CAS accepted.
+     */
+    long getSuccessCount();
+
+    /**
+     * @return The number of tickets CAS rejected with a
+     * <code>TicketValidationException</code>.
+     */
+    long getTicketValidationExceptionCount();
+
+    /**
+     * @return The number of validations which returned no assertion.
+     */
+    long getNullAssertionCount();
+
+    /**
+     * @return The number of validations which returned no principal.
+     */
+    long getNullPrincipalCount();
+
+    /**
+     * @return The number of validations which returned no user.
+     */
+    long getNullUserCount();
+
+    /**
+     * @return The number of validations which failed to reach CAS.
+     */
+    long getConnectionFailureCount();
+
+    /**
+     * @return The number of validations sent to CAS.
+     */
+    long getValidationCount();
+
+    /**
+     * @return The state of the circuit breaker around CAS, or
+     * <code>null</code> if there is none.
+     */
+    String getCircuitBreakerState();
+
+    /**
+     * @return The number of times the circuit breaker around CAS has opened.
+     */
+    long getCircuitBreakerOpenCount();
+
+    /**
+     * @return The median validation latency.
+     */
+    double getLatency50thPercentile();
+
+    /**
+     * @return The 90th percentile validation latency.
+     */
+    double getLatency90thPercentile();
+
+    /**
+     * @return The 99th percentile validation latency.
+     */
+    double getLatency99thPercentile();
+
+    /**
+     * @return The 99.9th percentile validation latency.
+     */
+    double getLatency999thPercentile();
+
+    /**
+     * Clear every counter and the latency histogram.
+     */
+    void reset();
+
+}
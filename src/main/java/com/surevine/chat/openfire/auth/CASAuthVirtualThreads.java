@@ -0,0 +1,52 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads where the Java runtime has them. This version is
+ * used on runtimes before Java 21, which do not; the jar carries a Java 21
+ * version under <code>META-INF/versions/21</code> which does.
+ */
+public final class CASAuthVirtualThreads {
+
+    private CASAuthVirtualThreads() {
+    }
+
+    /**
+     * Whether this runtime has virtual threads.
+     *
+     * @return <code>false</code>.
+     */
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Get a factory of virtual threads.
+     *
+     * @param name The prefix of the thread names.
+     * @return <code>null</code>, as this runtime has no virtual threads.
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        return null;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads. This is the Java 21 version of the class, which
+ * the runtime loads from <code>META-INF/versions/21</code> in place of the
+ * version for earlier runtimes.
+ */
+public final class CASAuthVirtualThreads {
+
+    private CASAuthVirtualThreads() {
+    }
+
+    /**
+     * Whether this runtime has virtual threads.
+     *
+     * @return <code>true</code>.
+     */
+    public static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Get a factory of virtual threads.
+     *
+     * @param name The prefix of the thread names.
+     * @return The factory.
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        return Thread.ofVirtual().name(name, 1).factory();
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.jivesoftware.openfire.auth.ConnectionException;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthAdmissionControl
+ *
+ * @see CASAuthAdmissionControl
+ */
+public class CASAuthAdmissionControlTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+
+    /**
+     * Test that authentications beyond the maximum pending are shed and
+     * counted
+     */
+    @Test
+    public void testShedsWhenSaturated() {
+        CASAuthAdmissionControl admissionControl = new CASAuthAdmissionControl(2, 1000L);
+
+        assertNotNull("First authentication shed", admissionControl.tryAdmit());
+        assertNotNull("Second authentication shed", admissionControl.tryAdmit());
+        assertNull("Authentication over the maximum admitted", admissionControl.tryAdmit());
+        assertEquals("Shed authentication not counted", 1, admissionControl.getShedCount());
+
+        admissionControl.release();
+        assertNotNull("Authentication shed after release", admissionControl.tryAdmit());
+        assertEquals("Wrong number pending", 2, admissionControl.getPending());
+    }
+
+    /**
+     * Test that a deadline passes
+     */
+    @Test
+    public void testDeadline() throws Exception {
+        CASAuthAdmissionControl.Deadline deadline = new CASAuthAdmissionControl.Deadline(5L);
+        assertFalse("Deadline passed early", deadline.isExpired());
+
+        Thread.sleep(10);
+        assertTrue("Deadline not passed", deadline.isExpired());
+        assertTrue("Time remaining after deadline", deadline.remainingNanos() < 0);
+    }
+
+    /**
+     * Test that the validator drops an authentication past its deadline
+     * without contacting CAS
+     */
+    @Test
+    public void testExpiredAuthenticationDropped() throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator, SERVICE_URL);
+        CASAuthAdmissionControl admissionControl = new CASAuthAdmissionControl(10, 1000L);
+        validator.setAdmissionControl(admissionControl);
+
+        try {
+            validator.authenticateCASTicket(TEST_USERNAME, "ST-1", new CASAuthAdmissionControl.Deadline(-1L));
+            fail("Expired authentication not dropped");
+        } catch (ConnectionException ce) {
+            // expected
+        }
+        verify(proxyValidator, never()).validate(anyString(), anyString());
+        assertEquals("Expired authentication not counted", 1, admissionControl.getExpiredCount());
+    }
+
+    /**
+     * Test that the provider refuses logins at once when saturated
+     */
+    @Test
+    public void testProviderSheds() throws Exception {
+        CASAuthTicketValidator validator = mock(CASAuthTicketValidator.class);
+        CASAuthAdmissionControl admissionControl = new CASAuthAdmissionControl(1, 1000L);
+        when(validator.getAdmissionControl()).thenReturn(admissionControl);
+        CASAuthProvider provider = new CASAuthProvider(validator);
+
+        provider.authenticate(TEST_USERNAME, "ST-1");
+        assertEquals("Admission not released", 0, admissionControl.getPending());
+
+        admissionControl.tryAdmit();
+        try {
+            provider.authenticate(TEST_USERNAME, "ST-2");
+            fail("Login admitted while saturated");
+        } catch (ConnectionException ce) {
+            // expected
+        }
+        assertEquals("Shed login not counted", 1, admissionControl.getShedCount());
+    }
+
+    /**
+     * Test that an asynchronous validation keeps its admission slot until it
+     * finishes, even after the caller has given up waiting for it, and that a
+     * validation cancelled before it starts gives its slot back
+     */
+    @Test
+    public void testSlotHeldUntilValidationFinishes() throws Exception {
+        final CountDownLatch casResponds = new CountDownLatch(1);
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        // A CAS server which stops responding, like a blocked socket read
+        // which does not notice being interrupted
+        when(proxyValidator.validate(anyString(), anyString())).thenAnswer(new Answer<Object>() {
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                while (true) {
+                    try {
+                        casResponds.await();
+                        throw new IllegalStateException("CAS unavailable");
+                    } catch (InterruptedException ie) {
+                        // keep blocking
+                    }
+                }
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator, SERVICE_URL);
+        CASAuthAdmissionControl admissionControl = new CASAuthAdmissionControl(10, 5000L);
+        validator.setAdmissionControl(admissionControl);
+        validator.setExecutor(executor);
+        validator.setValidationTimeout(50L);
+        CASAuthProvider provider = new CASAuthProvider(validator);
+
+        try {
+            try {
+                provider.authenticate(TEST_USERNAME, "ST-1");
+                fail("Blocked validation did not time out");
+            } catch (ConnectionException ce) {
+                // expected
+            }
+            assertEquals("Slot released while CAS is still being read", 1, admissionControl.getPending());
+
+            // Queued behind the blocked validation, so cancelled before it starts
+            try {
+                provider.authenticate(TEST_USERNAME, "ST-2");
+                fail("Queued validation did not time out");
+            } catch (ConnectionException ce) {
+                // expected
+            }
+            assertEquals("Cancelled validation kept its slot", 1, admissionControl.getPending());
+
+            casResponds.countDown();
+            executor.shutdown();
+            assertTrue("Validation did not finish", executor.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals("Slot not released when validation finished", 0, admissionControl.getPending());
+        } finally {
+            casResponds.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthAttributeStore
+ *
+ * @see CASAuthAttributeStore
+ */
+public class CASAuthAttributeStoreTest {
+
+    /**
+     * Class under test
+     */
+    private CASAuthAttributeStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new CASAuthAttributeStore(2, "displayName", "mail", "memberOf");
+    }
+
+    /**
+     * Test that single and multiple valued attributes are stored
+     */
+    @Test
+    public void testUpdate() {
+        store.update("alice", attributes("Alice Smith", "alice@example.com", "staff", "admins"));
+
+        CASAuthAttributeStore.UserAttributes attributes = store.get("alice");
+        assertEquals("Wrong name", "Alice Smith", attributes.getName());
+        assertEquals("Wrong email", "alice@example.com", attributes.getEmail());
+        assertEquals("Wrong groups", Arrays.asList("staff", "admins"), attributes.getGroups());
+        assertEquals("Wrong members", Arrays.asList("alice"), store.getGroupMembers("admins"));
+    }
+
+    /**
+     * Test that missing attributes are stored as absent
+     */
+    @Test
+    public void testMissingAttributes() {
+        store.update("alice", new HashMap<String, Object>());
+
+        CASAuthAttributeStore.UserAttributes attributes = store.get("alice");
+        assertNull("Name stored", attributes.getName());
+        assertNull("Email stored", attributes.getEmail());
+        assertTrue("Groups stored", attributes.getGroups().isEmpty());
+    }
+
+    /**
+     * Test that every member of a group shares one instance of its name
+     */
+    @Test
+    public void testGroupNamesShared() {
+        store.update("alice", attributes("Alice", null, new String("staff")));
+        store.update("bob", attributes("Bob", null, new String("staff")));
+
+        assertSame("Group name not shared", store.get("alice").getGroups().get(0),
+                store.get("bob").getGroups().get(0));
+        assertEquals("Wrong number of members", 2, store.getGroupMembers("staff").size());
+    }
+
+    /**
+     * Test that a user leaving a group is removed from its members, and that
+     * an empty group is dropped
+     */
+    @Test
+    public void testGroupMembershipReplaced() {
+        store.update("alice", attributes("Alice", null, "staff", "admins"));
+        store.update("alice", attributes("Alice", null, "staff"));
+
+        assertNull("Empty group kept", store.getGroupMembers("admins"));
+        assertEquals("Wrong groups", Arrays.asList("staff"), store.getGroupNames());
+    }
+
+    /**
+     * Test that the least recently used user is evicted along with their
+     * group memberships
+     */
+    @Test
+    public void testEviction() {
+        store.update("alice", attributes("Alice", null, "staff"));
+        store.update("bob", attributes("Bob", null, "staff"));
+        store.get("alice");
+        store.update("carol", attributes("Carol", null, "admins"));
+
+        assertEquals("Store not bounded", 2, store.size());
+        assertNull("Least recently used user kept", store.get("bob"));
+        assertEquals("Evicted user kept in group", Arrays.asList("alice"),
+                store.getGroupMembers("staff"));
+    }
+
+    /**
+     * Test that the validator stores the attributes of a validated principal
+     */
+    @Test
+    public void testValidatorUpdatesStore() throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+        when(proxyValidator.validate("ST-TEST", "http://test.service.url/")).thenReturn(assertion);
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn("alice");
+        when(principal.getAttributes()).thenReturn(attributes("Alice", "alice@example.com", "staff"));
+
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator,
+                "http://test.service.url/");
+        validator.setAttributeStore(store);
+        validator.authenticateCASTicket("alice", "ST-TEST");
+
+        assertEquals("Attributes not stored", "alice@example.com", store.get("alice").getEmail());
+    }
+
+    /**
+     * Test that the attributes of a mixed-case principal are found under the
+     * lowercase Openfire username
+     */
+    @Test
+    public void testValidatorMixedCasePrincipal() throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+        when(proxyValidator.validate("ST-TEST", "http://test.service.url/")).thenReturn(assertion);
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn("JSmith");
+        when(principal.getAttributes()).thenReturn(attributes("John Smith", "jsmith@example.com", "staff"));
+
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator,
+                "http://test.service.url/");
+        validator.setAttributeStore(store);
+        validator.authenticateCASTicket("jsmith", "ST-TEST");
+
+        assertEquals("Attributes not found by Openfire username", "jsmith@example.com",
+                store.get("jsmith").getEmail());
+        assertEquals("Wrong group members", Arrays.asList("jsmith"), store.getGroupMembers("staff"));
+        assertEquals("Wrong usernames", Arrays.asList("jsmith"), store.getUsernames());
+
+        store.remove("JSmith");
+        assertNull("Attributes not removed", store.get("jsmith"));
+        assertNull("Group membership not removed", store.getGroupMembers("staff"));
+    }
+
+    /**
+     * Test that a ticket for another principal does not store attributes
+     * under either name
+     */
+    @Test
+    public void testValidatorSkipsOtherPrincipal() throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+        when(proxyValidator.validate("ST-TEST", "http://test.service.url/")).thenReturn(assertion);
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn("mallory");
+        when(principal.getAttributes()).thenReturn(attributes("Mallory", "mallory@example.com", "admins"));
+
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator,
+                "http://test.service.url/");
+        validator.setAttributeStore(store);
+        validator.authenticateCASTicket("alice", "ST-TEST");
+
+        assertNull("Attributes stored for the supplied username", store.get("alice"));
+        assertNull("Attributes stored for another principal", store.get("mallory"));
+        assertNull("Group membership changed", store.getGroupMembers("admins"));
+    }
+
+    /**
+     * Build the attributes of a principal.
+     */
+    static Map<String, Object> attributes(final String name, final String email,
+                                          final String... groups) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        if (name != null) {
+            attributes.put("displayName", name);
+        }
+        if (email != null) {
+            attributes.put("mail", email);
+        }
+        List<String> groupList = Arrays.asList(groups);
+        attributes.put("memberOf", groups.length == 1 ? groups[0] : groupList);
+        return attributes;
+    }
+}
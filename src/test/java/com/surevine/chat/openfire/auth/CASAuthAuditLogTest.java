@@ -0,0 +1,197 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthAuditLog
+ *
+ * @see CASAuthAuditLog
+ */
+public class CASAuthAuditLogTest {
+
+    static String TEST_USERNAME = "test_user";
+
+    /**
+     * The audit file
+     */
+    File file;
+
+    /**
+     * Class under test
+     */
+    CASAuthAuditLog auditLog;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("cas-audit", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (auditLog != null) {
+            auditLog.close();
+        }
+        for (int i = 0; i <= 3; ++i) {
+            new File(i == 0 ? file.getPath() : file.getPath() + "." + i).delete();
+        }
+    }
+
+    /**
+     * Test that successes and failures are written when the log is closed
+     */
+    @Test
+    public void testEventsWritten() throws Exception {
+        auditLog = new CASAuthAuditLog(file, 1048576L, 2, 16, 100, 8, 10000L);
+
+        auditLog.success(TEST_USERNAME);
+        auditLog.failure(TEST_USERNAME, "Ticket not recognized");
+        auditLog.close();
+
+        List<String> lines = readLines(file);
+        assertEquals("Wrong number of lines", 2, lines.size());
+        assertTrue("Success not written", lines.get(0).endsWith("SUCCESS user=" + TEST_USERNAME));
+        assertTrue("Failure not written",
+                lines.get(1).endsWith("FAILURE user=" + TEST_USERNAME + " reason=Ticket not recognized"));
+        assertEquals("Wrong written count", 2, auditLog.getWrittenCount());
+    }
+
+    /**
+     * Test that successes are sampled but failures are not
+     */
+    @Test
+    public void testSampling() throws Exception {
+        auditLog = new CASAuthAuditLog(file, 1048576L, 2, 64, 0, 8, 10L);
+
+        auditLog.success(TEST_USERNAME);
+        auditLog.failure(TEST_USERNAME, "rejected");
+        auditLog.close();
+
+        assertEquals("Success not sampled out", 1, auditLog.getSampledOutCount());
+        assertEquals("Failure not written", 1, readLines(file).size());
+    }
+
+    /**
+     * Test that the sampled percentage of successes is kept
+     */
+    @Test
+    public void testSamplePercent() throws Exception {
+        auditLog = new CASAuthAuditLog(file, 1048576L, 2, 256, 25, 8, 10L);
+
+        for (int i = 0; i < 200; i++) {
+            auditLog.success(TEST_USERNAME);
+        }
+        auditLog.close();
+
+        assertEquals("Wrong number sampled out", 150, auditLog.getSampledOutCount());
+        assertEquals("Wrong number written", 50, readLines(file).size());
+    }
+
+    /**
+     * Test that events beyond the buffer are dropped and reported
+     */
+    @Test
+    public void testDropsCounted() throws Exception {
+        // A long flush interval keeps the writer from draining the buffer
+        auditLog = new CASAuthAuditLog(file, 1048576L, 2, 4, 100, 8, 60000L);
+        Thread.sleep(100);
+
+        for (int i = 0; i < 10; ++i) {
+            auditLog.success(TEST_USERNAME);
+        }
+        auditLog.close();
+
+        assertEquals("Wrong dropped count", 6, auditLog.getDroppedCount());
+        List<String> lines = readLines(file);
+        assertTrue("Drops not reported", lines.get(lines.size() - 1).endsWith("DROPPED count=6"));
+    }
+
+    /**
+     * Test that the audit file is rolled over
+     */
+    @Test
+    public void testRollOver() throws Exception {
+        auditLog = new CASAuthAuditLog(file, 100L, 2, 64, 100, 64, 10L);
+
+        for (int i = 0; i < 10; ++i) {
+            auditLog.success(TEST_USERNAME);
+        }
+        auditLog.close();
+
+        assertTrue("File not rolled over", new File(file.getPath() + ".1").exists());
+        assertTrue("Too many files kept", !new File(file.getPath() + ".3").exists());
+        assertTrue("Current file too large", file.length() <= 100L);
+    }
+
+    /**
+     * Test that the validator audits logins instead of logging them
+     */
+    @Test
+    public void testValidatorAudits() throws Exception {
+        auditLog = new CASAuthAuditLog(file, 1048576L, 2, 16, 100, 8, 10L);
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        when(proxyValidator.validate("ST-BAD", "http://test.service.url/"))
+                .thenThrow(new TicketValidationException("Ticket not recognized"));
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator, "http://test.service.url/");
+        validator.setAuditLog(auditLog);
+
+        try {
+            validator.authenticateCASTicket(TEST_USERNAME, "ST-BAD");
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+        auditLog.close();
+
+        List<String> lines = readLines(file);
+        assertEquals("Wrong number of lines", 1, lines.size());
+        assertTrue("Rejection not audited", lines.get(0).contains("FAILURE user=" + TEST_USERNAME));
+    }
+
+    private static List<String> readLines(File file) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.InvalidProxyChainTicketValidationException;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for CASAuthCas30JsonTicketValidator
+ *
+ * @see CASAuthCas30JsonTicketValidator
+ */
+public class CASAuthCas30JsonTicketValidatorTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    static String TEST_PROXY = "https://proxy.test/pgtCallback";
+
+    /**
+     * The stub CAS server
+     */
+    CASAuthStubCasServer server;
+
+    /**
+     * Class under test
+     */
+    CASAuthCas30JsonTicketValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CASAuthStubCasServer(0);
+        server.setUsername(TEST_USERNAME);
+        server.start();
+
+        List<String[]> chains = new ArrayList<String[]>();
+        chains.add(new String[] {TEST_PROXY});
+        validator = new CASAuthCas30JsonTicketValidator(server.getCasServerUrlPrefix(),
+                new CASAuthUrlConnectionTransport(1000, 1000), new CASAuthProxyChainMatcher(chains), 65536);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Test a validation against the stub server, including attributes
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testValidation() throws Exception {
+        Map<String, List<String>> attributes = new HashMap<String, List<String>>();
+        attributes.put("mail", Collections.singletonList("test@test"));
+        attributes.put("memberOf", Arrays.asList("a", "b"));
+        server.setAttributes(attributes);
+
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                assertion.getPrincipal().getName());
+        Map<String, Object> released = assertion.getPrincipal().getAttributes();
+        assertEquals("Wrong attribute", "test@test", released.get("mail"));
+        assertEquals("Repeated attribute not collected", Arrays.asList("a", "b"),
+                released.get("memberOf"));
+    }
+
+    /**
+     * Test that a rejection from the stub server carries the CAS failure
+     * description
+     */
+    @Test
+    public void testRejection() throws Exception {
+        String ticket = CASAuthStubCasServer.REJECTED_TICKET_PREFIX + "-1";
+        try {
+            validator.validate(ticket, SERVICE_URL);
+            fail("Rejected ticket was accepted");
+        } catch (TicketValidationException tve) {
+            assertEquals("Wrong failure message", "Ticket " + ticket + " not recognized",
+                    tve.getMessage());
+        }
+    }
+
+    /**
+     * Test that an allowed proxy chain from the stub server is accepted
+     */
+    @Test
+    public void testAllowedProxyChain() throws Exception {
+        server.setProxies(Collections.singletonList(TEST_PROXY));
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                validator.validate(TEST_TICKET, SERVICE_URL).getPrincipal().getName());
+    }
+
+    /**
+     * Test that an unknown proxy chain from the stub server is rejected
+     */
+    @Test(expected = InvalidProxyChainTicketValidationException.class)
+    public void testInvalidProxyChain() throws Exception {
+        server.setProxies(Collections.singletonList("https://evil.test/"));
+
+        validator.validate(TEST_TICKET, SERVICE_URL);
+    }
+
+    /**
+     * Test that the protocol 3.0 endpoint is chosen by whether any proxy
+     * chain is allowed
+     */
+    @Test
+    public void testValidationUrl() {
+        assertEquals("Wrong validation URL",
+                server.getCasServerUrlPrefix() + "/p3/proxyValidate?ticket=" + TEST_TICKET
+                        + "&service=http%3A%2F%2Ftest.service.url%2F&format=JSON",
+                validator.constructValidationUrl(TEST_TICKET, SERVICE_URL));
+
+        CASAuthCas30JsonTicketValidator serviceValidator = new CASAuthCas30JsonTicketValidator(
+                server.getCasServerUrlPrefix() + "/", null, null, 65536);
+        assertEquals("Wrong validation URL without proxies",
+                server.getCasServerUrlPrefix() + "/p3/serviceValidate?ticket=" + TEST_TICKET
+                        + "&service=http%3A%2F%2Ftest.service.url%2F&format=JSON",
+                serviceValidator.constructValidationUrl(TEST_TICKET, SERVICE_URL));
+    }
+
+    /**
+     * Test that unknown members, scalar and non-string attributes are
+     * handled
+     */
+    @Test
+    public void testParseResponse() throws Exception {
+        Assertion assertion = validator.parseResponse(stream("{\"serviceResponse\":{"
+                + "\"authenticationSuccess\":{\"user\":\"" + TEST_USERNAME + "\","
+                + "\"proxyGrantingTicket\":\"PGTIOU-1\",\"extra\":{\"a\":[1,{\"b\":null}]},"
+                + "\"attributes\":{\"cn\":\"Test \\u0055ser\",\"isStaff\":[true],"
+                + "\"nested\":[{\"x\":1}],\"empty\":null}}}}"));
+
+        Map<?, ?> attributes = assertion.getPrincipal().getAttributes();
+        assertEquals("Wrong scalar attribute", "Test User", attributes.get("cn"));
+        assertEquals("Wrong literal attribute", "true", attributes.get("isStaff"));
+        assertNull("Nested attribute kept", attributes.get("nested"));
+        assertNull("Null attribute kept", attributes.get("empty"));
+    }
+
+    /**
+     * Test that a response without a user is rejected
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testMissingUser() throws Exception {
+        validator.parseResponse(stream("{\"serviceResponse\":{\"authenticationSuccess\":{}}}"));
+    }
+
+    /**
+     * Test that a malformed response is rejected
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testMalformedResponse() throws Exception {
+        validator.parseResponse(stream("{\"serviceResponse\":{\"authenticationSuccess\":{\"user\":"));
+    }
+
+    /**
+     * Test that a response larger than the limit is refused
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testOversizedResponse() throws Exception {
+        validator.parseResponse(new CASAuthStreamingTicketValidator.BoundedInputStream(
+                stream(server.createCas30JsonResponse(TEST_TICKET, false)), 16));
+    }
+
+    private static ByteArrayInputStream stream(String body) throws IOException {
+        return new ByteArrayInputStream(body.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test case for CASAuthCircuitBreaker
+ *
+ * @see CASAuthCircuitBreaker
+ */
+public class CASAuthCircuitBreakerTest {
+
+    /**
+     * The current time seen by the breaker
+     */
+    private long now;
+
+    /**
+     * The state transitions seen by the listener
+     */
+    private List<String> transitions;
+
+    /**
+     * Class under test
+     */
+    private CASAuthCircuitBreaker breaker;
+
+    @Before
+    public void setUp() throws Exception {
+        now = 1000L;
+        transitions = new ArrayList<String>();
+        // Window of 10, open at 50% failures or 50% calls over 100ms,
+        // stay open for 1000ms then admit 2 probes
+        breaker = new CASAuthCircuitBreaker(10, 4, 50, 100L, 50, 1000L, 2) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        breaker.addStateListener(new CASAuthCircuitBreaker.StateListener() {
+            public void stateChanged(CASAuthCircuitBreaker.State from,
+                                     CASAuthCircuitBreaker.State to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+    }
+
+    private void call(boolean success, long duration) {
+        CASAuthCircuitBreaker.Permit permit = breaker.tryAcquire();
+        assertNotNull("Call not admitted", permit);
+        breaker.onCallComplete(permit, success, duration);
+    }
+
+    /**
+     * Test that the breaker stays closed while calls succeed
+     */
+    @Test
+    public void testStaysClosed() {
+        for (int i = 0; i < 20; ++i) {
+            call(true, 10L);
+        }
+        call(false, 10L);
+
+        assertEquals("Breaker opened", CASAuthCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * Test that the breaker does not open before the minimum number of calls
+     */
+    @Test
+    public void testMinimumCalls() {
+        for (int i = 0; i < 3; ++i) {
+            call(false, 10L);
+        }
+
+        assertEquals("Breaker opened too soon", CASAuthCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * Test that failures open the breaker and calls are then refused
+     */
+    @Test
+    public void testOpensOnFailures() {
+        call(true, 10L);
+        call(true, 10L);
+        call(false, 10L);
+        call(false, 10L);
+
+        assertEquals("Breaker not opened", CASAuthCircuitBreaker.State.OPEN, breaker.getState());
+        assertNull("Call admitted while open", breaker.tryAcquire());
+        assertEquals("Rejection not counted", 1, breaker.getRejectedCount());
+    }
+
+    /**
+     * Test that slow calls open the breaker
+     */
+    @Test
+    public void testOpensOnSlowCalls() {
+        call(true, 10L);
+        call(true, 10L);
+        call(true, 500L);
+        call(true, 500L);
+
+        assertEquals("Breaker not opened", CASAuthCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    /**
+     * Test that successful probes close the breaker
+     */
+    @Test
+    public void testHalfOpenProbesClose() {
+        for (int i = 0; i < 4; ++i) {
+            call(false, 10L);
+        }
+        now += 1000L;
+
+        CASAuthCircuitBreaker.Permit first = breaker.tryAcquire();
+        CASAuthCircuitBreaker.Permit second = breaker.tryAcquire();
+        assertNotNull("Probe not admitted", first);
+        assertNotNull("Probe not admitted", second);
+        assertNull("Too many probes admitted", breaker.tryAcquire());
+        breaker.onCallComplete(first, true, 10L);
+        breaker.onCallComplete(second, true, 10L);
+
+        assertEquals("Breaker not closed", CASAuthCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals("Transitions not observed",
+                "[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+    }
+
+    /**
+     * Test that a failed probe opens the breaker again
+     */
+    @Test
+    public void testHalfOpenProbeFails() {
+        for (int i = 0; i < 4; ++i) {
+            call(false, 10L);
+        }
+        now += 1000L;
+        call(false, 10L);
+
+        assertEquals("Breaker not reopened", CASAuthCircuitBreaker.State.OPEN, breaker.getState());
+        assertNull("Call admitted while open", breaker.tryAcquire());
+    }
+
+    /**
+     * Test that a call admitted before the breaker opened does not count as
+     * a probe when it finishes
+     */
+    @Test
+    public void testStaleCallIgnored() {
+        CASAuthCircuitBreaker.Permit stale = breaker.tryAcquire();
+        for (int i = 0; i < 4; ++i) {
+            call(false, 10L);
+        }
+        now += 1000L;
+
+        CASAuthCircuitBreaker.Permit first = breaker.tryAcquire();
+        CASAuthCircuitBreaker.Permit second = breaker.tryAcquire();
+        breaker.onCallComplete(stale, true, 10L);
+        breaker.onCallComplete(first, true, 10L);
+
+        assertEquals("Stale call counted as a probe",
+                CASAuthCircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onCallComplete(second, true, 10L);
+        assertEquals("Breaker not closed", CASAuthCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.DefaultCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthClusteredTicketCache, using Openfire's local default
+ * cache as the shared cache of two nodes
+ *
+ * @see CASAuthClusteredTicketCache
+ */
+public class CASAuthClusteredTicketCacheTest {
+
+    private static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    private static String TEST_SERVICE_URL = "http://test.service.url/";
+    private static String TEST_USERNAME = "test_user";
+
+    /**
+     * The current time seen by the near caches
+     */
+    private long now;
+
+    /**
+     * The cache shared by both nodes
+     */
+    private Cache<String, String> sharedCache;
+
+    /**
+     * Class under test, on each of two nodes
+     */
+    private CASAuthClusteredTicketCache node1;
+    private CASAuthClusteredTicketCache node2;
+
+    @Before
+    public void setUp() throws Exception {
+        now = 1000L;
+        sharedCache = new DefaultCache<String, String>("test", 1048576, 60000L);
+        node1 = createNode(sharedCache);
+        node2 = createNode(sharedCache);
+    }
+
+    private CASAuthClusteredTicketCache createNode(final Cache<String, String> cache) {
+        return new CASAuthClusteredTicketCache(cache, 2, 100L) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    /**
+     * Test that a value cached on one node is found on another and then
+     * held in its near cache
+     */
+    @Test
+    public void testSharedAcrossNodes() {
+        node1.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+
+        assertEquals("Value not found on the other node", TEST_USERNAME,
+                node2.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+        assertEquals("Shared hit not counted", 1, node2.getSharedHitCount());
+        assertEquals("Value not copied to the near cache", 1, node2.size());
+
+        assertEquals("Value not found in the near cache", TEST_USERNAME,
+                node2.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+        assertEquals("Near hit not counted", 1, node2.getHitCount());
+        assertEquals("Near hit counted as shared", 1, node2.getSharedHitCount());
+    }
+
+    /**
+     * Test that an expired near entry is read again from the shared cache
+     */
+    @Test
+    public void testNearExpiry() {
+        node1.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        now += 100L;
+
+        assertEquals("Value not read from the shared cache", TEST_USERNAME,
+                node1.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+        assertEquals("Shared hit not counted", 1, node1.getSharedHitCount());
+    }
+
+    /**
+     * Test that the whole key must match in the shared cache
+     */
+    @Test
+    public void testDifferentKey() {
+        node1.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+
+        assertNull("Value returned for a different user",
+                node2.get(TEST_TICKET, TEST_SERVICE_URL, "other_user"));
+        assertEquals("Miss not counted", 1, node2.getMissCount());
+    }
+
+    /**
+     * Test that clearing removes entries everywhere
+     */
+    @Test
+    public void testClear() {
+        node1.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        node1.clear();
+
+        assertNull("Value returned after clear",
+                node2.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+    }
+
+    /**
+     * Test that a failing shared cache is treated as a miss
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSharedCacheFailure() {
+        Cache<String, String> failing = mock(Cache.class);
+        when(failing.get(anyObject())).thenThrow(new IllegalStateException("cluster unavailable"));
+        when(failing.put((String) anyObject(), (String) anyObject()))
+                .thenThrow(new IllegalStateException("cluster unavailable"));
+        CASAuthClusteredTicketCache node = createNode(failing);
+
+        node.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        assertEquals("Near cache not written", TEST_USERNAME,
+                node.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+        assertNull("Failure not treated as a miss",
+                node.get(TEST_TICKET, TEST_SERVICE_URL, "other_user"));
+    }
+}
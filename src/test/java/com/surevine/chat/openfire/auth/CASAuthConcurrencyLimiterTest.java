@@ -0,0 +1,159 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthConcurrencyLimiter
+ *
+ * @see CASAuthConcurrencyLimiter
+ */
+public class CASAuthConcurrencyLimiterTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Run a number of calls in flight at once, each with the given latency
+     */
+    private static void runCalls(final CASAuthConcurrencyLimiter limiter, final int calls,
+                                 final boolean answered, final long latency) {
+        for (int i = 0; i < calls; ++i) {
+            assertTrue("Call refused", limiter.tryAcquire());
+        }
+        for (int i = 0; i < calls; ++i) {
+            limiter.onCallComplete(answered, latency);
+        }
+    }
+
+    /**
+     * Test that the limit grows while latency stays at its minimum and the
+     * limit is in use
+     */
+    @Test
+    public void testGrowsWhileLatencyIsFlat() {
+        CASAuthConcurrencyLimiter limiter = new CASAuthConcurrencyLimiter(4, 1, 10, 0, 0);
+
+        runCalls(limiter, 4, true, 10 * MILLISECOND);
+        assertTrue("Limit did not grow", limiter.getLimit() > 4);
+
+        for (int i = 0; i < 20; ++i) {
+            runCalls(limiter, limiter.getLimit(), true, 10 * MILLISECOND);
+        }
+        assertEquals("Limit not capped", 10, limiter.getLimit());
+    }
+
+    /**
+     * Test that an unused limit does not grow
+     */
+    @Test
+    public void testIdleLimitDoesNotGrow() {
+        CASAuthConcurrencyLimiter limiter = new CASAuthConcurrencyLimiter(10, 1, 100, 0, 0);
+
+        for (int i = 0; i < 20; ++i) {
+            runCalls(limiter, 1, true, 10 * MILLISECOND);
+        }
+        assertEquals("Idle limit grew", 10, limiter.getLimit());
+    }
+
+    /**
+     * Test that the limit shrinks when latency shows calls queueing at CAS
+     */
+    @Test
+    public void testShrinksWhenLatencyRises() {
+        CASAuthConcurrencyLimiter limiter = new CASAuthConcurrencyLimiter(20, 2, 100, 0, 0);
+
+        runCalls(limiter, 1, true, 10 * MILLISECOND);
+        int before = limiter.getLimit();
+        runCalls(limiter, 10, true, 100 * MILLISECOND);
+
+        assertTrue("Limit did not shrink", limiter.getLimit() < before);
+    }
+
+    /**
+     * Test that calls CAS does not answer cut the limit, down to the minimum
+     */
+    @Test
+    public void testBacksOffWhenCasDoesNotAnswer() {
+        CASAuthConcurrencyLimiter limiter = new CASAuthConcurrencyLimiter(20, 2, 100, 0, 0);
+
+        runCalls(limiter, 1, false, 10 * MILLISECOND);
+        assertEquals("Limit not cut", 18, limiter.getLimit());
+
+        for (int i = 0; i < 50; ++i) {
+            runCalls(limiter, 1, false, 10 * MILLISECOND);
+        }
+        assertEquals("Limit below minimum", 2, limiter.getLimit());
+    }
+
+    /**
+     * Test that calls over the limit are refused when the queue is full or
+     * the wait runs out
+     */
+    @Test
+    public void testRefusesOverLimit() {
+        CASAuthConcurrencyLimiter limiter = new CASAuthConcurrencyLimiter(1, 1, 1, 0, 0);
+
+        assertTrue("First call refused", limiter.tryAcquire());
+        assertFalse("Call over the limit admitted", limiter.tryAcquire());
+        assertEquals("Rejection not counted", 1, limiter.getRejectedCount());
+
+        limiter = new CASAuthConcurrencyLimiter(1, 1, 1, 1, 10);
+        assertTrue("First call refused", limiter.tryAcquire());
+        long start = System.nanoTime();
+        assertFalse("Call admitted after the wait ran out", limiter.tryAcquire());
+        assertTrue("Call did not wait", System.nanoTime() - start >= 10 * MILLISECOND);
+    }
+
+    /**
+     * Test that a waiting call is admitted when a call completes
+     */
+    @Test
+    public void testWaitingCallAdmitted() throws Exception {
+        final CASAuthConcurrencyLimiter limiter = new CASAuthConcurrencyLimiter(1, 1, 1, 1, 5000);
+        assertTrue("First call refused", limiter.tryAcquire());
+
+        final AtomicBoolean admitted = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                admitted.set(limiter.tryAcquire());
+                done.countDown();
+            }
+        };
+        waiter.start();
+
+        while (limiter.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        limiter.release();
+
+        assertTrue("Waiting call not woken", done.await(5, TimeUnit.SECONDS));
+        assertTrue("Waiting call refused", admitted.get());
+        assertEquals("Wrong number in flight", 1, limiter.getInFlight());
+    }
+}
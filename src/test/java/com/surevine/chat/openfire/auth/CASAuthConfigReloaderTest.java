@@ -0,0 +1,288 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jivesoftware.util.PropertyEventDispatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthConfigReloader
+ *
+ * @see CASAuthConfigReloader
+ */
+public class CASAuthConfigReloaderTest {
+
+    static String TEST_CAS_SERVER_URL_PREFIX = "http://test.cas.server/cas";
+    static String TEST_SERVICE_NAME = "http://test.service.url/";
+
+    /**
+     * The configuration properties
+     */
+    Map<String, String> properties;
+
+    /**
+     * The provider being reconfigured
+     */
+    CASAuthProvider provider;
+
+    /**
+     * Class under test
+     */
+    CASAuthConfigReloader reloader;
+
+    @Before
+    public void setUp() {
+        properties = new HashMap<String, String>();
+        properties.put("casAuthProvider.casServerUrlPrefix", TEST_CAS_SERVER_URL_PREFIX);
+        properties.put("casAuthProvider.serviceName", TEST_SERVICE_NAME);
+        properties.put("casAuthProvider.validator", "Cas20ProxyTicketValidator");
+
+        CASAuthTicketValidatorFactory factory = new CASAuthTicketValidatorFactory();
+        provider = new CASAuthProvider(factory.createCASAuthTicketValidator(
+                new CASAuthProviderConfig(properties)));
+        reloader = new CASAuthConfigReloader(provider, properties, factory, 10000L);
+    }
+
+    @After
+    public void tearDown() {
+        reloader.stop();
+    }
+
+    /**
+     * Test that a changed property is applied by a new validator
+     */
+    @Test
+    public void testReload() {
+        CASAuthTicketValidator original = provider.ticketValidator;
+        properties.put("casAuthProvider.serviceName", "http://other.service.url/");
+
+        reloader.propertySet("casAuthProvider.serviceName", null);
+        assertTrue("Reload not scheduled", reloader.isPending());
+        reloader.reload();
+
+        assertNotSame("Validator not replaced", original, provider.ticketValidator);
+        assertEquals("New configuration not applied", "http://other.service.url/",
+                provider.ticketValidator.getServiceUrl());
+        assertFalse("Reload still pending", reloader.isPending());
+    }
+
+    /**
+     * Test that other properties do not cause a reload
+     */
+    @Test
+    public void testUnrelatedProperty() {
+        reloader.propertySet("xmpp.domain", null);
+        reloader.xmlPropertySet("casAuthProvider.serviceName", null);
+
+        assertFalse("Reload scheduled for an unrelated property", reloader.isPending());
+    }
+
+    /**
+     * Test that an invalid configuration keeps the current validator
+     */
+    @Test
+    public void testInvalidConfigurationIgnored() {
+        CASAuthTicketValidator original = provider.ticketValidator;
+        properties.put("casAuthProvider.validator", "NoSuchValidator");
+
+        reloader.reload();
+
+        assertSame("Invalid configuration applied", original, provider.ticketValidator);
+    }
+
+    /**
+     * Test that the replaced validator's threads are shut down
+     */
+    @Test
+    public void testPreviousValidatorShutDown() {
+        properties.put("casAuthProvider.async.enabled", "true");
+        reloader.reload();
+        ExecutorService executor = provider.ticketValidator.getExecutor();
+
+        reloader.reload();
+
+        assertTrue("Previous executor not shut down", executor.isShutdown());
+        assertFalse("Current executor shut down", provider.ticketValidator.getExecutor().isShutdown());
+    }
+
+    /**
+     * Test that a scheduled reload happens after the delay
+     */
+    @Test
+    public void testScheduledReload() throws Exception {
+        reloader.stop();
+        CASAuthTicketValidator original = provider.ticketValidator;
+        reloader = new CASAuthConfigReloader(provider, properties,
+                new CASAuthTicketValidatorFactory(), 10L);
+        reloader.start();
+
+        PropertyEventDispatcher.dispatchEvent("casAuthProvider.cache.enabled",
+                PropertyEventDispatcher.EventType.property_deleted, new HashMap<String, Object>());
+        PropertyEventDispatcher.dispatchEvent("casAuthProvider.cache.maxSize",
+                PropertyEventDispatcher.EventType.property_set, new HashMap<String, Object>());
+        for (int i = 0; i < 100 && provider.ticketValidator == original; ++i) {
+            Thread.sleep(10);
+        }
+
+        assertNotSame("Validator not replaced", original, provider.ticketValidator);
+    }
+
+    /**
+     * Test that the replaced validator is not shut down until the
+     * authentications under way with it have finished
+     */
+    @Test
+    public void testWaitsForAuthenticationsUnderWay() throws Exception {
+        properties.put("casAuthProvider.async.enabled", "true");
+        reloader.reload();
+        final CASAuthTicketValidator previous = provider.ticketValidator;
+        previous.enter();
+
+        Thread reload = new Thread() {
+            public void run() {
+                reloader.reload();
+            }
+        };
+        reload.start();
+        for (int i = 0; i < 100 && provider.ticketValidator == previous; ++i) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        assertTrue("Replaced validator not retired", previous.isRetired());
+        assertFalse("Replaced validator shut down under an authentication",
+                previous.getExecutor().isShutdown());
+
+        previous.exit();
+        reload.join(5000);
+        assertTrue("Replaced validator not shut down", previous.getExecutor().isShutdown());
+    }
+
+    /**
+     * Test that the replaced validator is shut down after the grace period
+     * even if an authentication has not finished
+     */
+    @Test
+    public void testGracePeriod() {
+        reloader.stop();
+        reloader = new CASAuthConfigReloader(provider, properties,
+                new CASAuthTicketValidatorFactory(), 10000L, 20L);
+        properties.put("casAuthProvider.async.enabled", "true");
+        reloader.reload();
+        CASAuthTicketValidator previous = provider.ticketValidator;
+        previous.enter();
+
+        reloader.reload();
+
+        assertTrue("Replaced validator not shut down", previous.getExecutor().isShutdown());
+    }
+
+    /**
+     * Test that the audit log and trace are kept while their files are
+     * unchanged, and replaced when they change
+     */
+    @Test
+    public void testAuditLogAndTraceReused() throws Exception {
+        File audit = File.createTempFile("cas-audit", ".log");
+        File trace = File.createTempFile("cas-trace", ".txt");
+        audit.deleteOnExit();
+        trace.deleteOnExit();
+        properties.put("casAuthProvider.audit.file", audit.getPath());
+        properties.put("casAuthProvider.trace.file", trace.getPath());
+        reloader.reload();
+        CASAuthAuditLog auditLog = provider.ticketValidator.getAuditLog();
+        CASAuthTraceRecorder traceRecorder = provider.ticketValidator.getTraceRecorder();
+
+        properties.put("casAuthProvider.cache.enabled", "true");
+        reloader.reload();
+
+        assertSame("Audit log not reused", auditLog, provider.ticketValidator.getAuditLog());
+        assertSame("Trace not reused", traceRecorder, provider.ticketValidator.getTraceRecorder());
+        auditLog.failure("test_user", "test");
+        assertEquals("Reused audit log closed", 1, auditLog.getRecordedCount());
+        traceRecorder.record("test_user", "ST-1", CASAuthTraceRecorder.ACCEPTED, 0L);
+        assertEquals("Reused trace closed", 0, traceRecorder.getDroppedCount());
+
+        File otherAudit = File.createTempFile("cas-audit", ".log");
+        otherAudit.deleteOnExit();
+        properties.put("casAuthProvider.audit.file", otherAudit.getPath());
+        reloader.reload();
+
+        assertNotSame("Audit log not replaced", auditLog, provider.ticketValidator.getAuditLog());
+        auditLog.failure("test_user", "test");
+        assertEquals("Replaced audit log not closed", 1, auditLog.getDroppedCount());
+        provider.ticketValidator.shutdown();
+    }
+
+    /**
+     * Test that stateful components are kept while their settings are
+     * unchanged, and replaced when they change
+     */
+    @Test
+    public void testStateCarriedOver() {
+        properties.put("casAuthProvider.cache.enabled", "true");
+        properties.put("casAuthProvider.coalesce.enabled", "true");
+        properties.put("casAuthProvider.circuitBreaker.enabled", "true");
+        properties.put("casAuthProvider.rateLimit.enabled", "true");
+        properties.put("casAuthProvider.admission.enabled", "true");
+        properties.put("casAuthProvider.limiter.enabled", "true");
+        reloader.reload();
+        CASAuthTicketValidator previous = provider.ticketValidator;
+        previous.getUserRateLimiter().tryAcquire("test_user");
+
+        properties.put("casAuthProvider.serviceName", "http://other.service.url/");
+        reloader.reload();
+        CASAuthTicketValidator validator = provider.ticketValidator;
+
+        assertNotSame("Validator not rebuilt", previous, validator);
+        assertSame("Validation cache not kept", previous.getValidationCache(), validator.getValidationCache());
+        assertSame("Coalescer not kept", previous.getCoalescer(), validator.getCoalescer());
+        assertSame("Circuit breaker not kept", previous.getCircuitBreaker(), validator.getCircuitBreaker());
+        assertSame("Rate limiter not kept", previous.getUserRateLimiter(), validator.getUserRateLimiter());
+        assertEquals("Rate limit reset", 1, validator.getUserRateLimiter().size());
+        assertSame("Admission control not kept", previous.getAdmissionControl(), validator.getAdmissionControl());
+        assertSame("Concurrency limiter not kept", previous.getConcurrencyLimiter(),
+                validator.getConcurrencyLimiter());
+
+        properties.put("casAuthProvider.rateLimit.userBurst", "3");
+        properties.put("casAuthProvider.cache.ttl", "1234");
+        reloader.reload();
+
+        assertNotSame("Changed rate limiter kept", validator.getUserRateLimiter(),
+                provider.ticketValidator.getUserRateLimiter());
+        assertNotSame("Changed validation cache kept", validator.getValidationCache(),
+                provider.ticketValidator.getValidationCache());
+        assertSame("Unchanged circuit breaker replaced", validator.getCircuitBreaker(),
+                provider.ticketValidator.getCircuitBreaker());
+        provider.ticketValidator.shutdown();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test case for CASAuthDnsCache
+ *
+ * @see CASAuthDnsCache
+ */
+public class CASAuthDnsCacheTest {
+
+    private static String TEST_HOST = "cas.test";
+
+    /**
+     * The current time seen by the cache
+     */
+    private long now;
+
+    /**
+     * The number of lookups made by the cache
+     */
+    private int lookups;
+
+    /**
+     * The addresses the next lookup returns, or null if it fails
+     */
+    private InetAddress[] addresses;
+
+    /**
+     * Class under test
+     */
+    private CASAuthDnsCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        now = 1000L;
+        addresses = new InetAddress[] {InetAddress.getByName("127.0.0.1")};
+        cache = new CASAuthDnsCache(100L) {
+            InetAddress[] lookup(final String host) throws UnknownHostException {
+                ++lookups;
+                if (addresses == null) {
+                    throw new UnknownHostException(host);
+                }
+                return addresses;
+            }
+
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    /**
+     * Test that addresses are cached within the refresh interval
+     */
+    @Test
+    public void testCached() throws Exception {
+        cache.resolve(TEST_HOST);
+        now += 99L;
+        cache.resolve(TEST_HOST);
+
+        assertEquals("Host resolved again", 1, lookups);
+    }
+
+    /**
+     * Test that addresses are resolved again after the refresh interval
+     */
+    @Test
+    public void testRefreshed() throws Exception {
+        cache.resolve(TEST_HOST);
+        now += 100L;
+        addresses = new InetAddress[] {InetAddress.getByName("127.0.0.2")};
+
+        assertEquals("New address not returned", addresses[0], cache.resolve(TEST_HOST)[0]);
+        assertEquals("Host not resolved again", 2, lookups);
+    }
+
+    /**
+     * Test that the previous addresses are kept if the host cannot be
+     * resolved again
+     */
+    @Test
+    public void testStaleKept() throws Exception {
+        InetAddress[] first = cache.resolve(TEST_HOST);
+        now += 100L;
+        addresses = null;
+
+        assertEquals("Previous address not kept", first[0], cache.resolve(TEST_HOST)[0]);
+    }
+
+    /**
+     * Test that an unknown host is reported
+     */
+    @Test(expected = UnknownHostException.class)
+    public void testUnknownHost() throws Exception {
+        addresses = null;
+        cache.resolve(TEST_HOST);
+    }
+
+    /**
+     * Test that only addresses due for refreshing are resolved in the
+     * background
+     */
+    @Test
+    public void testRefreshDue() throws Exception {
+        cache.resolve(TEST_HOST);
+
+        now += 50L;
+        cache.refreshDue(10L);
+        assertEquals("Host refreshed early", 1, lookups);
+
+        cache.refreshDue(60L);
+        assertEquals("Host not refreshed", 2, lookups);
+    }
+
+    /**
+     * Test that callers cannot change the cached addresses
+     */
+    @Test
+    public void testAddressesCopied() throws Exception {
+        InetAddress[] resolved = cache.resolve(TEST_HOST);
+        resolved[0] = null;
+
+        assertSame("Cached address changed", addresses[0], cache.resolve(TEST_HOST)[0]);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthEndpointBalancer
+ *
+ * @see CASAuthEndpointBalancer
+ */
+public class CASAuthEndpointBalancerTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+
+    /**
+     * The current time seen by the balancer
+     */
+    long now;
+
+    TicketValidator validator1;
+
+    TicketValidator validator2;
+
+    Assertion assertion;
+
+    /**
+     * Class under test
+     */
+    CASAuthEndpointBalancer balancer;
+
+    @Before
+    public void setUp() throws Exception {
+        now = 1000L;
+        validator1 = mock(TicketValidator.class);
+        validator2 = mock(TicketValidator.class);
+        assertion = mock(Assertion.class);
+
+        List<CASAuthEndpointBalancer.Endpoint> endpoints = new ArrayList<CASAuthEndpointBalancer.Endpoint>();
+        endpoints.add(new CASAuthEndpointBalancer.Endpoint("http://cas1/cas", validator1));
+        endpoints.add(new CASAuthEndpointBalancer.Endpoint("http://cas2/cas", validator2));
+        balancer = new CASAuthEndpointBalancer(endpoints, 2, 1000L) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    /**
+     * Test that a validation which cannot reach its endpoint is retried on
+     * the other
+     */
+    @Test
+    public void testFailover() throws Exception {
+        when(validator1.validate(TEST_TICKET, SERVICE_URL)).thenThrow(new RuntimeException("down"));
+        when(validator2.validate(TEST_TICKET, SERVICE_URL)).thenThrow(new RuntimeException("down"));
+
+        // Whichever endpoint is chosen first, both are tried
+        try {
+            balancer.validate(TEST_TICKET, SERVICE_URL);
+            fail("Validation succeeded with every endpoint down");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+
+        verify(validator1, times(1)).validate(TEST_TICKET, SERVICE_URL);
+        verify(validator2, times(1)).validate(TEST_TICKET, SERVICE_URL);
+    }
+
+    /**
+     * Test that a rejected ticket is not retried
+     */
+    @Test
+    public void testRejectionNotRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        TicketValidator rejecting = new TicketValidator() {
+            public Assertion validate(String ticket, String service) throws TicketValidationException {
+                calls.incrementAndGet();
+                throw new TicketValidationException("rejected");
+            }
+        };
+        List<CASAuthEndpointBalancer.Endpoint> endpoints = new ArrayList<CASAuthEndpointBalancer.Endpoint>();
+        endpoints.add(new CASAuthEndpointBalancer.Endpoint("http://cas1/cas", rejecting));
+        endpoints.add(new CASAuthEndpointBalancer.Endpoint("http://cas2/cas", rejecting));
+        balancer = new CASAuthEndpointBalancer(endpoints, 2, 1000L);
+
+        try {
+            balancer.validate(TEST_TICKET, SERVICE_URL);
+            fail("Rejected ticket was accepted");
+        } catch (final TicketValidationException e) {
+            // expected
+        }
+
+        assertEquals("Rejected ticket was retried", 1, calls.get());
+    }
+
+    /**
+     * Test that a failing endpoint is ejected and re-admitted
+     */
+    @Test
+    public void testEjection() throws Exception {
+        CASAuthEndpointBalancer.Endpoint endpoint1 = balancer.getEndpoints().get(0);
+        CASAuthEndpointBalancer.Endpoint endpoint2 = balancer.getEndpoints().get(1);
+
+        endpoint1.recordFailure(balancer);
+        endpoint1.recordFailure(balancer);
+
+        assertEquals("Ejection not counted", 1, endpoint1.getEjectionCount());
+        for (int i = 0; i < 10; ++i) {
+            assertSame("Ejected endpoint chosen", endpoint2, balancer.choose(null));
+        }
+
+        when(validator2.validate(TEST_TICKET, SERVICE_URL)).thenReturn(assertion);
+        assertSame("Wrong assertion", assertion, balancer.validate(TEST_TICKET, SERVICE_URL));
+        verify(validator1, never()).validate(TEST_TICKET, SERVICE_URL);
+
+        now += 1000L;
+        boolean readmitted = false;
+        for (int i = 0; i < 100 && !readmitted; ++i) {
+            readmitted = balancer.choose(null) == endpoint1;
+        }
+        assertTrue("Endpoint not re-admitted", readmitted);
+    }
+
+    /**
+     * Test that the faster endpoint is preferred
+     */
+    @Test
+    public void testPrefersFasterEndpoint() {
+        CASAuthEndpointBalancer.Endpoint endpoint1 = balancer.getEndpoints().get(0);
+        CASAuthEndpointBalancer.Endpoint endpoint2 = balancer.getEndpoints().get(1);
+        endpoint1.recordSuccess(500L);
+        endpoint2.recordSuccess(10L);
+
+        for (int i = 0; i < 10; ++i) {
+            assertSame("Slower endpoint chosen", endpoint2, balancer.choose(null));
+        }
+    }
+
+    /**
+     * Test that an excluded endpoint is not chosen while there is an
+     * alternative
+     */
+    @Test
+    public void testExclude() {
+        CASAuthEndpointBalancer.Endpoint endpoint1 = balancer.getEndpoints().get(0);
+        CASAuthEndpointBalancer.Endpoint endpoint2 = balancer.getEndpoints().get(1);
+
+        for (int i = 0; i < 10; ++i) {
+            assertSame("Excluded endpoint chosen", endpoint2, balancer.choose(endpoint1));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.jivesoftware.openfire.group.Group;
+import org.jivesoftware.openfire.group.GroupNotFoundException;
+import org.jivesoftware.openfire.group.GroupProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthGroupProvider
+ *
+ * @see CASAuthGroupProvider
+ */
+public class CASAuthGroupProviderTest {
+
+    /**
+     * The store the provider serves from
+     */
+    private CASAuthAttributeStore store;
+
+    /**
+     * The mocked fallback provider
+     */
+    private GroupProvider fallback;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new CASAuthAttributeStore(10, "displayName", "mail", "memberOf");
+        store.update("alice", CASAuthAttributeStoreTest.attributes("Alice", null, "staff", "admins"));
+        store.update("bob", CASAuthAttributeStoreTest.attributes("Bob", null, "staff"));
+        fallback = mock(GroupProvider.class);
+    }
+
+    /**
+     * Test that the groups of a stored user are served without the fallback
+     * provider
+     */
+    @Test
+    public void testStoredUserGroups() {
+        JID alice = new JID("alice", "example.com", null);
+
+        Collection<String> groups = new CASAuthGroupProvider(store, fallback).getGroupNames(alice);
+
+        assertEquals("Wrong groups", Arrays.asList("staff", "admins"), groups);
+        verify(fallback, never()).getGroupNames(alice);
+    }
+
+    /**
+     * Test that the groups of a user not in the store come from the fallback
+     * provider
+     */
+    @Test
+    public void testFallbackUserGroups() {
+        JID carol = new JID("carol", "example.com", null);
+        when(fallback.getGroupNames(carol)).thenReturn(Collections.singletonList("staff"));
+
+        assertEquals("Fallback groups not returned", Collections.singletonList("staff"),
+                new CASAuthGroupProvider(store, fallback).getGroupNames(carol));
+        assertTrue("Groups returned without a fallback",
+                new CASAuthGroupProvider(store, null).getGroupNames(carol).isEmpty());
+    }
+
+    /**
+     * Test that whole groups come from the fallback provider, which knows
+     * every member
+     */
+    @Test
+    public void testFallbackGroup() throws Exception {
+        Group staff = new Group("staff", "", Collections.<JID>emptyList(), Collections.<JID>emptyList());
+        when(fallback.getGroup("staff")).thenReturn(staff);
+
+        assertSame("Fallback group not returned", staff,
+                new CASAuthGroupProvider(store, fallback).getGroup("staff"));
+    }
+
+    /**
+     * Test that without a fallback groups are built from the stored members
+     */
+    @Test
+    public void testStoredGroup() throws Exception {
+        CASAuthGroupProvider provider = new CASAuthGroupProvider(store, null) {
+            JID createJID(final String username) {
+                return new JID(username, "example.com", null);
+            }
+        };
+
+        Group staff = provider.getGroup("staff");
+
+        assertEquals("Wrong number of members", 2, staff.getMembers().size());
+        assertTrue("Member missing", staff.getMembers().contains(new JID("bob", "example.com", null)));
+        assertEquals("Wrong group count", 2, provider.getGroupCount());
+        assertEquals("Wrong page size", 1, provider.getGroupNames(1, 5).size());
+    }
+
+    /**
+     * Test that a group with no stored member is not found without a
+     * fallback
+     */
+    @Test(expected = GroupNotFoundException.class)
+    public void testUnknownGroup() throws Exception {
+        new CASAuthGroupProvider(store, null).getGroup("visitors");
+    }
+}
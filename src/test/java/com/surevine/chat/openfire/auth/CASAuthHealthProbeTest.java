@@ -0,0 +1,157 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthHealthProbe, against a stub CAS server
+ *
+ * @see CASAuthHealthProbe
+ */
+public class CASAuthHealthProbeTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+
+    /**
+     * The stub CAS server
+     */
+    CASAuthStubCasServer server;
+
+    /**
+     * The transport used to reach the stub
+     */
+    CASAuthPooledHttpTransport transport;
+
+    /**
+     * Class under test
+     */
+    CASAuthHealthProbe probe;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CASAuthStubCasServer(0);
+        server.start();
+        transport = new CASAuthPooledHttpTransport(8, 8, 1000, 1000, 60000L, true,
+                new CASAuthDnsCache(60000L));
+
+        List<CASAuthHealthProbe.Target> targets = new ArrayList<CASAuthHealthProbe.Target>();
+        targets.add(new CASAuthHealthProbe.Target(server.getCasServerUrlPrefix(),
+                new CASAuthStreamingTicketValidator(server.getCasServerUrlPrefix(), transport, null, 65536)));
+        probe = new CASAuthHealthProbe(targets, SERVICE_URL, new CASAuthDnsCache(60000L), 3, 0L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        probe.shutdown();
+        transport.close();
+        server.stop();
+    }
+
+    /**
+     * Test that the warm up validates the probe ticket over every warm
+     * connection and finds the server reachable
+     */
+    @Test
+    public void testWarmUp() {
+        server.setUsername("probe");
+
+        probe.warmUp();
+
+        assertTrue("Warm up not finished", probe.isWarmedUp());
+        assertTrue("Server not reachable", probe.isReachable());
+        assertEquals("Wrong number of probes", 3, server.getRequestCount());
+        assertTrue("Probe time not recorded", probe.getTargets().get(0).getLastProbeTime() > 0);
+    }
+
+    /**
+     * Test that a rejected probe ticket counts as reachable, and an error
+     * reaching CAS does not
+     */
+    @Test
+    public void testRejectionIsReachable() throws Exception {
+        List<CASAuthHealthProbe.Target> targets = new ArrayList<CASAuthHealthProbe.Target>();
+        targets.add(new CASAuthHealthProbe.Target("https://rejecting.test/cas", new TicketValidator() {
+            public Assertion validate(String ticket, String service) throws TicketValidationException {
+                throw new TicketValidationException("Ticket " + ticket + " not recognized");
+            }
+        }));
+        targets.add(new CASAuthHealthProbe.Target("https://failing.test/cas", new TicketValidator() {
+            public Assertion validate(String ticket, String service) {
+                throw new RuntimeException("Connection refused");
+            }
+        }));
+        CASAuthHealthProbe unitProbe = new CASAuthHealthProbe(targets, SERVICE_URL, null, 1, 0L);
+        try {
+            unitProbe.probe();
+
+            assertTrue("Rejecting server not reachable", unitProbe.getTargets().get(0).isReachable());
+            assertFalse("Failing server reachable", unitProbe.getTargets().get(1).isReachable());
+            assertTrue("Probe not reachable with one server answering", unitProbe.isReachable());
+        } finally {
+            unitProbe.shutdown();
+        }
+    }
+
+    /**
+     * Test that an unreachable server is reported, and that it recovers
+     */
+    @Test
+    public void testUnreachable() throws Exception {
+        int port = Integer.parseInt(server.getCasServerUrlPrefix().replaceAll(".*:(\\d+)/cas", "$1"));
+        server.stop();
+
+        probe.probe();
+        assertFalse("Stopped server reachable", probe.isReachable());
+        assertEquals("Failure not counted", 1, probe.getTargets().get(0).getConsecutiveFailures());
+
+        server = new CASAuthStubCasServer(port);
+        server.start();
+        probe.probe();
+        assertTrue("Restarted server not reachable", probe.isReachable());
+        assertEquals("Failures not reset", 0, probe.getTargets().get(0).getConsecutiveFailures());
+    }
+
+    /**
+     * Test that the probe runs in the background once started
+     */
+    @Test
+    public void testStart() throws Exception {
+        probe.start();
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!probe.isWarmedUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue("Warm up did not run", probe.isWarmedUp());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.AssertionImpl;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jasig.cas.client.validation.TicketValidator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for CASAuthHedgingTicketValidator
+ *
+ * @see CASAuthHedgingTicketValidator
+ */
+public class CASAuthHedgingTicketValidatorTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+
+    /**
+     * The executor running attempts
+     */
+    CASAuthValidationExecutor executor = new CASAuthValidationExecutor(4, 4);
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A validator which answers after a delay
+     */
+    static TicketValidator delayed(final long delay, final String user) {
+        return new TicketValidator() {
+            public Assertion validate(String ticket, String service) throws TicketValidationException {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                if (user == null) {
+                    throw new TicketValidationException("INVALID_TICKET");
+                }
+                return new AssertionImpl(user);
+            }
+        };
+    }
+
+    /**
+     * Build a hedging validator whose primary choice is the slow server.
+     */
+    CASAuthHedgingTicketValidator create(TicketValidator slow, TicketValidator fast, int maxHedgePercent) {
+        List<CASAuthEndpointBalancer.Endpoint> endpoints = new ArrayList<CASAuthEndpointBalancer.Endpoint>();
+        CASAuthEndpointBalancer.Endpoint primary = new CASAuthEndpointBalancer.Endpoint("http://cas1/cas", slow);
+        CASAuthEndpointBalancer.Endpoint secondary = new CASAuthEndpointBalancer.Endpoint("http://cas2/cas", fast);
+        // Make the slow server look fastest so that it is chosen first
+        primary.recordSuccess(1L);
+        secondary.recordSuccess(1000L);
+        endpoints.add(primary);
+        endpoints.add(secondary);
+
+        return new CASAuthHedgingTicketValidator(new CASAuthEndpointBalancer(endpoints, 3, 1000L),
+                executor, new CASAuthLatencyTracker(16, 95), 20L, 20L, maxHedgePercent);
+    }
+
+    /**
+     * Test that a hedge answers a slow validation
+     */
+    @Test
+    public void testHedgeWins() throws Exception {
+        CASAuthHedgingTicketValidator validator = create(
+                delayed(1000L, "slow_user"), delayed(0L, "fast_user"), 100);
+
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Hedge did not answer", "fast_user", assertion.getPrincipal().getName());
+        assertEquals("Hedge not counted", 1, validator.getHedgeCount());
+        assertEquals("Hedge win not counted", 1, validator.getHedgeWinCount());
+    }
+
+    /**
+     * Test that a hedge rejecting the already consumed ticket does not
+     * override the slower successful answer
+     */
+    @Test
+    public void testHedgeRejectionIgnored() throws Exception {
+        CASAuthHedgingTicketValidator validator = create(
+                delayed(200L, "slow_user"), delayed(0L, null), 100);
+
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Rejection used", "slow_user", assertion.getPrincipal().getName());
+        assertEquals("Hedge not counted", 1, validator.getHedgeCount());
+    }
+
+    /**
+     * Test that a rejection is reported once every attempt has answered
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testRejection() throws Exception {
+        CASAuthHedgingTicketValidator validator = create(
+                delayed(100L, null), delayed(0L, null), 100);
+
+        validator.validate(TEST_TICKET, SERVICE_URL);
+    }
+
+    /**
+     * Test that hedges are limited by the budget
+     */
+    @Test
+    public void testHedgeBudget() throws Exception {
+        CASAuthHedgingTicketValidator validator = create(
+                delayed(50L, "slow_user"), delayed(0L, "fast_user"), 0);
+
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Hedge sent without budget", "slow_user", assertion.getPrincipal().getName());
+        assertEquals("Hedge counted", 0, validator.getHedgeCount());
+    }
+
+    /**
+     * Test that a validation gives up after a multiple of the hedge delay,
+     * clamped to the maximum timeout
+     */
+    @Test
+    public void testAdaptiveTimeout() throws Exception {
+        List<CASAuthEndpointBalancer.Endpoint> endpoints = new ArrayList<CASAuthEndpointBalancer.Endpoint>();
+        endpoints.add(new CASAuthEndpointBalancer.Endpoint("http://cas1/cas", delayed(2000L, "slow_user")));
+        endpoints.add(new CASAuthEndpointBalancer.Endpoint("http://cas2/cas", delayed(2000L, "slow_user")));
+        CASAuthHedgingTicketValidator validator = new CASAuthHedgingTicketValidator(
+                new CASAuthEndpointBalancer(endpoints, 3, 1000L), executor,
+                new CASAuthLatencyTracker(16, 95), 20L, 20L, 100, 3, 1000L);
+
+        assertEquals("Timeout not a multiple of the delay", 60L, validator.getTimeout(20L));
+        assertEquals("Timeout not clamped", 1000L, validator.getTimeout(500L));
+
+        long start = System.currentTimeMillis();
+        try {
+            validator.validate(TEST_TICKET, SERVICE_URL);
+            fail("Slow validation did not time out");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertTrue("Validation did not give up promptly", System.currentTimeMillis() - start < 1000L);
+        assertEquals("Timeout not counted", 1, validator.getTimeoutCount());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthJsonReader
+ *
+ * @see CASAuthJsonReader
+ */
+public class CASAuthJsonReaderTest {
+
+    /**
+     * Test reading members of every type
+     */
+    @Test
+    public void testRead() throws Exception {
+        CASAuthJsonReader reader = reader(" { \"s\" : \"a\\\"b\\\\c\\/\\n\\u00e9\", \"n\": -1.5e3,"
+                + " \"t\":true, \"z\" :null, \"a\":[ ] } ");
+
+        reader.beginObject();
+        assertTrue("Member missing", reader.hasNext());
+        assertEquals("Wrong name", "s", reader.nextName());
+        assertEquals("Wrong string", "a\"b\\c/\n\u00e9", reader.nextString());
+        reader.hasNext();
+        reader.nextName();
+        assertEquals("Wrong number", "-1.5e3", reader.nextString());
+        reader.hasNext();
+        reader.nextName();
+        assertEquals("Wrong literal", "true", reader.nextString());
+        reader.hasNext();
+        reader.nextName();
+        assertNull("Null not returned", reader.nextString());
+        reader.hasNext();
+        reader.nextName();
+        reader.beginArray();
+        assertFalse("Empty array has elements", reader.hasNext());
+        reader.endArray();
+        assertFalse("Extra member", reader.hasNext());
+        reader.endObject();
+    }
+
+    /**
+     * Test that nested values are skipped
+     */
+    @Test
+    public void testSkipValue() throws Exception {
+        CASAuthJsonReader reader = reader("{\"skip\":{\"a\":[1,[2,{\"b\":\"}\"}]]},\"keep\":\"k\"}");
+
+        reader.beginObject();
+        reader.hasNext();
+        reader.nextName();
+        reader.skipValue();
+        assertTrue("Member missing", reader.hasNext());
+        assertEquals("Wrong name", "keep", reader.nextName());
+        assertEquals("Wrong value", "k", reader.nextString());
+    }
+
+    /**
+     * Test that a missing comma is refused
+     */
+    @Test(expected = IOException.class)
+    public void testMissingComma() throws Exception {
+        CASAuthJsonReader reader = reader("[\"a\" \"b\"]");
+
+        reader.beginArray();
+        reader.hasNext();
+        reader.nextString();
+        reader.hasNext();
+    }
+
+    /**
+     * Test that an unknown literal is refused
+     */
+    @Test(expected = IOException.class)
+    public void testInvalidLiteral() throws Exception {
+        reader("[undefined]").skipValue();
+    }
+
+    /**
+     * Test that deep nesting is refused
+     */
+    @Test(expected = IOException.class)
+    public void testTooDeep() throws Exception {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i <= CASAuthJsonReader.MAX_DEPTH; i++) {
+            json.append('[');
+        }
+        reader(json.toString()).skipValue();
+    }
+
+    private static CASAuthJsonReader reader(String json) {
+        return new CASAuthJsonReader(new StringReader(json));
+    }
+}
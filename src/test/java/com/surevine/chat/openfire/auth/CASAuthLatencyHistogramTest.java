@@ -0,0 +1,112 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthLatencyHistogram
+ *
+ * @see CASAuthLatencyHistogram
+ */
+public class CASAuthLatencyHistogramTest {
+
+    /**
+     * Class under test
+     */
+    CASAuthLatencyHistogram histogram;
+
+    @Before
+    public void setUp() {
+        histogram = new CASAuthLatencyHistogram();
+    }
+
+    /**
+     * Test that small values are recorded exactly
+     */
+    @Test
+    public void testLinearRange() {
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals("Wrong count", 100, histogram.getTotalCount());
+        assertEquals("Wrong median", 50, histogram.getValueAtPercentile(50.0));
+        assertEquals("Wrong 99th percentile", 99, histogram.getValueAtPercentile(99.0));
+        assertEquals("Wrong maximum", 100, histogram.getValueAtPercentile(100.0));
+    }
+
+    /**
+     * Test that large values are reported within the histogram's precision
+     */
+    @Test
+    public void testPrecision() {
+        long[] values = {128, 1000, 12345, 999999, 123456789L};
+        for (long value : values) {
+            CASAuthLatencyHistogram single = new CASAuthLatencyHistogram();
+            single.record(value);
+            long reported = single.getValueAtPercentile(50.0);
+            assertTrue("Reported " + reported + " below " + value, reported >= value);
+            assertTrue("Reported " + reported + " too far above " + value,
+                    reported - value <= value / 64);
+        }
+    }
+
+    /**
+     * Test that bucket indexes are contiguous across powers of two
+     */
+    @Test
+    public void testBucketIndexes() {
+        for (int index = 0; index < CASAuthLatencyHistogram.BUCKET_COUNT; ++index) {
+            long highest = CASAuthLatencyHistogram.highestEquivalentValue(index);
+            assertEquals("Wrong bucket for " + highest, index,
+                    CASAuthLatencyHistogram.bucketIndex(highest));
+            if (index + 1 < CASAuthLatencyHistogram.BUCKET_COUNT) {
+                assertEquals("Wrong bucket for " + (highest + 1), index + 1,
+                        CASAuthLatencyHistogram.bucketIndex(highest + 1));
+            }
+        }
+    }
+
+    /**
+     * Test that out of range values are clamped
+     */
+    @Test
+    public void testClamping() {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals("Negative value not clamped", 0, histogram.getValueAtPercentile(50.0));
+        assertEquals("Large value not clamped", CASAuthLatencyHistogram.MAX_VALUE,
+                histogram.getValueAtPercentile(100.0));
+    }
+
+    /**
+     * Test that an empty histogram reports zero
+     */
+    @Test
+    public void testEmpty() {
+        assertEquals("Empty histogram reported a value", 0,
+                histogram.getValueAtPercentile(99.0));
+    }
+}
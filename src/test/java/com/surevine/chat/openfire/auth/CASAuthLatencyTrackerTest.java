@@ -0,0 +1,80 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test case for CASAuthLatencyTracker
+ *
+ * @see CASAuthLatencyTracker
+ */
+public class CASAuthLatencyTrackerTest {
+
+    /**
+     * Test that the percentile is unknown until enough samples are recorded
+     */
+    @Test
+    public void testNotEnoughSamples() {
+        CASAuthLatencyTracker tracker = new CASAuthLatencyTracker(100, 95);
+        tracker.record(10L);
+
+        assertEquals("Percentile known too soon", -1L, tracker.getPercentile());
+        assertEquals("Maximum not used", 500L, tracker.getPercentile(5L, 500L));
+    }
+
+    /**
+     * Test the percentile calculation
+     */
+    @Test
+    public void testPercentile() {
+        // The percentile is recalculated every 16 samples
+        CASAuthLatencyTracker tracker = new CASAuthLatencyTracker(160, 95);
+        for (int i = 1; i <= 160; ++i) {
+            tracker.record(i);
+        }
+
+        assertEquals("Wrong percentile", 152L, tracker.getPercentile());
+        assertEquals("Percentile not clamped", 50L, tracker.getPercentile(5L, 50L));
+        assertEquals("Percentile not clamped", 200L, tracker.getPercentile(200L, 500L));
+    }
+
+    /**
+     * Test that old samples leave the window
+     */
+    @Test
+    public void testWindow() {
+        CASAuthLatencyTracker tracker = new CASAuthLatencyTracker(16, 50);
+        for (int i = 0; i < 16; ++i) {
+            tracker.record(1000L);
+        }
+        for (int i = 0; i < 16; ++i) {
+            tracker.record(10L);
+        }
+
+        assertEquals("Old samples still counted", 10L, tracker.getPercentile());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new CASAuthLatencyTracker(100, 0);
+    }
+}
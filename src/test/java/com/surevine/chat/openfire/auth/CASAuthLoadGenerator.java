@@ -0,0 +1,368 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+
+/**
+ * Drives <code>CASAuthProvider</code> with a synthetic or replayed login
+ * workload and reports throughput and latency percentiles, for sizing
+ * Openfire nodes. Unless <code>--cas</code> names a CAS server, validations
+ * go to an in-process <code>CASAuthStubCasServer</code>.
+ * <p/>
+ * Options are given as <code>--name=value</code>:
+ * <ul>
+ * <li><code>--mode=closed</code> (the default) runs <code>threads</code>
+ * workers back to back; <code>--mode=open</code> starts logins at
+ * <code>rate</code> per second however long earlier ones take, measuring
+ * latency from when each login should have started.</li>
+ * <li><code>--threads</code>, <code>--rate</code>, <code>--duration</code>
+ * (seconds) and <code>--reuse</code> (the fraction of logins presenting a
+ * recently used ticket, from 0 to 1).</li>
+ * <li><code>--latency</code>, the stub CAS response delay in
+ * milliseconds.</li>
+ * <li><code>--replay=file</code> replays a trace recorded through
+ * <code>casAuthProvider.trace.file</code>, <code>--speed</code> times as
+ * fast as it was recorded.</li>
+ * </ul>
+ * Any <code>casAuthProvider.*=value</code> argument configures the provider
+ * under test.
+ */
+public final class CASAuthLoadGenerator {
+
+    /**
+     * The number of recently issued tickets reused tickets are drawn from.
+     */
+    private static final int REUSE_WINDOW = 1024;
+
+    /**
+     * The username synthetic logins authenticate as.
+     */
+    private static final String USERNAME = "loadtest";
+
+    /**
+     * The provider under test.
+     */
+    private final CASAuthProvider provider;
+
+    /**
+     * Login latencies in microseconds.
+     */
+    private final CASAuthLatencyHistogram latencies = new CASAuthLatencyHistogram();
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The source of fresh ticket numbers.
+     */
+    private final AtomicLong ticketSequence = new AtomicLong();
+
+    /**
+     * Recently issued tickets.
+     */
+    private final AtomicReferenceArray<String> recentTickets = new AtomicReferenceArray<String>(REUSE_WINDOW);
+
+    /**
+     * Constructs a load generator.
+     *
+     * @param provider The provider under test.
+     */
+    CASAuthLoadGenerator(final CASAuthProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Run logins back to back on a number of threads.
+     *
+     * @param threads  The number of concurrent logins.
+     * @param duration How long to run for, in milliseconds.
+     * @param reuse    The fraction of logins reusing a recent ticket.
+     * @return The elapsed time in milliseconds.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    long runClosedLoop(final int threads, final long duration, final double reuse)
+            throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + duration;
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; ++i) {
+            workers.execute(new Runnable() {
+                public void run() {
+                    final Random random = new Random();
+                    while (System.currentTimeMillis() < deadline) {
+                        login(USERNAME, nextTicket(random, reuse), System.nanoTime());
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Start logins at a fixed rate, whether or not earlier logins have
+     * finished. Latency is measured from when each login was due, so a
+     * backlog is counted against the provider.
+     *
+     * @param threads  The number of threads logins run on.
+     * @param rate     Logins started per second.
+     * @param duration How long to start logins for, in milliseconds.
+     * @param reuse    The fraction of logins reusing a recent ticket.
+     * @return The elapsed time in milliseconds.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    long runOpenLoop(final int threads, final double rate, final long duration, final double reuse)
+            throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final Random random = new Random();
+        final long start = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        final long count = (long) (rate * duration / 1000.0);
+        for (long i = 0; i < count; ++i) {
+            final long due = startNanos + i * intervalNanos;
+            sleepUntil(due);
+            final String ticket = nextTicket(random, reuse);
+            workers.execute(new Runnable() {
+                public void run() {
+                    login(USERNAME, ticket, due);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Replay a recorded trace. A recorded ticket seen again is presented
+     * again, and recorded rejections present a ticket the stub CAS server
+     * rejects.
+     *
+     * @param entries The trace.
+     * @param threads The number of threads logins run on.
+     * @param speed   How many times faster than recorded to replay.
+     * @return The elapsed time in milliseconds.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    long replay(final List<CASAuthTraceRecorder.Entry> entries, final int threads, final double speed)
+            throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final long start = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final long firstOffset = entries.isEmpty() ? 0 : entries.get(0).getOffset();
+        for (final CASAuthTraceRecorder.Entry entry : entries) {
+            final long due = startNanos
+                    + (long) (TimeUnit.MILLISECONDS.toNanos(entry.getOffset() - firstOffset) / speed);
+            sleepUntil(due);
+            final String ticket = CASAuthTraceRecorder.REJECTED.equals(entry.getOutcome())
+                    ? CASAuthStubCasServer.REJECTED_TICKET_PREFIX + "-" + entry.getTicketId()
+                    : "ST-" + entry.getTicketId();
+            workers.execute(new Runnable() {
+                public void run() {
+                    login(entry.getUserId(), ticket, due);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Authenticate once and record the outcome and latency.
+     *
+     * @param username  The username.
+     * @param ticket    The ticket.
+     * @param dueNanos  When the login was due, from
+     *                  <code>System.nanoTime()</code>.
+     */
+    void login(final String username, final String ticket, final long dueNanos) {
+        try {
+            provider.authenticate(username, ticket);
+            accepted.incrementAndGet();
+        } catch (final UnauthorizedException ue) {
+            rejected.incrementAndGet();
+        } catch (final Exception e) {
+            failed.incrementAndGet();
+        }
+        latencies.record((System.nanoTime() - dueNanos) / 1000L);
+    }
+
+    /**
+     * Choose the ticket for the next login.
+     */
+    String nextTicket(final Random random, final double reuse) {
+        final long issued = ticketSequence.get();
+        if (issued > 0 && reuse > 0 && random.nextDouble() < reuse) {
+            final String recent = recentTickets.get(random.nextInt((int) Math.min(issued, REUSE_WINDOW)));
+            if (recent != null) {
+                return recent;
+            }
+        }
+        final long sequence = ticketSequence.incrementAndGet();
+        final String ticket = "ST-" + sequence + "-loadtest";
+        recentTickets.set((int) ((sequence - 1) % REUSE_WINDOW), ticket);
+        return ticket;
+    }
+
+    /**
+     * Print the results of a run.
+     *
+     * @param out     Where to print.
+     * @param elapsed The length of the run in milliseconds.
+     */
+    void report(final PrintStream out, final long elapsed) {
+        final long total = accepted.get() + rejected.get() + failed.get();
+        out.println("Logins:     " + total + " (" + accepted.get() + " accepted, "
+                + rejected.get() + " rejected, " + failed.get() + " failed)");
+        out.println("Throughput: " + String.format("%.1f", total * 1000.0 / Math.max(1, elapsed)) + " logins/s");
+        out.println("Latency ms: p50=" + millis(50.0) + " p90=" + millis(90.0) + " p99=" + millis(99.0)
+                + " p99.9=" + millis(99.9) + " max=" + millis(100.0));
+    }
+
+    long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    long getFailedCount() {
+        return failed.get();
+    }
+
+    private String millis(final double percentile) {
+        return String.format("%.2f", latencies.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    private static void sleepUntil(final long dueNanos) throws InterruptedException {
+        final long wait = dueNanos - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Run the load generator.
+     *
+     * @param args The options, as described above.
+     * @throws Exception If the run could not be completed.
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<String, String>();
+        final Map<String, String> properties = new HashMap<String, String>();
+        for (final String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (arg.startsWith("--") && eq > 2) {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (arg.startsWith("casAuthProvider.") && eq > 0) {
+                properties.put(arg.substring(0, eq), arg.substring(eq + 1));
+            } else {
+                System.err.println("Unrecognised argument: " + arg);
+                System.exit(1);
+            }
+        }
+
+        final String mode = option(options, "mode", "closed");
+        final int threads = Integer.parseInt(option(options, "threads", "16"));
+        final double rate = Double.parseDouble(option(options, "rate", "100"));
+        final long duration = TimeUnit.SECONDS.toMillis(Long.parseLong(option(options, "duration", "30")));
+        final double reuse = Double.parseDouble(option(options, "reuse", "0"));
+
+        CASAuthStubCasServer stub = null;
+        if (options.containsKey("cas")) {
+            properties.put("casAuthProvider.casServerUrlPrefix", options.get("cas"));
+        } else {
+            stub = new CASAuthStubCasServer(0);
+            stub.setUsername(USERNAME);
+            stub.setLatency(Long.parseLong(option(options, "latency", "20")));
+            stub.start();
+            properties.put("casAuthProvider.casServerUrlPrefix", stub.getCasServerUrlPrefix());
+        }
+        if (!properties.containsKey("casAuthProvider.serviceName")) {
+            properties.put("casAuthProvider.serviceName", "http://loadtest.service/");
+        }
+        if (!properties.containsKey("casAuthProvider.validator")) {
+            properties.put("casAuthProvider.validator", "Cas20ProxyTicketValidator");
+        }
+
+        final CASAuthLoadGenerator generator = new CASAuthLoadGenerator(new CASAuthProvider(
+                new CASAuthTicketValidatorFactory().createCASAuthTicketValidator(
+                        new CASAuthProviderConfig(properties))));
+
+        final long elapsed;
+        try {
+            if (options.containsKey("replay")) {
+                final InputStreamReader reader = new InputStreamReader(
+                        new FileInputStream(options.get("replay")), CASAuthHttpTransport.RESPONSE_CHARSET);
+                final List<CASAuthTraceRecorder.Entry> entries;
+                try {
+                    entries = CASAuthTraceRecorder.read(reader);
+                } finally {
+                    reader.close();
+                }
+                elapsed = generator.replay(entries, threads,
+                        Double.parseDouble(option(options, "speed", "1")));
+            } else if ("open".equals(mode)) {
+                elapsed = generator.runOpenLoop(threads, rate, duration, reuse);
+            } else if ("closed".equals(mode)) {
+                elapsed = generator.runClosedLoop(threads, duration, reuse);
+            } else {
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+            }
+        } finally {
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+
+        generator.report(System.out, elapsed);
+        if (stub != null) {
+            System.out.println("CAS requests: " + stub.getRequestCount());
+        }
+        System.exit(0);
+    }
+
+    private static String option(final Map<String, String> options, final String name,
+                                 final String defaultValue) {
+        final String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+}
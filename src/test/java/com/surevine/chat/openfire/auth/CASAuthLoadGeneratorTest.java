@@ -0,0 +1,124 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthLoadGenerator, run against the stub CAS server
+ *
+ * @see CASAuthLoadGenerator
+ */
+public class CASAuthLoadGeneratorTest {
+
+    /**
+     * The stub CAS server
+     */
+    CASAuthStubCasServer server;
+
+    /**
+     * Class under test
+     */
+    CASAuthLoadGenerator generator;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CASAuthStubCasServer(0);
+        server.start();
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("casAuthProvider.casServerUrlPrefix", server.getCasServerUrlPrefix());
+        properties.put("casAuthProvider.serviceName", "http://test.service.url/");
+        properties.put("casAuthProvider.validator", "Cas20ProxyTicketValidator");
+        properties.put("casAuthProvider.coalesce.enabled", "false");
+        generator = new CASAuthLoadGenerator(new CASAuthProvider(
+                new CASAuthTicketValidatorFactory().createCASAuthTicketValidator(
+                        new CASAuthProviderConfig(properties))));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Test a short closed loop run
+     */
+    @Test
+    public void testClosedLoop() throws Exception {
+        generator.runClosedLoop(2, 200, 0.0);
+
+        assertTrue("No logins made", generator.getAcceptedCount() > 0);
+        assertEquals("Logins not all sent to CAS", generator.getAcceptedCount(),
+                server.getRequestCount());
+    }
+
+    /**
+     * Test a short open loop run makes the expected number of logins
+     */
+    @Test
+    public void testOpenLoop() throws Exception {
+        generator.runOpenLoop(4, 100.0, 200, 0.0);
+
+        assertEquals("Wrong number of logins", 20, generator.getAcceptedCount());
+    }
+
+    /**
+     * Test that a replayed trace reproduces rejections and reused tickets
+     */
+    @Test
+    public void testReplay() throws Exception {
+        String trace = CASAuthTraceRecorder.HEADER + "\n"
+                + "0 aaaa u1 accepted 1000\n"
+                + "5 bbbb u1 rejected 1000\n"
+                + "10 aaaa u2 accepted 1000\n";
+        List<CASAuthTraceRecorder.Entry> entries = CASAuthTraceRecorder.read(new StringReader(trace));
+
+        generator.replay(entries, 1, 10.0);
+
+        assertEquals("Wrong accepted count", 2, generator.getAcceptedCount());
+        assertEquals("Wrong rejected count", 1, generator.getRejectedCount());
+    }
+
+    /**
+     * Test that reused tickets are drawn from those already issued
+     */
+    @Test
+    public void testTicketReuse() {
+        Random random = new Random(1);
+        String first = generator.nextTicket(random, 0.0);
+        generator.nextTicket(random, 0.0);
+
+        String reused = generator.nextTicket(random, 1.0);
+
+        assertTrue("Ticket not reused", reused.startsWith("ST-") && !reused.equals("ST-3-loadtest"));
+        assertEquals("Wrong first ticket", "ST-1-loadtest", first);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.ProxyList;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthPooledHttpTransport and the validators which use it,
+ * against a stub CAS server.
+ *
+ * @see CASAuthPooledHttpTransport
+ * @see CASAuthProxyTicketValidator
+ * @see CASAuthCas10TicketValidator
+ */
+public class CASAuthPooledHttpTransportTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+
+    static String SERVICE_VALIDATE_SUCCESS = "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationSuccess><cas:user>" + TEST_USERNAME + "</cas:user>"
+            + "</cas:authenticationSuccess></cas:serviceResponse>";
+
+    /**
+     * The stub CAS server
+     */
+    HttpServer server;
+
+    /**
+     * The prefix of the stub CAS server
+     */
+    String casServerUrlPrefix;
+
+    /**
+     * The number of connections accepted by the stub server
+     */
+    AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Class under test
+     */
+    CASAuthPooledHttpTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cas/validate", new StubHandler("yes\n" + TEST_USERNAME + "\n"));
+        server.createContext("/cas/proxyValidate", new StubHandler(SERVICE_VALIDATE_SUCCESS));
+        server.start();
+        casServerUrlPrefix = "http://127.0.0.1:" + server.getAddress().getPort() + "/cas";
+
+        transport = new CASAuthPooledHttpTransport(4, 2, 1000, 1000, 60000L, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        server.stop(0);
+    }
+
+    /**
+     * Test a CAS 1.0 validation through the transport
+     */
+    @Test
+    public void testCas10Validation() throws Exception {
+        CASAuthCas10TicketValidator validator = new CASAuthCas10TicketValidator(
+                casServerUrlPrefix, transport);
+
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                assertion.getPrincipal().getName());
+    }
+
+    /**
+     * Test a CAS 2.0 proxy validation through the transport
+     */
+    @Test
+    public void testProxyValidation() throws Exception {
+        CASAuthProxyTicketValidator validator = new CASAuthProxyTicketValidator(
+                casServerUrlPrefix, transport);
+        validator.setAllowedProxyChains(new ProxyList(new ArrayList<String[]>()));
+
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                assertion.getPrincipal().getName());
+    }
+
+    /**
+     * Test that a rejected CAS 1.0 ticket is reported
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testCas10Rejection() throws Exception {
+        server.createContext("/reject/validate", new StubHandler("no\n\n"));
+        CASAuthCas10TicketValidator validator = new CASAuthCas10TicketValidator(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/reject", transport);
+
+        validator.validate(TEST_TICKET, SERVICE_URL);
+    }
+
+    /**
+     * Test that an unsuccessful HTTP status is an error
+     */
+    @Test(expected = IOException.class)
+    public void testNotFound() throws Exception {
+        transport.openStream(new URL(casServerUrlPrefix + "/missing"));
+    }
+
+    /**
+     * Test that repeated requests through the pool are all answered
+     */
+    @Test
+    public void testRepeatedRequests() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("Wrong response", "yes\n" + TEST_USERNAME + "\n",
+                    transport.getResponse(casServerUrlPrefix + "/validate"));
+        }
+        assertEquals("Requests not all answered", 10, requests.get());
+    }
+
+    /**
+     * Test that hosts are resolved by the given resolver
+     */
+    @Test
+    public void testDnsResolver() throws Exception {
+        CASAuthDnsCache dnsCache = new CASAuthDnsCache(60000L) {
+            InetAddress[] lookup(String host) throws UnknownHostException {
+                return new InetAddress[] {InetAddress.getByName("127.0.0.1")};
+            }
+        };
+        CASAuthPooledHttpTransport resolvingTransport = new CASAuthPooledHttpTransport(
+                4, 2, 1000, 1000, 60000L, true, dnsCache);
+        try {
+            assertEquals("Wrong response", "yes\n" + TEST_USERNAME + "\n",
+                    resolvingTransport.getResponse("http://cas.invalid:"
+                            + server.getAddress().getPort() + "/cas/validate"));
+            assertEquals("Host not cached", 1, dnsCache.size());
+        } finally {
+            resolvingTransport.close();
+        }
+    }
+
+    /**
+     * Test that closing a response before its end aborts it rather than
+     * reading the rest
+     */
+    @Test
+    public void testEarlyCloseAborts() throws Exception {
+        final CountDownLatch finish = new CountDownLatch(1);
+        server.createContext("/slow", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(new byte[1024]);
+                    out.flush();
+                    finish.await(5, TimeUnit.SECONDS);
+                    out.write(new byte[1024]);
+                    out.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // the client has gone
+                }
+            }
+        });
+
+        try {
+            InputStream in = transport.openStream(new URL(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/slow"));
+            assertTrue("Nothing read", in.read() >= 0);
+
+            long start = System.currentTimeMillis();
+            in.close();
+            assertTrue("Close waited for the rest of the response",
+                    System.currentTimeMillis() - start < 500L);
+        } finally {
+            finish.countDown();
+        }
+
+        assertEquals("Pool unusable after an abort", "yes\n" + TEST_USERNAME + "\n",
+                transport.getResponse(casServerUrlPrefix + "/validate"));
+    }
+
+    /**
+     * Answers every request with a fixed body.
+     */
+    class StubHandler implements HttpHandler {
+
+        private final byte[] body;
+
+        StubHandler(String body) throws IOException {
+            this.body = body.getBytes("UTF-8");
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
@@ -21,11 +21,16 @@ package com.surevine.chat.openfire.auth;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class CASAuthProviderConfigTest {
 
@@ -133,4 +138,511 @@ public class CASAuthProviderConfigTest {
             }
         }
     }
+
+    /**
+     * Test the cache configuration defaults
+     *
+     * @see CASAuthProviderConfig#isCacheEnabled()
+     * @see CASAuthProviderConfig#getCacheMaxSize()
+     * @see CASAuthProviderConfig#getCacheTimeToLive()
+     */
+    @Test
+    public void testCacheDefaults() {
+        assertFalse("Cache should be disabled by default",
+                casAuthProviderConfig.isCacheEnabled());
+        assertEquals("getCacheMaxSize() returns the wrong default",
+                10000, casAuthProviderConfig.getCacheMaxSize());
+        assertEquals("getCacheTimeToLive() returns the wrong default",
+                30000L, casAuthProviderConfig.getCacheTimeToLive());
+    }
+
+    /**
+     * Test the cache configuration
+     *
+     * @see CASAuthProviderConfig#isCacheEnabled()
+     * @see CASAuthProviderConfig#getCacheMaxSize()
+     * @see CASAuthProviderConfig#getCacheTimeToLive()
+     */
+    @Test
+    public void testCacheConfiguration() {
+        jiveProperties.put("casAuthProvider.cache.enabled", "true");
+        jiveProperties.put("casAuthProvider.cache.maxSize", "500");
+        jiveProperties.put("casAuthProvider.cache.ttl", "5000");
+
+        assertTrue("isCacheEnabled() returns the wrong value",
+                casAuthProviderConfig.isCacheEnabled());
+        assertEquals("getCacheMaxSize() returns the wrong value",
+                500, casAuthProviderConfig.getCacheMaxSize());
+        assertEquals("getCacheTimeToLive() returns the wrong value",
+                5000L, casAuthProviderConfig.getCacheTimeToLive());
+    }
+
+    /**
+     * Test that an invalid number falls back to the default
+     *
+     * @see CASAuthProviderConfig#getCacheMaxSize()
+     */
+    @Test
+    public void testInvalidCacheMaxSize() {
+        jiveProperties.put("casAuthProvider.cache.maxSize", "lots");
+
+        assertEquals("getCacheMaxSize() should fall back to the default",
+                10000, casAuthProviderConfig.getCacheMaxSize());
+    }
+
+    /**
+     * Test the rejection cache configuration
+     *
+     * @see CASAuthProviderConfig#isRejectionCacheEnabled()
+     * @see CASAuthProviderConfig#getRejectionCacheMaxSize()
+     * @see CASAuthProviderConfig#getRejectionCacheTimeToLive()
+     */
+    @Test
+    public void testRejectionCacheConfiguration() {
+        assertFalse("Rejection cache should be disabled by default",
+                casAuthProviderConfig.isRejectionCacheEnabled());
+        assertEquals("getRejectionCacheTimeToLive() returns the wrong default",
+                10000L, casAuthProviderConfig.getRejectionCacheTimeToLive());
+
+        jiveProperties.put("casAuthProvider.rejectionCache.enabled", "true");
+        jiveProperties.put("casAuthProvider.rejectionCache.maxSize", "100");
+        jiveProperties.put("casAuthProvider.rejectionCache.ttl", "2000");
+
+        assertTrue("isRejectionCacheEnabled() returns the wrong value",
+                casAuthProviderConfig.isRejectionCacheEnabled());
+        assertEquals("getRejectionCacheMaxSize() returns the wrong value",
+                100, casAuthProviderConfig.getRejectionCacheMaxSize());
+        assertEquals("getRejectionCacheTimeToLive() returns the wrong value",
+                2000L, casAuthProviderConfig.getRejectionCacheTimeToLive());
+    }
+
+    /**
+     * Test the coalesce configuration
+     *
+     * @see CASAuthProviderConfig#isCoalesceEnabled()
+     */
+    @Test
+    public void testCoalesceEnabled() {
+        assertFalse("Coalescing should be disabled by default",
+                casAuthProviderConfig.isCoalesceEnabled());
+
+        jiveProperties.put("casAuthProvider.coalesce.enabled", "true");
+
+        assertTrue("isCoalesceEnabled() returns the wrong value",
+                casAuthProviderConfig.isCoalesceEnabled());
+    }
+
+    /**
+     * Test the getCASServerUrlPrefixes method
+     *
+     * @see CASAuthProviderConfig#getCASServerUrlPrefixes()
+     */
+    @Test
+    public void testGetCASServerUrlPrefixes() {
+        List<String> prefixes = casAuthProviderConfig.getCASServerUrlPrefixes();
+
+        assertEquals("Single prefix not used", 1, prefixes.size());
+        assertEquals("getCASServerUrlPrefixes() returns the wrong prefix",
+                TEST_CAS_SERVER_URL_PREFIX, prefixes.get(0));
+
+        jiveProperties.put("casAuthProvider.casServerUrlPrefix0", "http://cas1/cas");
+        jiveProperties.put("casAuthProvider.casServerUrlPrefix1", "http://cas2/cas");
+        prefixes = casAuthProviderConfig.getCASServerUrlPrefixes();
+
+        assertEquals("getCASServerUrlPrefixes() returns the wrong number of prefixes",
+                2, prefixes.size());
+        assertEquals("getCASServerUrlPrefixes() returns the wrong prefix",
+                "http://cas2/cas", prefixes.get(1));
+    }
+
+    /**
+     * Test the streaming parser configuration
+     *
+     * @see CASAuthProviderConfig#isStreamingParserEnabled()
+     * @see CASAuthProviderConfig#getStreamingParserMaxResponseSize()
+     */
+    @Test
+    public void testStreamingParserConfig() {
+        assertFalse("Streaming parser should be disabled by default",
+                casAuthProviderConfig.isStreamingParserEnabled());
+        assertEquals("Wrong default maximum response size",
+                65536, casAuthProviderConfig.getStreamingParserMaxResponseSize());
+
+        jiveProperties.put("casAuthProvider.streamingParser.enabled", "true");
+        jiveProperties.put("casAuthProvider.streamingParser.maxResponseSize", "1024");
+
+        assertTrue("isStreamingParserEnabled() returns the wrong value",
+                casAuthProviderConfig.isStreamingParserEnabled());
+        assertEquals("getStreamingParserMaxResponseSize() returns the wrong value",
+                1024, casAuthProviderConfig.getStreamingParserMaxResponseSize());
+    }
+
+    /**
+     * Test the getProxyChainMatcher method
+     *
+     * @see CASAuthProviderConfig#getProxyChainMatcher()
+     */
+    @Test
+    public void testGetProxyChainMatcher() {
+        assertEquals("Proxy chains defined by default",
+                0, casAuthProviderConfig.getProxyChainMatcher().size());
+
+        jiveProperties.put("casAuthProvider.proxyClient0", TEST_PROXY_CLIENT);
+        jiveProperties.put("casAuthProvider.proxyClient1",
+                " https://web.test/* \t" + TEST_PROXY_CLIENT + " ");
+        CASAuthProxyChainMatcher matcher = casAuthProviderConfig.getProxyChainMatcher();
+
+        assertEquals("getProxyChainMatcher() has the wrong number of chains", 2, matcher.size());
+        assertTrue("Single hop chain not matched",
+                matcher.matches(Arrays.asList(TEST_PROXY_CLIENT)));
+        assertTrue("Multi-hop chain not matched",
+                matcher.matches(Arrays.asList("https://web.test/app", TEST_PROXY_CLIENT)));
+        assertFalse("Reversed chain matched",
+                matcher.matches(Arrays.asList(TEST_PROXY_CLIENT, "https://web.test/app")));
+    }
+
+    /**
+     * Test the resumption token configuration
+     *
+     * @see CASAuthProviderConfig#isResumptionEnabled()
+     * @see CASAuthProviderConfig#getResumptionKeys()
+     * @see CASAuthProviderConfig#getResumptionTimeToLive()
+     */
+    @Test
+    public void testResumptionConfig() throws Exception {
+        assertFalse("Resumption tokens should be disabled by default",
+                casAuthProviderConfig.isResumptionEnabled());
+        assertTrue("Resumption keys defined by default",
+                casAuthProviderConfig.getResumptionKeys().isEmpty());
+        assertEquals("Wrong default resumption token time to live",
+                900000L, casAuthProviderConfig.getResumptionTimeToLive());
+
+        jiveProperties.put("casAuthProvider.resumption.enabled", "true");
+        jiveProperties.put("casAuthProvider.resumption.key0", "2024b:new:secret");
+        jiveProperties.put("casAuthProvider.resumption.key1", "2024a:old-secret");
+        jiveProperties.put("casAuthProvider.resumption.key2", "invalid");
+        jiveProperties.put("casAuthProvider.resumption.timeToLive", "60000");
+
+        assertTrue("isResumptionEnabled() returns the wrong value",
+                casAuthProviderConfig.isResumptionEnabled());
+        Map<String, byte[]> keys = casAuthProviderConfig.getResumptionKeys();
+        assertEquals("getResumptionKeys() returns the wrong keys",
+                Arrays.asList("2024b", "2024a"), new ArrayList<String>(keys.keySet()));
+        assertEquals("getResumptionKeys() returns the wrong secret",
+                "new:secret", new String(keys.get("2024b"), "UTF-8"));
+        assertEquals("getResumptionTimeToLive() returns the wrong value",
+                60000L, casAuthProviderConfig.getResumptionTimeToLive());
+    }
+
+    /**
+     * Test the clustered cache configuration
+     *
+     * @see CASAuthProviderConfig#isCacheClustered()
+     * @see CASAuthProviderConfig#getCacheSharedMaxSize()
+     * @see CASAuthProviderConfig#getCacheNearMaxSize()
+     * @see CASAuthProviderConfig#getCacheNearTimeToLive()
+     */
+    @Test
+    public void testClusteredCacheConfig() {
+        assertFalse("Caches should not be clustered by default",
+                casAuthProviderConfig.isCacheClustered());
+        assertEquals("Wrong default shared cache size",
+                1048576, casAuthProviderConfig.getCacheSharedMaxSize());
+        assertEquals("Wrong default near cache size",
+                1000, casAuthProviderConfig.getCacheNearMaxSize());
+        assertEquals("Wrong default near cache time to live",
+                5000L, casAuthProviderConfig.getCacheNearTimeToLive());
+
+        jiveProperties.put("casAuthProvider.cache.clustered", "true");
+        jiveProperties.put("casAuthProvider.cache.sharedMaxSize", "2048");
+        jiveProperties.put("casAuthProvider.cache.nearMaxSize", "10");
+        jiveProperties.put("casAuthProvider.cache.nearTtl", "100");
+
+        assertTrue("isCacheClustered() returns the wrong value",
+                casAuthProviderConfig.isCacheClustered());
+        assertEquals("getCacheSharedMaxSize() returns the wrong value",
+                2048, casAuthProviderConfig.getCacheSharedMaxSize());
+        assertEquals("getCacheNearMaxSize() returns the wrong value",
+                10, casAuthProviderConfig.getCacheNearMaxSize());
+        assertEquals("getCacheNearTimeToLive() returns the wrong value",
+                100L, casAuthProviderConfig.getCacheNearTimeToLive());
+    }
+
+    /**
+     * Test the adaptive concurrency limit configuration
+     *
+     * @see CASAuthProviderConfig#isLimiterEnabled()
+     */
+    @Test
+    public void testLimiterConfig() {
+        assertFalse("Limiter should be disabled by default",
+                casAuthProviderConfig.isLimiterEnabled());
+        assertEquals("Wrong default initial limit", 20, casAuthProviderConfig.getLimiterInitialLimit());
+        assertEquals("Wrong default minimum limit", 2, casAuthProviderConfig.getLimiterMinLimit());
+        assertEquals("Wrong default maximum limit", 200, casAuthProviderConfig.getLimiterMaxLimit());
+        assertEquals("Wrong default queue size", 100, casAuthProviderConfig.getLimiterQueueSize());
+        assertEquals("Wrong default maximum wait", 200L, casAuthProviderConfig.getLimiterMaxWait());
+
+        jiveProperties.put("casAuthProvider.limiter.enabled", "true");
+        jiveProperties.put("casAuthProvider.limiter.initialLimit", "5");
+        jiveProperties.put("casAuthProvider.limiter.minLimit", "1");
+        jiveProperties.put("casAuthProvider.limiter.maxLimit", "50");
+        jiveProperties.put("casAuthProvider.limiter.queueSize", "10");
+        jiveProperties.put("casAuthProvider.limiter.maxWait", "20");
+
+        assertTrue("isLimiterEnabled() returns the wrong value",
+                casAuthProviderConfig.isLimiterEnabled());
+        assertEquals("getLimiterInitialLimit() returns the wrong value", 5,
+                casAuthProviderConfig.getLimiterInitialLimit());
+        assertEquals("getLimiterMinLimit() returns the wrong value", 1,
+                casAuthProviderConfig.getLimiterMinLimit());
+        assertEquals("getLimiterMaxLimit() returns the wrong value", 50,
+                casAuthProviderConfig.getLimiterMaxLimit());
+        assertEquals("getLimiterQueueSize() returns the wrong value", 10,
+                casAuthProviderConfig.getLimiterQueueSize());
+        assertEquals("getLimiterMaxWait() returns the wrong value", 20L,
+                casAuthProviderConfig.getLimiterMaxWait());
+    }
+
+    /**
+     * Test the admission control configuration
+     *
+     * @see CASAuthProviderConfig#isAdmissionEnabled()
+     * @see CASAuthProviderConfig#getAdmissionMaxPending()
+     * @see CASAuthProviderConfig#getAdmissionDeadline()
+     */
+    @Test
+    public void testAdmissionConfig() {
+        assertFalse("Admission control should be disabled by default",
+                casAuthProviderConfig.isAdmissionEnabled());
+        assertEquals("Wrong default maximum pending", 500, casAuthProviderConfig.getAdmissionMaxPending());
+        assertEquals("Wrong default deadline", 10000L, casAuthProviderConfig.getAdmissionDeadline());
+
+        jiveProperties.put("casAuthProvider.admission.enabled", "true");
+        jiveProperties.put("casAuthProvider.admission.maxPending", "50");
+        jiveProperties.put("casAuthProvider.admission.deadline", "3000");
+
+        assertTrue("isAdmissionEnabled() returns the wrong value",
+                casAuthProviderConfig.isAdmissionEnabled());
+        assertEquals("getAdmissionMaxPending() returns the wrong value", 50,
+                casAuthProviderConfig.getAdmissionMaxPending());
+        assertEquals("getAdmissionDeadline() returns the wrong value", 3000L,
+                casAuthProviderConfig.getAdmissionDeadline());
+    }
+
+    /**
+     * Test the virtual thread configuration
+     *
+     * @see CASAuthProviderConfig#isVirtualThreadsEnabled()
+     * @see CASAuthProviderConfig#getVirtualThreadsMaxConcurrent()
+     */
+    @Test
+    public void testVirtualThreadsConfig() {
+        assertFalse("Virtual threads should be disabled by default",
+                casAuthProviderConfig.isVirtualThreadsEnabled());
+        assertEquals("Wrong default maximum concurrent validations",
+                10000, casAuthProviderConfig.getVirtualThreadsMaxConcurrent());
+
+        jiveProperties.put("casAuthProvider.virtualThreads.enabled", "true");
+        jiveProperties.put("casAuthProvider.virtualThreads.maxConcurrent", "500");
+
+        assertTrue("isVirtualThreadsEnabled() returns the wrong value",
+                casAuthProviderConfig.isVirtualThreadsEnabled());
+        assertEquals("getVirtualThreadsMaxConcurrent() returns the wrong value",
+                500, casAuthProviderConfig.getVirtualThreadsMaxConcurrent());
+    }
+
+    /**
+     * Test the attribute store configuration
+     *
+     * @see CASAuthProviderConfig#isAttributeStoreEnabled()
+     * @see CASAuthProviderConfig#getAttributeStoreMaxUsers()
+     */
+    @Test
+    public void testAttributeStoreConfig() {
+        assertFalse("Attribute store should be disabled by default",
+                casAuthProviderConfig.isAttributeStoreEnabled());
+        assertEquals("Wrong default maximum users", 10000,
+                casAuthProviderConfig.getAttributeStoreMaxUsers());
+        assertEquals("Wrong default name attribute", "displayName",
+                casAuthProviderConfig.getAttributeStoreNameAttribute());
+        assertEquals("Wrong default email attribute", "mail",
+                casAuthProviderConfig.getAttributeStoreEmailAttribute());
+        assertEquals("Wrong default groups attribute", "memberOf",
+                casAuthProviderConfig.getAttributeStoreGroupsAttribute());
+        assertNull("Fallback user provider defined by default",
+                casAuthProviderConfig.getAttributeStoreFallbackUserProvider());
+
+        jiveProperties.put("casAuthProvider.attributes.enabled", "true");
+        jiveProperties.put("casAuthProvider.attributes.maxUsers", "500");
+        jiveProperties.put("casAuthProvider.attributes.groups", " groups ");
+        jiveProperties.put("casAuthProvider.attributes.fallbackGroupProvider",
+                "org.jivesoftware.openfire.ldap.LdapGroupProvider");
+
+        assertTrue("isAttributeStoreEnabled() returns the wrong value",
+                casAuthProviderConfig.isAttributeStoreEnabled());
+        assertEquals("getAttributeStoreMaxUsers() returns the wrong value", 500,
+                casAuthProviderConfig.getAttributeStoreMaxUsers());
+        assertEquals("getAttributeStoreGroupsAttribute() returns the wrong value", "groups",
+                casAuthProviderConfig.getAttributeStoreGroupsAttribute());
+        assertEquals("getAttributeStoreFallbackGroupProvider() returns the wrong value",
+                "org.jivesoftware.openfire.ldap.LdapGroupProvider",
+                casAuthProviderConfig.getAttributeStoreFallbackGroupProvider());
+    }
+
+    /**
+     * Test the warm up configuration
+     *
+     * @see CASAuthProviderConfig#isWarmupEnabled()
+     * @see CASAuthProviderConfig#getWarmupConnections()
+     */
+    @Test
+    public void testWarmupConfig() {
+        assertFalse("Warm up should be disabled by default",
+                casAuthProviderConfig.isWarmupEnabled());
+        assertEquals("Wrong default connections", 4, casAuthProviderConfig.getWarmupConnections());
+        assertEquals("Wrong default probe interval", 30000L,
+                casAuthProviderConfig.getWarmupProbeInterval());
+        assertEquals("Wrong default DNS refresh interval", 60000L,
+                casAuthProviderConfig.getWarmupDnsRefreshInterval());
+
+        jiveProperties.put("casAuthProvider.warmup.enabled", "true");
+        jiveProperties.put("casAuthProvider.warmup.connections", "8");
+        jiveProperties.put("casAuthProvider.warmup.probeInterval", "0");
+        jiveProperties.put("casAuthProvider.warmup.dnsRefreshInterval", "300000");
+
+        assertTrue("isWarmupEnabled() returns the wrong value",
+                casAuthProviderConfig.isWarmupEnabled());
+        assertEquals("getWarmupConnections() returns the wrong value", 8,
+                casAuthProviderConfig.getWarmupConnections());
+        assertEquals("getWarmupProbeInterval() returns the wrong value", 0L,
+                casAuthProviderConfig.getWarmupProbeInterval());
+        assertEquals("getWarmupDnsRefreshInterval() returns the wrong value", 300000L,
+                casAuthProviderConfig.getWarmupDnsRefreshInterval());
+    }
+
+    /**
+     * Test the rate limit configuration
+     *
+     * @see CASAuthProviderConfig#isRateLimitEnabled()
+     * @see CASAuthProviderConfig#getRateLimitUserBurst()
+     * @see CASAuthProviderConfig#getRateLimitUserPerMinute()
+     * @see CASAuthProviderConfig#getRateLimitAddressBurst()
+     * @see CASAuthProviderConfig#getRateLimitAddressPerMinute()
+     * @see CASAuthProviderConfig#getRateLimitMaxKeys()
+     */
+    @Test
+    public void testRateLimitConfig() {
+        assertFalse("Rate limits should be disabled by default",
+                casAuthProviderConfig.isRateLimitEnabled());
+        assertEquals("Wrong default user burst", 10, casAuthProviderConfig.getRateLimitUserBurst());
+        assertEquals("Wrong default user rate", 30, casAuthProviderConfig.getRateLimitUserPerMinute());
+        assertEquals("Wrong default address burst", 100, casAuthProviderConfig.getRateLimitAddressBurst());
+        assertEquals("Wrong default address rate", 600, casAuthProviderConfig.getRateLimitAddressPerMinute());
+        assertEquals("Wrong default maximum keys", 100000, casAuthProviderConfig.getRateLimitMaxKeys());
+
+        jiveProperties.put("casAuthProvider.rateLimit.enabled", "true");
+        jiveProperties.put("casAuthProvider.rateLimit.userBurst", "3");
+        jiveProperties.put("casAuthProvider.rateLimit.userPerMinute", "6");
+        jiveProperties.put("casAuthProvider.rateLimit.addressBurst", "20");
+        jiveProperties.put("casAuthProvider.rateLimit.addressPerMinute", "0");
+        jiveProperties.put("casAuthProvider.rateLimit.maxKeys", "500");
+
+        assertTrue("isRateLimitEnabled() returns the wrong value",
+                casAuthProviderConfig.isRateLimitEnabled());
+        assertEquals("getRateLimitUserBurst() returns the wrong value", 3,
+                casAuthProviderConfig.getRateLimitUserBurst());
+        assertEquals("getRateLimitUserPerMinute() returns the wrong value", 6,
+                casAuthProviderConfig.getRateLimitUserPerMinute());
+        assertEquals("getRateLimitAddressBurst() returns the wrong value", 20,
+                casAuthProviderConfig.getRateLimitAddressBurst());
+        assertEquals("getRateLimitAddressPerMinute() returns the wrong value", 0,
+                casAuthProviderConfig.getRateLimitAddressPerMinute());
+        assertEquals("getRateLimitMaxKeys() returns the wrong value", 500,
+                casAuthProviderConfig.getRateLimitMaxKeys());
+    }
+
+    /**
+     * Test the replay detector configuration
+     *
+     * @see CASAuthProviderConfig#isReplayEnabled()
+     * @see CASAuthProviderConfig#getReplayExpectedTickets()
+     * @see CASAuthProviderConfig#getReplayFalsePositiveRate()
+     * @see CASAuthProviderConfig#getReplayWindow()
+     * @see CASAuthProviderConfig#getReplayGenerations()
+     * @see CASAuthProviderConfig#isReplayOffHeap()
+     */
+    @Test
+    public void testReplayConfig() {
+        assertFalse("Replay detector should be disabled by default",
+                casAuthProviderConfig.isReplayEnabled());
+        assertEquals("Wrong default expected tickets", 100000, casAuthProviderConfig.getReplayExpectedTickets());
+        assertEquals("Wrong default false positive rate", 0.000001,
+                casAuthProviderConfig.getReplayFalsePositiveRate(), 0.0);
+        assertEquals("Wrong default window", 600000L, casAuthProviderConfig.getReplayWindow());
+        assertEquals("Wrong default generations", 3, casAuthProviderConfig.getReplayGenerations());
+        assertFalse("Replay detector should be on the heap by default",
+                casAuthProviderConfig.isReplayOffHeap());
+
+        jiveProperties.put("casAuthProvider.replay.enabled", "true");
+        jiveProperties.put("casAuthProvider.replay.expectedTickets", "5000");
+        jiveProperties.put("casAuthProvider.replay.falsePositiveRate", "1e-4");
+        jiveProperties.put("casAuthProvider.replay.window", "60000");
+        jiveProperties.put("casAuthProvider.replay.generations", "4");
+        jiveProperties.put("casAuthProvider.replay.offHeap", "true");
+
+        assertTrue("isReplayEnabled() returns the wrong value",
+                casAuthProviderConfig.isReplayEnabled());
+        assertEquals("getReplayExpectedTickets() returns the wrong value", 5000,
+                casAuthProviderConfig.getReplayExpectedTickets());
+        assertEquals("getReplayFalsePositiveRate() returns the wrong value", 0.0001,
+                casAuthProviderConfig.getReplayFalsePositiveRate(), 0.0);
+        assertEquals("getReplayWindow() returns the wrong value", 60000L,
+                casAuthProviderConfig.getReplayWindow());
+        assertEquals("getReplayGenerations() returns the wrong value", 4,
+                casAuthProviderConfig.getReplayGenerations());
+        assertTrue("isReplayOffHeap() returns the wrong value",
+                casAuthProviderConfig.isReplayOffHeap());
+
+        jiveProperties.put("casAuthProvider.replay.falsePositiveRate", "tiny");
+        assertEquals("Invalid rate should fall back to the default", 0.000001,
+                casAuthProviderConfig.getReplayFalsePositiveRate(), 0.0);
+    }
+
+    /**
+     * Test the configuration reload settings
+     *
+     * @see CASAuthProviderConfig#isReloadEnabled()
+     * @see CASAuthProviderConfig#getReloadDelay()
+     */
+    @Test
+    public void testReloadConfig() {
+        assertFalse("Reload should be disabled by default",
+                casAuthProviderConfig.isReloadEnabled());
+        assertEquals("Wrong default reload delay", 1000L, casAuthProviderConfig.getReloadDelay());
+
+        jiveProperties.put("casAuthProvider.reload.enabled", "true");
+        jiveProperties.put("casAuthProvider.reload.delay", "250");
+
+        assertTrue("isReloadEnabled() returns the wrong value",
+                casAuthProviderConfig.isReloadEnabled());
+        assertEquals("getReloadDelay() returns the wrong value", 250L,
+                casAuthProviderConfig.getReloadDelay());
+    }
+
+    /**
+     * Test the hedge timeout multiple configuration
+     *
+     * @see CASAuthProviderConfig#getHedgeTimeoutMultiple()
+     */
+    @Test
+    public void testHedgeTimeoutMultiple() {
+        assertEquals("Hedge timeout should be off by default", 0,
+                casAuthProviderConfig.getHedgeTimeoutMultiple());
+
+        jiveProperties.put("casAuthProvider.hedge.timeoutMultiple", "4");
+
+        assertEquals("getHedgeTimeoutMultiple() returns the wrong value", 4,
+                casAuthProviderConfig.getHedgeTimeoutMultiple());
+    }
 }
@@ -18,6 +18,10 @@
 
 package com.surevine.chat.openfire.auth;
 
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas10TicketValidator;
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
 import org.jivesoftware.openfire.auth.ConnectionException;
 import org.jivesoftware.openfire.auth.InternalUnauthenticatedException;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
@@ -25,10 +29,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import javax.naming.ConfigurationException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Test case for CASAuthProvider
@@ -41,6 +56,7 @@ public class CASAuthProviderTest {
     private static String AUTH_SUCCESS_PASSWORD = "authorised_password";
     private static String AUTH_FAILURE_USERNAME = "unauthorised_user";
     private static String AUTH_FAILURE_PASSWORD = "unauthorised_password";
+    private static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
 
     /**
      * The class under test
@@ -71,8 +87,8 @@ public class CASAuthProviderTest {
         doThrow(
                 new org.jivesoftware.openfire.auth.UnauthorizedException(
                         "Could not authenticate user")).when(ticketValidator)
-                .authenticateCASTicket(AUTH_FAILURE_USERNAME,
-                        AUTH_FAILURE_PASSWORD);
+                .validateAndCache(AUTH_FAILURE_USERNAME,
+                        AUTH_FAILURE_PASSWORD, null);
 
         authProvider.ticketValidator = ticketValidator;
     }
@@ -155,4 +171,185 @@ public class CASAuthProviderTest {
                 .supportsPasswordRetrieval());
     }
 
+    @Test(expected = ConnectionException.class)
+    public void testAuthenticateAsyncTimeout() throws Exception {
+        // A validation which never completes
+        FutureTask<Void> validation = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() {
+                return null;
+            }
+        });
+        ExecutorService executor = mock(ExecutorService.class);
+        when(ticketValidator.getExecutor()).thenReturn(executor);
+        when(ticketValidator.getValidationTimeout()).thenReturn(10L);
+        when(ticketValidator.validateAndCacheAsync(AUTH_SUCCESS_USERNAME,
+                AUTH_SUCCESS_PASSWORD, null)).thenReturn(validation);
+
+        authProvider.authenticate(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD);
+    }
+
+    @Test(expected = UnauthorizedException.class)
+    public void testAuthenticateAsyncFailure() throws Exception {
+        FutureTask<Void> validation = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws UnauthorizedException {
+                throw new UnauthorizedException("Could not authenticate user");
+            }
+        });
+        validation.run();
+        ExecutorService executor = mock(ExecutorService.class);
+        when(ticketValidator.getExecutor()).thenReturn(executor);
+        when(ticketValidator.getValidationTimeout()).thenReturn(1000L);
+        when(ticketValidator.validateAndCacheAsync(AUTH_FAILURE_USERNAME,
+                AUTH_FAILURE_PASSWORD, null)).thenReturn(validation);
+
+        authProvider.authenticate(AUTH_FAILURE_USERNAME, AUTH_FAILURE_PASSWORD);
+    }
+
+    @Test(expected = ConnectionException.class)
+    public void testAuthenticateAsyncQueueFull() throws Exception {
+        ExecutorService executor = mock(ExecutorService.class);
+        when(ticketValidator.getExecutor()).thenReturn(executor);
+        when(ticketValidator.validateAndCacheAsync(AUTH_SUCCESS_USERNAME,
+                AUTH_SUCCESS_PASSWORD, null)).thenThrow(new RejectedExecutionException());
+
+        authProvider.authenticate(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD);
+    }
+
+    /**
+     * Create a validator with resumption tokens whose CAS validates
+     * TEST_TICKET as the given principal.
+     */
+    private CASAuthTicketValidator createResumptionValidator(final String principalName)
+            throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+        when(proxyValidator.validate(TEST_TICKET, "http://test.service.url/")).thenReturn(assertion);
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn(principalName);
+
+        Map<String, byte[]> keys = new LinkedHashMap<String, byte[]>();
+        keys.put("k1", "secret".getBytes("UTF-8"));
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(
+                proxyValidator, "http://test.service.url/");
+        validator.setResumptionTokens(new CASAuthResumptionTokens(keys, 60000L));
+        return validator;
+    }
+
+    /**
+     * Test that a resumption token is issued once CAS has validated the
+     * user's ticket, is checked locally and lets the user log in again
+     * without contacting CAS
+     */
+    @Test
+    public void testAuthenticateResumptionToken() throws Exception {
+        authProvider.ticketValidator = createResumptionValidator(AUTH_SUCCESS_USERNAME);
+        final List<String> tokens = new ArrayList<String>();
+        authProvider.setResumptionTokenListener(new CASAuthResumptionTokenListener() {
+            public void tokenIssued(final String username, final String token) {
+                assertEquals("Token issued to the wrong user", AUTH_SUCCESS_USERNAME, username);
+                tokens.add(token);
+            }
+        });
+
+        authProvider.authenticate(AUTH_SUCCESS_USERNAME, TEST_TICKET);
+        assertEquals("No token issued", 1, tokens.size());
+        String token = tokens.get(0);
+        authProvider.authenticate(AUTH_SUCCESS_USERNAME, token);
+
+        try {
+            authProvider.authenticate(AUTH_FAILURE_USERNAME, token);
+            fail("Token accepted for another user");
+        } catch (UnauthorizedException ue) {
+            // expected
+        }
+
+        authProvider.revokeResumptionTokens(AUTH_SUCCESS_USERNAME);
+        try {
+            authProvider.authenticate(AUTH_SUCCESS_USERNAME, token);
+            fail("Revoked token accepted");
+        } catch (UnauthorizedException ue) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that no token is issued when the ticket belongs to another
+     * principal, and that the listener is kept when the validator is
+     * replaced
+     */
+    @Test
+    public void testResumptionTokenBoundToPrincipal() throws Exception {
+        authProvider.ticketValidator = createResumptionValidator("someone_else");
+        final List<String> tokens = new ArrayList<String>();
+        CASAuthResumptionTokenListener listener = new CASAuthResumptionTokenListener() {
+            public void tokenIssued(final String username, final String token) {
+                tokens.add(token);
+            }
+        };
+        authProvider.setResumptionTokenListener(listener);
+
+        authProvider.authenticate(AUTH_SUCCESS_USERNAME, TEST_TICKET);
+        assertTrue("Token issued for another principal's ticket", tokens.isEmpty());
+
+        CASAuthTicketValidator replacement = createResumptionValidator(AUTH_SUCCESS_USERNAME);
+        authProvider.swapTicketValidator(replacement);
+        assertSame("Listener not carried over", listener, replacement.getResumptionTokenListener());
+    }
+
+    @Test(expected = UnauthorizedException.class)
+    public void testAuthenticateResumptionTokenDisabled() throws Exception {
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(
+                new Cas10TicketValidator("http://test.cas.url/cas"), "http://test.service.url/");
+        authProvider.ticketValidator = validator;
+
+        authProvider.authenticate(AUTH_SUCCESS_USERNAME, CASAuthResumptionTokens.PREFIX + "k1:0:00:00");
+    }
+
+    /**
+     * Test that a user or address over its rate limit is refused before the
+     * ticket is validated
+     */
+    @Test
+    public void testAuthenticateRateLimited() throws Exception {
+        when(ticketValidator.getUserRateLimiter()).thenReturn(new CASAuthRateLimiter(1, 1, 10));
+        when(ticketValidator.getAddressRateLimiter()).thenReturn(new CASAuthRateLimiter(2, 1, 10));
+
+        authProvider.authenticateFrom(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD, "192.0.2.1");
+        try {
+            authProvider.authenticateFrom(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD, "192.0.2.2");
+            fail("User over the limit allowed");
+        } catch (ConnectionException ce) {
+            // expected
+        }
+
+        authProvider.authenticateFrom("another_user", AUTH_SUCCESS_PASSWORD, "192.0.2.1");
+        try {
+            authProvider.authenticateFrom("third_user", AUTH_SUCCESS_PASSWORD, "192.0.2.1");
+            fail("Address over the limit allowed");
+        } catch (ConnectionException ce) {
+            // expected
+        }
+
+        // Without an address only the user is limited
+        authProvider.authenticate("fourth_user", AUTH_SUCCESS_PASSWORD);
+        verify(ticketValidator).validateAndCache(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD, null);
+    }
+
+    /**
+     * Test that logins answered from the caches take no rate limit tokens
+     */
+    @Test
+    public void testCachedAuthenticateNotRateLimited() throws Exception {
+        CASAuthRateLimiter userRateLimiter = new CASAuthRateLimiter(1, 1, 10);
+        when(ticketValidator.getUserRateLimiter()).thenReturn(userRateLimiter);
+        when(ticketValidator.authenticateFromCache(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD))
+                .thenReturn(true);
+
+        for (int i = 0; i < 3; i++) {
+            authProvider.authenticate(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD);
+        }
+        verify(ticketValidator, never()).validateAndCache(AUTH_SUCCESS_USERNAME, AUTH_SUCCESS_PASSWORD, null);
+        assertEquals("Cached logins took tokens", 0, userRateLimiter.size());
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthProxyChainMatcher
+ *
+ * @see CASAuthProxyChainMatcher
+ */
+public class CASAuthProxyChainMatcherTest {
+
+    private static final String TEST_PROXY = "https://portal.test/pgtCallback";
+
+    private static final String TEST_WEB_APP = "https://web.test/app/pgtCallback";
+
+    private static CASAuthProxyChainMatcher compile(final String[]... chains) {
+        return new CASAuthProxyChainMatcher(Arrays.asList(chains));
+    }
+
+    /**
+     * Test that single hop chains must match exactly
+     */
+    @Test
+    public void testExact() {
+        List<String[]> chains = new ArrayList<String[]>();
+        for (int i = 0; i < 1000; ++i) {
+            chains.add(new String[] {"https://proxy" + i + ".test/pgtCallback"});
+        }
+        CASAuthProxyChainMatcher matcher = new CASAuthProxyChainMatcher(chains);
+
+        assertEquals("Wrong number of chains", 1000, matcher.size());
+        assertTrue("Allowed proxy not matched",
+                matcher.matches(Arrays.asList("https://proxy999.test/pgtCallback")));
+        assertFalse("Unknown proxy matched",
+                matcher.matches(Arrays.asList("https://proxy1000.test/pgtCallback")));
+        assertFalse("Proxy prefix matched",
+                matcher.matches(Arrays.asList("https://proxy1.test/pgt")));
+    }
+
+    /**
+     * Test that every hop of a multi-hop chain must match, in order
+     */
+    @Test
+    public void testMultiHop() {
+        CASAuthProxyChainMatcher matcher = compile(
+                new String[] {TEST_WEB_APP, TEST_PROXY},
+                new String[] {TEST_PROXY});
+
+        assertTrue("Two hop chain not matched",
+                matcher.matches(Arrays.asList(TEST_WEB_APP, TEST_PROXY)));
+        assertTrue("One hop chain not matched",
+                matcher.matches(Arrays.asList(TEST_PROXY)));
+        assertFalse("Chain prefix matched",
+                matcher.matches(Arrays.asList(TEST_WEB_APP)));
+        assertFalse("Reversed chain matched",
+                matcher.matches(Arrays.asList(TEST_PROXY, TEST_WEB_APP)));
+        assertFalse("Longer chain matched",
+                matcher.matches(Arrays.asList(TEST_WEB_APP, TEST_PROXY, TEST_PROXY)));
+    }
+
+    /**
+     * Test that a hop ending in a wildcard matches by prefix
+     */
+    @Test
+    public void testPrefix() {
+        CASAuthProxyChainMatcher matcher = compile(
+                new String[] {"https://web.test/*", TEST_PROXY},
+                new String[] {"https://web.test/app/*", "https://other.test/pgtCallback"},
+                new String[] {"*"});
+
+        assertTrue("Prefix hop not matched",
+                matcher.matches(Arrays.asList(TEST_WEB_APP, TEST_PROXY)));
+        assertTrue("Longer prefix hop not matched",
+                matcher.matches(Arrays.asList(TEST_WEB_APP, "https://other.test/pgtCallback")));
+        assertFalse("Wrong prefix matched",
+                matcher.matches(Arrays.asList("https://web.test.evil/app", TEST_PROXY)));
+        assertTrue("Wildcard hop not matched",
+                matcher.matches(Arrays.asList("https://anything.test/")));
+    }
+
+    /**
+     * Test that a prefix ending within the host only matches that host
+     */
+    @Test
+    public void testPrefixInHost() {
+        CASAuthProxyChainMatcher matcher = compile(
+                new String[] {"https://app*"},
+                new String[] {"https://web.test/pa*"});
+
+        assertTrue("Host prefix not matched",
+                matcher.matches(Arrays.asList("https://app/pgtCallback")));
+        assertTrue("Host prefix with a port not matched",
+                matcher.matches(Arrays.asList("https://app:8443/pgtCallback")));
+        assertTrue("Host prefix without a path not matched",
+                matcher.matches(Arrays.asList("https://app")));
+        assertFalse("Longer host matched",
+                matcher.matches(Arrays.asList("https://app.evil.example/pgtCallback")));
+        assertFalse("User information taken for a port",
+                matcher.matches(Arrays.asList("https://app:x@evil.example/pgtCallback")));
+        assertTrue("Path prefix not matched within a segment",
+                matcher.matches(Arrays.asList("https://web.test/path")));
+    }
+
+    /**
+     * Test that a regular expression hop must match the whole URL
+     */
+    @Test
+    public void testRegex() {
+        CASAuthProxyChainMatcher matcher = compile(
+                new String[] {"regex:https://app[0-9]+\\.test/pgtCallback", TEST_PROXY});
+
+        assertTrue("Regular expression hop not matched",
+                matcher.matches(Arrays.asList("https://app12.test/pgtCallback", TEST_PROXY)));
+        assertFalse("Partial regular expression match accepted",
+                matcher.matches(Arrays.asList("https://app12.test/pgtCallback/x", TEST_PROXY)));
+        assertFalse("Second hop not checked",
+                matcher.matches(Arrays.asList("https://app12.test/pgtCallback", TEST_WEB_APP)));
+    }
+
+    /**
+     * Test that a failed exact match falls back to wildcard entries
+     */
+    @Test
+    public void testBacktracking() {
+        CASAuthProxyChainMatcher matcher = compile(
+                new String[] {TEST_WEB_APP, "https://a.test/"},
+                new String[] {"https://web.test/*", "https://b.test/"});
+
+        assertTrue("Wildcard chain not tried after exact hop",
+                matcher.matches(Arrays.asList(TEST_WEB_APP, "https://b.test/")));
+    }
+
+    /**
+     * Test that nothing is matched when no chains are allowed
+     */
+    @Test
+    public void testEmpty() {
+        CASAuthProxyChainMatcher matcher = new CASAuthProxyChainMatcher(new ArrayList<String[]>());
+
+        assertFalse("Proxy matched with no allowed chains",
+                matcher.matches(Arrays.asList(TEST_PROXY)));
+    }
+}
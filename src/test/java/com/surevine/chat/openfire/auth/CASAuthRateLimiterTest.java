@@ -0,0 +1,195 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthRateLimiter
+ *
+ * @see CASAuthRateLimiter
+ */
+public class CASAuthRateLimiterTest {
+
+    /**
+     * Nanoseconds in a second
+     */
+    static long SECOND = 1000000000L;
+
+    /**
+     * A limiter whose clock is set by the test
+     */
+    static class TestRateLimiter extends CASAuthRateLimiter {
+
+        long now;
+
+        TestRateLimiter(int burst, int perMinute, int maxKeys) {
+            super(burst, perMinute, maxKeys);
+        }
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+    }
+
+    /**
+     * Test that a key may use its burst at once and is then refused and
+     * counted
+     */
+    @Test
+    public void testBurst() {
+        CASAuthRateLimiter limiter = new TestRateLimiter(3, 60, 10);
+
+        assertTrue("First authentication refused", limiter.tryAcquire("user"));
+        assertTrue("Second authentication refused", limiter.tryAcquire("user"));
+        assertTrue("Third authentication refused", limiter.tryAcquire("user"));
+        assertFalse("Authentication over the burst allowed", limiter.tryAcquire("user"));
+        assertEquals("Refused authentication not counted", 1, limiter.getRejectedCount());
+
+        assertTrue("Another key limited", limiter.tryAcquire("other"));
+    }
+
+    /**
+     * Test that a bucket refills at the configured rate
+     */
+    @Test
+    public void testRefill() {
+        TestRateLimiter limiter = new TestRateLimiter(2, 60, 10);
+        limiter.now = 1000L;
+
+        assertTrue(limiter.tryAcquire("user"));
+        assertTrue(limiter.tryAcquire("user"));
+        assertFalse("Empty bucket allowed", limiter.tryAcquire("user"));
+
+        limiter.now += SECOND;
+        assertTrue("Token not refilled after a second", limiter.tryAcquire("user"));
+        assertFalse("More than one token refilled", limiter.tryAcquire("user"));
+
+        limiter.now += 10 * SECOND;
+        assertTrue(limiter.tryAcquire("user"));
+        assertTrue(limiter.tryAcquire("user"));
+        assertFalse("Bucket refilled beyond the burst", limiter.tryAcquire("user"));
+    }
+
+    /**
+     * Test that an unknown caller is not limited
+     */
+    @Test
+    public void testNullKey() {
+        CASAuthRateLimiter limiter = new TestRateLimiter(1, 1, 10);
+
+        assertTrue(limiter.tryAcquire(null));
+        assertTrue("Unknown caller limited", limiter.tryAcquire(null));
+        assertEquals("Unknown caller tracked", 0, limiter.size());
+    }
+
+    /**
+     * Test that a new key still gets through once the map is full, by
+     * evicting the oldest key
+     */
+    @Test
+    public void testMaxKeys() {
+        TestRateLimiter limiter = new TestRateLimiter(1, 60, 2);
+        limiter.now = 1000L;
+
+        assertTrue(limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("b"));
+        assertFalse(limiter.tryAcquire("b"));
+        assertTrue("New key refused while the map is full", limiter.tryAcquire("c"));
+        assertFalse("New key not tracked", limiter.tryAcquire("c"));
+        assertEquals("Eviction not counted", 1, limiter.getEvictedCount());
+        assertEquals("Too many keys held", 2, limiter.size());
+
+        // The oldest key was evicted, and the others kept their limits
+        assertFalse("Newer key evicted", limiter.tryAcquire("b"));
+        assertTrue("Oldest key not evicted", limiter.tryAcquire("a"));
+        assertEquals("Too many keys held", 2, limiter.size());
+    }
+
+    /**
+     * Test that a legitimate user still gets through after a flood of new
+     * keys fills the map
+     */
+    @Test
+    public void testFloodDoesNotLockOut() {
+        TestRateLimiter limiter = new TestRateLimiter(1, 60, 100);
+        limiter.now = 1000L;
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire("sprayed" + i);
+        }
+        assertTrue("Legitimate user locked out", limiter.tryAcquire("legitimate"));
+        assertEquals("Too many keys held", 100, limiter.size());
+    }
+
+    /**
+     * Test that refilled buckets are dropped periodically
+     */
+    @Test
+    public void testSweep() {
+        TestRateLimiter limiter = new TestRateLimiter(5, 60, 100);
+        limiter.now = 1000L;
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire("user" + i));
+        }
+        assertEquals("Wrong number of keys held", 10, limiter.size());
+
+        limiter.now += CASAuthRateLimiter.SWEEP_INTERVAL;
+        assertTrue(limiter.tryAcquire("user0"));
+        assertEquals("Idle keys not dropped", 1, limiter.size());
+    }
+
+    /**
+     * Test that concurrent authentications never take more than the burst
+     */
+    @Test
+    public void testConcurrentBurst() throws Exception {
+        final CASAuthRateLimiter limiter = new CASAuthRateLimiter(100, 1, 10);
+        final int[] allowed = new int[8];
+        Thread[] threads = new Thread[allowed.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        if (limiter.tryAcquire("user")) {
+                            allowed[index]++;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        int total = 0;
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            total += allowed[i];
+        }
+
+        assertEquals("Wrong number allowed", 100, total);
+        assertEquals("Wrong number refused", 700, limiter.getRejectedCount());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthReplayDetector
+ *
+ * @see CASAuthReplayDetector
+ */
+public class CASAuthReplayDetectorTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_PROXY_TICKET = "ST-TEST-SERVICE-TICKET";
+
+    /**
+     * A detector whose clock is set by the test
+     */
+    static class TestReplayDetector extends CASAuthReplayDetector {
+
+        long now;
+
+        TestReplayDetector(int generations, boolean offHeap) {
+            super(1000, 0.000001, 1000L, generations, offHeap);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    /**
+     * Test that a recorded ticket is detected as a replay and counted, on and
+     * off the heap
+     */
+    @Test
+    public void testRecordedTicketIsReplay() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            CASAuthReplayDetector detector = new TestReplayDetector(2, offHeap);
+
+            assertFalse("Unused ticket is a replay", detector.isReplay("ST-1"));
+            detector.record("ST-1");
+            assertTrue("Used ticket is not a replay", detector.isReplay("ST-1"));
+            assertFalse("Other ticket is a replay", detector.isReplay("ST-2"));
+            assertEquals("Replay not counted", 1, detector.getReplayCount());
+            assertEquals("Wrong allocation", offHeap, detector.isOffHeap());
+        }
+    }
+
+    /**
+     * Test that the filters are sized for the false positive rate
+     */
+    @Test
+    public void testSizing() {
+        CASAuthReplayDetector detector = new CASAuthReplayDetector(100000, 0.000001, 1000L, 3, false);
+
+        assertEquals("Wrong number of hashes", 20, detector.getHashCount());
+        assertEquals("Wrong number of bits", 2875520L, detector.getBitCount());
+        assertEquals("Wrong size", 2875520L / 8 * 3, detector.getSizeInBytes());
+    }
+
+    /**
+     * Test that the false positive rate is close to the configured rate
+     */
+    @Test
+    public void testFalsePositiveRate() {
+        CASAuthReplayDetector detector = new CASAuthReplayDetector(10000, 0.01, 1000L, 2, false);
+        for (int i = 0; i < 10000; i++) {
+            detector.record("ST-" + i + "-cas");
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue("Recorded ticket missed", detector.isReplay("ST-" + i + "-cas"));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (detector.isReplay("ST-" + i + "-cas")) {
+                falsePositives++;
+            }
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 2000);
+    }
+
+    /**
+     * Test that a ticket is forgotten once its filter is reused
+     */
+    @Test
+    public void testRotation() {
+        TestReplayDetector detector = new TestReplayDetector(3, false);
+        detector.record("ST-1");
+
+        detector.now = 1500L;
+        detector.record("ST-2");
+        assertTrue("Ticket forgotten after one window", detector.isReplay("ST-1"));
+
+        detector.now = 2500L;
+        assertTrue("Ticket forgotten after two windows", detector.isReplay("ST-1"));
+        assertTrue(detector.isReplay("ST-2"));
+
+        detector.now = 3000L;
+        assertFalse("Ticket remembered after three windows", detector.isReplay("ST-1"));
+        assertTrue(detector.isReplay("ST-2"));
+
+        detector.now = 100000L;
+        assertFalse("Ticket remembered after a long idle", detector.isReplay("ST-2"));
+    }
+
+    /**
+     * Test that the validator rejects a replayed ticket without contacting
+     * CAS, and only remembers tickets CAS accepted
+     */
+    @Test
+    public void testValidatorRejectsReplay() throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+        when(proxyValidator.validate(TEST_PROXY_TICKET, SERVICE_URL)).thenReturn(assertion);
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn(TEST_USERNAME);
+
+        CASAuthTicketValidator validator = new CASAuthTicketValidator(proxyValidator, SERVICE_URL);
+        CASAuthReplayDetector detector = new CASAuthReplayDetector(1000, 0.000001, 60000L, 2, false);
+        validator.setReplayDetector(detector);
+
+        validator.authenticateCASTicket(TEST_USERNAME, TEST_PROXY_TICKET);
+        try {
+            validator.authenticateCASTicket(TEST_USERNAME, TEST_PROXY_TICKET);
+            fail("Replayed ticket accepted");
+        } catch (UnauthorizedException ue) {
+            // expected
+        }
+
+        verify(proxyValidator, times(1)).validate(TEST_PROXY_TICKET, SERVICE_URL);
+        assertEquals("Replay not counted", 1, detector.getReplayCount());
+    }
+
+    /**
+     * Test that invalid configurations are refused
+     */
+    @Test
+    public void testInvalidArguments() {
+        try {
+            new CASAuthReplayDetector(1000, 1.0, 1000L, 2, false);
+            fail("False positive rate of one accepted");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            new CASAuthReplayDetector(1000, 0.01, 1000L, 1, false);
+            fail("Single generation accepted");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.DefaultCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthResumptionTokens
+ *
+ * @see CASAuthResumptionTokens
+ */
+public class CASAuthResumptionTokensTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+
+    /**
+     * Class under test
+     */
+    CASAuthResumptionTokens tokens;
+
+    Map<String, byte[]> keys;
+
+    @Before
+    public void setUp() throws Exception {
+        keys = new LinkedHashMap<String, byte[]>();
+        keys.put("k2", "new-secret".getBytes("UTF-8"));
+        keys.put("k1", "old-secret".getBytes("UTF-8"));
+        tokens = new CASAuthResumptionTokens(keys, 60000L);
+    }
+
+    /**
+     * Test that an issued token is accepted for its user and service only
+     */
+    @Test
+    public void testIssueAndVerify() {
+        String token = tokens.issue(TEST_USERNAME, SERVICE_URL);
+
+        assertTrue("Issued token not recognised", CASAuthResumptionTokens.isToken(token));
+        assertTrue("Token not signed with the first key",
+                token.startsWith(CASAuthResumptionTokens.PREFIX + "k2:"));
+        assertNull("Token rejected", tokens.verify(TEST_USERNAME, SERVICE_URL, token));
+        assertNull("Token rejected for differently cased username",
+                tokens.verify(TEST_USERNAME.toUpperCase(), SERVICE_URL, token));
+        assertNotNull("Token accepted for another user",
+                tokens.verify("other_user", SERVICE_URL, token));
+        assertNotNull("Token accepted for another service",
+                tokens.verify(TEST_USERNAME, "http://other.service.url/", token));
+    }
+
+    /**
+     * Test that altered and malformed tokens are rejected
+     */
+    @Test
+    public void testTampering() {
+        String token = tokens.issue(TEST_USERNAME, SERVICE_URL);
+        String[] fields = token.substring(CASAuthResumptionTokens.PREFIX.length()).split(":");
+
+        String later = CASAuthResumptionTokens.PREFIX + fields[0] + ":" + (Long.parseLong(fields[1]) + 1)
+                + ":" + fields[2] + ":" + fields[3];
+        assertNotNull("Altered issue time accepted", tokens.verify(TEST_USERNAME, SERVICE_URL, later));
+        assertNotNull("Truncated token accepted",
+                tokens.verify(TEST_USERNAME, SERVICE_URL, token.substring(0, token.length() - 2)));
+        assertNotNull("Malformed token accepted",
+                tokens.verify(TEST_USERNAME, SERVICE_URL, CASAuthResumptionTokens.PREFIX + "k2:x"));
+        assertFalse("CAS ticket recognised as a token", CASAuthResumptionTokens.isToken("ST-1-abc"));
+    }
+
+    /**
+     * Test that tokens signed with an old key are accepted until the key is
+     * removed
+     */
+    @Test
+    public void testKeyRotation() throws Exception {
+        Map<String, byte[]> oldKeys = new LinkedHashMap<String, byte[]>();
+        oldKeys.put("k1", "old-secret".getBytes("UTF-8"));
+        String token = new CASAuthResumptionTokens(oldKeys, 60000L).issue(TEST_USERNAME, SERVICE_URL);
+
+        assertNull("Token signed with old key rejected", tokens.verify(TEST_USERNAME, SERVICE_URL, token));
+
+        keys.remove("k1");
+        assertNotNull("Token signed with removed key accepted",
+                new CASAuthResumptionTokens(keys, 60000L).verify(TEST_USERNAME, SERVICE_URL, token));
+    }
+
+    /**
+     * Test that tokens expire
+     */
+    @Test
+    public void testExpiry() throws Exception {
+        CASAuthResumptionTokens shortLived = new CASAuthResumptionTokens(keys, 1L);
+        String token = shortLived.issue(TEST_USERNAME, SERVICE_URL);
+        Thread.sleep(5);
+
+        assertEquals("Expired token accepted", "Resumption token has expired.",
+                shortLived.verify(TEST_USERNAME, SERVICE_URL, token));
+    }
+
+    /**
+     * Test that single tokens and every token of a user can be revoked, and
+     * revocations survive a reload
+     */
+    @Test
+    public void testRevocation() throws Exception {
+        String first = tokens.issue(TEST_USERNAME, SERVICE_URL);
+        String second = tokens.issue(TEST_USERNAME, SERVICE_URL);
+
+        tokens.revoke(first);
+        assertNotNull("Revoked token accepted", tokens.verify(TEST_USERNAME, SERVICE_URL, first));
+        assertNull("Other token rejected", tokens.verify(TEST_USERNAME, SERVICE_URL, second));
+
+        tokens.revokeUser(TEST_USERNAME);
+        assertNotNull("Token of revoked user accepted", tokens.verify(TEST_USERNAME, SERVICE_URL, second));
+
+        CASAuthResumptionTokens reloaded = new CASAuthResumptionTokens(keys, 60000L);
+        reloaded.inheritRevocations(tokens);
+        assertEquals("Revocations not inherited", 2, reloaded.getRevocationCount());
+        assertNotNull("Revoked token accepted after reload",
+                reloaded.verify(TEST_USERNAME, SERVICE_URL, first));
+
+        // Tokens issued after the user was revoked are accepted
+        Thread.sleep(2);
+        assertNull("New token rejected",
+                reloaded.verify(TEST_USERNAME, SERVICE_URL, reloaded.issue(TEST_USERNAME, SERVICE_URL)));
+    }
+
+    /**
+     * Test that key ids which would break the token format are refused
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKeyId() {
+        keys.put("bad:id", new byte[] {1});
+        new CASAuthResumptionTokens(keys, 60000L);
+    }
+
+    /**
+     * Test that a token revoked on one cluster node is rejected on another
+     * sharing the revocation cache
+     */
+    @Test
+    public void testSharedRevocations() throws Exception {
+        Cache<String, String> sharedCache = new DefaultCache<String, String>(
+                CASAuthResumptionTokens.REVOCATION_CACHE_NAME, 1048576, 60000L);
+        CASAuthResumptionTokens node1 = new CASAuthResumptionTokens(keys, 60000L, sharedCache);
+        CASAuthResumptionTokens node2 = new CASAuthResumptionTokens(keys, 60000L, sharedCache);
+        String first = node1.issue(TEST_USERNAME, SERVICE_URL);
+        String second = node1.issue(TEST_USERNAME, SERVICE_URL);
+
+        node1.revoke(first);
+        assertNotNull("Token revoked on another node accepted", node2.verify(TEST_USERNAME, SERVICE_URL, first));
+        assertNull("Other token rejected", node2.verify(TEST_USERNAME, SERVICE_URL, second));
+
+        node2.revokeUser(TEST_USERNAME);
+        assertNotNull("User revoked on another node accepted", node1.verify(TEST_USERNAME, SERVICE_URL, second));
+    }
+
+    /**
+     * Test that a token is not accepted when the revocations cannot be read
+     */
+    @Test
+    public void testUnreadableRevocationsReject() throws Exception {
+        @SuppressWarnings("unchecked")
+        Cache<String, String> failing = mock(Cache.class);
+        when(failing.containsKey(anyObject())).thenThrow(new IllegalStateException("cluster unavailable"));
+        CASAuthResumptionTokens node = new CASAuthResumptionTokens(keys, 60000L, failing);
+
+        assertNotNull("Token accepted without checking revocations",
+                node.verify(TEST_USERNAME, SERVICE_URL, node.issue(TEST_USERNAME, SERVICE_URL)));
+    }
+}
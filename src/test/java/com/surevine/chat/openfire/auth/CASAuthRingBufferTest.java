@@ -0,0 +1,107 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthRingBuffer
+ *
+ * @see CASAuthRingBuffer
+ */
+public class CASAuthRingBufferTest {
+
+    /**
+     * Test that the capacity is rounded up to a power of two
+     */
+    @Test
+    public void testCapacity() {
+        assertEquals("Capacity not rounded up", 8, new CASAuthRingBuffer<String>(5).capacity());
+    }
+
+    /**
+     * Test that elements are drained in order and a full buffer refuses more
+     */
+    @Test
+    public void testOfferAndDrain() {
+        CASAuthRingBuffer<Integer> buffer = new CASAuthRingBuffer<Integer>(4);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue("Element refused", buffer.offer(i));
+        }
+        assertFalse("Full buffer accepted an element", buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals("Wrong number drained", 3, buffer.drainTo(drained, 3));
+        assertEquals("Wrong order", Integer.valueOf(0), drained.get(0));
+        assertEquals("Wrong size", 1, buffer.size());
+
+        assertTrue("Freed slot not reused", buffer.offer(5));
+        buffer.drainTo(drained, 10);
+        assertEquals("Wrong element", Integer.valueOf(5), drained.get(4));
+        assertEquals("Buffer not empty", 0, buffer.size());
+    }
+
+    /**
+     * Test that nothing is lost or duplicated with concurrent producers
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final CASAuthRingBuffer<Integer> buffer = new CASAuthRingBuffer<Integer>(64);
+        final int producers = 4;
+        final int perProducer = 10000;
+        final AtomicInteger refused = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            final int base = p * perProducer;
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < perProducer; ++i) {
+                        if (!buffer.offer(base + i)) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        Set<Integer> seen = new HashSet<Integer>();
+        List<Integer> batch = new ArrayList<Integer>();
+        while (done.getCount() > 0 || buffer.size() > 0) {
+            batch.clear();
+            buffer.drainTo(batch, 16);
+            for (Integer element : batch) {
+                assertTrue("Element drained twice: " + element, seen.add(element));
+            }
+        }
+
+        assertEquals("Elements lost", producers * perProducer, seen.size() + refused.get());
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.InvalidProxyChainTicketValidationException;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for CASAuthStreamingTicketValidator
+ *
+ * @see CASAuthStreamingTicketValidator
+ */
+public class CASAuthStreamingTicketValidatorTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    static String TEST_PROXY = "https://proxy.test/pgtCallback";
+
+    static String SUCCESS = "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationSuccess><cas:user>" + TEST_USERNAME + "</cas:user>"
+            + "<cas:attributes><cas:mail>test@test</cas:mail>"
+            + "<cas:memberOf>a</cas:memberOf><cas:memberOf>b</cas:memberOf></cas:attributes>"
+            + "</cas:authenticationSuccess></cas:serviceResponse>";
+
+    static String PROXIED_SUCCESS = "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationSuccess><cas:user>" + TEST_USERNAME + "</cas:user>"
+            + "<cas:proxies><cas:proxy>" + TEST_PROXY + "</cas:proxy></cas:proxies>"
+            + "</cas:authenticationSuccess></cas:serviceResponse>";
+
+    static String FAILURE = "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationFailure code='INVALID_TICKET'>\n  Ticket not recognized\n"
+            + "</cas:authenticationFailure></cas:serviceResponse>";
+
+    /**
+     * The stub CAS server
+     */
+    HttpServer server;
+
+    /**
+     * Class under test
+     */
+    CASAuthStreamingTicketValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cas/proxyValidate", new StubHandler(SUCCESS));
+        server.start();
+
+        List<String[]> chains = new ArrayList<String[]>();
+        chains.add(new String[] {TEST_PROXY});
+        validator = new CASAuthStreamingTicketValidator(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/cas",
+                new CASAuthUrlConnectionTransport(1000, 1000), new CASAuthProxyChainMatcher(chains), 65536);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    /**
+     * Test a validation against the stub server, including attributes
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testValidation() throws Exception {
+        Assertion assertion = validator.validate(TEST_TICKET, SERVICE_URL);
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                assertion.getPrincipal().getName());
+        Map<String, Object> attributes = assertion.getPrincipal().getAttributes();
+        assertEquals("Wrong attribute", "test@test", attributes.get("mail"));
+        assertEquals("Repeated attribute not collected", 2,
+                ((List<Object>) attributes.get("memberOf")).size());
+    }
+
+    /**
+     * Test that the validation URL carries the ticket and encoded service
+     */
+    @Test
+    public void testValidationUrl() {
+        assertEquals("Wrong validation URL",
+                validator.getCasServerUrlPrefix() + "/proxyValidate?ticket=" + TEST_TICKET
+                        + "&service=http%3A%2F%2Ftest.service.url%2F",
+                validator.constructValidationUrl(TEST_TICKET, SERVICE_URL));
+    }
+
+    /**
+     * Test that a rejection carries the CAS failure message
+     */
+    @Test
+    public void testFailure() throws Exception {
+        try {
+            validator.parseResponse(stream(FAILURE));
+            fail("Rejected ticket was accepted");
+        } catch (TicketValidationException tve) {
+            assertEquals("Wrong failure message", "Ticket not recognized", tve.getMessage());
+        }
+    }
+
+    /**
+     * Test that an allowed proxy chain is accepted
+     */
+    @Test
+    public void testAllowedProxyChain() throws Exception {
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                validator.parseResponse(stream(PROXIED_SUCCESS)).getPrincipal().getName());
+    }
+
+    /**
+     * Test that an unknown proxy chain is rejected
+     */
+    @Test(expected = InvalidProxyChainTicketValidationException.class)
+    public void testInvalidProxyChain() throws Exception {
+        validator.parseResponse(stream(PROXIED_SUCCESS.replace(TEST_PROXY, "https://evil.test/")));
+    }
+
+    /**
+     * Test that a response without a user is rejected
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testMissingUser() throws Exception {
+        validator.parseResponse(stream("<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'/>"));
+    }
+
+    /**
+     * Test that a response larger than the limit is refused
+     */
+    @Test(expected = TicketValidationException.class)
+    public void testOversizedResponse() throws Exception {
+        validator.parseResponse(new CASAuthStreamingTicketValidator.BoundedInputStream(
+                stream(SUCCESS), 64));
+    }
+
+    /**
+     * Test that a DOCTYPE is not processed
+     */
+    @Test
+    public void testEntitiesNotExpanded() throws Exception {
+        try {
+            Assertion assertion = validator.parseResponse(stream(
+                    "<!DOCTYPE r [<!ENTITY e SYSTEM 'file:///etc/passwd'>]>" + SUCCESS.replace(TEST_USERNAME, "&e;")));
+            assertTrue("Entity was expanded", assertion.getPrincipal().getName().length() == 0);
+        } catch (TicketValidationException tve) {
+            // Refusing the document is also acceptable
+        }
+    }
+
+    /**
+     * Test that an unreachable server is a connection failure
+     */
+    @Test(expected = RuntimeException.class)
+    public void testConnectionFailure() throws Exception {
+        server.stop(0);
+        validator.validate(TEST_TICKET, SERVICE_URL);
+    }
+
+    private static ByteArrayInputStream stream(String body) throws IOException {
+        return new ByteArrayInputStream(body.getBytes("UTF-8"));
+    }
+
+    /**
+     * Answers every request with a fixed body.
+     */
+    static class StubHandler implements HttpHandler {
+
+        private final byte[] body;
+
+        StubHandler(String body) throws IOException {
+            this.body = body.getBytes("UTF-8");
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process CAS server with canned <code>validate</code>,
+ * <code>serviceValidate</code> and <code>proxyValidate</code> responses,
+ * their protocol 3.0 <code>p3/</code> forms in XML or JSON, and a
+ * configurable response delay, for benchmarking and load testing the
+ * provider without a real CAS. Every ticket is accepted except those starting
+ * with {@link #REJECTED_TICKET_PREFIX}, so it lives with the tests and is
+ * published in the test jar, never in the plugin.
+ */
+public class CASAuthStubCasServer {
+
+    /**
+     * The prefix of tickets the stub rejects.
+     */
+    public static final String REJECTED_TICKET_PREFIX = "ST-REJECT";
+
+    /**
+     * The context path the stub serves CAS under.
+     */
+    private static final String CONTEXT = "/cas";
+
+    /**
+     * The system property disabling Nagle's algorithm in the JDK HTTP server.
+     */
+    private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads answering requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The user every accepted ticket belongs to.
+     */
+    private volatile String username = "user";
+
+    /**
+     * The proxies reported for proxy tickets.
+     */
+    private volatile List<String> proxies = new ArrayList<String>();
+
+    /**
+     * The attributes released in protocol 3.0 JSON responses.
+     */
+    private volatile Map<String, List<String>> attributes = Collections.emptyMap();
+
+    /**
+     * The delay before each response, in milliseconds.
+     */
+    private volatile long latency;
+
+    /**
+     * The number of requests answered.
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Constructs a new stub listening on the loopback interface.
+     *
+     * @param port The port, or 0 to use any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public CASAuthStubCasServer(final int port) throws IOException {
+        // The JDK server writes headers and body separately, so with Nagle's
+        // algorithm every response waits for a delayed ACK. This is read once,
+        // when the first server is created.
+        if (System.getProperty(NODELAY_PROPERTY) == null) {
+            System.setProperty(NODELAY_PROPERTY, "true");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "CASAuthProvider-stub-cas-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(CONTEXT + "/validate", new Cas10Handler());
+        server.createContext(CONTEXT + "/serviceValidate", new Cas20Handler(false));
+        server.createContext(CONTEXT + "/proxyValidate", new Cas20Handler(true));
+        server.createContext(CONTEXT + "/p3/serviceValidate", new Cas30Handler(false));
+        server.createContext(CONTEXT + "/p3/proxyValidate", new Cas30Handler(true));
+    }
+
+    /**
+     * Start answering requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop answering requests and release the port.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the CAS server URL prefix of the stub.
+     *
+     * @return The prefix, suitable for
+     * <code>casAuthProvider.casServerUrlPrefix</code>.
+     */
+    public String getCasServerUrlPrefix() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    /**
+     * Set the user every accepted ticket belongs to.
+     *
+     * @param username The username.
+     */
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+
+    /**
+     * Set the proxies reported for proxy tickets.
+     *
+     * @param proxies The proxy chain, most recent first.
+     */
+    public void setProxies(final List<String> proxies) {
+        this.proxies = new ArrayList<String>(proxies);
+    }
+
+    /**
+     * Set the attributes released in protocol 3.0 JSON responses.
+     *
+     * @param attributes The values of each attribute.
+     */
+    public void setAttributes(final Map<String, List<String>> attributes) {
+        this.attributes = new LinkedHashMap<String, List<String>>(attributes);
+    }
+
+    /**
+     * Set the delay before each response.
+     *
+     * @param latency The delay in milliseconds.
+     */
+    public void setLatency(final long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Get the number of requests answered.
+     *
+     * @return The request count.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Build a CAS 2.0 response.
+     *
+     * @param ticket       The ticket being validated.
+     * @param proxyTickets Whether the proxy chain should be included.
+     * @return The response body.
+     */
+    String createCas20Response(final String ticket, final boolean proxyTickets) {
+        final StringBuilder response = new StringBuilder(256);
+        response.append("<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\n");
+        if (isRejected(ticket)) {
+            response.append("  <cas:authenticationFailure code='INVALID_TICKET'>\n");
+            response.append("    Ticket ").append(ticket).append(" not recognized\n");
+            response.append("  </cas:authenticationFailure>\n");
+        } else {
+            response.append("  <cas:authenticationSuccess>\n");
+            response.append("    <cas:user>").append(username).append("</cas:user>\n");
+            final List<String> chain = proxies;
+            if (proxyTickets && !chain.isEmpty()) {
+                response.append("    <cas:proxies>\n");
+                for (final String proxy : chain) {
+                    response.append("      <cas:proxy>").append(proxy).append("</cas:proxy>\n");
+                }
+                response.append("    </cas:proxies>\n");
+            }
+            response.append("  </cas:authenticationSuccess>\n");
+        }
+        response.append("</cas:serviceResponse>\n");
+        return response.toString();
+    }
+
+    /**
+     * Build a CAS 3.0 JSON response.
+     *
+     * @param ticket       The ticket being validated.
+     * @param proxyTickets Whether the proxy chain should be included.
+     * @return The response body.
+     */
+    String createCas30JsonResponse(final String ticket, final boolean proxyTickets) {
+        final StringBuilder response = new StringBuilder(256);
+        response.append("{\"serviceResponse\":{");
+        if (isRejected(ticket)) {
+            response.append("\"authenticationFailure\":{\"code\":\"INVALID_TICKET\",\"description\":");
+            appendJsonString(response, "Ticket " + ticket + " not recognized");
+            response.append('}');
+        } else {
+            response.append("\"authenticationSuccess\":{\"user\":");
+            appendJsonString(response, username);
+            final List<String> chain = proxies;
+            if (proxyTickets && !chain.isEmpty()) {
+                response.append(",\"proxies\":[");
+                for (int i = 0; i < chain.size(); i++) {
+                    if (i > 0) {
+                        response.append(',');
+                    }
+                    appendJsonString(response, chain.get(i));
+                }
+                response.append(']');
+            }
+            final Map<String, List<String>> released = attributes;
+            if (!released.isEmpty()) {
+                response.append(",\"attributes\":{");
+                boolean first = true;
+                for (final Map.Entry<String, List<String>> attribute : released.entrySet()) {
+                    if (!first) {
+                        response.append(',');
+                    }
+                    first = false;
+                    appendJsonString(response, attribute.getKey());
+                    response.append(":[");
+                    for (int i = 0; i < attribute.getValue().size(); i++) {
+                        if (i > 0) {
+                            response.append(',');
+                        }
+                        appendJsonString(response, attribute.getValue().get(i));
+                    }
+                    response.append(']');
+                }
+                response.append('}');
+            }
+            response.append('}');
+        }
+        response.append("}}\n");
+        return response.toString();
+    }
+
+    /**
+     * Append a value as a JSON string.
+     */
+    private static void appendJsonString(final StringBuilder out, final String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", Integer.valueOf(c)));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static boolean isRejected(final String ticket) {
+        return ticket == null || ticket.startsWith(REJECTED_TICKET_PREFIX);
+    }
+
+    /**
+     * Get a query parameter from a request URI. Tickets contain no characters
+     * which need decoding.
+     */
+    private static String getParameter(final URI uri, final String name) {
+        final String query = uri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (final String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Answers CAS requests after the configured delay.
+     */
+    private abstract class StubHandler implements HttpHandler {
+
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                final long delay = latency;
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                final URI uri = exchange.getRequestURI();
+                final boolean json = "JSON".equalsIgnoreCase(getParameter(uri, "format"));
+                final byte[] body = createResponse(getParameter(uri, "ticket"), json).getBytes(
+                        CASAuthHttpTransport.RESPONSE_CHARSET);
+                exchange.getResponseHeaders().set("Content-Type",
+                        json ? "application/json; charset=UTF-8" : "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                requestCount.incrementAndGet();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract String createResponse(String ticket, boolean json);
+    }
+
+    /**
+     * Answers CAS 1.0 <code>validate</code> requests.
+     */
+    private final class Cas10Handler extends StubHandler {
+
+        String createResponse(final String ticket, final boolean json) {
+            return isRejected(ticket) ? "no\n\n" : "yes\n" + username + "\n";
+        }
+    }
+
+    /**
+     * Answers CAS 2.0 <code>serviceValidate</code> and
+     * <code>proxyValidate</code> requests.
+     */
+    private final class Cas20Handler extends StubHandler {
+
+        private final boolean proxyTickets;
+
+        Cas20Handler(final boolean proxyTickets) {
+            this.proxyTickets = proxyTickets;
+        }
+
+        String createResponse(final String ticket, final boolean json) {
+            return createCas20Response(ticket, proxyTickets);
+        }
+    }
+
+    /**
+     * Answers CAS 3.0 <code>p3/serviceValidate</code> and
+     * <code>p3/proxyValidate</code> requests, in JSON when asked for with
+     * <code>format=JSON</code>.
+     */
+    private final class Cas30Handler extends StubHandler {
+
+        private final boolean proxyTickets;
+
+        Cas30Handler(final boolean proxyTickets) {
+            this.proxyTickets = proxyTickets;
+        }
+
+        String createResponse(final String ticket, final boolean json) {
+            return json ? createCas30JsonResponse(ticket, proxyTickets)
+                    : createCas20Response(ticket, proxyTickets);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.validation.InvalidProxyChainTicketValidationException;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for CASAuthStubCasServer
+ *
+ * @see CASAuthStubCasServer
+ */
+public class CASAuthStubCasServerTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_PROXY = "https://proxy.test/pgtCallback";
+
+    /**
+     * Class under test
+     */
+    CASAuthStubCasServer server;
+
+    /**
+     * The transport used to reach the stub
+     */
+    CASAuthHttpTransport transport = new CASAuthUrlConnectionTransport(1000, 1000);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new CASAuthStubCasServer(0);
+        server.setUsername(TEST_USERNAME);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Test that CAS 1.0 tickets are accepted and rejected
+     */
+    @Test
+    public void testCas10() throws Exception {
+        CASAuthCas10TicketValidator validator = new CASAuthCas10TicketValidator(
+                server.getCasServerUrlPrefix(), transport);
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                validator.validate("ST-1", SERVICE_URL).getPrincipal().getName());
+        try {
+            validator.validate(CASAuthStubCasServer.REJECTED_TICKET_PREFIX + "-1", SERVICE_URL);
+            throw new AssertionError("Rejected ticket was accepted");
+        } catch (TicketValidationException tve) {
+            // expected
+        }
+        assertEquals("Requests not counted", 2, server.getRequestCount());
+    }
+
+    /**
+     * Test that CAS 2.0 proxy tickets report the configured proxy chain
+     */
+    @Test
+    public void testProxyValidate() throws Exception {
+        server.setProxies(Arrays.asList(TEST_PROXY));
+        List<String[]> chains = new ArrayList<String[]>();
+        chains.add(new String[] {TEST_PROXY});
+        CASAuthStreamingTicketValidator validator = new CASAuthStreamingTicketValidator(
+                server.getCasServerUrlPrefix(), transport, new CASAuthProxyChainMatcher(chains), 65536);
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                validator.validate("PT-1", SERVICE_URL).getPrincipal().getName());
+    }
+
+    /**
+     * Test that the CAS client's parser checks proxy chains with the matcher
+     */
+    @Test
+    public void testProxyTicketValidatorMatcher() throws Exception {
+        server.setProxies(Arrays.asList(TEST_PROXY));
+        List<String[]> chains = new ArrayList<String[]>();
+        chains.add(new String[] {"https://proxy.test/*"});
+        CASAuthProxyTicketValidator validator = new CASAuthProxyTicketValidator(
+                server.getCasServerUrlPrefix(), transport);
+        validator.setProxyChainMatcher(new CASAuthProxyChainMatcher(chains));
+
+        assertEquals("Wrong principal returned", TEST_USERNAME,
+                validator.validate("PT-1", SERVICE_URL).getPrincipal().getName());
+
+        server.setProxies(Arrays.asList("https://other.test/pgtCallback"));
+        try {
+            validator.validate("PT-2", SERVICE_URL);
+            throw new AssertionError("Disallowed proxy chain was accepted");
+        } catch (InvalidProxyChainTicketValidationException ipctve) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that the configured delay is applied
+     */
+    @Test
+    public void testLatency() throws Exception {
+        server.setLatency(100);
+        long start = System.currentTimeMillis();
+
+        transport.getResponse(server.getCasServerUrlPrefix() + "/validate?ticket=ST-1");
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Delay not applied", elapsed >= 100);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for CASAuthThreadPerTaskExecutor, using platform threads
+ *
+ * @see CASAuthThreadPerTaskExecutor
+ */
+public class CASAuthThreadPerTaskExecutorTest {
+
+    /**
+     * Class under test
+     */
+    CASAuthThreadPerTaskExecutor executor = new CASAuthThreadPerTaskExecutor(
+            Executors.defaultThreadFactory(), 2);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Test that tasks run and their results are returned
+     */
+    @Test
+    public void testRunsTasks() throws Exception {
+        Future<String> result = executor.submit(new Callable<String>() {
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+
+        assertTrue("Task did not run", result.get(5, TimeUnit.SECONDS).length() > 0);
+    }
+
+    /**
+     * Test that tasks beyond the maximum running at once are rejected
+     */
+    @Test
+    public void testRejectsOverLimit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        executor.execute(blocked);
+        executor.execute(blocked);
+        assertEquals("Wrong number of tasks running", 2, executor.getActiveCount());
+
+        try {
+            executor.execute(blocked);
+            fail("Task over the limit accepted");
+        } catch (RejectedExecutionException ree) {
+            // expected
+        }
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue("Executor did not terminate", executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("Tasks still running", 0, executor.getActiveCount());
+    }
+
+    /**
+     * Test that no tasks are accepted after shutdown
+     */
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectsAfterShutdown() {
+        executor.shutdown();
+        executor.execute(new Runnable() {
+            public void run() {
+            }
+        });
+    }
+
+    /**
+     * Test that the factory uses virtual threads where the runtime has them
+     * and otherwise falls back to the platform thread pool
+     */
+    @Test
+    public void testFactoryFallback() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("casAuthProvider.casServerUrlPrefix", "http://test.cas.url/cas");
+        properties.put("casAuthProvider.validator", "Cas20ProxyTicketValidator");
+        properties.put("casAuthProvider.virtualThreads.enabled", "true");
+        properties.put("casAuthProvider.async.enabled", "true");
+        CASAuthTicketValidator validator = new CASAuthTicketValidatorFactory()
+                .createCASAuthTicketValidator(new CASAuthProviderConfig(properties));
+
+        try {
+            if (CASAuthVirtualThreads.isAvailable()) {
+                assertTrue("Virtual threads not used",
+                        validator.getExecutor() instanceof CASAuthThreadPerTaskExecutor);
+            } else {
+                assertTrue("No fallback to platform threads",
+                        validator.getExecutor() instanceof CASAuthValidationExecutor);
+            }
+        } finally {
+            validator.shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test case for CASAuthTicketCache
+ *
+ * @see CASAuthTicketCache
+ */
+public class CASAuthTicketCacheTest {
+
+    private static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    private static String TEST_SERVICE_URL = "http://test.service.url/";
+    private static String TEST_USERNAME = "test_user";
+
+    /**
+     * The current time seen by the cache
+     */
+    private long now;
+
+    /**
+     * Class under test
+     */
+    private CASAuthTicketCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        now = 1000L;
+        cache = new CASAuthTicketCache(2, 100L) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    /**
+     * Test that a cached value is returned within its time to live
+     */
+    @Test
+    public void testGetCachedValue() {
+        cache.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+
+        assertEquals("Cached value not returned", TEST_USERNAME,
+                cache.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+        assertEquals("Hit not counted", 1, cache.getHitCount());
+        assertEquals("Miss counted", 0, cache.getMissCount());
+    }
+
+    /**
+     * Test that the whole key must match
+     */
+    @Test
+    public void testGetDifferentKey() {
+        cache.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+
+        assertNull("Value returned for a different user",
+                cache.get(TEST_TICKET, TEST_SERVICE_URL, "other_user"));
+        assertNull("Value returned for a different service",
+                cache.get(TEST_TICKET, "http://other.service.url/", TEST_USERNAME));
+        assertEquals("Misses not counted", 2, cache.getMissCount());
+    }
+
+    /**
+     * Test that entries expire after their time to live
+     */
+    @Test
+    public void testGetExpiredValue() {
+        cache.put(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        now += 100L;
+
+        assertNull("Expired value returned",
+                cache.get(TEST_TICKET, TEST_SERVICE_URL, TEST_USERNAME));
+        assertEquals("Expired entry not removed", 0, cache.size());
+    }
+
+    /**
+     * Test that the least recently used entry is evicted when full
+     */
+    @Test
+    public void testEviction() {
+        cache.put("ST-1", TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        cache.put("ST-2", TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        cache.get("ST-1", TEST_SERVICE_URL, TEST_USERNAME);
+        cache.put("ST-3", TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+
+        assertEquals("Cache exceeded its maximum size", 2, cache.size());
+        assertEquals("Eviction not counted", 1, cache.getEvictionCount());
+        assertNull("Least recently used entry not evicted",
+                cache.get("ST-2", TEST_SERVICE_URL, TEST_USERNAME));
+        assertEquals("Recently used entry evicted", TEST_USERNAME,
+                cache.get("ST-1", TEST_SERVICE_URL, TEST_USERNAME));
+    }
+
+    /**
+     * Test that purging removes only expired entries
+     */
+    @Test
+    public void testPurgeExpired() {
+        cache.put("ST-1", TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        now += 50L;
+        cache.put("ST-2", TEST_SERVICE_URL, TEST_USERNAME, TEST_USERNAME);
+        now += 50L;
+        cache.purgeExpired();
+
+        assertEquals("Expired entries not purged", 1, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxSize() {
+        new CASAuthTicketCache(0, 100L);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for the validation and rejection caches of
+ * CASAuthTicketValidator
+ *
+ * @see CASAuthTicketValidator
+ */
+public class CASAuthTicketValidatorCacheTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_PROXY_TICKET = "ST-TEST-SERVICE-TICKET";
+    static String TEST_BAD_TICKET = "ST-TEST-BAD-TICKET";
+
+    /**
+     * Class under test
+     */
+    CASAuthTicketValidator validator;
+
+    /**
+     * The mocked proxy ticket validator
+     */
+    Cas20ProxyTicketValidator proxyValidator;
+
+    @Before
+    public void setUp() throws Exception {
+        proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+
+        when(proxyValidator.validate(TEST_PROXY_TICKET, SERVICE_URL))
+                .thenReturn(assertion);
+        when(proxyValidator.validate(TEST_BAD_TICKET, SERVICE_URL))
+                .thenThrow(new TicketValidationException("Failed validation"));
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn(TEST_USERNAME);
+
+        validator = new CASAuthTicketValidator(proxyValidator, SERVICE_URL);
+    }
+
+    /**
+     * Test that a replayed ticket is answered from the validation cache
+     */
+    @Test
+    public void testValidationCache() throws Exception {
+        validator.setValidationCache(new CASAuthTicketCache(10, 60000L));
+
+        validator.authenticateCASTicket(TEST_USERNAME, TEST_PROXY_TICKET);
+        validator.authenticateCASTicket(TEST_USERNAME, TEST_PROXY_TICKET);
+
+        verify(proxyValidator, times(1)).validate(TEST_PROXY_TICKET, SERVICE_URL);
+        assertEquals("Hit not counted", 1,
+                validator.getValidationCache().getHitCount());
+    }
+
+    /**
+     * Test that a login through the provider looks in the validation cache
+     * once
+     */
+    @Test
+    public void testProviderMissCountedOnce() throws Exception {
+        validator.setValidationCache(new CASAuthTicketCache(10, 60000L));
+        CASAuthProvider provider = new CASAuthProvider(validator);
+
+        provider.authenticate(TEST_USERNAME, TEST_PROXY_TICKET);
+        provider.authenticate(TEST_USERNAME, TEST_PROXY_TICKET);
+
+        verify(proxyValidator, times(1)).validate(TEST_PROXY_TICKET, SERVICE_URL);
+        assertEquals("Miss counted more than once", 1,
+                validator.getValidationCache().getMissCount());
+        assertEquals("Hit not counted", 1,
+                validator.getValidationCache().getHitCount());
+    }
+
+    /**
+     * Test that a replayed rejected ticket is rejected from the rejection
+     * cache
+     */
+    @Test
+    public void testRejectionCache() throws Exception {
+        validator.setRejectionCache(new CASAuthTicketCache(10, 60000L));
+
+        for (int i = 0; i < 3; ++i) {
+            try {
+                validator.authenticateCASTicket(TEST_USERNAME, TEST_BAD_TICKET);
+                fail("Bad ticket was accepted");
+            } catch (final UnauthorizedException e) {
+                // expected
+            }
+        }
+
+        verify(proxyValidator, times(1)).validate(TEST_BAD_TICKET, SERVICE_URL);
+        assertEquals("Suppressed calls not counted", 2,
+                validator.getRejectionCache().getHitCount());
+    }
+
+    /**
+     * Test that rejections are not cached in the validation cache
+     */
+    @Test
+    public void testRejectionNotInValidationCache() throws Exception {
+        validator.setValidationCache(new CASAuthTicketCache(10, 60000L));
+
+        for (int i = 0; i < 2; ++i) {
+            try {
+                validator.authenticateCASTicket(TEST_USERNAME, TEST_BAD_TICKET);
+                fail("Bad ticket was accepted");
+            } catch (final UnauthorizedException e) {
+                // expected
+            }
+        }
+
+        verify(proxyValidator, times(2)).validate(TEST_BAD_TICKET, SERVICE_URL);
+        assertEquals("Rejection cached as a validation", 0,
+                validator.getValidationCache().size());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthTraceRecorder and the trace recorded by
+ * CASAuthProvider
+ *
+ * @see CASAuthTraceRecorder
+ */
+public class CASAuthTraceRecorderTest {
+
+    static String TEST_USERNAME = "test_user";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    static String TEST_BAD_TICKET = "ST-TEST-BAD-TICKET";
+
+    /**
+     * Where the trace is written
+     */
+    StringWriter trace;
+
+    /**
+     * Class under test
+     */
+    CASAuthTraceRecorder recorder;
+
+    @Before
+    public void setUp() throws Exception {
+        trace = new StringWriter();
+        recorder = new CASAuthTraceRecorder(trace);
+    }
+
+    /**
+     * Test that tickets and usernames are hashed consistently and not
+     * written out
+     */
+    @Test
+    public void testAnonymised() throws Exception {
+        recorder.record(TEST_USERNAME, TEST_TICKET, CASAuthTraceRecorder.ACCEPTED, 2000000L);
+        recorder.record(TEST_USERNAME, TEST_TICKET, CASAuthTraceRecorder.ACCEPTED, 1000000L);
+        recorder.close();
+
+        assertFalse("Ticket written to trace", trace.toString().contains(TEST_TICKET));
+        assertFalse("Username written to trace", trace.toString().contains(TEST_USERNAME));
+
+        List<CASAuthTraceRecorder.Entry> entries = CASAuthTraceRecorder.read(
+                new StringReader(trace.toString()));
+        assertEquals("Wrong number of entries", 2, entries.size());
+        assertEquals("Ticket hashed inconsistently", entries.get(0).getTicketId(),
+                entries.get(1).getTicketId());
+        assertEquals("Wrong latency", 2000L, entries.get(0).getLatency());
+        assertEquals("Wrong outcome", CASAuthTraceRecorder.ACCEPTED, entries.get(1).getOutcome());
+    }
+
+    /**
+     * Test that separate recordings use separate salts
+     */
+    @Test
+    public void testSaltedPerRecording() throws Exception {
+        CASAuthTraceRecorder other = new CASAuthTraceRecorder(new StringWriter());
+
+        assertFalse("Recordings share a salt",
+                recorder.anonymise(TEST_TICKET).equals(other.anonymise(TEST_TICKET)));
+    }
+
+    /**
+     * Test that a malformed trace is refused
+     */
+    @Test(expected = IOException.class)
+    public void testMalformedTrace() throws Exception {
+        CASAuthTraceRecorder.read(new StringReader(CASAuthTraceRecorder.HEADER + "\n1 2 3\n"));
+    }
+
+    /**
+     * Test that the provider records accepted and rejected logins
+     */
+    @Test
+    public void testProviderRecordsLogins() throws Exception {
+        CASAuthTicketValidator validator = mock(CASAuthTicketValidator.class);
+        doThrow(new UnauthorizedException()).when(validator)
+                .validateAndCache(TEST_USERNAME, TEST_BAD_TICKET, null);
+        when(validator.getTraceRecorder()).thenReturn(recorder);
+        CASAuthProvider provider = new CASAuthProvider(validator);
+
+        provider.authenticate(TEST_USERNAME, TEST_TICKET);
+        try {
+            provider.authenticate(TEST_USERNAME, TEST_BAD_TICKET);
+            fail("Bad ticket was accepted");
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+        recorder.close();
+
+        List<CASAuthTraceRecorder.Entry> entries = CASAuthTraceRecorder.read(
+                new StringReader(trace.toString()));
+        assertEquals("Wrong number of entries", 2, entries.size());
+        assertEquals("Wrong outcome", CASAuthTraceRecorder.ACCEPTED, entries.get(0).getOutcome());
+        assertEquals("Wrong outcome", CASAuthTraceRecorder.REJECTED, entries.get(1).getOutcome());
+        assertTrue("Trace not in order", entries.get(0).getOffset() <= entries.get(1).getOffset());
+    }
+
+    /**
+     * Test that validations recorded once the recorder is closed are dropped
+     * and counted
+     */
+    @Test
+    public void testDroppedAfterClose() throws Exception {
+        recorder.close();
+        recorder.record(TEST_USERNAME, TEST_TICKET, CASAuthTraceRecorder.ACCEPTED, 1000000L);
+
+        assertEquals("Dropped validation not counted", 1, recorder.getDroppedCount());
+        assertEquals("Trace written after close", 0, CASAuthTraceRecorder.read(
+                new StringReader(trace.toString())).size());
+    }
+}
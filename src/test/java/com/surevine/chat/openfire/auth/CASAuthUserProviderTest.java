@@ -0,0 +1,133 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+
+package com.surevine.chat.openfire.auth;
+
+import org.jivesoftware.openfire.user.User;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.openfire.user.UserProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthUserProvider
+ *
+ * @see CASAuthUserProvider
+ */
+public class CASAuthUserProviderTest {
+
+    /**
+     * The store the provider serves from
+     */
+    private CASAuthAttributeStore store;
+
+    /**
+     * The mocked fallback provider
+     */
+    private UserProvider fallback;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new CASAuthAttributeStore(10, "displayName", "mail", "memberOf");
+        store.update("alice", CASAuthAttributeStoreTest.attributes("Alice Smith",
+                "alice@example.com", "staff"));
+        fallback = mock(UserProvider.class);
+    }
+
+    /**
+     * Test that a stored user is served without the fallback provider
+     */
+    @Test
+    public void testLoadStoredUser() throws Exception {
+        CASAuthUserProvider provider = new CASAuthUserProvider(store, fallback);
+
+        User user = provider.loadUser("alice");
+
+        assertEquals("Wrong name", "Alice Smith", user.getName());
+        assertEquals("Wrong email", "alice@example.com", user.getEmail());
+        verify(fallback, never()).loadUser("alice");
+    }
+
+    /**
+     * Test that a user not in the store is loaded from the fallback provider
+     */
+    @Test
+    public void testLoadFallbackUser() throws Exception {
+        User bob = new User("bob", "Bob", null, null, null);
+        when(fallback.loadUser("bob")).thenReturn(bob);
+
+        assertSame("Fallback user not returned", bob,
+                new CASAuthUserProvider(store, fallback).loadUser("bob"));
+    }
+
+    /**
+     * Test that a user not in the store is not found without a fallback
+     */
+    @Test(expected = UserNotFoundException.class)
+    public void testLoadUnknownUser() throws Exception {
+        new CASAuthUserProvider(store, null).loadUser("bob");
+    }
+
+    /**
+     * Test that without a fallback the provider lists the stored users and
+     * is read only
+     */
+    @Test
+    public void testWithoutFallback() {
+        CASAuthUserProvider provider = new CASAuthUserProvider(store, null);
+
+        assertTrue("Provider not read only", provider.isReadOnly());
+        assertEquals("Wrong user count", 1, provider.getUserCount());
+        assertEquals("Wrong user listed", "alice",
+                provider.getUsers().iterator().next().getUsername());
+    }
+
+    /**
+     * Test that changes are made through the fallback provider
+     */
+    @Test
+    public void testChangesUseFallback() throws Exception {
+        when(fallback.isReadOnly()).thenReturn(false);
+        CASAuthUserProvider provider = new CASAuthUserProvider(store, fallback);
+
+        provider.setEmail("alice", "a.smith@example.com");
+        provider.deleteUser("alice");
+
+        assertFalse("Provider read only", provider.isReadOnly());
+        verify(fallback).setEmail("alice", "a.smith@example.com");
+        assertEquals("Deleted user kept in store", 0, store.size());
+    }
+
+    /**
+     * Test that changes are refused without a fallback provider
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testChangesWithoutFallback() throws Exception {
+        new CASAuthUserProvider(store, null).setName("alice", "Alice");
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jivesoftware.openfire.auth.ConnectionException;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for CASAuthValidationCoalescer
+ *
+ * @see CASAuthValidationCoalescer
+ */
+public class CASAuthValidationCoalescerTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    static int CALLERS = 5;
+
+    /**
+     * Class under test
+     */
+    CASAuthValidationCoalescer coalescer;
+
+    /**
+     * The number of validations performed
+     */
+    AtomicInteger validations;
+
+    @Before
+    public void setUp() throws Exception {
+        coalescer = new CASAuthValidationCoalescer();
+        validations = new AtomicInteger();
+    }
+
+    /**
+     * Test that concurrent validations of the same ticket share one outcome
+     */
+    @Test
+    public void testConcurrentValidationsCoalesced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> validation = new Callable<String>() {
+            public String call() throws Exception {
+                validations.incrementAndGet();
+                release.await(5, TimeUnit.SECONDS);
+                return TEST_USERNAME;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < CALLERS; ++i) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return coalescer.validate(TEST_TICKET, SERVICE_URL, TEST_USERNAME, null, validation);
+                    }
+                }));
+            }
+
+            // Wait until every caller is either validating or waiting
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (coalescer.getCoalescedCount() < CALLERS - 1
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("Wrong principal returned", TEST_USERNAME,
+                        result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("CAS contacted more than once", 1, validations.get());
+        assertEquals("Coalesced callers not counted", CALLERS - 1,
+                coalescer.getCoalescedCount());
+        assertEquals("Validation still in flight", 0, coalescer.getInFlightCount());
+    }
+
+    /**
+     * Test that a rejection is reported and not remembered
+     */
+    @Test
+    public void testRejection() throws Exception {
+        final Callable<String> validation = new Callable<String>() {
+            public String call() throws Exception {
+                validations.incrementAndGet();
+                throw new UnauthorizedException("Failed validation");
+            }
+        };
+
+        for (int i = 0; i < 2; ++i) {
+            try {
+                coalescer.validate(TEST_TICKET, SERVICE_URL, TEST_USERNAME, null, validation);
+                fail("Rejected ticket was accepted");
+            } catch (final UnauthorizedException e) {
+                // expected
+            }
+        }
+
+        assertEquals("Sequential validations were coalesced", 2, validations.get());
+        assertEquals("Validation still in flight", 0, coalescer.getInFlightCount());
+    }
+
+    /**
+     * Test that a caller claiming the ticket for another user does not share
+     * the outcome of a validation in flight
+     */
+    @Test
+    public void testOtherUserNotCoalesced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> validation = new Callable<String>() {
+            public String call() throws Exception {
+                if (validations.incrementAndGet() > 1) {
+                    throw new UnauthorizedException("Ticket already used");
+                }
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return TEST_USERNAME;
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> owner = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return coalescer.validate(TEST_TICKET, SERVICE_URL, TEST_USERNAME, null, validation);
+                }
+            });
+            assertTrue("Validation did not start", started.await(5, TimeUnit.SECONDS));
+
+            try {
+                coalescer.validate(TEST_TICKET, SERVICE_URL, "another_user", null, validation);
+                fail("Ticket accepted for another user");
+            } catch (final UnauthorizedException e) {
+                // expected
+            }
+            release.countDown();
+            assertEquals("Wrong principal returned", TEST_USERNAME, owner.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        assertEquals("Other user shared the validation", 0, coalescer.getCoalescedCount());
+    }
+
+    /**
+     * Test that a caller waiting on a validation in flight gives up at its
+     * deadline
+     */
+    @Test
+    public void testWaiterDeadline() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> validation = new Callable<String>() {
+            public String call() throws Exception {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return TEST_USERNAME;
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return coalescer.validate(TEST_TICKET, SERVICE_URL, TEST_USERNAME, null, validation);
+                }
+            });
+            assertTrue("Validation did not start", started.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            try {
+                coalescer.validate(TEST_TICKET, SERVICE_URL, TEST_USERNAME,
+                        new CASAuthAdmissionControl.Deadline(50L), validation);
+                fail("Waiter outlived its deadline");
+            } catch (final ConnectionException e) {
+                // expected
+            }
+            assertTrue("Waiter did not give up promptly",
+                    System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
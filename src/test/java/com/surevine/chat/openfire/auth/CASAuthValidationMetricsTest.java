@@ -0,0 +1,199 @@
+/*
+ * Openfire CAS Auth Provider
+ * Copyright (C) 2010 Surevine Limited
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see {http://www.gnu.org/licenses/}.
+ */
+
+package com.surevine.chat.openfire.auth;
+
+import org.jasig.cas.client.authentication.AttributePrincipal;
+import org.jasig.cas.client.validation.Assertion;
+import org.jasig.cas.client.validation.Cas20ProxyTicketValidator;
+import org.jasig.cas.client.validation.TicketValidationException;
+import org.jivesoftware.openfire.auth.ConnectionException;
+import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test case for CASAuthValidationMetrics and the outcomes recorded by
+ * CASAuthTicketValidator
+ *
+ * @see CASAuthValidationMetrics
+ */
+public class CASAuthValidationMetricsTest {
+
+    static String SERVICE_URL = "http://test.service.url/";
+    static String TEST_USERNAME = "test_user";
+    static String TEST_TICKET = "ST-TEST-SERVICE-TICKET";
+    static String TEST_BAD_TICKET = "ST-TEST-BAD-TICKET";
+    static String TEST_NULL_TICKET = "ST-TEST-NULL-TICKET";
+    static String TEST_DOWN_TICKET = "ST-TEST-DOWN-TICKET";
+
+    /**
+     * Class under test
+     */
+    CASAuthValidationMetrics metrics;
+
+    /**
+     * The validator recording into the metrics
+     */
+    CASAuthTicketValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        Cas20ProxyTicketValidator proxyValidator = mock(Cas20ProxyTicketValidator.class);
+        Assertion assertion = mock(Assertion.class);
+        AttributePrincipal principal = mock(AttributePrincipal.class);
+
+        when(proxyValidator.validate(TEST_TICKET, SERVICE_URL)).thenReturn(assertion);
+        when(proxyValidator.validate(TEST_BAD_TICKET, SERVICE_URL))
+                .thenThrow(new TicketValidationException("Failed validation"));
+        when(proxyValidator.validate(TEST_NULL_TICKET, SERVICE_URL)).thenReturn(null);
+        when(proxyValidator.validate(TEST_DOWN_TICKET, SERVICE_URL))
+                .thenThrow(new RuntimeException("Connection refused"));
+        when(assertion.getPrincipal()).thenReturn(principal);
+        when(principal.getName()).thenReturn(TEST_USERNAME);
+
+        metrics = new CASAuthValidationMetrics();
+        validator = new CASAuthTicketValidator(proxyValidator, SERVICE_URL);
+        validator.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        metrics.unregister();
+    }
+
+    /**
+     * Test that each outcome is counted
+     */
+    @Test
+    public void testOutcomesCounted() throws Exception {
+        validator.authenticateCASTicket(TEST_USERNAME, TEST_TICKET);
+        validator.authenticateCASTicket(TEST_USERNAME, TEST_TICKET);
+        try {
+            validator.authenticateCASTicket(TEST_USERNAME, TEST_BAD_TICKET);
+            fail("Bad ticket was accepted");
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+        try {
+            validator.authenticateCASTicket(TEST_USERNAME, TEST_NULL_TICKET);
+            fail("Null assertion was accepted");
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+        try {
+            validator.authenticateCASTicket(TEST_USERNAME, TEST_DOWN_TICKET);
+            fail("Connection failure was not reported");
+        } catch (ConnectionException e) {
+            // expected
+        }
+
+        assertEquals("Wrong success count", 2, metrics.getSuccessCount());
+        assertEquals("Wrong rejection count", 1, metrics.getTicketValidationExceptionCount());
+        assertEquals("Wrong null assertion count", 1, metrics.getNullAssertionCount());
+        assertEquals("Wrong connection failure count", 1, metrics.getConnectionFailureCount());
+        assertEquals("Wrong validation count", 5, metrics.getValidationCount());
+        assertEquals("Latencies not recorded", 5, metrics.getLatencies().getTotalCount());
+    }
+
+    /**
+     * Test that percentiles are reported in milliseconds
+     */
+    @Test
+    public void testLatencyPercentiles() {
+        for (int i = 1; i <= 100; ++i) {
+            metrics.record(CASAuthValidationMetrics.Outcome.SUCCESS, i * 1000000L);
+        }
+
+        assertEquals("Wrong median", 50.0, metrics.getLatency50thPercentile(), 1.0);
+        assertEquals("Wrong 99th percentile", 99.0, metrics.getLatency99thPercentile(), 1.5);
+
+        metrics.reset();
+
+        assertEquals("Counts not reset", 0, metrics.getValidationCount());
+        assertEquals("Latencies not reset", 0.0, metrics.getLatency99thPercentile(), 0.0);
+    }
+
+    /**
+     * Test that the MBean and statistics are published and withdrawn
+     */
+    @Test
+    public void testRegistration() throws Exception {
+        ObjectName name = new ObjectName(CASAuthValidationMetrics.OBJECT_NAME);
+
+        metrics.register();
+        metrics.register();
+
+        assertTrue("MBean not registered",
+                ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertEquals("MBean attribute not readable", 0L,
+                ManagementFactory.getPlatformMBeanServer().getAttribute(name, "SuccessCount"));
+
+        Statistic success = StatisticsManager.getInstance().getStatistic("casauth_success");
+        assertNotNull("Statistic not registered", success);
+        metrics.record(CASAuthValidationMetrics.Outcome.SUCCESS, 1000000L);
+        assertEquals("Wrong sample", 1.0, success.sample(), 0.0);
+        assertEquals("Sample not reset", 0.0, success.sample(), 0.0);
+
+        Statistic p99 = StatisticsManager.getInstance().getStatistic("casauth_latency_p99");
+        metrics.record(CASAuthValidationMetrics.Outcome.SUCCESS, 5000000L);
+        assertEquals("Wrong latency sample", 5.0, p99.sample(), 0.1);
+
+        metrics.unregister();
+
+        assertFalse("MBean not unregistered",
+                ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertNull("Statistic not unregistered",
+                StatisticsManager.getInstance().getStatistic("casauth_success"));
+    }
+
+    /**
+     * Test that the metrics follow the state of a circuit breaker
+     */
+    @Test
+    public void testCircuitBreakerState() {
+        CASAuthCircuitBreaker breaker = new CASAuthCircuitBreaker(2, 2, 50, 1000L, 100, 60000L, 1);
+        assertNull("State without a breaker", metrics.getCircuitBreakerState());
+
+        metrics.watch(breaker);
+        metrics.watch(breaker);
+        assertEquals("Wrong state", "CLOSED", metrics.getCircuitBreakerState());
+
+        for (int i = 0; i < 2; ++i) {
+            breaker.onCallComplete(breaker.tryAcquire(), false, 10L);
+        }
+
+        assertEquals("Wrong state", "OPEN", metrics.getCircuitBreakerState());
+        assertEquals("Opening not counted once", 1L, metrics.getCircuitBreakerOpenCount());
+    }
+}